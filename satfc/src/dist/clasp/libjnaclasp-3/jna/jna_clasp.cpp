@@ -134,6 +134,29 @@ void initProblem(void* jnaProblemPointer, const char* problem) {
 	jnaProblem->setAsyncResult(asyncResult);
 }
 
+void initProblemFromClauses(void* jnaProblemPointer, int numVariables, int numClauses, const int* literals, const int* clauseStarts) {
+	JNAProblem* jnaProblem = reinterpret_cast<JNA::JNAProblem*>(jnaProblemPointer);
+	// Init the facade
+	Clasp::ClaspFacade* facade = new Clasp::ClaspFacade();
+	jnaProblem->setFacade(facade);
+	// Add the clauses directly, as the DIMACS parser would
+	Clasp::SatBuilder& builder = facade->startSat(*jnaProblem->getConfig());
+	builder.prepareProblem(numVariables, 0, numClauses);
+	Clasp::LitVec clause;
+	for (int i = 0; i < numClauses; ++i) {
+		clause.clear();
+		for (int j = clauseStarts[i]; j < clauseStarts[i + 1]; ++j) {
+			const int lit = literals[j];
+			clause.push_back(Clasp::Literal(static_cast<uint32>(lit > 0 ? lit : -lit), lit < 0));
+		}
+		builder.addClause(clause);
+	}
+	facade->prepare();
+	// Start the solve, passing in the event handler (which JNAProblem implements)
+	Clasp::ClaspFacade::AsyncResult* asyncResult = new Clasp::ClaspFacade::AsyncResult(facade->solveAsync(jnaProblem));
+	jnaProblem->setAsyncResult(asyncResult);
+}
+
 void solveProblem(void* jnaProblemPointer, double timeoutTime) {
 	JNAProblem* jnaProblem = reinterpret_cast<JNA::JNAProblem*>(jnaProblemPointer);
 	Clasp::ClaspFacade::AsyncResult* asyncResult = jnaProblem->getAsyncResult();
@@ -64,6 +64,9 @@ extern "C" {
 	void* initConfig(const char* params);
 
 	void initProblem(void* jnaProblemPointer, const char* problem);
+
+	// Same as initProblem, but the clauses are given as DIMACS literals, clause i being literals[clauseStarts[i]..clauseStarts[i+1])
+	void initProblemFromClauses(void* jnaProblemPointer, int numVariables, int numClauses, const int* literals, const int* clauseStarts);
 	
 	void solveProblem(void* jnaProblemPointer, double timeoutTime);
 	
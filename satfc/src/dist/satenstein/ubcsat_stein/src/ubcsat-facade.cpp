@@ -32,6 +32,8 @@
  */
 void resetAllStaticallyAllocatedGlobalVars();
 
+int finishInitProblem();
+
 ubcsat_state::ubcsat_state() {
   resultState = 0;
   assignment = nullptr; // the first entry in this array contains its length
@@ -295,6 +297,76 @@ int initProblem(void* ubcsatState, const char* problem) {
 
   CloseSingleFile(filInput);
 
+  return finishInitProblem();
+
+}
+
+/**
+ * Same as initProblem, but the clauses are given as DIMACS literals, clause i being
+ *  literals[clauseStarts[i]..clauseStarts[i+1]), instead of a DIMACS string to parse.
+ */
+int initProblemFromClauses(void* ubcsatState, int numVariables, int numClauses, const int* literals, const int* clauseStarts) {
+  UBCSATState* state = (UBCSATState *) ubcsatState;
+
+  UINT32 j;
+  UINT32 k;
+  LITTYPE *pData;
+
+  if ((numVariables == 0) || (numClauses == 0)) {
+    state->errorMessage = "Error: invalid instance, no variables or no clauses";
+    return FALSE;
+  }
+
+  iNumVars = numVariables;
+  iNumClauses = numClauses;
+
+  iVARSTATELen = (iNumVars >> 3) + 1;
+  if ((iNumVars & 0x07)==0) {
+    iVARSTATELen--;
+  }
+
+  aClauseLen = (UINT32 *) AllocateRAM(iNumClauses * sizeof(UINT32));
+  pClauseLits = (LITTYPE **) AllocateRAM(iNumClauses * sizeof(LITTYPE *));
+  if (bWeighted) {
+    aClauseWeight = (FLOAT *) AllocateRAM(iNumClauses * sizeof(FLOAT));
+  }
+
+  // All the literals are known up front, so they go in a single block rather than in chunks
+  iNumLits = clauseStarts[iNumClauses];
+  iMaxClauseLen = 0;
+  pData = (LITTYPE *) AllocateRAM(iNumLits * sizeof(LITTYPE));
+
+  for (j=0;j<iNumClauses;j++) {
+    if (bWeighted) {
+      aClauseWeight[j] = 1;
+      fTotalWeight += aClauseWeight[j];
+    }
+
+    pClauseLits[j] = pData + clauseStarts[j];
+    aClauseLen[j] = clauseStarts[j+1] - clauseStarts[j];
+
+    if (aClauseLen[j] == 0) {
+      state->errorMessage = "Error: invalid instance, empty clause";
+      return FALSE;
+    }
+
+    for (k=0;k<aClauseLen[j];k++) {
+      pClauseLits[j][k] = SetLitFromFile(literals[clauseStarts[j] + k]);
+    }
+
+    if (aClauseLen[j] > iMaxClauseLen) {
+      iMaxClauseLen = aClauseLen[j];
+    }
+  }
+
+  return finishInitProblem();
+}
+
+/**
+ * Common end of initProblem and initProblemFromClauses, once the clauses are read.
+ */
+int finishInitProblem() {
+
   RunProcedures(PostRead);
 
   RunProcedures(CreateData);
@@ -38,6 +38,8 @@ extern "C" {
 
   int initProblem(void* jnaProblemPointer, const char* problem);
 
+  int initProblemFromClauses(void* jnaProblemPointer, int numVariables, int numClauses, const int* literals, const int* clauseStarts);
+
   int initAssignment(void* jnaProblemPointer, const long* assignment, int sizeOfAssignment);
 
   int solveProblem(void* jnaProblemPointer, double timeoutTime);
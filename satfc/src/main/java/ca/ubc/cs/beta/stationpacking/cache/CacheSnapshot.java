@@ -0,0 +1,413 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableBiMap;
+
+import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheSATEntry;
+import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheUNSATEntry;
+import ca.ubc.cs.beta.stationpacking.utils.CacheUtils;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Binary snapshot of the cache entries of every coordinate, with an append-only log of the changes made since, so that
+ * a server can restart without reading every entry back from redis.
+ *
+ * Both files are sequences of records framed by their length and CRC32, so that a record torn by a crash (at the end of
+ * the log) is detected and ignored. A record is a type byte followed by the entry's key and, for SAT and UNSAT entries,
+ * its auction, station bitset and channel bytes or domains bitset. Entries evicted from memory are only recorded by key.
+ * The snapshot is written to a temporary file and moved in place. The log is set aside when the entries are collected,
+ * so that changes keep being logged while the snapshot is written, and deleted once the snapshot is in place. A server
+ * that crashed in between replays the set aside log before the current one.
+ * The snapshot is memory mapped in chunks of at most 2GB when read.
+ *
+ * Log records are flushed to the operating system as they are appended, and only survive a power loss once
+ * {@link #syncLog()} has been called. Evictions from memory are not logged: every evicted key, and every entry of the
+ * log, is loaded again on restart, and the memory budget then evicts whatever does not fit.
+ */
+@Slf4j
+public class CacheSnapshot {
+
+    public static final String SNAPSHOT_FILE_NAME = "cache.snapshot";
+    public static final String LOG_FILE_NAME = "cache.log";
+    // Log of the changes made before the snapshot being written
+    public static final String PREVIOUS_LOG_FILE_NAME = "cache.log.previous";
+
+    private static final int MAGIC = 0x53415446;
+    private static final int VERSION = 1;
+
+    private static final byte SAT_RECORD = 0;
+    private static final byte UNSAT_RECORD = 1;
+    // Entry still in redis but not in memory
+    private static final byte EVICTED_RECORD = 2;
+    private static final byte DELETED_RECORD = 3;
+
+    private final File snapshotFile;
+    private final File logFile;
+    private final File previousLogFile;
+    // Largest part of the snapshot mapped at once
+    private final int maxMappedBytes;
+    // Only one snapshot is written at a time. The monitor of this object only guards the log.
+    private final Object snapshotLock = new Object();
+    private DataOutputStream logStream;
+    // Underlying file of logStream, to sync it
+    private FileOutputStream logFileStream;
+
+    public CacheSnapshot(File directory) {
+        this(directory, Integer.MAX_VALUE);
+    }
+
+    CacheSnapshot(File directory, int maxMappedBytes) {
+        Preconditions.checkArgument(directory.isDirectory() || directory.mkdirs(), "Could not create snapshot directory %s", directory);
+        snapshotFile = new File(directory, SNAPSHOT_FILE_NAME);
+        logFile = new File(directory, LOG_FILE_NAME);
+        previousLogFile = new File(directory, PREVIOUS_LOG_FILE_NAME);
+        this.maxMappedBytes = maxMappedBytes;
+    }
+
+    /**
+     * Replace the snapshot with the given entries and empty the log. The entries are collected and the log set aside
+     * while the log is locked, so that every change is either in the new snapshot or logged after it. The snapshot is
+     * then written without holding the lock, so that changes can still be logged in the meantime.
+     * @param entries every entry in memory
+     * @param evictedKeys keys of the entries in redis that are not in memory
+     */
+    public void writeSnapshot(Supplier<Collection<ISATFCCacheEntry>> entries, Supplier<Collection<String>> evictedKeys) throws IOException {
+        synchronized (snapshotLock) {
+            final Collection<ISATFCCacheEntry> snapshotEntries;
+            final Collection<String> snapshotEvictedKeys;
+            synchronized (this) {
+                snapshotEntries = entries.get();
+                snapshotEvictedKeys = evictedKeys.get();
+                setLogAside();
+            }
+            final File tempFile = new File(snapshotFile.getPath() + ".tmp");
+            int numRecords = 0;
+            try (FileOutputStream file = new FileOutputStream(tempFile);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for (ISATFCCacheEntry entry : snapshotEntries) {
+                    writeRecord(out, encodeEntry(entry));
+                    numRecords++;
+                }
+                for (String key : snapshotEvictedKeys) {
+                    writeRecord(out, encodeKey(EVICTED_RECORD, key));
+                    numRecords++;
+                }
+                // The set aside log is deleted next, the snapshot must be on disk by then
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(previousLogFile.toPath());
+            log.info("Wrote a cache snapshot of {} records to {}", numRecords, snapshotFile);
+        }
+    }
+
+    // Changes logged from now on go to a new log
+    private void setLogAside() throws IOException {
+        closeLog();
+        if (!logFile.exists()) {
+            return;
+        }
+        if (previousLogFile.exists()) {
+            // An earlier snapshot failed, its changes are not in any snapshot yet either
+            try (FileOutputStream out = new FileOutputStream(previousLogFile, true)) {
+                Files.copy(logFile.toPath(), out);
+            }
+            Files.delete(logFile.toPath());
+        } else {
+            Files.move(logFile.toPath(), previousLogFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    public synchronized void logAddition(ISATFCCacheEntry entry) throws IOException {
+        appendToLog(encodeEntry(entry));
+    }
+
+    public synchronized void logDeletions(Collection<? extends ISATFCCacheEntry> entries) throws IOException {
+        for (ISATFCCacheEntry entry : entries) {
+            if (entry.getKey() != null) {
+                appendToLog(encodeKey(DELETED_RECORD, entry.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Make the records logged so far survive a power loss
+     */
+    public synchronized void syncLog() throws IOException {
+        if (logStream != null) {
+            logStream.flush();
+            logFileStream.getFD().sync();
+        }
+    }
+
+    /**
+     * Sync and close the log. Logging changes afterwards opens it again.
+     */
+    public synchronized void close() throws IOException {
+        closeLog();
+    }
+
+    private void closeLog() throws IOException {
+        if (logStream != null) {
+            try {
+                syncLog();
+            } finally {
+                logStream.close();
+                logStream = null;
+                logFileStream = null;
+            }
+        }
+    }
+
+    private void appendToLog(byte[] record) throws IOException {
+        if (logStream == null) {
+            logFileStream = new FileOutputStream(logFile, true);
+            logStream = new DataOutputStream(new BufferedOutputStream(logFileStream));
+        }
+        writeRecord(logStream, record);
+        logStream.flush();
+    }
+
+    /**
+     * Read the snapshot by memory mapping it, and replay the logs on top of it.
+     * @param permutations gives the permutation of a coordinate, or null to skip the coordinate's entries
+     * @return null if there is no readable snapshot
+     */
+    public synchronized Contents read(Function<CacheCoordinate, ImmutableBiMap<Station, Integer>> permutations) throws IOException {
+        if (!snapshotFile.exists()) {
+            log.info("No cache snapshot at {}", snapshotFile);
+            return null;
+        }
+        final Contents contents = new Contents();
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until the header is complete or the file ends
+            }
+            header.flip();
+            if (header.remaining() < 2 * Integer.BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                log.warn("Cache snapshot {} is not a snapshot of this version", snapshotFile);
+                return null;
+            }
+            // A mapping is at most 2GB, so map the records a chunk at a time
+            long position = header.limit();
+            while (position < channel.size()) {
+                final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(maxMappedBytes, channel.size() - position));
+                final int end = readRecords(buffer, contents, permutations);
+                position += end;
+                // A record cut by the end of the chunk is read from the next chunk, unless it does not fit in a chunk either
+                if (end < buffer.limit() && (end == 0 || position + buffer.limit() - end >= channel.size())) {
+                    log.warn("Cache snapshot {} is corrupted", snapshotFile);
+                    return null;
+                }
+            }
+        }
+        if (previousLogFile.exists()) {
+            // A snapshot was interrupted, the changes it would have included are only in this log
+            final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(previousLogFile.toPath()));
+            if (readRecords(buffer, contents, permutations) < buffer.limit()) {
+                log.warn("Ignoring the end of the cache log {}, which was not entirely written", previousLogFile);
+            }
+        }
+        if (logFile.exists()) {
+            final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(logFile.toPath()));
+            final int end = readRecords(buffer, contents, permutations);
+            if (end < buffer.limit()) {
+                // Cut the torn record off, otherwise the records appended after it could not be read back
+                log.warn("Truncating the cache log {} to its {} bytes that were entirely written", logFile, end);
+                try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE)) {
+                    channel.truncate(end);
+                }
+            }
+        }
+        log.info("Read {} entries and {} evicted keys from the cache snapshot and log", contents.getEntries().size(), contents.getEvictedKeys().size());
+        return contents;
+    }
+
+    // Returns the position after the last intact record. A corrupted record and what follows it are ignored.
+    private static int readRecords(ByteBuffer buffer, Contents contents, Function<CacheCoordinate, ImmutableBiMap<Station, Integer>> permutations) {
+        final CRC32 crc = new CRC32();
+        while (buffer.hasRemaining()) {
+            final int start = buffer.position();
+            final byte[] record;
+            try {
+                final int length = buffer.getInt();
+                final long checksum = buffer.getInt() & 0xFFFFFFFFL;
+                if (length < 0 || length > buffer.remaining()) {
+                    return start;
+                }
+                record = new byte[length];
+                buffer.get(record);
+                crc.reset();
+                crc.update(record);
+                if (crc.getValue() != checksum) {
+                    return start;
+                }
+            } catch (BufferUnderflowException e) {
+                return start;
+            }
+            contents.apply(ByteBuffer.wrap(record), permutations);
+        }
+        return buffer.position();
+    }
+
+    private static void writeRecord(DataOutputStream out, byte[] record) throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(record);
+        out.writeInt(record.length);
+        out.writeInt((int) crc.getValue());
+        out.write(record);
+    }
+
+    private static byte[] encodeEntry(ISATFCCacheEntry entry) throws IOException {
+        Preconditions.checkArgument(entry.getKey() != null, "Cannot snapshot an entry without a key");
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        if (entry instanceof ContainmentCacheSATEntry) {
+            final ContainmentCacheSATEntry SATEntry = (ContainmentCacheSATEntry) entry;
+            out.writeByte(SAT_RECORD);
+            writeString(out, entry.getKey());
+            writeString(out, SATEntry.getAuction());
+            writeBytes(out, SATEntry.getBitSet().toByteArray());
+            writeBytes(out, SATEntry.getChannels());
+        } else {
+            final ContainmentCacheUNSATEntry UNSATEntry = (ContainmentCacheUNSATEntry) entry;
+            out.writeByte(UNSAT_RECORD);
+            writeString(out, entry.getKey());
+            writeString(out, UNSATEntry.getAuction());
+            writeBytes(out, UNSATEntry.getBitSet().toByteArray());
+            writeBytes(out, UNSATEntry.getDomainsBitSet().toByteArray());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeKey(byte type, String key) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        writeString(out, key);
+        return bytes.toByteArray();
+    }
+
+    // null is written as length -1
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        writeBytes(out, string == null ? null : string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final byte[] bytes = readBytes(buffer);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Entries of the snapshot with the log replayed on top, by key
+     */
+    @Getter
+    public static class Contents {
+
+        private final Map<String, ISATFCCacheEntry> entries = new LinkedHashMap<>();
+        private final Set<String> evictedKeys = new LinkedHashSet<>();
+        // Largest key number seen, added or deleted. Redis having handed out larger numbers means entries are missing.
+        private long maxKeyNum = 0;
+
+        private void apply(ByteBuffer record, Function<CacheCoordinate, ImmutableBiMap<Station, Integer>> permutations) {
+            final byte type = record.get();
+            final String key = readString(record);
+            maxKeyNum = Math.max(maxKeyNum, CacheUtils.parseKey(key).getNum());
+            switch (type) {
+                case SAT_RECORD:
+                case UNSAT_RECORD:
+                    final String auction = readString(record);
+                    final BitSet bitSet = BitSet.valueOf(readBytes(record));
+                    final byte[] data = readBytes(record);
+                    final ImmutableBiMap<Station, Integer> permutation = permutations.apply(CacheCoordinate.fromKey(key));
+                    if (permutation != null) {
+                        entries.put(key, type == SAT_RECORD ?
+                                new ContainmentCacheSATEntry(bitSet, data, key, permutation, auction) :
+                                new ContainmentCacheUNSATEntry(bitSet, BitSet.valueOf(data), key, permutation, auction));
+                    }
+                    evictedKeys.remove(key);
+                    break;
+                case EVICTED_RECORD:
+                    entries.remove(key);
+                    evictedKeys.add(key);
+                    break;
+                case DELETED_RECORD:
+                    entries.remove(key);
+                    evictedKeys.remove(key);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown cache snapshot record type " + type);
+            }
+        }
+    }
+
+}
@@ -34,4 +34,9 @@ public interface ISATFCCacheEntry {
 
     SATResult getResult();
 
+    /**
+     * @return the redis key of the entry, or null if it was not stored
+     */
+    String getKey();
+
 }
@@ -0,0 +1,152 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import com.codahale.metrics.Meter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import ca.ubc.cs.beta.stationpacking.cache.containment.SearchDeadline;
+
+/**
+ * Lets concurrent identical queries share a single search, and answers exact repeats of recent queries from a short-lived memo.
+ * Only conclusive results are shared: a follower whose leader gave up (e.g. because the leader's client stopped waiting) searches on its own.
+ * A follower stops waiting once its own deadline passes, and then searches on its own, which gives up straight away.
+ * @param <K> identifies identical queries
+ * @param <R> result of a query
+ */
+public class QueryCoalescer<K, R> {
+
+    // How often followers check their deadline while waiting, as abandoning a deadline does not wake them
+    private static final long POLL_INTERVAL_MS = 10;
+
+    private final ConcurrentMap<K, InFlightQuery<R>> inFlight = new ConcurrentHashMap<>();
+    // Null when disabled
+    private final Cache<K, R> memo;
+    private final Meter coalesced;
+    private final Meter memoHits;
+
+    private static class InFlightQuery<R> {
+        // Completed with the leader's result, or with null if the leader's result cannot be shared
+        private final CompletableFuture<R> result = new CompletableFuture<>();
+        private final AtomicInteger numFollowers = new AtomicInteger();
+    }
+
+    /**
+     * @param memoTTL how long results are memoized, 0 to disable the memo
+     * @param memoSize maximum number of memoized results
+     * @param coalesced marked for each query answered by another query's search
+     * @param memoHits marked for each query answered from the memo
+     */
+    public QueryCoalescer(long memoTTL, TimeUnit unit, long memoSize, Meter coalesced, Meter memoHits) {
+        this.memo = memoTTL > 0 ? CacheBuilder.newBuilder().expireAfterWrite(memoTTL, unit).maximumSize(memoSize).<K, R>build() : null;
+        this.coalesced = coalesced;
+        this.memoHits = memoHits;
+    }
+
+    /**
+     * @param key identifies the query
+     * @param deadline deadline of the query, which the search is expected to honour too
+     * @param search runs the query
+     * @param isConclusive whether a result of the search can be given to the identical queries waiting for it
+     * @param isMemoizable whether a conclusive result of the search can be given to identical queries that come later
+     * @return the result of the query
+     */
+    public R query(K key, SearchDeadline deadline, Supplier<R> search, Predicate<R> isConclusive, Predicate<R> isMemoizable) {
+        if (memo != null) {
+            final R memoized = memo.getIfPresent(key);
+            if (memoized != null) {
+                memoHits.mark();
+                return memoized;
+            }
+        }
+        final InFlightQuery<R> own = new InFlightQuery<>();
+        final InFlightQuery<R> leader = inFlight.putIfAbsent(key, own);
+        if (leader != null) {
+            final R shared = await(leader, deadline);
+            if (shared != null) {
+                coalesced.mark();
+                return shared;
+            }
+            return search.get();
+        }
+        R shared = null;
+        try {
+            final R result = search.get();
+            if (isConclusive.test(result)) {
+                shared = result;
+                if (memo != null && isMemoizable.test(result)) {
+                    memo.put(key, result);
+                }
+            }
+            return result;
+        } finally {
+            // Only leave once memoized, so that no identical query slips in between and searches again
+            inFlight.remove(key, own);
+            own.result.complete(shared);
+        }
+    }
+
+    /**
+     * @return the leader's result, or null if it cannot be shared or if the deadline passed first
+     */
+    private R await(InFlightQuery<R> leader, SearchDeadline deadline) {
+        leader.numFollowers.incrementAndGet();
+        try {
+            while (!deadline.shouldStop()) {
+                try {
+                    return leader.result.get(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // Check the deadline again
+                }
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an identical query", e);
+        } catch (ExecutionException e) {
+            // Never completed exceptionally
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            leader.numFollowers.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of queries waiting for the search of an identical query in flight
+     */
+    int getNumFollowers(K key) {
+        final InFlightQuery<R> query = inFlight.get(key);
+        return query == null ? 0 : query.numFollowers.get();
+    }
+
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import com.google.common.collect.Lists;
+
+import ca.ubc.cs.beta.aeatk.concurrent.threadfactory.SequentiallyNamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.BinaryJedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * Loads cache entries from redis. Chunks of keys are fetched with pipelines over several connections at once, while a
+ * pool of workers decodes (and validates) the chunks already fetched and hands them over as soon as they are ready.
+ */
+@Slf4j
+public class RedisCacheLoader {
+
+    // Chunks fetched but not yet decoded, per worker, so that fetching cannot run away from decoding
+    private static final int PENDING_CHUNKS_PER_THREAD = 2;
+
+    private final Supplier<BinaryJedis> connectionFactory;
+    private final boolean ownsConnections;
+    private final int numConnections;
+    private final int numThreads;
+    private final StringRedisSerializer stringRedisSerializer = new StringRedisSerializer();
+
+    /**
+     * Load over a single, shared connection, which is left open. Each chunk is fetched while holding the connection's
+     * monitor, so whoever else uses the connection must synchronize on it too.
+     */
+    public RedisCacheLoader(BinaryJedis connection, int numThreads) {
+        this(() -> connection, false, 1, numThreads);
+    }
+
+    /**
+     * @param connectionFactory opens a new connection to redis, which is closed once a load is done
+     * @param numConnections number of connections fetching at the same time
+     * @param numThreads number of threads decoding entries
+     */
+    public RedisCacheLoader(Supplier<BinaryJedis> connectionFactory, int numConnections, int numThreads) {
+        this(connectionFactory, true, numConnections, numThreads);
+    }
+
+    private RedisCacheLoader(Supplier<BinaryJedis> connectionFactory, boolean ownsConnections, int numConnections, int numThreads) {
+        if (numConnections <= 0 || numThreads <= 0) {
+            throw new IllegalArgumentException("Need at least one connection and one thread to load the cache");
+        }
+        this.connectionFactory = connectionFactory;
+        this.ownsConnections = ownsConnections;
+        this.numConnections = numConnections;
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Fetch the hashes of the given keys, decode them and hand the entries of each chunk to the sink, by coordinate.
+     * @param decoder makes an entry from a key and its hash, throwing if the entry is not valid
+     * @param sink receives the entries, possibly from several threads at once
+     * @return the number of entries loaded
+     */
+    public <E extends ISATFCCacheEntry> int load(Collection<String> keys, int chunkSize, BiFunction<String, Map<byte[], byte[]>, E> decoder, BiConsumer<CacheCoordinate, List<E>> sink) {
+        final List<List<String>> chunks = Lists.partition(new ArrayList<>(keys), chunkSize);
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final AtomicInteger numDecoded = new AtomicInteger();
+        final AtomicInteger numLoaded = new AtomicInteger();
+        final Semaphore pendingChunks = new Semaphore(PENDING_CHUNKS_PER_THREAD * numThreads);
+        final Queue<Future<?>> decodings = new ConcurrentLinkedQueue<>();
+        final int numFetchers = Math.min(numConnections, Math.max(chunks.size(), 1));
+        final ExecutorService fetchers = Executors.newFixedThreadPool(numFetchers, new SequentiallyNamedThreadFactory("SATFC Redis Cache Fetcher"));
+        final ExecutorService workers = Executors.newFixedThreadPool(numThreads, new SequentiallyNamedThreadFactory("SATFC Redis Cache Loader"));
+        try {
+            final List<Future<?>> fetches = new ArrayList<>();
+            for (int i = 0; i < numFetchers; i++) {
+                fetches.add(fetchers.submit(() -> {
+                    final BinaryJedis connection = connectionFactory.get();
+                    try {
+                        int chunkIndex;
+                        while ((chunkIndex = nextChunk.getAndIncrement()) < chunks.size()) {
+                            final List<String> chunk = chunks.get(chunkIndex);
+                            final List<Response<Map<byte[], byte[]>>> responses = new ArrayList<>(chunk.size());
+                            // A shared connection is also used by others, e.g. RedisCacher, which lock it the same way
+                            synchronized (connection) {
+                                final Pipeline pipeline = connection.pipelined();
+                                for (String key : chunk) {
+                                    responses.add(pipeline.hgetAll(stringRedisSerializer.serialize(key)));
+                                }
+                                pipeline.sync();
+                            }
+                            pendingChunks.acquireUninterruptibly();
+                            decodings.add(workers.submit(() -> {
+                                try {
+                                    numLoaded.addAndGet(decode(chunk, responses, decoder, sink));
+                                    log.info("Processed {} keys out of {}", numDecoded.addAndGet(chunk.size()), keys.size());
+                                } finally {
+                                    pendingChunks.release();
+                                }
+                            }));
+                        }
+                    } finally {
+                        if (ownsConnections) {
+                            connection.close();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> fetch : fetches) {
+                fetch.get();
+            }
+            for (Future<?> decoding : decodings) {
+                decoding.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading the cache", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not load the cache from redis", e.getCause());
+        } finally {
+            fetchers.shutdownNow();
+            workers.shutdownNow();
+        }
+        return numLoaded.get();
+    }
+
+    private <E extends ISATFCCacheEntry> int decode(List<String> chunk, List<Response<Map<byte[], byte[]>>> responses, BiFunction<String, Map<byte[], byte[]>, E> decoder, BiConsumer<CacheCoordinate, List<E>> sink) {
+        final Map<CacheCoordinate, List<E>> entries = new LinkedHashMap<>();
+        int numDecoded = 0;
+        for (int i = 0; i < chunk.size(); i++) {
+            final String key = chunk.get(i);
+            try {
+                final E entry = decoder.apply(key, responses.get(i).get());
+                entries.computeIfAbsent(CacheCoordinate.fromKey(key), coordinate -> new ArrayList<>()).add(entry);
+                numDecoded++;
+            } catch (Exception e) {
+                log.error("Error making cache entry for key {}", key, e);
+            }
+        }
+        entries.forEach(sink);
+        return numDecoded;
+    }
+
+}
@@ -21,13 +21,16 @@
  */
 package ca.ubc.cs.beta.stationpacking.cache;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 import containmentcache.ICacheEntry;
@@ -41,7 +44,7 @@ import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ListMultimap;
-import com.google.common.collect.Lists;
+import com.google.common.collect.Multimaps;
 import com.google.common.collect.Sets;
 
 import ca.ubc.cs.beta.stationpacking.base.Station;
@@ -57,8 +60,6 @@ import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import redis.clients.jedis.BinaryJedis;
 import redis.clients.jedis.Pipeline;
-import redis.clients.jedis.Response;
-import redis.clients.jedis.Transaction;
 
 /**
  * Created by newmanne on 02/12/14.
@@ -75,15 +76,28 @@ public class RedisCacher {
     private final StringRedisTemplate redisTemplate;
     private final BinaryJedis binaryJedis;
     private final StringRedisSerializer stringRedisSerializer = new StringRedisSerializer();
+    private final RedisCacheLoader loader;
 
     public RedisCacher(DataManager dataManager, StringRedisTemplate redisTemplate, BinaryJedis binaryJedis) {
+        this(dataManager, redisTemplate, binaryJedis, new RedisCacheLoader(binaryJedis, 1));
+    }
+
+    /**
+     * @param loader loads entries from redis when the caches are initialized
+     */
+    public RedisCacher(DataManager dataManager, StringRedisTemplate redisTemplate, BinaryJedis binaryJedis, RedisCacheLoader loader) {
         this.dataManager = dataManager;
         this.redisTemplate = redisTemplate;
         this.binaryJedis = binaryJedis;
+        this.loader = loader;
     }
 
     public ISATFCCacheEntry cacheEntryFromKey(String key) {
-        return cacheEntryFromKeyAndAnswer(key, binaryJedis.hgetAll(stringRedisSerializer.serialize(key)));
+        final Map<byte[], byte[]> answer;
+        synchronized (binaryJedis) {
+            answer = binaryJedis.hgetAll(stringRedisSerializer.serialize(key));
+        }
+        return cacheEntryFromKeyAndAnswer(key, answer);
     }
 
     public ISATFCCacheEntry cacheEntryFromKeyAndAnswer(String key, final Map<byte[], byte[]> answer) {
@@ -128,77 +142,120 @@ public class RedisCacher {
     }
 
     public <T extends ISATFCCacheEntry> String cacheResult(CacheCoordinate coordinate, T entry, String name) {
-        final long newID = redisTemplate.boundValueOps(HASH_NUM).increment(1);
-        final String key = coordinate.toKey(entry.getResult(), newID);
-        final byte[] keyBytes = stringRedisSerializer.serialize(key);
-        final Transaction multi = binaryJedis.multi();
-            multi.hset(keyBytes, stringRedisSerializer.serialize(BITSET_KEY), entry.getBitSet().toByteArray());
-            if (entry instanceof ContainmentCacheSATEntry) {
-                multi.hset(keyBytes, stringRedisSerializer.serialize(ASSIGNMENT_KEY), ((ContainmentCacheSATEntry) entry).getChannels());
-            } else if (entry instanceof ContainmentCacheUNSATEntry) {
-                multi.hset(keyBytes, stringRedisSerializer.serialize(DOMAINS_KEY), ((ContainmentCacheUNSATEntry) entry).getDomainsBitSet().toByteArray());
+        return cacheResults(Collections.singletonList(coordinate), Collections.singletonList(entry), Collections.singletonList(name)).get(0);
+    }
+
+    /**
+     * Store a batch of entries in a single round trip: their keys are numbered with one increment of the key counter,
+     * and their hashes are written by a single pipelined transaction
+     * @param names names of the entries, null when they have none
+     * @return the keys of the entries, in order
+     */
+    public List<String> cacheResults(List<CacheCoordinate> coordinates, List<? extends ISATFCCacheEntry> entries, List<String> names) {
+        Preconditions.checkArgument(coordinates.size() == entries.size() && names.size() == entries.size(), "Need a coordinate and a name for every entry");
+        if (entries.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final long lastID = redisTemplate.boundValueOps(HASH_NUM).increment(entries.size());
+        final List<String> keys = new ArrayList<>(entries.size());
+        synchronized (binaryJedis) {
+            final Pipeline pipeline = binaryJedis.pipelined();
+            pipeline.multi();
+            for (int i = 0; i < entries.size(); i++) {
+                final ISATFCCacheEntry entry = entries.get(i);
+                final String key = coordinates.get(i).toKey(entry.getResult(), lastID - entries.size() + 1 + i);
+                keys.add(key);
+                final Map<byte[], byte[]> hash = new HashMap<>();
+                hash.put(stringRedisSerializer.serialize(BITSET_KEY), entry.getBitSet().toByteArray());
+                if (entry instanceof ContainmentCacheSATEntry) {
+                    hash.put(stringRedisSerializer.serialize(ASSIGNMENT_KEY), ((ContainmentCacheSATEntry) entry).getChannels());
+                } else if (entry instanceof ContainmentCacheUNSATEntry) {
+                    hash.put(stringRedisSerializer.serialize(DOMAINS_KEY), ((ContainmentCacheUNSATEntry) entry).getDomainsBitSet().toByteArray());
+                }
+                if (names.get(i) != null) {
+                    hash.put(stringRedisSerializer.serialize(NAME_KEY), stringRedisSerializer.serialize(names.get(i)));
+                }
+                pipeline.hmset(stringRedisSerializer.serialize(key), hash);
             }
-            if (name != null) {
-                multi.hset(keyBytes, stringRedisSerializer.serialize(NAME_KEY), stringRedisSerializer.serialize(name));
+            pipeline.exec();
+            pipeline.sync();
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            if (names.get(i) != null) {
+                log.info("Adding result for {} to cache with key {}", names.get(i), keys.get(i));
             }
-        multi.exec();
-        if (name != null) {
-            log.info("Adding result for {} to cache with key {}", name, key);
         }
-        return key;
+        return keys;
     }
 
     public <CONTAINMENT_CACHE_ENTRY extends ISATFCCacheEntry> ListMultimap<CacheCoordinate, CONTAINMENT_CACHE_ENTRY> processResults(Set<String> keys, SATResult entryTypeName, int partitionSize, boolean validateSAT) {
-        final ListMultimap<CacheCoordinate, CONTAINMENT_CACHE_ENTRY> results = ArrayListMultimap.create();
-        final AtomicInteger numProcessed = new AtomicInteger();
-        Lists.partition(new ArrayList<>(keys), partitionSize).stream().forEach(keyChunk -> {
-            log.info("Processed {} {} keys out of {}", numProcessed, entryTypeName, keys.size());
-            final List<String> orderedKeys = new ArrayList<>();
-            final List<Response<Map<byte[], byte[]>>> responses = new ArrayList<>();
-            final Pipeline p = binaryJedis.pipelined();
-            for (String key : keyChunk) {
-                numProcessed.incrementAndGet();
-                final CacheCoordinate coordinate = CacheCoordinate.fromKey(key);
-                final ImmutableBiMap<Station, Integer> permutation = dataManager.getData(coordinate).getPermutation();
-                if (permutation == null) {
-                    log.warn("Skipping cache entry from key {}. Could not find a permutation known for coordinate {}. This probably means that the cache entry does not correspond to any known constraint folders ({})", key, coordinate, dataManager.getCoordinateToBundle().keySet());
-                    continue;
-                }
-                orderedKeys.add(key);
-                responses.add(p.hgetAll(stringRedisSerializer.serialize(key)));
-            }
-            p.sync();
-            Preconditions.checkState(responses.size() == orderedKeys.size(), "Different number of queries and answers from redis!");
-            for (int i = 0; i < responses.size(); i++) {
-                final String key = orderedKeys.get(i);
-                final CacheCoordinate coordinate = CacheCoordinate.fromKey(key);
-                final Map<byte[], byte[]> answer = responses.get(i).get();
-                try {
-                    final ISATFCCacheEntry cacheEntry = cacheEntryFromKeyAndAnswer(key, answer);
-                    if (entryTypeName.equals(SATResult.SAT) && validateSAT) {
-                        ContainmentCacheSATEntry satEntry = (ContainmentCacheSATEntry) cacheEntry;
-                        final Map<Integer, Set<Station>> assignment = ((ContainmentCacheSATEntry) cacheEntry).getAssignmentChannelToStation();
-                        final ManagerBundle managerBundle = dataManager.getData(coordinate);
-                        boolean valid = StationPackingUtils.weakVerify(managerBundle.getStationManager(), managerBundle.getConstraintManager(), satEntry.getAssignmentStationToChannel());
-                        if (!valid) {
-                            throw new IllegalStateException("Cache entry for key " + key + " contains an invalid assignment!");
-                        }
-                    }
-                    results.put(coordinate, (CONTAINMENT_CACHE_ENTRY) cacheEntry);
-                } catch (Exception e) {
-                    log.error("Error making cache entry for key {}", key, e);
-                }
-
-            }
-        });
-        log.info("Finished processing {} {} entries", numProcessed, entryTypeName);
+        final ListMultimap<CacheCoordinate, CONTAINMENT_CACHE_ENTRY> results = Multimaps.synchronizedListMultimap(ArrayListMultimap.create());
+        loadResults(keys, entryTypeName, partitionSize, validateSAT, results::putAll);
         results.keySet().forEach(cacheCoordinate -> {
             log.info("Found {} {} entries for cache {}", results.get(cacheCoordinate).size(), entryTypeName, cacheCoordinate);
         });
         return results;
     }
 
+    /**
+     * Fetch, decode and (optionally) validate the entries of the given keys with the loader, streaming them into the sink
+     * by coordinate as they become ready
+     */
+    private <CONTAINMENT_CACHE_ENTRY extends ISATFCCacheEntry> void loadResults(Set<String> keys, SATResult entryTypeName, int partitionSize, boolean validateSAT, BiConsumer<CacheCoordinate, List<CONTAINMENT_CACHE_ENTRY>> sink) {
+        final Set<String> knownKeys = new HashSet<>();
+        for (String key : keys) {
+            final CacheCoordinate coordinate = CacheCoordinate.fromKey(key);
+            if (!dataManager.getCoordinates().contains(coordinate) || dataManager.getData(coordinate).getPermutation() == null) {
+                log.warn("Skipping cache entry from key {}. Could not find a permutation known for coordinate {}. This probably means that the cache entry does not correspond to any known constraint folders ({})", key, coordinate, dataManager.getCoordinates());
+                continue;
+            }
+            knownKeys.add(key);
+        }
+        final int numLoaded = loader.load(knownKeys, partitionSize, (key, answer) -> {
+            final ISATFCCacheEntry cacheEntry = cacheEntryFromKeyAndAnswer(key, answer);
+            if (entryTypeName.equals(SATResult.SAT) && validateSAT) {
+                final ContainmentCacheSATEntry satEntry = (ContainmentCacheSATEntry) cacheEntry;
+                final ManagerBundle managerBundle = dataManager.getData(CacheCoordinate.fromKey(key));
+                boolean valid = StationPackingUtils.weakVerify(managerBundle.getStationManager(), managerBundle.getConstraintManager(), satEntry.getAssignmentStationToChannel());
+                if (!valid) {
+                    throw new IllegalStateException("Cache entry for key " + key + " contains an invalid assignment!");
+                }
+            }
+            return (CONTAINMENT_CACHE_ENTRY) cacheEntry;
+        }, sink);
+        log.info("Finished processing {} {} entries, {} were loaded", knownKeys.size(), entryTypeName, numLoaded);
+    }
+
+    /**
+     * Receives the entries loaded for each coordinate, possibly from several threads at once
+     */
+    public interface ICacheEntrySink {
+        void addSAT(CacheCoordinate coordinate, List<ContainmentCacheSATEntry> entries);
+        void addUNSAT(CacheCoordinate coordinate, List<ContainmentCacheUNSATEntry> entries);
+    }
+
     public ContainmentCacheInitData getContainmentCacheInitData(long limit, boolean skipSAT, boolean skipUNSAT, boolean validateSAT) {
+        final ListMultimap<CacheCoordinate, ContainmentCacheSATEntry> SATResults = Multimaps.synchronizedListMultimap(ArrayListMultimap.create());
+        final ListMultimap<CacheCoordinate, ContainmentCacheUNSATEntry> UNSATResults = Multimaps.synchronizedListMultimap(ArrayListMultimap.create());
+        loadContainmentCaches(limit, skipSAT, skipUNSAT, validateSAT, new ICacheEntrySink() {
+            @Override
+            public void addSAT(CacheCoordinate coordinate, List<ContainmentCacheSATEntry> entries) {
+                SATResults.putAll(coordinate, entries);
+            }
+
+            @Override
+            public void addUNSAT(CacheCoordinate coordinate, List<ContainmentCacheUNSATEntry> entries) {
+                UNSATResults.putAll(coordinate, entries);
+            }
+        });
+        return new ContainmentCacheInitData(SATResults, UNSATResults);
+    }
+
+    /**
+     * Pull the entries of every known coordinate from redis, handing them to the sink as they are loaded rather than
+     * once they have all been read
+     */
+    public void loadContainmentCaches(long limit, boolean skipSAT, boolean skipUNSAT, boolean validateSAT, ICacheEntrySink sink) {
         log.info("Pulling precache data from redis");
         final Watch watch = Watch.constructAutoStartWatch();
 
@@ -220,17 +277,90 @@ public class RedisCacher {
         }
 
         // filter out coordinates we don't know about
-        SATKeys.removeIf(key -> !dataManager.getCoordinateToBundle().containsKey(CacheCoordinate.fromKey(key)));
-        UNSATKeys.removeIf(key -> !dataManager.getCoordinateToBundle().containsKey(CacheCoordinate.fromKey(key)));
+        SATKeys.removeIf(key -> !dataManager.getCoordinates().contains(CacheCoordinate.fromKey(key)));
+        UNSATKeys.removeIf(key -> !dataManager.getCoordinates().contains(CacheCoordinate.fromKey(key)));
 
         log.info("Found " + SATKeys.size() + " SAT keys");
         log.info("Found " + UNSATKeys.size() + " UNSAT keys");
 
-        final ListMultimap<CacheCoordinate, ContainmentCacheSATEntry> SATResults = processResults(SATKeys, SATResult.SAT, SAT_PIPELINE_SIZE, validateSAT);
-        final ListMultimap<CacheCoordinate, ContainmentCacheUNSATEntry> UNSATResults = processResults(UNSATKeys, SATResult.UNSAT, UNSAT_PIPELINE_SIZE, false);
+        loadResults(SATKeys, SATResult.SAT, SAT_PIPELINE_SIZE, validateSAT, sink::addSAT);
+        loadResults(UNSATKeys, SATResult.UNSAT, UNSAT_PIPELINE_SIZE, false, sink::addUNSAT);
 
         log.info("It took {}s to pull precache data from redis", watch.getElapsedTime());
-        return new ContainmentCacheInitData(SATResults, UNSATResults);
+    }
+
+    /**
+     * Like {@link #loadContainmentCaches(long, boolean, boolean, boolean, ICacheEntrySink)}, but reads the entries from the
+     * cache snapshot and its log when they are up to date, only pulling from redis the entries that were evicted from
+     * memory. Falls back to pulling everything from redis when there is no snapshot, when redis handed out keys the
+     * snapshot does not know about (e.g. entries added by another server) or when the SAT entries must be validated.
+     */
+    public void loadContainmentCaches(CacheSnapshot snapshot, long limit, boolean skipSAT, boolean skipUNSAT, boolean validateSAT, ICacheEntrySink sink) {
+        if (!validateSAT) {
+            final Watch watch = Watch.constructAutoStartWatch();
+            CacheSnapshot.Contents contents = null;
+            try {
+                contents = snapshot.read(coordinate -> dataManager.getCoordinates().contains(coordinate) ? dataManager.getData(coordinate).getPermutation() : null);
+            } catch (IOException e) {
+                log.warn("Could not read the cache snapshot", e);
+            }
+            if (contents != null) {
+                final long hashNum = getHashNum();
+                if (contents.getMaxKeyNum() >= hashNum) {
+                    final ListMultimap<CacheCoordinate, ContainmentCacheSATEntry> SATResults = ArrayListMultimap.create();
+                    final ListMultimap<CacheCoordinate, ContainmentCacheUNSATEntry> UNSATResults = ArrayListMultimap.create();
+                    long numEntries = 0;
+                    for (ISATFCCacheEntry entry : contents.getEntries().values()) {
+                        if (numEntries >= limit) {
+                            break;
+                        }
+                        if (entry instanceof ContainmentCacheSATEntry && !skipSAT) {
+                            SATResults.put(CacheCoordinate.fromKey(entry.getKey()), (ContainmentCacheSATEntry) entry);
+                            numEntries++;
+                        } else if (entry instanceof ContainmentCacheUNSATEntry && !skipUNSAT) {
+                            UNSATResults.put(CacheCoordinate.fromKey(entry.getKey()), (ContainmentCacheUNSATEntry) entry);
+                            numEntries++;
+                        }
+                    }
+                    // Entries that did not fit in memory when the snapshot was taken are only in redis
+                    final Set<String> SATKeys = new HashSet<>();
+                    final Set<String> UNSATKeys = new HashSet<>();
+                    for (String key : contents.getEvictedKeys()) {
+                        if (numEntries >= limit) {
+                            break;
+                        }
+                        if (!dataManager.getCoordinates().contains(CacheCoordinate.fromKey(key))) {
+                            continue;
+                        }
+                        final SATResult result = CacheUtils.parseKey(key).getResult();
+                        if (result.equals(SATResult.SAT) && !skipSAT) {
+                            SATKeys.add(key);
+                            numEntries++;
+                        } else if (result.equals(SATResult.UNSAT) && !skipUNSAT) {
+                            UNSATKeys.add(key);
+                            numEntries++;
+                        }
+                    }
+                    log.info("Read {} SAT and {} UNSAT entries from the cache snapshot", SATResults.size(), UNSATResults.size());
+                    Multimaps.asMap(SATResults).forEach(sink::addSAT);
+                    Multimaps.asMap(UNSATResults).forEach(sink::addUNSAT);
+                    loadResults(SATKeys, SATResult.SAT, SAT_PIPELINE_SIZE, false, sink::addSAT);
+                    loadResults(UNSATKeys, SATResult.UNSAT, UNSAT_PIPELINE_SIZE, false, sink::addUNSAT);
+                    log.info("It took {}s to load the caches from the cache snapshot", watch.getElapsedTime());
+                    return;
+                }
+                log.info("The cache snapshot is stale: it has seen keys up to {} but redis is at {}", contents.getMaxKeyNum(), hashNum);
+            }
+        }
+        loadContainmentCaches(limit, skipSAT, skipUNSAT, validateSAT, sink);
+    }
+
+    /**
+     * @return the number of the last key handed out by redis
+     */
+    public long getHashNum() {
+        final String hashNum = redisTemplate.boundValueOps(HASH_NUM).get();
+        return hashNum == null ? 0 : Long.parseLong(hashNum);
     }
 
     @Data
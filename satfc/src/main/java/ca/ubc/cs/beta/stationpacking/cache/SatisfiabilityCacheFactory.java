@@ -22,16 +22,22 @@
 package ca.ubc.cs.beta.stationpacking.cache;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableList;
 
+import ca.ubc.cs.beta.aeatk.concurrent.threadfactory.SequentiallyNamedThreadFactory;
 import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.cache.containment.CacheMemoryBudget;
 import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheSATEntry;
 import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheUNSATEntry;
 import ca.ubc.cs.beta.stationpacking.cache.containment.SatisfiabilityCache;
+import ca.ubc.cs.beta.stationpacking.cache.containment.StationChannelIndex;
 import ca.ubc.cs.beta.stationpacking.cache.containment.containmentcache.ISatisfiabilityCache;
 import containmentcache.IContainmentCache;
 import containmentcache.ILockableContainmentCache;
@@ -45,17 +51,60 @@ import lombok.extern.slf4j.Slf4j;
 * Created by newmanne on 22/04/15.
 */
 @Slf4j
-public class SatisfiabilityCacheFactory implements ISatisfiabilityCacheFactory {
+public class SatisfiabilityCacheFactory implements ISatisfiabilityCacheFactory, AutoCloseable {
 
     private static final int SAT_BUFFER_SIZE = 100;
     private static final int UNSAT_BUFFER_SIZE = 3;
     private final int numPermutations;
     private final long seed;
+    // Shared by every cache created by this factory
+    private final ExecutorService searchExecutor;
+    private final int searchParallelism;
+    private final boolean channelIndex;
+    // Per cache, in bytes. 0 for no bound
+    private final long memoryBudget;
 
     public SatisfiabilityCacheFactory(int numPermutations, long seed) {
+        this(numPermutations, seed, 1, 1);
+    }
+
+    public SatisfiabilityCacheFactory(int numPermutations, long seed, int searchThreads, int searchParallelism) {
+        this(numPermutations, seed, searchThreads, searchParallelism, false);
+    }
+
+    public SatisfiabilityCacheFactory(int numPermutations, long seed, int searchThreads, int searchParallelism, boolean channelIndex) {
+        this(numPermutations, seed, searchThreads, searchParallelism, channelIndex, 0);
+    }
+
+    /**
+     * @param searchThreads number of threads testing cache entries for all the queries, 1 to test them on the querying thread
+     * @param searchParallelism maximum number of search threads a single query can use at the same time
+     * @param channelIndex if true, SAT candidates are taken from a (station, channel) index instead of station set containment alone
+     * @param memoryBudget memory budget in bytes of each cache created, 0 for no bound
+     */
+    public SatisfiabilityCacheFactory(int numPermutations, long seed, int searchThreads, int searchParallelism, boolean channelIndex, long memoryBudget) {
         Preconditions.checkArgument(numPermutations > 0, "Need at least one permutation!");
+        Preconditions.checkArgument(searchThreads > 0, "Need at least one search thread!");
+        Preconditions.checkArgument(searchParallelism > 0, "Search parallelism must be positive!");
+        Preconditions.checkArgument(memoryBudget >= 0, "Memory budget cannot be negative!");
         this.numPermutations = numPermutations;
         this.seed = seed;
+        this.channelIndex = channelIndex;
+        this.memoryBudget = memoryBudget;
+        if (searchThreads > 1) {
+            log.info("Searching the caches with {} threads, at most {} per query", searchThreads, searchParallelism);
+            // Daemon threads, so that a factory nobody closes does not keep the JVM alive
+            final ThreadFactory threadFactory = new SequentiallyNamedThreadFactory("SATFC Cache Search Thread");
+            this.searchExecutor = Executors.newFixedThreadPool(searchThreads, runnable -> {
+                final Thread thread = threadFactory.newThread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.searchParallelism = Math.min(searchThreads, searchParallelism);
+        } else {
+            this.searchExecutor = null;
+            this.searchParallelism = 1;
+        }
     }
 
     @Override
@@ -73,6 +122,18 @@ public class SatisfiabilityCacheFactory implements ISatisfiabilityCacheFactory {
         final ILockableContainmentCache<Station, ContainmentCacheSATEntry> SATCache = BufferedThreadSafeCacheDecorator.makeBufferedThreadSafe(undecoratedSATCache, SAT_BUFFER_SIZE);
         final IContainmentCache<Station, ContainmentCacheUNSATEntry> undecoratedUNSATCache = new MultiPermutationBitSetCache<>(permutation, permutations, RedBlackTree::new);
         final ILockableContainmentCache<Station, ContainmentCacheUNSATEntry> UNSATCache = BufferedThreadSafeCacheDecorator.makeBufferedThreadSafe(undecoratedUNSATCache, UNSAT_BUFFER_SIZE);
-        return new SatisfiabilityCache(permutation, SATCache, UNSATCache);
+        final StationChannelIndex SATIndex = channelIndex ? new StationChannelIndex(permutation) : null;
+        final CacheMemoryBudget budget = memoryBudget > 0 ? new CacheMemoryBudget(memoryBudget, numPermutations) : null;
+        return new SatisfiabilityCache(permutation, SATCache, UNSATCache, searchExecutor, searchParallelism, SATIndex, budget);
+    }
+
+    /**
+     * Stop the search threads. Parallel searches of the caches created by this factory fail afterwards.
+     */
+    @Override
+    public void close() {
+        if (searchExecutor != null) {
+            searchExecutor.shutdown();
+        }
     }
-}
\ No newline at end of file
+}
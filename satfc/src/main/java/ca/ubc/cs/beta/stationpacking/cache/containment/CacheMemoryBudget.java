@@ -0,0 +1,210 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.cache.containment;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import com.google.common.base.Preconditions;
+
+import ca.ubc.cs.beta.stationpacking.cache.ISATFCCacheEntry;
+import lombok.Getter;
+
+/**
+ * Book-keeping of a {@link SatisfiabilityCache} bounded in memory: the estimated size, hits and last access of every
+ * entry in the cache, and the keys of the entries evicted to stay within budget, which are still in redis.
+ * Entries are tracked by identity.
+ */
+public class CacheMemoryBudget {
+
+    // Rough size of an entry object, its bitset objects and array headers
+    private static final long ENTRY_OVERHEAD_BYTES = 96;
+    // Bytes per station of a SAT entry held by a StationChannelIndex
+    private static final long INDEX_BYTES_PER_STATION = 4;
+    // Rough size of the red-black tree node holding an entry in the containment tree of one permutation, and of the
+    // permuted bitset it is keyed by (without its words)
+    private static final long TREE_OVERHEAD_BYTES_PER_PERMUTATION = 96;
+    // The hits of an entry count half as much after that long without being accessed
+    private static final double RECENCY_HALF_LIFE_MS = TimeUnit.HOURS.toMillis(1);
+    // Fraction of the budget to go down to when evicting, so that evictions happen in batches
+    private static final double EVICTION_TARGET = 0.9;
+
+    @Getter
+    private final long budget;
+    // Number of containment trees holding each entry
+    private final int numPermutations;
+    private final AtomicLong used = new AtomicLong();
+    private final Map<ISATFCCacheEntry, Usage> usages = Collections.synchronizedMap(new IdentityHashMap<>());
+    // key -> usefulness of the entry when it was evicted
+    private final Map<String, Double> evictedKeys = new ConcurrentHashMap<>();
+
+    /**
+     * @param budget in bytes
+     * @param numPermutations number of permutations of the cache, each holding every entry in its own containment tree
+     */
+    public CacheMemoryBudget(long budget, int numPermutations) {
+        Preconditions.checkArgument(budget > 0, "Memory budget must be positive, got %s", budget);
+        Preconditions.checkArgument(numPermutations > 0, "Need at least one permutation, got %s", numPermutations);
+        this.budget = budget;
+        this.numPermutations = numPermutations;
+    }
+
+    public long estimateSize(ContainmentCacheSATEntry entry, boolean indexed) {
+        return ENTRY_OVERHEAD_BYTES + keySize(entry) + treeSize(entry) + entry.getChannels().length * (1 + (indexed ? INDEX_BYTES_PER_STATION : 0));
+    }
+
+    public long estimateSize(ContainmentCacheUNSATEntry entry) {
+        return ENTRY_OVERHEAD_BYTES + keySize(entry) + treeSize(entry) + entry.getDomainsBitSet().size() / Byte.SIZE + entry.getDomainMasks().length * Long.BYTES;
+    }
+
+    // The entry's own bitset, and a permuted copy and tree node for each permutation
+    private long treeSize(ISATFCCacheEntry entry) {
+        final long bitSetBytes = entry.getBitSet().size() / Byte.SIZE;
+        return bitSetBytes + numPermutations * (TREE_OVERHEAD_BYTES_PER_PERMUTATION + bitSetBytes);
+    }
+
+    private static long keySize(ISATFCCacheEntry entry) {
+        return entry.getKey() == null ? 0 : 2 * entry.getKey().length();
+    }
+
+    public long getUsed() {
+        return used.get();
+    }
+
+    public boolean isOverBudget() {
+        return used.get() > budget;
+    }
+
+    /**
+     * @return the memory usage to go down to once the budget is exceeded
+     */
+    public long getEvictionTarget() {
+        return (long) (budget * EVICTION_TARGET);
+    }
+
+    public boolean contains(ISATFCCacheEntry entry) {
+        return usages.containsKey(entry);
+    }
+
+    public void added(ISATFCCacheEntry entry, long size) {
+        if (usages.put(entry, new Usage(size, System.currentTimeMillis())) == null) {
+            used.addAndGet(size);
+        }
+        if (entry.getKey() != null) {
+            evictedKeys.remove(entry.getKey());
+        }
+    }
+
+    /**
+     * The entry was removed from the cache for good, e.g. because another entry dominates it
+     */
+    public void removed(ISATFCCacheEntry entry) {
+        final Usage usage = usages.remove(entry);
+        if (usage != null) {
+            used.addAndGet(-usage.size);
+        }
+    }
+
+    /**
+     * The entry was removed from the cache to save memory, but is still in redis
+     */
+    public void evicted(ISATFCCacheEntry entry) {
+        final Usage usage = usages.remove(entry);
+        if (usage != null) {
+            used.addAndGet(-usage.size);
+            if (entry.getKey() != null) {
+                evictedKeys.put(entry.getKey(), usage.getUsefulness(System.currentTimeMillis()));
+            }
+        }
+    }
+
+    public void hit(ISATFCCacheEntry entry) {
+        final Usage usage = usages.get(entry);
+        if (usage != null) {
+            usage.hit(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * @return the entries in the cache, least useful first
+     */
+    public List<ISATFCCacheEntry> getEvictionOrder() {
+        final long now = System.currentTimeMillis();
+        final List<Map.Entry<ISATFCCacheEntry, Double>> scored = new ArrayList<>(usages.size());
+        synchronized (usages) {
+            usages.forEach((entry, usage) -> scored.add(new AbstractMap.SimpleImmutableEntry<>(entry, usage.getUsefulness(now))));
+        }
+        return scored.stream()
+                .sorted(Map.Entry.comparingByValue())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return the keys of the evicted entries, most useful first
+     */
+    public List<String> getEvictedKeys() {
+        return evictedKeys.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The evicted entry could not be reloaded, e.g. because it is not in redis anymore
+     */
+    public void forgetEvictedKey(String key) {
+        evictedKeys.remove(key);
+    }
+
+    private static class Usage {
+
+        private final long size;
+        private long hits = 0;
+        private long lastAccess;
+
+        Usage(long size, long now) {
+            this.size = size;
+            this.lastAccess = now;
+        }
+
+        synchronized void hit(long now) {
+            hits++;
+            lastAccess = now;
+        }
+
+        // Hits (plus one for being added), discounted by the time since the last access
+        synchronized double getUsefulness(long now) {
+            return (hits + 1) * Math.pow(0.5, (now - lastAccess) / RECENCY_HALF_LIFE_MS);
+        }
+    }
+
+}
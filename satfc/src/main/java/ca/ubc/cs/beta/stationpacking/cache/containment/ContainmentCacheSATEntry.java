@@ -29,7 +29,6 @@ import java.util.Set;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.ImmutableBiMap;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
 import ca.ubc.cs.beta.stationpacking.base.Station;
@@ -94,9 +93,42 @@ public class ContainmentCacheSATEntry implements ICacheEntry<Station>, ISATFCCac
 
     // aInstance is already known to be a subset of this entry
     public boolean isSolutionTo(StationPackingInstance aInstance) {
-        final ImmutableMap<Station, Set<Integer>> domains = aInstance.getDomains();
-        final Map<Integer, Integer> stationToChannel = getAssignmentStationToChannel();
-        return domains.entrySet().stream().allMatch(entry -> entry.getValue().contains(stationToChannel.get(entry.getKey().getID())));
+        return isSolutionTo(new StationDomainMasks(aInstance, permutation));
+    }
+
+    /**
+     * Walks the assignment in permutation order, checking the channel of every station of the query against its domain.
+     * Does not allocate, as it is called on every superset candidate of a query.
+     * @param query domains of the query, packed with the same permutation as this entry
+     * @return true if this entry assigns every station of the query to a channel in its domain
+     */
+    public boolean isSolutionTo(StationDomainMasks query) {
+        int matched = 0;
+        int j = 0;
+        for (int bit = bitSet.nextSetBit(0); bit >= 0; bit = bitSet.nextSetBit(bit+1), j++) {
+            if (query.containsStation(bit)) {
+                if (!query.allows(bit, Byte.toUnsignedInt(channels[j]))) {
+                    return false;
+                }
+                matched++;
+            }
+        }
+        return matched == query.getNumStations();
+    }
+
+    /**
+     * @param query domains of the query, packed with the same permutation as this entry
+     * @return the number of stations of the query that this entry assigns to a channel in their domain
+     */
+    public int getCompatibleIntersection(StationDomainMasks query) {
+        int intersection = 0;
+        int j = 0;
+        for (int bit = bitSet.nextSetBit(0); bit >= 0; bit = bitSet.nextSetBit(bit+1), j++) {
+            if (query.containsStation(bit) && query.allows(bit, Byte.toUnsignedInt(channels[j]))) {
+                intersection++;
+            }
+        }
+        return intersection;
     }
 
     public Map<Integer, Set<Station>> getAssignmentChannelToStation() {
@@ -137,12 +169,22 @@ public class ContainmentCacheSATEntry implements ICacheEntry<Station>, ISATFCCac
      */
     public boolean hasMoreSolvingPower(ContainmentCacheSATEntry cacheEntry) {
         if (this != cacheEntry) {
-            final Map<Integer, Set<Station>> subset = cacheEntry.getAssignmentChannelToStation();
-            final Map<Integer, Set<Station>> superset = getAssignmentChannelToStation();
-            if (superset.keySet().containsAll(subset.keySet())) {
-                return subset.keySet().stream()
-                        .allMatch(channel -> superset.get(channel).containsAll(subset.get(channel)));
+            // Every station of cacheEntry must be in this entry, on the same channel. Walk both assignments in permutation order
+            final BitSet subset = cacheEntry.getBitSet();
+            final byte[] subsetChannels = cacheEntry.getChannels();
+            int i = 0;
+            int bit = bitSet.nextSetBit(0);
+            int j = 0;
+            for (int subsetBit = subset.nextSetBit(0); subsetBit >= 0; subsetBit = subset.nextSetBit(subsetBit+1), j++) {
+                while (bit >= 0 && bit < subsetBit) {
+                    bit = bitSet.nextSetBit(bit+1);
+                    i++;
+                }
+                if (bit != subsetBit || channels[i] != subsetChannels[j]) {
+                    return false;
+                }
             }
+            return true;
         }
         return false;
     }
@@ -24,7 +24,6 @@ package ca.ubc.cs.beta.stationpacking.cache.containment;
 import java.util.BitSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.StreamSupport;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.BiMap;
@@ -53,6 +52,8 @@ public class ContainmentCacheUNSATEntry implements ICacheEntry<Station>, ISATFCC
     private final BitSet bitSet;
     private final BitSet domainsBitSet;
     private final ImmutableBiMap<Station, Integer> permutation;
+    // One word per station of the entry, in permutation order: bit c is set if channel c is in the station's domain
+    private final long[] domainMasks;
 
     private String key;
     private String auction;
@@ -77,6 +78,7 @@ public class ContainmentCacheUNSATEntry implements ICacheEntry<Station>, ISATFCC
         this.permutation = ImmutableBiMap.copyOf(permutation);
         this.bitSet = new BitSet(permutation.size());
         domains.keySet().forEach(station -> bitSet.set(permutation.get(station)));
+        this.domainMasks = toDomainMasks(bitSet, domainsBitSet);
     }
 
     // construct from Redis cache entry
@@ -92,6 +94,19 @@ public class ContainmentCacheUNSATEntry implements ICacheEntry<Station>, ISATFCC
         this.bitSet = bitSet;
         this.domainsBitSet = domains;
         this.auction = auction;
+        this.domainMasks = toDomainMasks(bitSet, domainsBitSet);
+    }
+
+    // Same decoding as getDomains, with each station's domain packed into a word indexed by channel
+    private static long[] toDomainMasks(BitSet bitSet, BitSet domainsBitSet) {
+        final long[] masks = new long[bitSet.cardinality()];
+        for (int i = 0; i < masks.length; i++) {
+            final int offset = i * BITS_PER_STATION;
+            for (int chanBit = domainsBitSet.nextSetBit(offset); chanBit < offset + BITS_PER_STATION && chanBit >= 0; chanBit = domainsBitSet.nextSetBit(chanBit+1)) {
+                masks[i] |= 1L << (chanBit - offset + StationPackingUtils.UHFmin);
+            }
+        }
+        return masks;
     }
 
 
@@ -119,6 +134,21 @@ public class ContainmentCacheUNSATEntry implements ICacheEntry<Station>, ISATFCC
     }
 
 
+    /**
+     * Word-level version of checking the query's domains against getDomains(): true if every station of this entry is
+     * in the query, with a domain in the query that is a subset of its domain in this entry
+     * @param query domains of the query, packed with the same permutation as this entry
+     */
+    public boolean isLessRestrictiveThan(StationDomainMasks query) {
+        int i = 0;
+        for (int bit = bitSet.nextSetBit(0); bit >= 0; bit = bitSet.nextSetBit(bit+1), i++) {
+            if (!query.containsStation(bit) || !query.isDomainWithin(bit, domainMasks[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /*
      * returns true if this UNSAT entry is less restrictive than the cacheEntry
      * this UNSAT entry is less restrictive cacheEntry if this UNSAT has same or less stations than cacheEntry
@@ -128,14 +158,22 @@ public class ContainmentCacheUNSATEntry implements ICacheEntry<Station>, ISATFCC
     public boolean isLessRestrictive(ContainmentCacheUNSATEntry cacheEntry) {
         // skip checking against itself
         if (this != cacheEntry) {
-            Map<Station, Set<Integer>> moreRes = cacheEntry.getDomains();
-            Map<Station, Set<Integer>> lessRes = this.getDomains();
-            // lessRes has less stations to pack
-            if (moreRes.keySet().containsAll(lessRes.keySet())) {
-                // each station in lessRes has same or more candidate channels than the corresponding station in moreRes
-                return StreamSupport.stream(lessRes.keySet().spliterator(), false)
-                        .allMatch(station -> lessRes.get(station).containsAll(moreRes.get(station)));
+            // Walk both entries' stations in permutation order. This entry must have less stations to pack,
+            // and each of them must have same or more candidate channels than the corresponding station in cacheEntry
+            final BitSet moreRes = cacheEntry.getBitSet();
+            int j = 0;
+            int moreResBit = moreRes.nextSetBit(0);
+            int i = 0;
+            for (int bit = bitSet.nextSetBit(0); bit >= 0; bit = bitSet.nextSetBit(bit+1), i++) {
+                while (moreResBit >= 0 && moreResBit < bit) {
+                    moreResBit = moreRes.nextSetBit(moreResBit+1);
+                    j++;
+                }
+                if (moreResBit != bit || (cacheEntry.domainMasks[j] & ~domainMasks[i]) != 0) {
+                    return false;
+                }
             }
+            return true;
         }
         return false;
     }
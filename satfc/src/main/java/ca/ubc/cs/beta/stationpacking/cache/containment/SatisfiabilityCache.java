@@ -22,29 +22,39 @@
 package ca.ubc.cs.beta.stationpacking.cache.containment;
 
 import java.util.ArrayList;
-import java.util.BitSet;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.ImmutableBiMap;
-import com.google.common.collect.ImmutableMap;
 
 import ca.ubc.cs.beta.stationpacking.base.Station;
 import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
+import ca.ubc.cs.beta.stationpacking.cache.ISATFCCacheEntry;
 import ca.ubc.cs.beta.stationpacking.cache.containment.containmentcache.ISatisfiabilityCache;
 import ca.ubc.cs.beta.stationpacking.datamanagers.stations.IStationManager;
 import containmentcache.ILockableContainmentCache;
 import containmentcache.SimpleCacheSet;
 import lombok.Getter;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -58,30 +68,94 @@ public class SatisfiabilityCache implements ISatisfiabilityCache {
     @Getter
     final ImmutableBiMap<Station, Integer> permutation;
 
+    // Number of candidates handed to a search worker at a time
+    private static final int SEARCH_BATCH_SIZE = 64;
+    // Shared by all the queries, null to search on the calling thread
+    private final ExecutorService searchExecutor;
+    // Maximum number of batches of a single query being tested at the same time
+    private final int searchParallelism;
+    // (station, channel) index narrowing down SAT candidates, null to only use station set containment
+    private final StationChannelIndex SATIndex;
+    // Entries removed because a newer entry dominated them
+    @Getter
+    private final AtomicLong prunedSATEntries = new AtomicLong();
+    @Getter
+    private final AtomicLong prunedUNSATEntries = new AtomicLong();
+    // Held while finding, adding and pruning, so that concurrent additions never prune the same entry twice
+    private final Object SATPruneLock = new Object();
+    private final Object UNSATPruneLock = new Object();
+    // Null if the cache is not bounded in memory
+    private final CacheMemoryBudget memoryBudget;
+
     public SatisfiabilityCache(
             BiMap<Station, Integer> permutation,
             ILockableContainmentCache<Station, ContainmentCacheSATEntry> SATCache,
             ILockableContainmentCache<Station, ContainmentCacheUNSATEntry> UNSATCache) {
+        this(permutation, SATCache, UNSATCache, null, 1);
+    }
+
+    public SatisfiabilityCache(
+            BiMap<Station, Integer> permutation,
+            ILockableContainmentCache<Station, ContainmentCacheSATEntry> SATCache,
+            ILockableContainmentCache<Station, ContainmentCacheUNSATEntry> UNSATCache,
+            ExecutorService searchExecutor,
+            int searchParallelism) {
+        this(permutation, SATCache, UNSATCache, searchExecutor, searchParallelism, null);
+    }
+
+    public SatisfiabilityCache(
+            BiMap<Station, Integer> permutation,
+            ILockableContainmentCache<Station, ContainmentCacheSATEntry> SATCache,
+            ILockableContainmentCache<Station, ContainmentCacheUNSATEntry> UNSATCache,
+            ExecutorService searchExecutor,
+            int searchParallelism,
+            StationChannelIndex SATIndex) {
+        this(permutation, SATCache, UNSATCache, searchExecutor, searchParallelism, SATIndex, null);
+    }
+
+    /**
+     * @param searchExecutor executor testing candidate entries in parallel, shared by all the queries, or null to search sequentially
+     * @param searchParallelism maximum number of workers a single query can occupy at the same time
+     * @param SATIndex empty (station, channel) index to maintain alongside the SAT cache and to take SAT candidates from, or null
+     * @param memoryBudget memory budget of the entries of this cache, or null for no bound. The least useful entries are evicted when it is exceeded.
+     */
+    public SatisfiabilityCache(
+            BiMap<Station, Integer> permutation,
+            ILockableContainmentCache<Station, ContainmentCacheSATEntry> SATCache,
+            ILockableContainmentCache<Station, ContainmentCacheUNSATEntry> UNSATCache,
+            ExecutorService searchExecutor,
+            int searchParallelism,
+            StationChannelIndex SATIndex,
+            CacheMemoryBudget memoryBudget) {
+        Preconditions.checkArgument(searchParallelism >= 1, "Search parallelism must be at least 1, got %s", searchParallelism);
         this.permutation = ImmutableBiMap.copyOf(permutation);
         this.SATCache = SATCache;
         this.UNSATCache = UNSATCache;
+        this.searchExecutor = searchExecutor;
+        this.searchParallelism = searchParallelism;
+        this.SATIndex = SATIndex;
+        this.memoryBudget = memoryBudget;
     }
 
     @Override
-    public ContainmentCacheSATResult proveSATBySuperset(final StationPackingInstance aInstance, final Predicate<ContainmentCacheSATEntry> ignorePredicate) {
+    public ContainmentCacheSATResult proveSATBySuperset(final StationPackingInstance aInstance, final Predicate<ContainmentCacheSATEntry> ignorePredicate, final SearchDeadline deadline) {
         // try to narrow down the entries we have to search by only looking at supersets
         try {
             SATCache.getReadLock().lock();
-            final Iterable<ContainmentCacheSATEntry> iterable = SATCache.getSupersets(new SimpleCacheSet<Station>(aInstance.getStations(), permutation));
-            return StreamSupport.stream(iterable.spliterator(), false)
-                    /**
-                     * The entry must contain at least every station in the query in order to provide a solution (hence superset)
-                     * The entry should also be a solution to the problem, which it will be as long as the solution can project onto the query's domains since they come from the set of interference constraints
-                     */
-                    .filter(entry -> entry.isSolutionTo(aInstance))
-                    .filter(ignorePredicate)
-                    .map(entry -> new ContainmentCacheSATResult(entry.getAssignmentChannelToStation(), entry.getKey()))
-                    .findAny()
+            if (deadline.shouldStop()) {
+                return ContainmentCacheSATResult.failure();
+            }
+            final Iterable<ContainmentCacheSATEntry> iterable = SATIndex != null ? SATIndex.getCandidates(aInstance) : SATCache.getSupersets(new SimpleCacheSet<Station>(aInstance.getStations(), permutation));
+            final StationDomainMasks query = new StationDomainMasks(aInstance, permutation);
+            /**
+             * The entry must contain at least every station in the query in order to provide a solution (hence superset)
+             * The entry should also be a solution to the problem, which it will be as long as the solution can project onto the query's domains since they come from the set of interference constraints
+             */
+            return findAny(iterable, entry -> entry.isSolutionTo(query) && ignorePredicate.test(entry), deadline)
+                    .map(entry -> {
+                        recordHit(entry);
+                        return new ContainmentCacheSATResult(entry.getAssignmentChannelToStation(), entry.getKey());
+                    })
                     .orElse(ContainmentCacheSATResult.failure());
         } finally {
             SATCache.getReadLock().unlock();
@@ -89,49 +163,337 @@ public class SatisfiabilityCache implements ISatisfiabilityCache {
     }
 
     @Override
-    public ContainmentCacheUNSATResult proveUNSATBySubset(final StationPackingInstance aInstance) {
+    public ContainmentCacheUNSATResult proveUNSATBySubset(final StationPackingInstance aInstance, final SearchDeadline deadline) {
         // try to narrow down the entries we have to search by only looking at subsets
         try {
             UNSATCache.getReadLock().lock();
+            if (deadline.shouldStop()) {
+                return ContainmentCacheUNSATResult.failure();
+            }
             final Iterable<ContainmentCacheUNSATEntry> iterable = UNSATCache.getSubsets(new SimpleCacheSet<Station>(aInstance.getStations(), permutation));
-            return StreamSupport.stream(iterable.spliterator(), false)
-                /*
-                 * The entry's stations should be a subset of the query's stations (so as to be less constrained)
-                 * and each station in the entry must have larger than or equal to the corresponding station domain in the target (so as to be less constrained)
-                 */
-                    .filter(entry -> isSupersetOrEqualToByDomains(entry.getDomains(), aInstance.getDomains()))
-                    .map(entry -> new ContainmentCacheUNSATResult(entry.getKey()))
-                    .findAny()
+            final StationDomainMasks query = new StationDomainMasks(aInstance, permutation);
+            /*
+             * The entry's stations should be a subset of the query's stations (so as to be less constrained)
+             * and each station in the entry must have larger than or equal to the corresponding station domain in the target (so as to be less constrained)
+             */
+            return findAny(iterable, entry -> entry.isLessRestrictiveThan(query), deadline)
+                    .map(entry -> {
+                        recordHit(entry);
+                        return new ContainmentCacheUNSATResult(entry.getKey());
+                    })
                     .orElse(ContainmentCacheUNSATResult.failure());
         } finally {
             UNSATCache.getReadLock().unlock();
         }
     }
 
+    /**
+     * Find any candidate satisfying the predicate. In parallel mode, the calling thread walks the candidates and hands
+     * them in batches to the search executor, with at most searchParallelism batches in flight. Every worker stops as
+     * soon as one of them finds a match. Returns only once no worker is testing candidates anymore, so that callers can
+     * release their lock on the cache. The deadline is checked every batch of candidates, giving up with no match once
+     * it has passed.
+     */
+    private <T> Optional<T> findAny(Iterable<T> candidates, Predicate<T> predicate, SearchDeadline deadline) {
+        if (searchExecutor == null || searchParallelism == 1) {
+            int numTested = 0;
+            for (T candidate : candidates) {
+                if (++numTested % SEARCH_BATCH_SIZE == 0 && deadline.shouldStop()) {
+                    return Optional.empty();
+                }
+                if (predicate.test(candidate)) {
+                    return Optional.of(candidate);
+                }
+            }
+            return Optional.empty();
+        }
+        final AtomicReference<T> found = new AtomicReference<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        // Set when the search gives up, so that workers stop testing candidates
+        final AtomicBoolean stopped = new AtomicBoolean();
+        // Each batch holds a permit until it is done, so that holding all the permits means no worker is testing candidates
+        final Semaphore inFlight = new Semaphore(searchParallelism);
+        final Iterator<T> iterator = candidates.iterator();
+        try {
+            while (found.get() == null && error.get() == null && iterator.hasNext() && !deadline.shouldStop()) {
+                final List<T> batch = new ArrayList<>(SEARCH_BATCH_SIZE);
+                while (batch.size() < SEARCH_BATCH_SIZE && iterator.hasNext()) {
+                    batch.add(iterator.next());
+                }
+                inFlight.acquire();
+                try {
+                    searchExecutor.execute(() -> {
+                        try {
+                            if (stopped.get() || deadline.shouldStop()) {
+                                return;
+                            }
+                            for (T candidate : batch) {
+                                if (found.get() != null || stopped.get()) {
+                                    return;
+                                }
+                                if (predicate.test(candidate)) {
+                                    found.compareAndSet(null, candidate);
+                                    return;
+                                }
+                            }
+                        } catch (Throwable t) {
+                            error.compareAndSet(null, t);
+                            stopped.set(true);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    throw e;
+                }
+            }
+        } catch (InterruptedException e) {
+            stopped.set(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while searching the cache", e);
+        } catch (RuntimeException e) {
+            stopped.set(true);
+            throw e;
+        } finally {
+            // Wait for the batches in flight, even when giving up, as the caller releases its lock on the cache next
+            inFlight.acquireUninterruptibly(searchParallelism);
+        }
+        if (error.get() != null) {
+            throw new RuntimeException("Error while testing cache entries", error.get());
+        }
+        return Optional.ofNullable(found.get());
+    }
+
     @Override
     public void add(ContainmentCacheSATEntry SATEntry) {
         SATCache.add(SATEntry);
+        if (SATIndex != null) {
+            SATIndex.add(SATEntry);
+        }
+        if (memoryBudget != null) {
+            memoryBudget.added(SATEntry, memoryBudget.estimateSize(SATEntry, SATIndex != null));
+            evictIfOverBudget();
+        }
     }
 
     @Override
     public void add(ContainmentCacheUNSATEntry UNSATEntry) {
         UNSATCache.add(UNSATEntry);
+        if (memoryBudget != null) {
+            memoryBudget.added(UNSATEntry, memoryBudget.estimateSize(UNSATEntry));
+            evictIfOverBudget();
+        }
+    }
+
+    @Override
+    public List<ContainmentCacheSATEntry> addAndPrune(ContainmentCacheSATEntry SATEntry) {
+        synchronized (SATPruneLock) {
+            final List<ContainmentCacheSATEntry> dominatedEntries;
+            SATCache.getReadLock().lock();
+            try {
+                // Only subsets of the new entry's stations can have less solving power
+                dominatedEntries = StreamSupport.stream(SATCache.getSubsets(SATEntry).spliterator(), false)
+                        .filter(SATEntry::hasMoreSolvingPower)
+                        .collect(Collectors.toList());
+            } finally {
+                SATCache.getReadLock().unlock();
+            }
+            add(SATEntry);
+            dominatedEntries.forEach(this::removeSAT);
+            prunedSATEntries.addAndGet(dominatedEntries.size());
+            return dominatedEntries;
+        }
+    }
+
+    @Override
+    public List<ContainmentCacheUNSATEntry> addAndPrune(ContainmentCacheUNSATEntry UNSATEntry) {
+        synchronized (UNSATPruneLock) {
+            final List<ContainmentCacheUNSATEntry> dominatedEntries;
+            UNSATCache.getReadLock().lock();
+            try {
+                // Only supersets of the new entry's stations can be more restrictive
+                dominatedEntries = StreamSupport.stream(UNSATCache.getSupersets(UNSATEntry).spliterator(), false)
+                        .filter(UNSATEntry::isLessRestrictive)
+                        .collect(Collectors.toList());
+            } finally {
+                UNSATCache.getReadLock().unlock();
+            }
+            add(UNSATEntry);
+            dominatedEntries.forEach(this::removeUNSAT);
+            prunedUNSATEntries.addAndGet(dominatedEntries.size());
+            return dominatedEntries;
+        }
+    }
+
+    private void removeSAT(ContainmentCacheSATEntry SATEntry) {
+        SATCache.remove(SATEntry);
+        if (SATIndex != null) {
+            SATIndex.remove(SATEntry);
+        }
+        if (memoryBudget != null) {
+            memoryBudget.removed(SATEntry);
+        }
+    }
+
+    private void removeUNSAT(ContainmentCacheUNSATEntry UNSATEntry) {
+        UNSATCache.remove(UNSATEntry);
+        if (memoryBudget != null) {
+            memoryBudget.removed(UNSATEntry);
+        }
+    }
+
+    private void recordHit(ISATFCCacheEntry entry) {
+        if (memoryBudget != null) {
+            memoryBudget.hit(entry);
+        }
     }
 
     /**
-     * Domain a has less stations than domain b because of previous method call getSubsets();
-     * If each station domain in domain a has same or more channels than the matching station in domain b,
-     * then a is superset of b
-     *
-     * @param a superset domain
-     * @param b subset domain
-     * @return true if a's domain is a superset of b's domain
+     * Evict the least useful entries until the memory used is back under the eviction target. The entries an entry
+     * dominates are evicted before it, whatever their usefulness: any query they answer, it answers too.
+     * Evicted entries stay in redis and can be brought back with {@link #reloadEvicted(Function)}. Evictions are not
+     * logged to the cache snapshot: a restart loads every entry again, evicted or not, and evicts under the same budget.
      */
-    private boolean isSupersetOrEqualToByDomains(Map<Station, Set<Integer>> a, Map<Station, Set<Integer>> b) {
-        return a.entrySet().stream().allMatch(entry -> {
-            final Set<Integer> integers = b.get(entry.getKey());
-            return integers != null && entry.getValue().containsAll(integers);
-        });
+    private void evictIfOverBudget() {
+        if (!memoryBudget.isOverBudget()) {
+            return;
+        }
+        synchronized (memoryBudget) {
+            if (!memoryBudget.isOverBudget()) {
+                return;
+            }
+            final long usedBefore = memoryBudget.getUsed();
+            int numEvicted = 0;
+            for (ISATFCCacheEntry candidate : memoryBudget.getEvictionOrder()) {
+                if (memoryBudget.getUsed() <= memoryBudget.getEvictionTarget()) {
+                    break;
+                }
+                if (!memoryBudget.contains(candidate)) {
+                    // Already evicted as dominated by another candidate
+                    continue;
+                }
+                for (ISATFCCacheEntry dominated : getDominatedEntries(candidate)) {
+                    if (memoryBudget.contains(dominated)) {
+                        evict(dominated);
+                        numEvicted++;
+                    }
+                }
+                if (memoryBudget.getUsed() > memoryBudget.getEvictionTarget()) {
+                    evict(candidate);
+                    numEvicted++;
+                }
+            }
+            log.info("Evicted {} entries from the cache, going from {} to {} bytes (budget is {} bytes)", numEvicted, usedBefore, memoryBudget.getUsed(), memoryBudget.getBudget());
+        }
+    }
+
+    private List<? extends ISATFCCacheEntry> getDominatedEntries(ISATFCCacheEntry entry) {
+        if (entry instanceof ContainmentCacheSATEntry) {
+            final ContainmentCacheSATEntry SATEntry = (ContainmentCacheSATEntry) entry;
+            SATCache.getReadLock().lock();
+            try {
+                return StreamSupport.stream(SATCache.getSubsets(SATEntry).spliterator(), false)
+                        .filter(SATEntry::hasMoreSolvingPower)
+                        .collect(Collectors.toList());
+            } finally {
+                SATCache.getReadLock().unlock();
+            }
+        } else {
+            final ContainmentCacheUNSATEntry UNSATEntry = (ContainmentCacheUNSATEntry) entry;
+            UNSATCache.getReadLock().lock();
+            try {
+                return StreamSupport.stream(UNSATCache.getSupersets(UNSATEntry).spliterator(), false)
+                        .filter(UNSATEntry::isLessRestrictive)
+                        .collect(Collectors.toList());
+            } finally {
+                UNSATCache.getReadLock().unlock();
+            }
+        }
+    }
+
+    // Whether an entry in the cache answers every query the given entry answers
+    private boolean isDominated(ISATFCCacheEntry entry) {
+        if (entry instanceof ContainmentCacheSATEntry) {
+            final ContainmentCacheSATEntry SATEntry = (ContainmentCacheSATEntry) entry;
+            SATCache.getReadLock().lock();
+            try {
+                return StreamSupport.stream(SATCache.getSupersets(SATEntry).spliterator(), false)
+                        .anyMatch(other -> other.hasMoreSolvingPower(SATEntry));
+            } finally {
+                SATCache.getReadLock().unlock();
+            }
+        } else {
+            final ContainmentCacheUNSATEntry UNSATEntry = (ContainmentCacheUNSATEntry) entry;
+            UNSATCache.getReadLock().lock();
+            try {
+                return StreamSupport.stream(UNSATCache.getSubsets(UNSATEntry).spliterator(), false)
+                        .anyMatch(other -> other.isLessRestrictive(UNSATEntry));
+            } finally {
+                UNSATCache.getReadLock().unlock();
+            }
+        }
+    }
+
+    private void evict(ISATFCCacheEntry entry) {
+        if (entry instanceof ContainmentCacheSATEntry) {
+            SATCache.remove((ContainmentCacheSATEntry) entry);
+            if (SATIndex != null) {
+                SATIndex.remove((ContainmentCacheSATEntry) entry);
+            }
+        } else {
+            UNSATCache.remove((ContainmentCacheUNSATEntry) entry);
+        }
+        memoryBudget.evicted(entry);
+    }
+
+    @Override
+    public int reloadEvicted(Function<String, ISATFCCacheEntry> loader) {
+        if (memoryBudget == null) {
+            return 0;
+        }
+        int numReloaded = 0;
+        for (String key : memoryBudget.getEvictedKeys()) {
+            if (memoryBudget.getUsed() >= memoryBudget.getEvictionTarget()) {
+                break;
+            }
+            final ISATFCCacheEntry entry = loader.apply(key);
+            if (entry == null || isDominated(entry)) {
+                // Entries dominated by an entry in the cache, e.g. one added since they were evicted, answer nothing more
+                memoryBudget.forgetEvictedKey(key);
+                continue;
+            }
+            if (entry instanceof ContainmentCacheSATEntry) {
+                add((ContainmentCacheSATEntry) entry);
+            } else {
+                add((ContainmentCacheUNSATEntry) entry);
+            }
+            numReloaded++;
+        }
+        return numReloaded;
+    }
+
+    @Override
+    public List<ISATFCCacheEntry> getEntries() {
+        final List<ISATFCCacheEntry> entries = new ArrayList<>();
+        SATCache.getReadLock().lock();
+        try {
+            SATCache.getSets().forEach(entries::add);
+        } finally {
+            SATCache.getReadLock().unlock();
+        }
+        UNSATCache.getReadLock().lock();
+        try {
+            UNSATCache.getSets().forEach(entries::add);
+        } finally {
+            UNSATCache.getReadLock().unlock();
+        }
+        return entries;
+    }
+
+    @Override
+    public List<String> getEvictedKeys() {
+        return memoryBudget == null ? Collections.emptyList() : memoryBudget.getEvictedKeys();
     }
 
     /**
@@ -160,7 +522,7 @@ public class SatisfiabilityCache implements ISatisfiabilityCache {
             SATCache.getReadLock().unlock();
         }
 
-        prunableEntries.forEach(SATCache::remove);
+        prunableEntries.forEach(this::removeSAT);
         return prunableEntries;
     }
 
@@ -188,67 +550,107 @@ public class SatisfiabilityCache implements ISatisfiabilityCache {
      */
     @Override
     public List<ContainmentCacheUNSATEntry> filterUNSAT() {
-        List<ContainmentCacheUNSATEntry> prunableEntries = new ArrayList<>();
+        List<ContainmentCacheUNSATEntry> prunableEntries = Collections.synchronizedList(new ArrayList<>());
         Iterable<ContainmentCacheUNSATEntry> unsatEntries = UNSATCache.getSets();
 
 
         final AtomicLong counter = new AtomicLong();
         UNSATCache.getReadLock().lock();
         try {
-            unsatEntries.forEach(cacheEntry -> {
-                if (counter.getAndIncrement() % 1000 == 0) {
-                    log.info("Scanned {} / {} entries; Found {} prunables", counter.get(), UNSATCache.size(), prunableEntries.size());
-                }
-                Iterable<ContainmentCacheUNSATEntry> subsets = UNSATCache.getSubsets(cacheEntry);
-                // For two UNSAT problems P and Q, if Q has less stations to pack,
-                // and each station has more candidate channels, then Q is less restrictive than P
-                Optional<ContainmentCacheUNSATEntry> lessRestrictiveUNSAT =
-                        StreamSupport.stream(subsets.spliterator(), true)
-                                .filter(entry -> entry.isLessRestrictive(cacheEntry))
-                                .findAny();
-                if (lessRestrictiveUNSAT.isPresent()) {
-                    prunableEntries.add(cacheEntry);
-                }
-            });
+            StreamSupport.stream(unsatEntries.spliterator(), true)
+                    .forEach(cacheEntry -> {
+                        if (counter.getAndIncrement() % 1000 == 0) {
+                            log.info("Scanned {} / {} entries; Found {} prunables", counter.get(), UNSATCache.size(), prunableEntries.size());
+                        }
+                        Iterable<ContainmentCacheUNSATEntry> subsets = UNSATCache.getSubsets(cacheEntry);
+                        // For two UNSAT problems P and Q, if Q has less stations to pack,
+                        // and each station has more candidate channels, then Q is less restrictive than P
+                        Optional<ContainmentCacheUNSATEntry> lessRestrictiveUNSAT =
+                                StreamSupport.stream(subsets.spliterator(), false)
+                                        .filter(entry -> entry.isLessRestrictive(cacheEntry))
+                                        .findAny();
+                        if (lessRestrictiveUNSAT.isPresent()) {
+                            prunableEntries.add(cacheEntry);
+                        }
+                    });
         } finally {
             UNSATCache.getReadLock().unlock();
         }
 
-        prunableEntries.forEach(UNSATCache::remove);
+        prunableEntries.forEach(this::removeUNSAT);
         return prunableEntries;
     }
 
+    /**
+     * Scores every SAT entry once by the number of query stations it assigns to a channel of their query domain, keeping
+     * the k best in bounded min-heaps, one per parallel worker. An entry cannot score more than its number of stations,
+     * so it is skipped without being scored when that bound cannot beat the worst entry of a full heap.
+     * @return the (at most) k entries with the largest compatible intersection with the instance, largest first
+     */
     @Override
     public List<ContainmentCacheSATEntry> findMaxIntersections(StationPackingInstance instance, int k) {
-        BitSet bitSet = new SimpleCacheSet<>(instance.getStations(), permutation).getBitSet();
-        ImmutableMap<Station, Set<Integer>> domains = instance.getDomains();
+        Preconditions.checkArgument(k >= 0, "k must be non-negative, got %s", k);
+        if (k == 0) {
+            return new ArrayList<>();
+        }
+        final StationDomainMasks query = new StationDomainMasks(instance, permutation);
+        final TopEntries topEntries;
         SATCache.getReadLock().lock();
         try {
-            return StreamSupport.stream(SATCache.getSets().spliterator(), false)
-                    .sorted((a, b) -> {
-                        final BitSet aCopy = (BitSet) a.getBitSet().clone();
-                        final BitSet bCopy = (BitSet) b.getBitSet().clone();
-                        aCopy.and(bitSet);
-                        bCopy.and(bitSet);
-                        aCopy.stream().forEach(i -> {
-                            Station station = permutation.inverse().get(i);
-                            if (!domains.get(station).contains(a.getAssignmentStationToChannel().get(station.getID()))) {
-                                aCopy.clear(i);
-                            }
-                        });
-                        bCopy.stream().forEach(i -> {
-                            Station station = permutation.inverse().get(i);
-                            if (!domains.get(station).contains(b.getAssignmentStationToChannel().get(station.getID()))) {
-                                bCopy.clear(i);
-                            }
-                        });
-                        return Integer.compare(aCopy.cardinality(), bCopy.cardinality());
-                    })
-                    .limit(k)
-                    .collect(Collectors.toList());
+            topEntries = StreamSupport.stream(SATCache.getSets().spliterator(), true)
+                    .collect(() -> new TopEntries(k), (top, entry) -> top.offer(entry, query), TopEntries::merge);
         } finally {
             SATCache.getReadLock().unlock();
         }
+        return topEntries.toSortedList();
+    }
+
+    /**
+     * Bounded min-heap of the best scoring entries seen so far.
+     */
+    private static class TopEntries {
+
+        private final int k;
+        private final PriorityQueue<ScoredEntry> heap;
+
+        TopEntries(int k) {
+            this.k = k;
+            // Grows as needed rather than preallocating k slots, as a split may hold far fewer than k candidates
+            heap = new PriorityQueue<>(Comparator.comparingInt(ScoredEntry::getScore));
+        }
+
+        void offer(ContainmentCacheSATEntry entry, StationDomainMasks query) {
+            if (heap.size() == k && Math.min(entry.getChannels().length, query.getNumStations()) <= heap.peek().getScore()) {
+                return;
+            }
+            add(new ScoredEntry(entry, entry.getCompatibleIntersection(query)));
+        }
+
+        void add(ScoredEntry scoredEntry) {
+            if (heap.size() < k) {
+                heap.add(scoredEntry);
+            } else if (scoredEntry.getScore() > heap.peek().getScore()) {
+                heap.poll();
+                heap.add(scoredEntry);
+            }
+        }
+
+        void merge(TopEntries other) {
+            other.heap.forEach(this::add);
+        }
+
+        List<ContainmentCacheSATEntry> toSortedList() {
+            return heap.stream()
+                    .sorted(Comparator.comparingInt(ScoredEntry::getScore).reversed())
+                    .map(ScoredEntry::getEntry)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Value
+    private static class ScoredEntry {
+        ContainmentCacheSATEntry entry;
+        int score;
     }
 
 }
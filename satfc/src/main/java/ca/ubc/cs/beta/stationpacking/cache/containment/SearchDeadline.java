@@ -0,0 +1,85 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.cache.containment;
+
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+
+/**
+ * Point in time after which nobody is waiting for the result of a cache search anymore.
+ * Searches check it as they go and give up, returning a failure, once it has passed or once the search is abandoned.
+ * One per search, as it records whether the search gave up.
+ */
+public class SearchDeadline {
+
+    // In System.nanoTime() terms
+    private final long deadline;
+    private final boolean bounded;
+    private volatile boolean abandoned;
+    // Whether a search gave up because of this deadline
+    @Getter
+    private volatile boolean cutShort;
+
+    private SearchDeadline(long deadline, boolean bounded) {
+        this.deadline = deadline;
+        this.bounded = bounded;
+    }
+
+    /**
+     * @return a deadline that only passes if the search is abandoned
+     */
+    public static SearchDeadline none() {
+        return new SearchDeadline(0, false);
+    }
+
+    /**
+     * @return a deadline passing after the given time from now
+     */
+    public static SearchDeadline in(long duration, TimeUnit unit) {
+        return new SearchDeadline(System.nanoTime() + unit.toNanos(duration), true);
+    }
+
+    /**
+     * Make the search give up as soon as it next checks its deadline, for instance because its answer is no longer needed
+     */
+    public void abandon() {
+        abandoned = true;
+    }
+
+    public boolean hasPassed() {
+        return abandoned || (bounded && System.nanoTime() - deadline >= 0);
+    }
+
+    /**
+     * To be called by searches at regular intervals
+     * @return true if the search should give up, in which case it is recorded as cut short
+     */
+    public boolean shouldStop() {
+        if (hasPassed()) {
+            cutShort = true;
+            return true;
+        }
+        return false;
+    }
+
+}
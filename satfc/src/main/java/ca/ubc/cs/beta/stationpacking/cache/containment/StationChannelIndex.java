@@ -0,0 +1,326 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.cache.containment;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.collect.BiMap;
+import com.google.common.collect.ImmutableBiMap;
+
+import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
+
+/**
+ * Inverted index from (station, channel) to the SAT entries assigning that station to that channel.
+ * Entries get small int ids, reused once their entry is removed so that churn from pruning and eviction does not grow the
+ * index, and each (station, channel) pair keeps the ids of its entries in a sorted int array, which is much smaller than
+ * a bitset over every entry id since a station only has one channel per entry.
+ *
+ * A query takes, for each of its stations, the entries putting that station on a channel of its domain. These sets are
+ * disjoint unions of posting lists, so their sizes are known without merging anything. Starting from the most selective
+ * station, the candidates are intersected with the following stations until few enough remain for the exact check.
+ */
+public class StationChannelIndex {
+
+    // Stop intersecting and let the exact check handle the remaining candidates once there are this many or fewer
+    private static final int EXACT_CHECK_THRESHOLD = 64;
+
+    private final ImmutableBiMap<Station, Integer> permutation;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // id -> entry, null once removed and until the id is reused
+    private final List<ContainmentCacheSATEntry> entries = new ArrayList<>();
+    private final Map<ContainmentCacheSATEntry, Integer> ids = new IdentityHashMap<>();
+    // Ids of removed entries, to be given to the next entries added
+    private final Deque<Integer> freeIds = new ArrayDeque<>();
+    // postings[stationIndex][channel], arrays grown as needed
+    private final PostingList[][] postings;
+
+    public StationChannelIndex(BiMap<Station, Integer> permutation) {
+        this.permutation = ImmutableBiMap.copyOf(permutation);
+        final int maxIndex = permutation.values().stream().mapToInt(Integer::intValue).max().orElse(-1);
+        postings = new PostingList[maxIndex + 1][];
+    }
+
+    public void add(ContainmentCacheSATEntry entry) {
+        lock.writeLock().lock();
+        try {
+            if (ids.containsKey(entry)) {
+                return;
+            }
+            final int id;
+            if (freeIds.isEmpty()) {
+                id = entries.size();
+                entries.add(entry);
+            } else {
+                id = freeIds.pop();
+                entries.set(id, entry);
+            }
+            ids.put(entry, id);
+            final BitSet bitSet = entry.getBitSet();
+            final byte[] channels = entry.getChannels();
+            int j = 0;
+            for (int bit = bitSet.nextSetBit(0); bit >= 0; bit = bitSet.nextSetBit(bit+1), j++) {
+                getOrCreatePostingList(bit, Byte.toUnsignedInt(channels[j])).add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(ContainmentCacheSATEntry entry) {
+        lock.writeLock().lock();
+        try {
+            final Integer id = ids.remove(entry);
+            if (id == null) {
+                return;
+            }
+            entries.set(id, null);
+            freeIds.push(id);
+            final BitSet bitSet = entry.getBitSet();
+            final byte[] channels = entry.getChannels();
+            int j = 0;
+            for (int bit = bitSet.nextSetBit(0); bit >= 0; bit = bitSet.nextSetBit(bit+1), j++) {
+                postings[bit][Byte.toUnsignedInt(channels[j])].remove(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return entries that might be a solution to the instance: every entry that is one is returned, but the returned
+     * entries still need to be checked with {@link ContainmentCacheSATEntry#isSolutionTo(StationDomainMasks)}
+     */
+    public List<ContainmentCacheSATEntry> getCandidates(StationPackingInstance aInstance) {
+        lock.readLock().lock();
+        try {
+            final List<List<PostingList>> stationPostings = new ArrayList<>(aInstance.getDomains().size());
+            for (Map.Entry<Station, Set<Integer>> domain : aInstance.getDomains().entrySet()) {
+                final Integer stationIndex = permutation.get(domain.getKey());
+                if (stationIndex == null || stationIndex >= postings.length || postings[stationIndex] == null) {
+                    // No entry assigns this station
+                    return Collections.emptyList();
+                }
+                final List<PostingList> lists = new ArrayList<>(domain.getValue().size());
+                for (Integer channel : domain.getValue()) {
+                    if (channel < postings[stationIndex].length && postings[stationIndex][channel] != null && postings[stationIndex][channel].size() > 0) {
+                        lists.add(postings[stationIndex][channel]);
+                    }
+                }
+                if (lists.isEmpty()) {
+                    return Collections.emptyList();
+                }
+                stationPostings.add(lists);
+            }
+            if (stationPostings.isEmpty()) {
+                return getAllEntries();
+            }
+            // Most selective stations first
+            stationPostings.sort(Comparator.comparingInt(StationChannelIndex::totalSize));
+
+            int[] candidates = union(stationPostings.get(0));
+            for (int i = 1; i < stationPostings.size() && candidates.length > EXACT_CHECK_THRESHOLD; i++) {
+                candidates = intersect(candidates, stationPostings.get(i));
+            }
+            final List<ContainmentCacheSATEntry> result = new ArrayList<>(candidates.length);
+            for (int id : candidates) {
+                result.add(entries.get(id));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<ContainmentCacheSATEntry> getAllEntries() {
+        final List<ContainmentCacheSATEntry> result = new ArrayList<>(ids.size());
+        for (ContainmentCacheSATEntry entry : entries) {
+            if (entry != null) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    private PostingList getOrCreatePostingList(int stationIndex, int channel) {
+        PostingList[] channelPostings = postings[stationIndex];
+        if (channelPostings == null || channelPostings.length <= channel) {
+            channelPostings = channelPostings == null ? new PostingList[channel + 1] : Arrays.copyOf(channelPostings, channel + 1);
+            postings[stationIndex] = channelPostings;
+        }
+        if (channelPostings[channel] == null) {
+            channelPostings[channel] = new PostingList();
+        }
+        return channelPostings[channel];
+    }
+
+    private static int totalSize(List<PostingList> lists) {
+        int size = 0;
+        for (PostingList list : lists) {
+            size += list.size();
+        }
+        return size;
+    }
+
+    // The lists of a station are disjoint, since an entry puts a station on a single channel
+    private static int[] union(List<PostingList> lists) {
+        final int[] union = new int[totalSize(lists)];
+        int offset = 0;
+        for (PostingList list : lists) {
+            offset = list.copyTo(union, offset);
+        }
+        if (lists.size() > 1) {
+            Arrays.sort(union);
+        }
+        return union;
+    }
+
+    private static int[] intersect(int[] candidates, List<PostingList> lists) {
+        final int[] intersection = new int[candidates.length];
+        int size = 0;
+        for (int id : candidates) {
+            for (PostingList list : lists) {
+                if (list.contains(id)) {
+                    intersection[size++] = id;
+                    break;
+                }
+            }
+        }
+        return Arrays.copyOf(intersection, size);
+    }
+
+    /**
+     * Growable sorted array of entry ids. Removed ids are only set aside in a small sorted buffer, and dropped from the
+     * array in a single pass once enough of them accumulate, so that a removal does not shift the whole array.
+     */
+    private static final class PostingList {
+
+        // Compact once this many ids, or an eighth of the array if more, are waiting to be dropped
+        private static final int MIN_COMPACTION = 16;
+
+        // May still hold removed ids
+        private int[] ids = new int[4];
+        private int size = 0;
+        // Removed ids still in ids
+        private int[] removed = new int[0];
+        private int numRemoved = 0;
+
+        int size() {
+            return size - numRemoved;
+        }
+
+        void add(int id) {
+            final int removedPosition = Arrays.binarySearch(removed, 0, numRemoved, id);
+            if (removedPosition >= 0) {
+                // A reused id that was never dropped from the array
+                System.arraycopy(removed, removedPosition + 1, removed, removedPosition, numRemoved - removedPosition - 1);
+                numRemoved--;
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            if (size == 0 || ids[size - 1] < id) {
+                ids[size++] = id;
+                return;
+            }
+            // Reused ids go in the middle
+            final int position = -(Arrays.binarySearch(ids, 0, size, id) + 1);
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+        }
+
+        void remove(int id) {
+            if (Arrays.binarySearch(ids, 0, size, id) < 0) {
+                return;
+            }
+            final int position = Arrays.binarySearch(removed, 0, numRemoved, id);
+            if (position >= 0) {
+                return;
+            }
+            final int insertion = -(position + 1);
+            if (numRemoved == removed.length) {
+                removed = Arrays.copyOf(removed, Math.max(4, numRemoved * 2));
+            }
+            System.arraycopy(removed, insertion, removed, insertion + 1, numRemoved - insertion);
+            removed[insertion] = id;
+            numRemoved++;
+            if (numRemoved >= Math.max(MIN_COMPACTION, size / 8)) {
+                compact();
+            }
+        }
+
+        private void compact() {
+            final int newSize = copyTo(ids, 0);
+            size = newSize;
+            numRemoved = 0;
+            removed = new int[0];
+            if (size < ids.length / 4) {
+                ids = Arrays.copyOf(ids, Math.max(4, size * 2));
+            }
+        }
+
+        boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0 && (numRemoved == 0 || Arrays.binarySearch(removed, 0, numRemoved, id) < 0);
+        }
+
+        /**
+         * Copy the ids in order, leaving out removed ones
+         * @return the offset following the last id copied
+         */
+        int copyTo(int[] destination, int offset) {
+            int r = 0;
+            for (int i = 0; i < size; i++) {
+                if (r < numRemoved && removed[r] == ids[i]) {
+                    r++;
+                } else {
+                    destination[offset++] = ids[i];
+                }
+            }
+            return offset;
+        }
+
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.cache.containment;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.BiMap;
+
+import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
+import lombok.Getter;
+
+/**
+ * The domains of a cache query, packed as one channel bitmask per station indexed by the cache's permutation.
+ * Built once per query so that testing a candidate cache entry against it does not allocate anything.
+ */
+public class StationDomainMasks {
+
+    // Stations of the query, by permutation index
+    @Getter
+    private final BitSet stations;
+    @Getter
+    private final int numStations;
+    private final int wordsPerStation;
+    // Bit (channel % 64) of masks[index * wordsPerStation + channel / 64] is set if the channel is in the domain of the station at index
+    private final long[] masks;
+
+    public StationDomainMasks(StationPackingInstance aInstance, BiMap<Station, Integer> permutation) {
+        final Map<Station, Set<Integer>> domains = aInstance.getDomains();
+        stations = new BitSet();
+        int maxChannel = 0;
+        for (Map.Entry<Station, Set<Integer>> entry : domains.entrySet()) {
+            final Integer index = permutation.get(entry.getKey());
+            Preconditions.checkArgument(index != null, "Station %s is not in the cache's permutation", entry.getKey());
+            stations.set(index);
+            for (Integer channel : entry.getValue()) {
+                Preconditions.checkArgument(channel >= 0, "Negative channel %s for station %s", channel, entry.getKey());
+                maxChannel = Math.max(maxChannel, channel);
+            }
+        }
+        numStations = domains.size();
+        wordsPerStation = maxChannel / Long.SIZE + 1;
+        masks = new long[Math.max(stations.length(), 1) * wordsPerStation];
+        for (Map.Entry<Station, Set<Integer>> entry : domains.entrySet()) {
+            final int offset = permutation.get(entry.getKey()) * wordsPerStation;
+            for (Integer channel : entry.getValue()) {
+                masks[offset + channel / Long.SIZE] |= 1L << channel;
+            }
+        }
+    }
+
+    /**
+     * @return true if the station at the given permutation index is part of the query
+     */
+    public boolean containsStation(int stationIndex) {
+        return stations.get(stationIndex);
+    }
+
+    /**
+     * @return true if the channel is in the domain of the query station at the given permutation index
+     */
+    public boolean allows(int stationIndex, int channel) {
+        final int word = channel / Long.SIZE;
+        return word < wordsPerStation && (masks[stationIndex * wordsPerStation + word] & (1L << channel)) != 0;
+    }
+
+    /**
+     * @param channels bit c is set if channel c is allowed, for channels below 64
+     * @return true if the domain of the query station at the given permutation index only has allowed channels
+     */
+    public boolean isDomainWithin(int stationIndex, long channels) {
+        final int offset = stationIndex * wordsPerStation;
+        if ((masks[offset] & ~channels) != 0) {
+            return false;
+        }
+        for (int word = 1; word < wordsPerStation; word++) {
+            if (masks[offset + word] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
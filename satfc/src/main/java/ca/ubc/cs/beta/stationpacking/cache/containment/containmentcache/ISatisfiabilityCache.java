@@ -23,16 +23,19 @@ package ca.ubc.cs.beta.stationpacking.cache.containment.containmentcache;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.function.Function;
 import java.util.function.Predicate;
 
 import com.google.common.collect.ImmutableBiMap;
 
 import ca.ubc.cs.beta.stationpacking.base.Station;
 import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
+import ca.ubc.cs.beta.stationpacking.cache.ISATFCCacheEntry;
 import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheSATEntry;
 import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheSATResult;
 import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheUNSATEntry;
 import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheUNSATResult;
+import ca.ubc.cs.beta.stationpacking.cache.containment.SearchDeadline;
 import ca.ubc.cs.beta.stationpacking.datamanagers.stations.IStationManager;
 
 /**
@@ -40,12 +43,24 @@ import ca.ubc.cs.beta.stationpacking.datamanagers.stations.IStationManager;
  */
 public interface ISatisfiabilityCache {
 
-    ContainmentCacheSATResult proveSATBySuperset(final StationPackingInstance aInstance, final Predicate<ContainmentCacheSATEntry> filterPredicate);
+    /**
+     * @param deadline the search gives up and fails once it passes
+     */
+    ContainmentCacheSATResult proveSATBySuperset(final StationPackingInstance aInstance, final Predicate<ContainmentCacheSATEntry> filterPredicate, final SearchDeadline deadline);
+    default ContainmentCacheSATResult proveSATBySuperset(final StationPackingInstance aInstance, final Predicate<ContainmentCacheSATEntry> filterPredicate) {
+        return proveSATBySuperset(aInstance, filterPredicate, SearchDeadline.none());
+    }
     default ContainmentCacheSATResult proveSATBySuperset(final StationPackingInstance aInstance) {
         return proveSATBySuperset(aInstance, unused -> true);
     }
 
-    ContainmentCacheUNSATResult proveUNSATBySubset(final StationPackingInstance aInstance);
+    /**
+     * @param deadline the search gives up and fails once it passes
+     */
+    ContainmentCacheUNSATResult proveUNSATBySubset(final StationPackingInstance aInstance, final SearchDeadline deadline);
+    default ContainmentCacheUNSATResult proveUNSATBySubset(final StationPackingInstance aInstance) {
+        return proveUNSATBySubset(aInstance, SearchDeadline.none());
+    }
 
     void add(ContainmentCacheSATEntry SATEntry);
     default void addAllSAT(Collection<ContainmentCacheSATEntry> SATEntries) {
@@ -56,6 +71,37 @@ public interface ISatisfiabilityCache {
         UNSATEntries.forEach(this::add);
     }
 
+    /**
+     * Add a SAT entry and remove the entries it has more solving power than. Safe to call concurrently: each removed
+     * entry is returned by a single call.
+     * @return the removed entries
+     */
+    List<ContainmentCacheSATEntry> addAndPrune(ContainmentCacheSATEntry SATEntry);
+
+    /**
+     * Add an UNSAT entry and remove the entries that are more restrictive than it. Safe to call concurrently: each
+     * removed entry is returned by a single call.
+     * @return the removed entries
+     */
+    List<ContainmentCacheUNSATEntry> addAndPrune(ContainmentCacheUNSATEntry UNSATEntry);
+
+    /**
+     * Add back entries that were evicted to stay within the cache's memory budget, most useful first, while there is room
+     * @param loader reads an entry from its redis key, returning null if it cannot
+     * @return the number of entries added back
+     */
+    int reloadEvicted(Function<String, ISATFCCacheEntry> loader);
+
+    /**
+     * @return every SAT and UNSAT entry currently in memory
+     */
+    List<ISATFCCacheEntry> getEntries();
+
+    /**
+     * @return the keys of the entries evicted to stay within the cache's memory budget, which are only in redis
+     */
+    List<String> getEvictedKeys();
+
     List<ContainmentCacheSATEntry> filterSAT(IStationManager stationManager, boolean strong);
     List<ContainmentCacheUNSATEntry> filterUNSAT();
 
@@ -0,0 +1,428 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.datamanagers.constraints;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.datamanagers.stations.IStationManager;
+import ca.ubc.cs.beta.stationpacking.utils.BinaryIOUtils;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Constraint manager that stores interference constraints in flat primitive arrays instead of nested maps.
+ * <p>
+ * Every station is given a dense index (its rank by ID), and for each constraint type (CO, ADJ+1, ADJ+2) the
+ * interfering stations are stored in compressed sparse row form: one row per (station, channel) cell,
+ * pointing into a single array of interfering station indices sorted by ID. A lookup is a binary search for the
+ * station's dense index, then two array reads and a slice, without hashing or boxing. Membership tests on the slice
+ * are binary searches.
+ * </p>
+ * <p>
+ * Pairwise checks ({@link #isSatisfyingAssignment(Station, int, Station, int)}) are answered from a
+ * {@link ChannelCompatibilityTable} built once with the manager, which costs a binary search for each station's dense
+ * index, a binary search in the first station's neighbour list and a single word test.
+ * </p>
+ * <p>
+ * The manager is built from an already parsed {@link AMapBasedConstraintManager}, and keeps its constraint hash
+ * so that cache coordinates are unchanged. It can also be written to and read back from a binary form
+ * (see {@link #write(DataOutputStream)} and {@link #read(ByteBuffer)}), which skips parsing and hashing altogether.
+ * </p>
+ */
+@Slf4j
+public class ArrayBasedConstraintManager extends AConstraintManager {
+
+    private final static int CO = 0;
+    private final static int ADJp1 = 1;
+    private final static int ADJp2 = 2;
+
+    /*
+     * Stations sorted by ID, the position of a station in this array is its dense index.
+     */
+    private final Station[] fStations;
+    private final int[] fStationIDs;
+
+    /*
+     * Interference tables indexed by CO, ADJp1 and ADJp2.
+     */
+    private final InterferenceTable[] fTables;
+
+    private final ChannelCompatibilityTable fCompatibilityTable;
+
+    private final String fHash;
+    private final boolean fCompactFormat;
+
+    /**
+     * Construct an array based constraint manager holding the same constraints as the given map based constraint manager.
+     *
+     * @param aStationManager    - station manager.
+     * @param aConstraintManager - map based constraint manager to copy constraints from.
+     */
+    public ArrayBasedConstraintManager(IStationManager aStationManager, AMapBasedConstraintManager aConstraintManager) {
+        final Set<Station> stations = new TreeSet<>(aStationManager.getStations());
+        for (Map<Station, Map<Integer, Set<Station>>> constraints : Arrays.asList(aConstraintManager.fCOConstraints, aConstraintManager.fADJp1Constraints, aConstraintManager.fADJp2Constraints)) {
+            constraints.forEach((station, channelConstraints) -> {
+                stations.add(station);
+                channelConstraints.values().forEach(stations::addAll);
+            });
+        }
+        fStations = stations.toArray(new Station[stations.size()]);
+        fStationIDs = new int[fStations.length];
+        for (int i = 0; i < fStations.length; i++) {
+            fStationIDs[i] = fStations[i].getID();
+        }
+
+        fTables = new InterferenceTable[3];
+        fTables[CO] = buildTable(aConstraintManager.fCOConstraints);
+        fTables[ADJp1] = buildTable(aConstraintManager.fADJp1Constraints);
+        fTables[ADJp2] = buildTable(aConstraintManager.fADJp2Constraints);
+
+        fCompatibilityTable = new ChannelCompatibilityTable(fStations.length, this::forEachConstraint);
+
+        fHash = aConstraintManager.getConstraintHash();
+        fCompactFormat = aConstraintManager instanceof ChannelSpecificConstraintManager;
+        log.debug("Packed constraints for {} stations into {} interfering station entries.", fStations.length, fTables[CO].targets.length + fTables[ADJp1].targets.length + fTables[ADJp2].targets.length);
+    }
+
+    private ArrayBasedConstraintManager(int[] aStationIDs, InterferenceTable[] aTables, ChannelCompatibilityTable aCompatibilityTable, String aHash, boolean aCompactFormat) {
+        fStationIDs = aStationIDs;
+        fStations = new Station[aStationIDs.length];
+        for (int i = 0; i < aStationIDs.length; i++) {
+            fStations[i] = new Station(aStationIDs[i]);
+        }
+        fTables = aTables;
+        fCompatibilityTable = aCompatibilityTable;
+        fHash = aHash;
+        fCompactFormat = aCompactFormat;
+    }
+
+    /**
+     * Write this constraint manager in binary form.
+     *
+     * @param aOutput - output to write to.
+     * @throws IOException - if the output cannot be written to.
+     */
+    public void write(DataOutputStream aOutput) throws IOException {
+        BinaryIOUtils.writeString(aOutput, fHash);
+        aOutput.writeBoolean(fCompactFormat);
+        BinaryIOUtils.writeIntArray(aOutput, fStationIDs);
+        for (InterferenceTable table : fTables) {
+            BinaryIOUtils.writeIntArray(aOutput, table.minChannel);
+            BinaryIOUtils.writeIntArray(aOutput, table.cellBase);
+            BinaryIOUtils.writeIntArray(aOutput, table.cellStart);
+            BinaryIOUtils.writeIntArray(aOutput, table.targets);
+        }
+        fCompatibilityTable.write(aOutput);
+    }
+
+    /**
+     * Read a constraint manager previously written with {@link #write(DataOutputStream)}.
+     *
+     * @param aInput - buffer positioned at the start of the constraint manager, left positioned right after it.
+     * @return the constraint manager.
+     */
+    public static ArrayBasedConstraintManager read(ByteBuffer aInput) {
+        final String hash = BinaryIOUtils.readString(aInput);
+        final boolean compactFormat = aInput.get() != 0;
+        final int[] stationIDs = BinaryIOUtils.readIntArray(aInput);
+        final InterferenceTable[] tables = new InterferenceTable[3];
+        for (int type = CO; type <= ADJp2; type++) {
+            tables[type] = new InterferenceTable(BinaryIOUtils.readIntArray(aInput), BinaryIOUtils.readIntArray(aInput), BinaryIOUtils.readIntArray(aInput), BinaryIOUtils.readIntArray(aInput));
+        }
+        final ChannelCompatibilityTable compatibilityTable = ChannelCompatibilityTable.read(aInput);
+        return new ArrayBasedConstraintManager(stationIDs, tables, compatibilityTable, hash, compactFormat);
+    }
+
+    private InterferenceTable buildTable(Map<Station, Map<Integer, Set<Station>>> aConstraints) {
+        final int numStations = fStations.length;
+        final int[] minChannel = new int[numStations];
+        final int[] cellBase = new int[numStations + 1];
+        // First pass: the channel range of every station determines the number of cells it owns.
+        for (int s = 0; s < numStations; s++) {
+            final Map<Integer, Set<Station>> channelConstraints = aConstraints.getOrDefault(fStations[s], Collections.emptyMap());
+            int numCells = 0;
+            if (!channelConstraints.isEmpty()) {
+                final int min = Collections.min(channelConstraints.keySet());
+                final int max = Collections.max(channelConstraints.keySet());
+                minChannel[s] = min;
+                numCells = max - min + 1;
+            }
+            cellBase[s + 1] = cellBase[s] + numCells;
+        }
+        // Second pass: fill in the sorted target indices for every cell.
+        final int[] cellStart = new int[cellBase[numStations] + 1];
+        int numTargets = 0;
+        for (Map<Integer, Set<Station>> channelConstraints : aConstraints.values()) {
+            for (Set<Station> targets : channelConstraints.values()) {
+                numTargets += targets.size();
+            }
+        }
+        final int[] targets = new int[numTargets];
+        int position = 0;
+        for (int s = 0; s < numStations; s++) {
+            final Map<Integer, Set<Station>> channelConstraints = aConstraints.getOrDefault(fStations[s], Collections.emptyMap());
+            for (int cell = cellBase[s]; cell < cellBase[s + 1]; cell++) {
+                cellStart[cell] = position;
+                final Set<Station> cellTargets = channelConstraints.getOrDefault(minChannel[s] + cell - cellBase[s], Collections.emptySet());
+                final int from = position;
+                for (Station target : cellTargets) {
+                    targets[position++] = getStationIndex(target);
+                }
+                Arrays.sort(targets, from, position);
+            }
+        }
+        cellStart[cellBase[numStations]] = position;
+        return new InterferenceTable(minChannel, cellBase, cellStart, targets);
+    }
+
+    private void forEachConstraint(ChannelCompatibilityTable.IndexedConstraintConsumer aConsumer) {
+        for (int type = CO; type <= ADJp2; type++) {
+            final InterferenceTable table = fTables[type];
+            for (int s = 0; s < fStations.length; s++) {
+                for (int cell = table.cellBase[s]; cell < table.cellBase[s + 1]; cell++) {
+                    final int channel = table.minChannel[s] + cell - table.cellBase[s];
+                    for (int t = table.cellStart[cell]; t < table.cellStart[cell + 1]; t++) {
+                        aConsumer.accept(s, channel, table.targets[t], channel + type);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param aStation - a station.
+     * @return the dense index of the station in this manager, or a negative number if the station is unknown.
+     */
+    public int getStationIndex(Station aStation) {
+        return Arrays.binarySearch(fStationIDs, aStation.getID());
+    }
+
+    /**
+     * @param aIndex - a dense station index.
+     * @return the station with the given dense index.
+     */
+    public Station getStation(int aIndex) {
+        return fStations[aIndex];
+    }
+
+    /**
+     * @return the number of stations indexed by this manager.
+     */
+    public int getNumStations() {
+        return fStations.length;
+    }
+
+    /**
+     * @return true if the constraints were read from the compact (channel specific) interference format.
+     */
+    public boolean isCompactFormat() {
+        return fCompactFormat;
+    }
+
+    private Set<Station> getInterferingStations(Station aStation, int aChannel, int aConstraintType) {
+        final int index = getStationIndex(aStation);
+        if (index < 0) {
+            return Collections.emptySet();
+        }
+        final InterferenceTable table = fTables[aConstraintType];
+        final int cell = table.getCell(index, aChannel);
+        if (cell < 0 || table.cellStart[cell] == table.cellStart[cell + 1]) {
+            return Collections.emptySet();
+        }
+        return new StationSlice(table.targets, table.cellStart[cell], table.cellStart[cell + 1]);
+    }
+
+    @Override
+    public Set<Station> getCOInterferingStations(Station aStation, int aChannel) {
+        return getInterferingStations(aStation, aChannel, CO);
+    }
+
+    @Override
+    public Set<Station> getADJplusOneInterferingStations(Station aStation, int aChannel) {
+        return getInterferingStations(aStation, aChannel, ADJp1);
+    }
+
+    @Override
+    public Set<Station> getADJplusTwoInterferingStations(Station aStation, int aChannel) {
+        return getInterferingStations(aStation, aChannel, ADJp2);
+    }
+
+    /**
+     * @return the pairwise channel compatibility table over this manager's station indices.
+     */
+    public ChannelCompatibilityTable getCompatibilityTable() {
+        return fCompatibilityTable;
+    }
+
+    @Override
+    public boolean isSatisfyingAssignment(Station s1, int c1, Station s2, int c2) {
+        if (s1.equals(s2)) {
+            // A station on two different channels is never a satisfying assignment.
+            return c1 == c2 && !getCOInterferingStations(s1, c1).contains(s2);
+        }
+        final int i1 = getStationIndex(s1);
+        final int i2 = getStationIndex(s2);
+        return i1 < 0 || i2 < 0 || fCompatibilityTable.isCompatible(i1, c1, i2, c2);
+    }
+
+    @Override
+    public Iterable<Constraint> getAllRelevantConstraints(Map<Station, Set<Integer>> domains) {
+        // Align the problem's domains with the dense station indices so that membership is a binary search.
+        final int[] indices = new int[domains.size()];
+        int numIndices = 0;
+        for (Station station : domains.keySet()) {
+            final int index = getStationIndex(station);
+            if (index >= 0) {
+                indices[numIndices++] = index;
+            }
+        }
+        Arrays.sort(indices, 0, numIndices);
+        final List<Set<Integer>> domainByPosition = new ArrayList<>(numIndices);
+        for (int i = 0; i < numIndices; i++) {
+            domainByPosition.add(domains.get(fStations[indices[i]]));
+        }
+
+        final Collection<Constraint> constraintCollection = new ArrayList<>();
+        for (int i = 0; i < numIndices; i++) {
+            final int sourceIndex = indices[i];
+            final Station sourceStation = fStations[sourceIndex];
+            for (Integer sourceChannel : domainByPosition.get(i)) {
+                for (int type = CO; type <= ADJp2; type++) {
+                    final InterferenceTable table = fTables[type];
+                    final int cell = table.getCell(sourceIndex, sourceChannel);
+                    if (cell < 0) {
+                        continue;
+                    }
+                    final int targetChannel = sourceChannel + type;
+                    for (int t = table.cellStart[cell]; t < table.cellStart[cell + 1]; t++) {
+                        final int position = Arrays.binarySearch(indices, 0, numIndices, table.targets[t]);
+                        if (position >= 0 && domainByPosition.get(position).contains(targetChannel)) {
+                            constraintCollection.add(new Constraint(sourceStation, fStations[table.targets[t]], sourceChannel, targetChannel));
+                        }
+                    }
+                }
+            }
+        }
+        return constraintCollection;
+    }
+
+    @Override
+    public String getConstraintHash() {
+        return fHash;
+    }
+
+    /**
+     * Compressed sparse row storage for a single constraint type.
+     */
+    private static class InterferenceTable {
+
+        // Lowest channel with a constraint, per station.
+        private final int[] minChannel;
+        // Cells of station s are cellBase[s] (inclusive) to cellBase[s+1] (exclusive), one per channel starting at minChannel[s].
+        private final int[] cellBase;
+        // Targets of cell c are targets[cellStart[c]] (inclusive) to targets[cellStart[c+1]] (exclusive).
+        private final int[] cellStart;
+        private final int[] targets;
+
+        private InterferenceTable(int[] minChannel, int[] cellBase, int[] cellStart, int[] targets) {
+            this.minChannel = minChannel;
+            this.cellBase = cellBase;
+            this.cellStart = cellStart;
+            this.targets = targets;
+        }
+
+        /**
+         * @return the cell of the given station index and channel, or -1 if the station has no constraint on that channel.
+         */
+        private int getCell(int aStationIndex, int aChannel) {
+            final int offset = aChannel - minChannel[aStationIndex];
+            if (offset < 0 || offset >= cellBase[aStationIndex + 1] - cellBase[aStationIndex]) {
+                return -1;
+            }
+            return cellBase[aStationIndex] + offset;
+        }
+    }
+
+    /**
+     * Read-only set view over a slice of sorted station indices.
+     */
+    private class StationSlice extends AbstractSet<Station> {
+
+        private final int[] fIndices;
+        private final int fFrom;
+        private final int fTo;
+
+        private StationSlice(int[] aIndices, int aFrom, int aTo) {
+            fIndices = aIndices;
+            fFrom = aFrom;
+            fTo = aTo;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Station)) {
+                return false;
+            }
+            final int index = getStationIndex((Station) o);
+            return index >= 0 && Arrays.binarySearch(fIndices, fFrom, fTo, index) >= 0;
+        }
+
+        @Override
+        public Iterator<Station> iterator() {
+            return new Iterator<Station>() {
+                int fPosition = fFrom;
+
+                @Override
+                public boolean hasNext() {
+                    return fPosition < fTo;
+                }
+
+                @Override
+                public Station next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return fStations[fIndices[fPosition++]];
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return fTo - fFrom;
+        }
+    }
+
+}
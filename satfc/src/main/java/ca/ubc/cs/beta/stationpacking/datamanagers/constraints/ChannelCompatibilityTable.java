@@ -0,0 +1,188 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.datamanagers.constraints;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import ca.ubc.cs.beta.stationpacking.utils.BinaryIOUtils;
+
+/**
+ * Pairwise channel compatibility lookup between densely indexed stations.
+ * <p>
+ * For every pair of stations that share at least one constraint, five channel bitmasks are kept, one for each channel
+ * offset between -2 and +2. Bit c of the mask for offset d is set when the first station cannot be on channel c while
+ * the second station is on channel c+d. Both orientations of a pair are stored, so a check is a binary search in the
+ * (short) neighbour list of the first station followed by a single word test.
+ * </p>
+ */
+public class ChannelCompatibilityTable {
+
+    private final static int NUM_OFFSETS = 5;
+    private final static int MAX_OFFSET = 2;
+
+    // Neighbours of station i are neighbours[neighbourStart[i]] (inclusive) to neighbours[neighbourStart[i+1]] (exclusive), sorted.
+    private final int[] fNeighbourStart;
+    private final int[] fNeighbours;
+
+    // Channel represented by bit 0 of the masks, and number of 64 bit words per mask.
+    private final int fBaseChannel;
+    private final int fWordsPerMask;
+    private final long[] fMasks;
+
+    /**
+     * Receives a single (source station index, source channel, target station index, target channel) constraint.
+     */
+    public interface IndexedConstraintConsumer {
+        void accept(int aSourceIndex, int aSourceChannel, int aTargetIndex, int aTargetChannel);
+    }
+
+    /**
+     * Supplies every constraint of a constraint set to a consumer.
+     */
+    public interface IndexedConstraintSource {
+        void forEachConstraint(IndexedConstraintConsumer aConsumer);
+    }
+
+    /**
+     * Build the compatibility table of the given constraints.
+     *
+     * @param aNumStations - number of densely indexed stations.
+     * @param aConstraints - constraints over station indices in [0, aNumStations).
+     */
+    public ChannelCompatibilityTable(int aNumStations, IndexedConstraintSource aConstraints) {
+        // First pass: degree upper bounds and channel range.
+        final int[] degree = new int[aNumStations];
+        final int[] channelRange = {Integer.MAX_VALUE, Integer.MIN_VALUE};
+        aConstraints.forEachConstraint((sourceIndex, sourceChannel, targetIndex, targetChannel) -> {
+            degree[sourceIndex]++;
+            degree[targetIndex]++;
+            channelRange[0] = Math.min(channelRange[0], Math.min(sourceChannel, targetChannel));
+            channelRange[1] = Math.max(channelRange[1], Math.max(sourceChannel, targetChannel));
+        });
+
+        // Second pass: collect (possibly repeated) neighbours, then sort and deduplicate them per station.
+        final int[] rawStart = new int[aNumStations + 1];
+        for (int i = 0; i < aNumStations; i++) {
+            rawStart[i + 1] = rawStart[i] + degree[i];
+        }
+        final int[] rawNeighbours = new int[rawStart[aNumStations]];
+        final int[] fill = Arrays.copyOf(rawStart, aNumStations);
+        aConstraints.forEachConstraint((sourceIndex, sourceChannel, targetIndex, targetChannel) -> {
+            rawNeighbours[fill[sourceIndex]++] = targetIndex;
+            rawNeighbours[fill[targetIndex]++] = sourceIndex;
+        });
+        fNeighbourStart = new int[aNumStations + 1];
+        int numNeighbours = 0;
+        for (int i = 0; i < aNumStations; i++) {
+            Arrays.sort(rawNeighbours, rawStart[i], rawStart[i + 1]);
+            fNeighbourStart[i] = numNeighbours;
+            for (int k = rawStart[i]; k < rawStart[i + 1]; k++) {
+                if (k == rawStart[i] || rawNeighbours[k] != rawNeighbours[k - 1]) {
+                    rawNeighbours[numNeighbours++] = rawNeighbours[k];
+                }
+            }
+        }
+        fNeighbourStart[aNumStations] = numNeighbours;
+        fNeighbours = Arrays.copyOf(rawNeighbours, numNeighbours);
+
+        // Third pass: set the forbidden channel bits in both orientations.
+        fBaseChannel = numNeighbours > 0 ? channelRange[0] : 0;
+        fWordsPerMask = numNeighbours > 0 ? (channelRange[1] - channelRange[0]) / Long.SIZE + 1 : 1;
+        fMasks = new long[numNeighbours * NUM_OFFSETS * fWordsPerMask];
+        aConstraints.forEachConstraint((sourceIndex, sourceChannel, targetIndex, targetChannel) -> {
+            setForbidden(sourceIndex, sourceChannel, targetIndex, targetChannel);
+            setForbidden(targetIndex, targetChannel, sourceIndex, sourceChannel);
+        });
+    }
+
+    private ChannelCompatibilityTable(int[] aNeighbourStart, int[] aNeighbours, int aBaseChannel, int aWordsPerMask, long[] aMasks) {
+        fNeighbourStart = aNeighbourStart;
+        fNeighbours = aNeighbours;
+        fBaseChannel = aBaseChannel;
+        fWordsPerMask = aWordsPerMask;
+        fMasks = aMasks;
+    }
+
+    void write(DataOutputStream aOutput) throws IOException {
+        BinaryIOUtils.writeIntArray(aOutput, fNeighbourStart);
+        BinaryIOUtils.writeIntArray(aOutput, fNeighbours);
+        aOutput.writeInt(fBaseChannel);
+        aOutput.writeInt(fWordsPerMask);
+        BinaryIOUtils.writeLongArray(aOutput, fMasks);
+    }
+
+    static ChannelCompatibilityTable read(ByteBuffer aInput) {
+        final int[] neighbourStart = BinaryIOUtils.readIntArray(aInput);
+        final int[] neighbours = BinaryIOUtils.readIntArray(aInput);
+        final int baseChannel = aInput.getInt();
+        final int wordsPerMask = aInput.getInt();
+        final long[] masks = BinaryIOUtils.readLongArray(aInput);
+        return new ChannelCompatibilityTable(neighbourStart, neighbours, baseChannel, wordsPerMask, masks);
+    }
+
+    private int getSlot(int aStationIndex, int aNeighbourIndex) {
+        final int slot = Arrays.binarySearch(fNeighbours, fNeighbourStart[aStationIndex], fNeighbourStart[aStationIndex + 1], aNeighbourIndex);
+        return slot >= 0 ? slot : -1;
+    }
+
+    private int getWord(int aSlot, int aOffset, int aBit) {
+        return (aSlot * NUM_OFFSETS + aOffset + MAX_OFFSET) * fWordsPerMask + aBit / Long.SIZE;
+    }
+
+    private void setForbidden(int aStationIndex, int aChannel, int aNeighbourIndex, int aNeighbourChannel) {
+        final int offset = aNeighbourChannel - aChannel;
+        if (Math.abs(offset) > MAX_OFFSET) {
+            throw new IllegalArgumentException("Constraint between channels " + aChannel + " and " + aNeighbourChannel + " is not a CO, ADJ+1 or ADJ+2 constraint.");
+        }
+        final int bit = aChannel - fBaseChannel;
+        fMasks[getWord(getSlot(aStationIndex, aNeighbourIndex), offset, bit)] |= 1L << bit;
+    }
+
+    /**
+     * @param aStationIndex     - index of the first station.
+     * @param aChannel          - channel of the first station.
+     * @param aNeighbourIndex   - index of the second station.
+     * @param aNeighbourChannel - channel of the second station.
+     * @return true if and only if no constraint forbids the two stations being on the given channels at the same time.
+     */
+    public boolean isCompatible(int aStationIndex, int aChannel, int aNeighbourIndex, int aNeighbourChannel) {
+        final int offset = aNeighbourChannel - aChannel;
+        final int bit = aChannel - fBaseChannel;
+        if (offset > MAX_OFFSET || offset < -MAX_OFFSET || bit < 0 || bit >= fWordsPerMask * Long.SIZE) {
+            return true;
+        }
+        final int slot = getSlot(aStationIndex, aNeighbourIndex);
+        return slot < 0 || (fMasks[getWord(slot, offset, bit)] & (1L << bit)) == 0;
+    }
+
+    /**
+     * @param aStationIndex - index of a station.
+     * @return the number of stations sharing at least one constraint with the given station.
+     */
+    public int getNumNeighbours(int aStationIndex) {
+        return fNeighbourStart[aStationIndex + 1] - fNeighbourStart[aStationIndex];
+    }
+
+}
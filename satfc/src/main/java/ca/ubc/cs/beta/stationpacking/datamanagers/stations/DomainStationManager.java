@@ -21,9 +21,11 @@
  */
 package ca.ubc.cs.beta.stationpacking.datamanagers.stations;
 
+import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -38,6 +40,7 @@ import com.google.common.hash.PrimitiveSink;
 
 import au.com.bytecode.opencsv.CSVReader;
 import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.utils.BinaryIOUtils;
 
 /**
  * In charge of managing collections of stations read from a domain file.
@@ -106,6 +109,71 @@ public class DomainStationManager implements IStationManager{
         fHash = hc.toString();
 	}
 	
+	private DomainStationManager(Map<Station,Set<Integer>> aDomains, String aHash)
+	{
+		for(Map.Entry<Station,Set<Integer>> aEntry : aDomains.entrySet())
+		{
+			fStations.put(aEntry.getKey().getID(), aEntry.getKey());
+			fDomains.put(aEntry.getKey(), aEntry.getValue());
+		}
+		fHash = aHash;
+	}
+
+	/**
+	 * Write the station domains in binary form, each domain being a channel bitmask.
+	 * @param aOutput - output to write to.
+	 * @throws IOException - if the output cannot be written to.
+	 */
+	public void write(DataOutputStream aOutput) throws IOException {
+		final int[] aIDs = fStations.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+		final int aBaseChannel = fDomains.values().stream().flatMap(Set::stream).mapToInt(Integer::intValue).min().orElse(0);
+		final int aMaxChannel = fDomains.values().stream().flatMap(Set::stream).mapToInt(Integer::intValue).max().orElse(0);
+		final int aWordsPerDomain = (aMaxChannel - aBaseChannel) / Long.SIZE + 1;
+		final long[] aMasks = new long[aIDs.length * aWordsPerDomain];
+		for(int i=0;i<aIDs.length;i++)
+		{
+			for(Integer aChannel : fDomains.get(fStations.get(aIDs[i])))
+			{
+				final int aBit = aChannel - aBaseChannel;
+				aMasks[i * aWordsPerDomain + aBit / Long.SIZE] |= 1L << aBit;
+			}
+		}
+		BinaryIOUtils.writeString(aOutput, fHash);
+		BinaryIOUtils.writeIntArray(aOutput, aIDs);
+		aOutput.writeInt(aBaseChannel);
+		aOutput.writeInt(aWordsPerDomain);
+		BinaryIOUtils.writeLongArray(aOutput, aMasks);
+	}
+
+	/**
+	 * Read station domains previously written with {@link #write(DataOutputStream)}.
+	 * @param aInput - buffer positioned at the start of the station domains, left positioned right after them.
+	 * @return the station manager.
+	 */
+	public static DomainStationManager read(ByteBuffer aInput) {
+		final String aHash = BinaryIOUtils.readString(aInput);
+		final int[] aIDs = BinaryIOUtils.readIntArray(aInput);
+		final int aBaseChannel = aInput.getInt();
+		final int aWordsPerDomain = aInput.getInt();
+		final long[] aMasks = BinaryIOUtils.readLongArray(aInput);
+		final Map<Station,Set<Integer>> aDomains = new HashMap<Station,Set<Integer>>();
+		for(int i=0;i<aIDs.length;i++)
+		{
+			final ImmutableSet.Builder<Integer> aChannelDomainBuilder = ImmutableSet.builder();
+			for(int w=0;w<aWordsPerDomain;w++)
+			{
+				long aWord = aMasks[i * aWordsPerDomain + w];
+				while(aWord != 0)
+				{
+					aChannelDomainBuilder.add(aBaseChannel + w * Long.SIZE + Long.numberOfTrailingZeros(aWord));
+					aWord &= aWord - 1;
+				}
+			}
+			aDomains.put(new Station(aIDs[i]), aChannelDomainBuilder.build());
+		}
+		return new DomainStationManager(aDomains, aHash);
+	}
+
 	@Override
 	public Set<Station> getStations() {
 		return new HashSet<Station>(fStations.values());
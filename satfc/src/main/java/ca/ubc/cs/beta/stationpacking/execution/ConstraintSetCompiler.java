@@ -0,0 +1,78 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.execution;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.beust.jcommander.Parameter;
+
+import ca.ubc.cs.beta.aeatk.misc.jcommander.JCommanderHelper;
+import ca.ubc.cs.beta.aeatk.misc.options.UsageTextField;
+import ca.ubc.cs.beta.aeatk.options.AbstractOptions;
+import ca.ubc.cs.beta.stationpacking.facade.SATFCFacadeBuilder;
+import ca.ubc.cs.beta.stationpacking.facade.datamanager.data.CompiledConstraintSet;
+import ca.ubc.cs.beta.stationpacking.facade.datamanager.data.DataManager;
+import ca.ubc.cs.beta.stationpacking.facade.datamanager.data.ManagerBundle;
+import ch.qos.logback.classic.Level;
+
+/**
+ * Compiles station configuration folders into the binary format read by {@link DataManager}, see {@link CompiledConstraintSet}.
+ */
+public class ConstraintSetCompiler {
+
+    private static org.slf4j.Logger log;
+
+    @UsageTextField(title = "Constraint set compiler parameters", description = "Parameters needed to compile station configuration folders.")
+    public static class ConstraintSetCompilerParameters extends AbstractOptions {
+
+        @Parameter(names = "-CONSTRAINT-FOLDERS", description = "Station configuration folders to compile, or folders containing station configuration folders.", required = true, variableArity = true)
+        public List<String> constraintFolders;
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        final ConstraintSetCompilerParameters parameters = new ConstraintSetCompilerParameters();
+        JCommanderHelper.parseCheckingForHelpAndVersion(args, parameters);
+        SATFCFacadeBuilder.initializeLogging(Level.INFO, null);
+        log = org.slf4j.LoggerFactory.getLogger(ConstraintSetCompiler.class);
+
+        final List<File> stationConfigurationFolders = new ArrayList<>();
+        for (String constraintFolder : parameters.constraintFolders) {
+            final File folder = new File(constraintFolder);
+            if (new File(folder, DataManager.DOMAIN_FILE).exists()) {
+                stationConfigurationFolders.add(folder);
+            } else {
+                stationConfigurationFolders.addAll(Arrays.asList(folder.listFiles(File::isDirectory)));
+            }
+        }
+
+        for (File folder : stationConfigurationFolders) {
+            log.info("Compiling station configuration folder {}", folder.getAbsolutePath());
+            final ManagerBundle bundle = DataManager.readManagerBundle(folder.getAbsolutePath());
+            CompiledConstraintSet.write(bundle);
+        }
+    }
+
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.facade.datamanager.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import ca.ubc.cs.beta.stationpacking.cache.CacheCoordinate;
+import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.ArrayBasedConstraintManager;
+import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.IConstraintManager;
+import ca.ubc.cs.beta.stationpacking.datamanagers.stations.DomainStationManager;
+import ca.ubc.cs.beta.stationpacking.datamanagers.stations.IStationManager;
+import ca.ubc.cs.beta.stationpacking.utils.BinaryIOUtils;
+import ca.ubc.cs.beta.stationpacking.utils.Watch;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Precompiled binary form of a station configuration folder: station domains as channel bitmasks, the interference
+ * arrays of an {@link ArrayBasedConstraintManager} and both precomputed hashes. The file sits next to the CSV files
+ * of the folder and is memory mapped when read, so loading involves no parsing or hashing. The cache coordinate of the
+ * folder is repeated in the file header so that it can be known without reading the rest of the file
+ * (see {@link #readCacheCoordinate(String)}).
+ */
+@Slf4j
+public class CompiledConstraintSet {
+
+    /**
+     * File path suffix for a compiled station configuration file.
+     */
+    public static final String COMPILED_FILE = "Compiled_Constraints.bin";
+
+    private final static int MAGIC = 0x53415446;
+    /**
+     * Format version, to be incremented whenever the layout of the station or constraint manager sections changes.
+     */
+    public final static int VERSION = 2;
+
+    /**
+     * @param path - path to a station configuration folder.
+     * @return true if the folder contains a compiled file at least as recent as its domain and interference files.
+     */
+    public static boolean isUpToDate(String path) {
+        final File compiledFile = new File(path, COMPILED_FILE);
+        if (!compiledFile.exists()) {
+            return false;
+        }
+        final File domainFile = new File(path, DataManager.DOMAIN_FILE);
+        final File interferenceFile = new File(path, DataManager.INTERFERENCES_FILE);
+        return compiledFile.lastModified() >= domainFile.lastModified() && compiledFile.lastModified() >= interferenceFile.lastModified();
+    }
+
+    /**
+     * Write the compiled form of a station configuration folder inside that folder.
+     * @param bundle - manager bundle read from the folder.
+     * @throws IOException - if the compiled file cannot be written.
+     */
+    public static void write(ManagerBundle bundle) throws IOException {
+        final IStationManager stationManager = bundle.getStationManager();
+        final IConstraintManager constraintManager = bundle.getConstraintManager();
+        if (!(stationManager instanceof DomainStationManager) || !(constraintManager instanceof ArrayBasedConstraintManager)) {
+            throw new IllegalArgumentException("Only domain station managers with array based constraint managers can be compiled.");
+        }
+        final File compiledFile = new File(bundle.getInterferenceFolder(), COMPILED_FILE);
+        // Write to a temporary file first so that concurrent readers never map a partial file.
+        final File tempFile = File.createTempFile(COMPILED_FILE, ".tmp", compiledFile.getParentFile());
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                BinaryIOUtils.writeString(out, bundle.getCacheCoordinate().getDomainHash());
+                BinaryIOUtils.writeString(out, bundle.getCacheCoordinate().getInterferenceHash());
+                ((DomainStationManager) stationManager).write(out);
+                ((ArrayBasedConstraintManager) constraintManager).write(out);
+            }
+            Files.move(tempFile.toPath(), compiledFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tempFile.delete();
+        }
+        log.info("Wrote compiled station configuration {} ({} bytes).", compiledFile.getAbsolutePath(), compiledFile.length());
+    }
+
+    /**
+     * Read only the cache coordinate from the header of the compiled form of a station configuration folder.
+     * @param path - path to a station configuration folder containing a compiled file.
+     * @return the cache coordinate of the folder.
+     * @throws IOException - if the compiled file cannot be read, or was written with another format version.
+     */
+    public static CacheCoordinate readCacheCoordinate(String path) throws IOException {
+        final File compiledFile = new File(path, COMPILED_FILE);
+        try (FileChannel channel = FileChannel.open(compiledFile.toPath(), StandardOpenOption.READ)) {
+            return readHeader(compiledFile, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (BufferUnderflowException e) {
+            throw new IOException(compiledFile.getAbsolutePath() + " is truncated.", e);
+        }
+    }
+
+    /**
+     * Read the compiled form of a station configuration folder.
+     * @param path - path to a station configuration folder containing a compiled file.
+     * @return the manager bundle of the folder.
+     * @throws IOException - if the compiled file cannot be read, or was written with another format version.
+     */
+    public static ManagerBundle read(String path) throws IOException {
+        final Watch watch = Watch.constructAutoStartWatch();
+        final File compiledFile = new File(path, COMPILED_FILE);
+        try (FileChannel channel = FileChannel.open(compiledFile.toPath(), StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            readHeader(compiledFile, buffer);
+            final DomainStationManager stationManager = DomainStationManager.read(buffer);
+            final ArrayBasedConstraintManager constraintManager = ArrayBasedConstraintManager.read(buffer);
+            final ManagerBundle bundle = new ManagerBundle(stationManager, constraintManager, path);
+            log.info("Read compiled station configuration {} in {} s.", compiledFile.getAbsolutePath(), watch.getElapsedTime());
+            return bundle;
+        } catch (BufferUnderflowException e) {
+            throw new IOException(compiledFile.getAbsolutePath() + " is truncated.", e);
+        }
+    }
+
+    private static CacheCoordinate readHeader(File compiledFile, ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException(compiledFile.getAbsolutePath() + " is not a compiled station configuration file.");
+        }
+        final int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException(compiledFile.getAbsolutePath() + " has format version " + version + " but version " + VERSION + " is expected.");
+        }
+        return new CacheCoordinate(BinaryIOUtils.readString(buffer), BinaryIOUtils.readString(buffer));
+    }
+
+}
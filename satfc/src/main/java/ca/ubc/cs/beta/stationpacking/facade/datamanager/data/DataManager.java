@@ -23,23 +23,35 @@ package ca.ubc.cs.beta.stationpacking.facade.datamanager.data;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 
 import ca.ubc.cs.beta.stationpacking.cache.CacheCoordinate;
+import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.AMapBasedConstraintManager;
+import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.ArrayBasedConstraintManager;
 import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.ChannelSpecificConstraintManager;
 import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.IConstraintManager;
 import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.UnabridgedFormatConstraintManager;
 import ca.ubc.cs.beta.stationpacking.datamanagers.stations.DomainStationManager;
 import ca.ubc.cs.beta.stationpacking.datamanagers.stations.IStationManager;
-import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * Manages the data contained in different station config directories to make sure they are only read once.
+ * Thread safe: concurrent requests for the same directory wait on a single read.
  * @author afrechet
  */
 @Slf4j
@@ -54,35 +66,103 @@ public class DataManager {
 	 */
 	public static String INTERFERENCES_FILE = "Interference_Paired.csv";
 
-	private HashMap<String, ManagerBundle> fData;
-	@Getter
-	private Map<CacheCoordinate, ManagerBundle> coordinateToBundle;
+	private final ConcurrentMap<String, CompletableFuture<ManagerBundle>> fData;
+	private final ConcurrentMap<CacheCoordinate, String> coordinateToPath;
 
 	/**
 	 * Create a new (empty) data manager.
 	 */
 	public DataManager()
 	{
-		fData = new HashMap<>();
-		coordinateToBundle = new HashMap<>();
+		fData = new ConcurrentHashMap<>();
+		coordinateToPath = new ConcurrentHashMap<>();
 	}
 
+	/**
+	 * Eagerly load every station configuration folder contained in the given folder, using one thread per available processor.
+	 * @param constraintFolder folder containing the station configuration folders.
+	 */
 	public void loadMultipleConstraintSets(String constraintFolder) {
+		loadMultipleConstraintSets(constraintFolder, Runtime.getRuntime().availableProcessors(), false);
+	}
+
+	/**
+	 * Load every station configuration folder contained in the given folder on a pool of the given parallelism.
+	 * <p>
+	 * If lazy, folders with an up to date compiled file (see {@link CompiledConstraintSet}) only have their cache
+	 * coordinate registered, which only requires reading the compiled file header. The method then returns while the pool
+	 * keeps materialising these folders in the background; a folder that is asked for (see {@link #getData(CacheCoordinate)})
+	 * before the pool gets to it is read by the asking thread, or waited on if it is already being read. Folders without a
+	 * compiled file are always read before returning, since reading them is the only way to know their coordinate.
+	 * </p>
+	 * @param constraintFolder folder containing the station configuration folders.
+	 * @param parallelism maximal number of folders to read at the same time.
+	 * @param lazy whether to return as soon as all coordinates are known rather than when all folders are read.
+	 */
+	public void loadMultipleConstraintSets(String constraintFolder, int parallelism, boolean lazy) {
 		log.info("Looking in {} for station configuration folders", constraintFolder);
 		final File[] stationConfigurationFolders = new File(constraintFolder).listFiles(File::isDirectory);
 		log.info("Found {} station configuration folders", stationConfigurationFolders.length);
-		Arrays.stream(stationConfigurationFolders).forEach(folder -> {
-			try {
+		final ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
+		final List<String> deferredPaths = new CopyOnWriteArrayList<>();
+		try {
+			forkJoinPool.submit(() -> Arrays.stream(stationConfigurationFolders).parallel().forEach(folder -> {
 				final String path = folder.getAbsolutePath();
-				log.info("Adding data for station configuration folder {}", path);
-				addData(folder.getAbsolutePath());
-				// add cache coordinate to map
-				final ManagerBundle bundle = getData(folder.getAbsolutePath());
-				log.info("Folder {} corresponds to coordinate {}", folder.getAbsolutePath(), bundle.getCacheCoordinate());
-			} catch (FileNotFoundException e) {
-				throw new IllegalStateException(folder.getAbsolutePath() + " is not a valid station configuration folder (missing Domain or Interference files?)", e);
+				try {
+					if (lazy && CompiledConstraintSet.isUpToDate(path) && registerData(path)) {
+						deferredPaths.add(path);
+					} else {
+						log.info("Adding data for station configuration folder {}", path);
+						final ManagerBundle bundle = getData(path);
+						log.info("Folder {} corresponds to coordinate {}", path, bundle.getCacheCoordinate());
+					}
+				} catch (FileNotFoundException e) {
+					throw new IllegalStateException(path + " is not a valid station configuration folder (missing Domain or Interference files?)", e);
+				}
+			})).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			forkJoinPool.shutdownNow();
+			throw new IllegalStateException("Interrupted while loading station configuration folders", e);
+		} catch (ExecutionException e) {
+			forkJoinPool.shutdownNow();
+			Throwables.propagateIfPossible(e.getCause());
+			throw new IllegalStateException("Could not load station configuration folders", e.getCause());
+		}
+		// Materialise the registered folders in the background, failures only surface when the folder is asked for.
+		deferredPaths.forEach(path -> forkJoinPool.execute(() -> {
+			try {
+				getData(path);
+			} catch (Exception e) {
+				log.warn("Could not load station configuration folder " + path + " in the background", e);
 			}
-		});
+		}));
+		forkJoinPool.shutdown();
+	}
+
+	/**
+	 * Registers the cache coordinate of a folder with an up to date compiled file, without reading the rest of the folder.
+	 * @param path to the folder to register.
+	 * @return true if the folder was registered, false if it was already known or its compiled file header could not be read.
+	 */
+	private boolean registerData(String path)
+	{
+		final CacheCoordinate coordinate;
+		try
+		{
+			coordinate = CompiledConstraintSet.readCacheCoordinate(path);
+		}
+		catch (IOException e)
+		{
+			log.warn("Could not read compiled station configuration header in " + path + ", reading folder eagerly.", e);
+			return false;
+		}
+		if (fData.containsKey(path) || coordinateToPath.putIfAbsent(coordinate, path) != null)
+		{
+			return false;
+		}
+		log.info("Folder {} registered with coordinate {}", path, coordinate);
+		return true;
 	}
 
 	/**
@@ -94,72 +174,126 @@ public class DataManager {
 	 */
 	public boolean addData(String path) throws FileNotFoundException
 	{
-
-		ManagerBundle bundle = fData.get(path);
-		if (bundle != null)
+		final CompletableFuture<ManagerBundle> future = new CompletableFuture<>();
+		final CompletableFuture<ManagerBundle> existing = fData.putIfAbsent(path, future);
+		if (existing != null)
 		{
+			// Someone else is (or was) reading the folder, wait for them.
+			join(existing);
 			return false;
 		}
-		else
+		final ManagerBundle managerBundle;
+		try
 		{
-			final IStationManager stationManager = new DomainStationManager(path + File.separator + DOMAIN_FILE);
-
-			final IConstraintManager constraintManager;
-
+			managerBundle = loadManagerBundle(path);
+		}
+		catch (FileNotFoundException | RuntimeException e)
+		{
+			// Forget about the failure so that the folder can be tried again.
+			fData.remove(path, future);
+			future.completeExceptionally(e);
+			throw e;
+		}
+		coordinateToPath.put(managerBundle.getCacheCoordinate(), path);
+		future.complete(managerBundle);
+		return true;
+	}
 
-			//Try parsing unabridged.
-			Exception uaE = null;
-			IConstraintManager unabridgedConstraintManager = null;
+	private static ManagerBundle loadManagerBundle(String path) throws FileNotFoundException
+	{
+		if (CompiledConstraintSet.isUpToDate(path))
+		{
 			try
 			{
-				unabridgedConstraintManager= new UnabridgedFormatConstraintManager(stationManager, path + File.separator + INTERFERENCES_FILE);
+				return CompiledConstraintSet.read(path);
 			}
-			catch(Exception e)
+			catch (IOException e)
 			{
-				uaE = e;
+				log.warn("Could not read compiled station configuration in " + path + ", parsing CSV files instead.", e);
 			}
+		}
+		return readManagerBundle(path);
+	}
 
+	private static ManagerBundle join(CompletableFuture<ManagerBundle> future) throws FileNotFoundException
+	{
+		try
+		{
+			return future.join();
+		}
+		catch (CompletionException e)
+		{
+			Throwables.propagateIfInstanceOf(e.getCause(), FileNotFoundException.class);
+			Throwables.propagateIfPossible(e.getCause());
+			throw e;
+		}
+	}
 
-			//Try parsing channel specific.
-			Exception csE = null;
-			IConstraintManager channelspecificConstraintManager = null;
-			try
-			{
-				channelspecificConstraintManager= new ChannelSpecificConstraintManager(stationManager, path + File.separator + INTERFERENCES_FILE);
-			}
-			catch(Exception e)
-			{
-				csE = e;
-			}
+	/**
+	 * Parses the domain and interference CSV files contained in the path.
+	 * @param path to the folder where the data to read is contained.
+	 * @return a manager bundle for the data.
+	 * @throws FileNotFoundException thrown if a file needed to read the data is not found.
+	 */
+	public static ManagerBundle readManagerBundle(String path) throws FileNotFoundException
+	{
+		final IStationManager stationManager = new DomainStationManager(path + File.separator + DOMAIN_FILE);
 
-			if(uaE != null && csE != null)
-			{
-				log.error("Could not parse interference data both in unabridged and channel specific formats.");
+		final AMapBasedConstraintManager parsedConstraintManager;
 
-				log.error("Unabridged format exception:",uaE);
-				log.error("Channel specific format exception:",csE);
 
-				throw new IllegalArgumentException("Unrecognized interference constraint format.");
-			}
-			else if(uaE == null && csE == null)
-			{
-				throw new IllegalStateException("Provided interference constraint format satisfies both unabridged and channel specific formats.");
-			}
-			else if(uaE == null)
-			{
-                log.info("Unabridged format recognized for interference constraints.");
-				constraintManager = unabridgedConstraintManager;
-			}
-			else {
-                log.info("Channel specific format recognized for interference constraints.");
-				constraintManager = channelspecificConstraintManager;
-			}
+		//Try parsing unabridged.
+		Exception uaE = null;
+		AMapBasedConstraintManager unabridgedConstraintManager = null;
+		try
+		{
+			unabridgedConstraintManager= new UnabridgedFormatConstraintManager(stationManager, path + File.separator + INTERFERENCES_FILE);
+		}
+		catch(Exception e)
+		{
+			uaE = e;
+		}
 
-			final ManagerBundle managerBundle = new ManagerBundle(stationManager, constraintManager, path);
-			fData.put(path, managerBundle);
-			coordinateToBundle.put(managerBundle.getCacheCoordinate(), managerBundle);
-			return true;
+
+		//Try parsing channel specific.
+		Exception csE = null;
+		AMapBasedConstraintManager channelspecificConstraintManager = null;
+		try
+		{
+			channelspecificConstraintManager= new ChannelSpecificConstraintManager(stationManager, path + File.separator + INTERFERENCES_FILE);
 		}
+		catch(Exception e)
+		{
+			csE = e;
+		}
+
+		if(uaE != null && csE != null)
+		{
+			log.error("Could not parse interference data both in unabridged and channel specific formats.");
+
+			log.error("Unabridged format exception:",uaE);
+			log.error("Channel specific format exception:",csE);
+
+			throw new IllegalArgumentException("Unrecognized interference constraint format.");
+		}
+		else if(uaE == null && csE == null)
+		{
+			throw new IllegalStateException("Provided interference constraint format satisfies both unabridged and channel specific formats.");
+		}
+		else if(uaE == null)
+		{
+			log.info("Unabridged format recognized for interference constraints.");
+			parsedConstraintManager = unabridgedConstraintManager;
+		}
+		else {
+			log.info("Channel specific format recognized for interference constraints.");
+			parsedConstraintManager = channelspecificConstraintManager;
+		}
+
+		// Repack the parsed constraints into primitive arrays, the map based manager is only needed for parsing.
+		final IConstraintManager constraintManager = new ArrayBasedConstraintManager(stationManager, parsedConstraintManager);
+
+		return new ManagerBundle(stationManager, constraintManager, path);
 	}
 
 	/**
@@ -171,19 +305,48 @@ public class DataManager {
 	 */
 	public ManagerBundle getData(String path) throws FileNotFoundException
 	{
-		ManagerBundle bundle = fData.get(path);
-		if (bundle == null)
+		final CompletableFuture<ManagerBundle> future = fData.get(path);
+		if (future == null)
 		{
 			addData(path);
-			bundle = fData.get(path);
+			return getData(path);
 		}
-		return bundle;
+		return join(future);
 	}
 
+	/**
+	 * Returns the manager bundle of a known cache coordinate, reading its folder first if it was only registered.
+	 * @param coordinate cache coordinate for which to get the bundle.
+	 * @return a manager bundle corresponding to the given cache coordinate.
+	 */
 	public ManagerBundle getData(CacheCoordinate coordinate) {
-		ManagerBundle bundle = coordinateToBundle.get(coordinate);
-		Preconditions.checkNotNull(bundle, "Unknown coordinate %s, known coordinates %s", coordinate, coordinateToBundle.keySet());
-		return bundle;
+		final String path = coordinateToPath.get(coordinate);
+		Preconditions.checkNotNull(path, "Unknown coordinate %s, known coordinates %s", coordinate, coordinateToPath.keySet());
+		try {
+			return getData(path);
+		} catch (FileNotFoundException e) {
+			throw new IllegalStateException(path + " is not a valid station configuration folder (missing Domain or Interference files?)", e);
+		}
+	}
+
+	/**
+	 * @return the cache coordinates of all the folders known to the data manager, whether they were read yet or not.
+	 */
+	public Set<CacheCoordinate> getCoordinates() {
+		return Collections.unmodifiableSet(coordinateToPath.keySet());
+	}
+
+	/**
+	 * @param coordinate a cache coordinate.
+	 * @return true if the folder of the coordinate is known to the data manager and was read.
+	 */
+	public boolean isLoaded(CacheCoordinate coordinate) {
+		final String path = coordinateToPath.get(coordinate);
+		if (path == null) {
+			return false;
+		}
+		final CompletableFuture<ManagerBundle> future = fData.get(path);
+		return future != null && future.isDone() && !future.isCompletedExceptionally();
 	}
 
 }
@@ -25,6 +25,7 @@ import com.google.common.collect.ImmutableBiMap;
 
 import ca.ubc.cs.beta.stationpacking.base.Station;
 import ca.ubc.cs.beta.stationpacking.cache.CacheCoordinate;
+import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.ArrayBasedConstraintManager;
 import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.ChannelSpecificConstraintManager;
 import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.IConstraintManager;
 import ca.ubc.cs.beta.stationpacking.datamanagers.stations.IStationManager;
@@ -61,7 +62,11 @@ public class ManagerBundle {
 	}
 
     public boolean isCompactInterference() {
-        return getConstraintManager() instanceof ChannelSpecificConstraintManager;
+        final IConstraintManager constraintManager = getConstraintManager();
+        if (constraintManager instanceof ArrayBasedConstraintManager) {
+            return ((ArrayBasedConstraintManager) constraintManager).isCompactFormat();
+        }
+        return constraintManager instanceof ChannelSpecificConstraintManager;
     }
 
 }
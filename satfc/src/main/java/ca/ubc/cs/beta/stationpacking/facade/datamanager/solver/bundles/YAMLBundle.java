@@ -43,11 +43,14 @@ import ca.ubc.cs.beta.stationpacking.solvers.composites.ParallelNoWaitSolverComp
 import ca.ubc.cs.beta.stationpacking.solvers.composites.ParallelSolverComposite;
 import ca.ubc.cs.beta.stationpacking.solvers.decorators.*;
 import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.CacheResultDecorator;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.ContainmentCacheProxy;
 import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.SubsetCacheUNSATDecorator;
 import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.SupersetCacheSATDecorator;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.SupersetSubsetCacheDecorator;
 import ca.ubc.cs.beta.stationpacking.solvers.decorators.consistency.ArcConsistencyEnforcerDecorator;
 import ca.ubc.cs.beta.stationpacking.solvers.decorators.consistency.ChannelKillerDecorator;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.CompressedSATBasedSolver;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.cnfencoder.CNFEncodingCache;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.cnfencoder.SATCompressor;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.solvers.AbstractCompressedSATSolver;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.solvers.nonincremental.Clasp3SATSolver;
@@ -111,6 +114,8 @@ public class YAMLBundle extends AVHFUHFSolverBundle {
                 .parameter(parameter)
                 .pollingService(pollingService)
                 .httpClient(httpClient)
+                .encodingCache(new CNFEncodingCache())
+                .preprocessingResults(new SharedPreprocessingResults())
                 .build();
 
         log.info("Reading configuration file {}", parameter.getConfigFile());
@@ -158,10 +163,12 @@ public class YAMLBundle extends AVHFUHFSolverBundle {
     private static ISolver concat(List<ISolverConfig> configs, SATFCContext context) {
         log.debug("Starting with a void solver...");
         ISolver solver = new VoidSolver();
-        for (ISolverConfig config : configs) {
+        for (int i = 0; i < configs.size(); i++) {
+            final ISolverConfig config = configs.get(i);
             if (!config.shouldSkip(context)) {
                 log.debug("Decorating with {} using config of type {}", solver.getClass().getSimpleName(), config.getClass().getSimpleName());
-                solver = config.createSolver(context, solver);
+                final List<ISolverConfig> decoratedConfigs = configs.subList(0, i);
+                solver = config.createSolver(context, solver, aSolver -> concat(decoratedConfigs, context));
                 context.getSolverTypes().add(SolverConfigDeserializer.typeToConfigClass.inverse().get(config.getClass()));
             } else {
                 log.debug("Skipping decorator {}", config.getClass().getSimpleName());
@@ -180,6 +187,10 @@ public class YAMLBundle extends AVHFUHFSolverBundle {
         private final IPollingService pollingService;
         private final CloseableHttpAsyncClient httpClient;
         private PythonInterpreterContainer python;
+        // Encoded problems shared by all the SAT solvers of the bundle.
+        private final CNFEncodingCache encodingCache;
+        // Preprocessing results shared by all the branches of the bundle.
+        private final SharedPreprocessingResults preprocessingResults;
 
         private final Set<SolverType> solverTypes = new HashSet<>();
     }
@@ -205,7 +216,7 @@ public class YAMLBundle extends AVHFUHFSolverBundle {
             final IConstraintManager constraintManager = context.getManagerBundle().getConstraintManager();
             final Clasp3LibraryGenerator clasp3LibraryGenerator = context.getClasp3LibraryGenerator();
             final AbstractCompressedSATSolver claspSATsolver = new Clasp3SATSolver(clasp3LibraryGenerator.createLibrary(), config, seedOffset, context.getPollingService(), nickname);
-            return new CompressedSATBasedSolver(claspSATsolver, new SATCompressor(constraintManager, encodingType));
+            return new CompressedSATBasedSolver(claspSATsolver, new SATCompressor(constraintManager, encodingType, context.getEncodingCache()));
         }
 
         private String config;
@@ -223,7 +234,7 @@ public class YAMLBundle extends AVHFUHFSolverBundle {
             final IConstraintManager constraintManager = context.getManagerBundle().getConstraintManager();
             final UBCSATLibraryGenerator ubcsatLibraryGenerator = context.getUbcsatLibraryGenerator();
             final AbstractCompressedSATSolver ubcsatSolver = new UBCSATSolver(ubcsatLibraryGenerator.createLibrary(), config, seedOffset, context.getPollingService(), nickname);
-            return new CompressedSATBasedSolver(ubcsatSolver, new SATCompressor(constraintManager, encodingType));
+            return new CompressedSATBasedSolver(ubcsatSolver, new SATCompressor(constraintManager, encodingType, context.getEncodingCache()));
         }
 
         private String config;
@@ -279,10 +290,20 @@ public class YAMLBundle extends AVHFUHFSolverBundle {
 
         @Override
         public ISolver createSolver(SATFCContext context, ISolver solverToDecorate) {
-            return new ConnectedComponentGroupingDecorator(solverToDecorate, new ConstraintGrouper(), context.getManagerBundle().getConstraintManager(), solveEverything);
+            return createSolver(context, solverToDecorate, null);
+        }
+
+        @Override
+        public ISolver createSolver(SATFCContext context, ISolver solverToDecorate, ISolverFactory solverToDecorateFactory) {
+            final ContainmentCacheProxy cacheProxy = queryCache && context.getParameter().getServerURL() != null ? CacheSolverConfig.createContainmentCacheProxy(context) : null;
+            return new ConnectedComponentGroupingDecorator(solverToDecorate, new ConstraintGrouper(), context.getManagerBundle().getConstraintManager(), solveEverything, context.getPreprocessingResults(), solverToDecorateFactory, threads, cacheProxy);
         }
 
         private boolean solveEverything = false;
+        // Number of components solved concurrently, each thread getting its own copy of the decorated solvers
+        private int threads = 1;
+        // Ask the cache server about all the components in one request before solving them (needs a server URL)
+        private boolean queryCache = false;
     }
 
     @Data
@@ -290,7 +311,7 @@ public class YAMLBundle extends AVHFUHFSolverBundle {
 
         @Override
         public ISolver createSolver(SATFCContext context, ISolver solverToDecorate) {
-            return new ArcConsistencyEnforcerDecorator(solverToDecorate, context.getManagerBundle().getConstraintManager());
+            return new ArcConsistencyEnforcerDecorator(solverToDecorate, context.getManagerBundle().getConstraintManager(), context.getPreprocessingResults());
         }
     }
 
@@ -347,12 +368,23 @@ public class YAMLBundle extends AVHFUHFSolverBundle {
 
     }
 
+    @EqualsAndHashCode(callSuper = true)
+    @Data
+    public static class SATUNSATCacheConfig extends CacheSolverConfig {
+
+        @Override
+        public ISolver createSolver(SATFCContext context, ISolver solverToDecorate) {
+            return new SupersetSubsetCacheDecorator(solverToDecorate, createContainmentCacheProxy(context));
+        }
+
+    }
+
     @Data
     public static class UnderconstrainedConfig implements ISolverConfig {
 
         @Override
         public ISolver createSolver(SATFCContext context, ISolver solverToDecorate) {
-            return new UnderconstrainedStationRemoverSolverDecorator(solverToDecorate, context.getManagerBundle().getConstraintManager(), new HeuristicUnderconstrainedStationFinder(context.getManagerBundle().getConstraintManager(), expensive), recursive);
+            return new UnderconstrainedStationRemoverSolverDecorator(solverToDecorate, context.getManagerBundle().getConstraintManager(), new HeuristicUnderconstrainedStationFinder(context.getManagerBundle().getConstraintManager(), expensive), recursive, context.getPreprocessingResults());
         }
 
         private boolean expensive = true;
@@ -594,6 +626,7 @@ public class YAMLBundle extends AVHFUHFSolverBundle {
                         .put(SolverType.CACHE, CacheConfig.class)
                         .put(SolverType.SAT_CACHE, SATCacheConfig.class)
                         .put(SolverType.UNSAT_CACHE, UNSATCacheConfig.class)
+                        .put(SolverType.SAT_UNSAT_CACHE, SATUNSATCacheConfig.class)
                         .put(SolverType.PARALLEL, ParallelConfig.class)
                         .put(SolverType.RESULT_SAVER, ResultSaverConfig.class)
                         .put(SolverType.CNF, CNFSaverConfig.class)
@@ -35,9 +35,9 @@ public abstract class CacheSolverConfig implements ISolverConfig {
         return context.getParameter().getServerURL() == null;
     }
 
-    protected ContainmentCacheProxy createContainmentCacheProxy(YAMLBundle.SATFCContext context) {
+    public static ContainmentCacheProxy createContainmentCacheProxy(YAMLBundle.SATFCContext context) {
         final SATFCFacadeParameter parameter = context.getParameter();
-        return new ContainmentCacheProxy(parameter.getServerURL(), context.getManagerBundle().getCacheCoordinate(), parameter.getNumServerAttempts(), parameter.isNoErrorOnServerUnavailable(), context.getPollingService(), context.getHttpClient());
+        return new ContainmentCacheProxy(parameter.getServerURL(), context.getManagerBundle().getCacheCoordinate(), context.getManagerBundle().getPermutation(), parameter.getNumServerAttempts(), parameter.isNoErrorOnServerUnavailable(), context.getPollingService(), context.getHttpClient());
     }
 
 }
@@ -25,5 +25,10 @@ package ca.ubc.cs.beta.stationpacking.facade.datamanager.solver.bundles.yaml;
  * Terminology from Local Search on SAT-Encoded Colouring Problems, Steven Prestwich, http://www.cs.sfu.ca/CourseCentral/827/havens/papers/topic%236(SAT)/steve1.pdf
  */
 public enum EncodingType {
-    DIRECT, MULTIVALUED
+    DIRECT, MULTIVALUED,
+    /**
+     * Direct encoding where the at-most-one channel per station constraint uses a ladder (sequential counter) of
+     * auxiliary variables instead of pairwise clauses, i.e. O(d) instead of O(d^2) clauses for a domain of size d.
+     */
+    LADDER
 }
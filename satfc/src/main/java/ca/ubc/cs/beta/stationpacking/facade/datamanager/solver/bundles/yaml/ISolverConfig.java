@@ -24,6 +24,7 @@ package ca.ubc.cs.beta.stationpacking.facade.datamanager.solver.bundles.yaml;
 import ca.ubc.cs.beta.stationpacking.facade.datamanager.solver.bundles.YAMLBundle;
 import ca.ubc.cs.beta.stationpacking.solvers.ISolver;
 import ca.ubc.cs.beta.stationpacking.solvers.VoidSolver;
+import ca.ubc.cs.beta.stationpacking.solvers.composites.ISolverFactory;
 
 /**
 * Created by newmanne on 27/10/15.
@@ -37,6 +38,14 @@ public interface ISolverConfig {
         return createSolver(context, new VoidSolver());
     }
 
+    /**
+     * Decorate an existing solver, for configs that need independent copies of the solver they decorate
+     * @param solverToDecorateFactory builds a new copy of the solver being decorated
+     */
+    default ISolver createSolver(YAMLBundle.SATFCContext context, ISolver solverToDecorate, ISolverFactory solverToDecorateFactory) {
+        return createSolver(context, solverToDecorate);
+    }
+
     /**
      * True if the configuration mentioned in the config file should be skipped
      */
@@ -37,6 +37,7 @@ public enum SolverType {
     CACHE,
     SAT_CACHE,
     UNSAT_CACHE,
+    SAT_UNSAT_CACHE,
     PARALLEL,
     RESULT_SAVER,
     CNF,
@@ -124,6 +124,7 @@ public class SATFCMetrics {
     public static class TimingEvent {
         public final static String FIND_SUPERSET = "find_superset";
         public final static String FIND_SUBSET = "find_subset";
+        public final static String FIND_SUPERSET_OR_SUBSET = "find_superset_or_subset";
         public final static String FIND_UNDERCONSTRAINED_STATIONS = "find_underconstrained_stations";
         public final static String PUT_BACK_UNDERCONSTRAINED_STATIONS = "put_back_underconstrained_stations";
         public final static String CONNECTED_COMPONENTS = "split_connected_components";
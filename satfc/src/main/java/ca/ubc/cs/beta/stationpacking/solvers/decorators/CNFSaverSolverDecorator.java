@@ -34,7 +34,7 @@ import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.IConstraintManager
 import ca.ubc.cs.beta.stationpacking.facade.datamanager.solver.bundles.yaml.EncodingType;
 import ca.ubc.cs.beta.stationpacking.solvers.ISolver;
 import ca.ubc.cs.beta.stationpacking.solvers.base.SolverResult;
-import ca.ubc.cs.beta.stationpacking.solvers.sat.base.CNF;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.base.PackedCNF;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.cnfencoder.SATCompressor;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.cnfencoder.SATEncoder;
 import ca.ubc.cs.beta.stationpacking.solvers.termination.ITerminationCriterion;
@@ -72,7 +72,7 @@ public class CNFSaverSolverDecorator extends ASolverDecorator {
         //Encode instance.
         final SATCompressor aSATEncoder = new SATCompressor(fConstraintManager, encodingType);
         final SATEncoder.CNFEncodedProblem aEncoding = aSATEncoder.encodeWithAssignment(aInstance);
-        final CNF CNF = aEncoding.getCnf();
+        final PackedCNF CNF = aEncoding.getPackedCnf();
 
         //Create comments
         final String[] comments = new String[]{
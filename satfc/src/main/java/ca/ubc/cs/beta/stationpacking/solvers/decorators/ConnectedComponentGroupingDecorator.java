@@ -24,17 +24,27 @@ package ca.ubc.cs.beta.stationpacking.solvers.decorators;
 import static ca.ubc.cs.beta.stationpacking.utils.GuavaCollectors.toImmutableMap;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.stream.Collectors;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 
+import ca.ubc.cs.beta.aeatk.concurrent.threadfactory.SequentiallyNamedThreadFactory;
 import ca.ubc.cs.beta.stationpacking.base.Station;
 import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
+import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheSATResult;
+import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheUNSATResult;
 import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.IConstraintManager;
 import ca.ubc.cs.beta.stationpacking.metrics.SATFCMetrics;
 import ca.ubc.cs.beta.stationpacking.solvers.ISolver;
@@ -42,7 +52,14 @@ import ca.ubc.cs.beta.stationpacking.solvers.SolverHelper;
 import ca.ubc.cs.beta.stationpacking.solvers.base.SATResult;
 import ca.ubc.cs.beta.stationpacking.solvers.base.SolverResult;
 import ca.ubc.cs.beta.stationpacking.solvers.componentgrouper.IComponentGrouper;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.ContainmentCacheProxy;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.ContainmentCacheProxy.ContainmentCacheQuery;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.ContainmentCacheProxy.ContainmentCacheQueryResult;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.SubsetCacheUNSATDecorator;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.SupersetCacheSATDecorator;
+import ca.ubc.cs.beta.stationpacking.solvers.composites.ISolverFactory;
 import ca.ubc.cs.beta.stationpacking.solvers.termination.ITerminationCriterion;
+import ca.ubc.cs.beta.stationpacking.solvers.termination.interrupt.InterruptibleTerminationCriterion;
 import ca.ubc.cs.beta.stationpacking.utils.Watch;
 import lombok.extern.slf4j.Slf4j;
 
@@ -55,16 +72,76 @@ public class ConnectedComponentGroupingDecorator extends ASolverDecorator {
     private final IComponentGrouper fComponentGrouper;
     private final IConstraintManager fConstraintManager;
     private final boolean fSolveEverything;
+    private final SharedPreprocessingResults fSharedResults;
+    // Asks the cache server about every component in one round trip before solving them, if not null
+    private final ContainmentCacheProxy fCacheProxy;
+
+    // Parallel mode only: one solver per thread, the decorated solver being one of them.
+    private final ExecutorService fExecutorService;
+    private final BlockingQueue<ISolver> fComponentSolvers;
+    private final List<ISolver> fAllComponentSolvers;
+    private final List<ISolver> fSolversSolvingComponents;
 
     /**
      * @param aSolveEverythingForCaching if true, solve every component, even when you know the problem is logically finished. (Used for caching results)
      * @param aComponentGrouper
      */
     public ConnectedComponentGroupingDecorator(ISolver aSolver, IComponentGrouper aComponentGrouper, IConstraintManager aConstraintManager, boolean aSolveEverythingForCaching) {
+        this(aSolver, aComponentGrouper, aConstraintManager, aSolveEverythingForCaching, null);
+    }
+
+    /**
+     * @param aSolveEverythingForCaching if true, solve every component, even when you know the problem is logically finished. (Used for caching results)
+     * @param aComponentGrouper
+     * @param aSharedResults preprocessing results shared with other solvers, or null to always group locally.
+     */
+    public ConnectedComponentGroupingDecorator(ISolver aSolver, IComponentGrouper aComponentGrouper, IConstraintManager aConstraintManager, boolean aSolveEverythingForCaching, SharedPreprocessingResults aSharedResults) {
+        this(aSolver, aComponentGrouper, aConstraintManager, aSolveEverythingForCaching, aSharedResults, null, 1);
+    }
+
+    /**
+     * @param aSolveEverythingForCaching if true, solve every component, even when you know the problem is logically finished. (Used for caching results)
+     * @param aComponentGrouper
+     * @param aSharedResults preprocessing results shared with other solvers, or null to always group locally.
+     * @param aComponentSolverFactory creates independent copies of the decorated solver, one per extra thread. Only used if more than one thread is requested.
+     * @param aNumThreads number of components to solve concurrently, 1 to solve them one after the other on the calling thread.
+     */
+    public ConnectedComponentGroupingDecorator(ISolver aSolver, IComponentGrouper aComponentGrouper, IConstraintManager aConstraintManager, boolean aSolveEverythingForCaching, SharedPreprocessingResults aSharedResults, ISolverFactory aComponentSolverFactory, int aNumThreads) {
+        this(aSolver, aComponentGrouper, aConstraintManager, aSolveEverythingForCaching, aSharedResults, aComponentSolverFactory, aNumThreads, null);
+    }
+
+    /**
+     * @param aSolveEverythingForCaching if true, solve every component, even when you know the problem is logically finished. (Used for caching results)
+     * @param aComponentGrouper
+     * @param aSharedResults preprocessing results shared with other solvers, or null to always group locally.
+     * @param aComponentSolverFactory creates independent copies of the decorated solver, one per extra thread. Only used if more than one thread is requested.
+     * @param aNumThreads number of components to solve concurrently, 1 to solve them one after the other on the calling thread.
+     * @param aCacheProxy if not null, the SAT and UNSAT caches are queried for all the components in a single request, and only the components they do not answer are solved.
+     */
+    public ConnectedComponentGroupingDecorator(ISolver aSolver, IComponentGrouper aComponentGrouper, IConstraintManager aConstraintManager, boolean aSolveEverythingForCaching, SharedPreprocessingResults aSharedResults, ISolverFactory aComponentSolverFactory, int aNumThreads, ContainmentCacheProxy aCacheProxy) {
         super(aSolver);
+        Preconditions.checkArgument(aNumThreads >= 1, "Need at least one thread to solve components, got %s.", aNumThreads);
+        Preconditions.checkArgument(aNumThreads == 1 || aComponentSolverFactory != null, "Solving components in parallel needs a factory for the component solvers.");
         fComponentGrouper = aComponentGrouper;
         fConstraintManager = aConstraintManager;
         fSolveEverything = aSolveEverythingForCaching;
+        fSharedResults = aSharedResults;
+        fCacheProxy = aCacheProxy;
+        if (aNumThreads > 1) {
+            log.debug("Solving components with {} threads", aNumThreads);
+            fExecutorService = Executors.newFixedThreadPool(aNumThreads, new SequentiallyNamedThreadFactory("SATFC Component Worker Thread"));
+            fComponentSolvers = new LinkedBlockingQueue<>(aNumThreads);
+            fComponentSolvers.offer(aSolver);
+            for (int i = 1; i < aNumThreads; i++) {
+                fComponentSolvers.offer(aComponentSolverFactory.create());
+            }
+            fAllComponentSolvers = new ArrayList<>(fComponentSolvers);
+        } else {
+            fExecutorService = null;
+            fComponentSolvers = null;
+            fAllComponentSolvers = null;
+        }
+        fSolversSolvingComponents = Collections.synchronizedList(new ArrayList<>());
     }
 
     public ConnectedComponentGroupingDecorator(ISolver aSolver, IComponentGrouper aComponentGrouper, IConstraintManager aConstraintManger) {
@@ -77,7 +154,11 @@ public class ConnectedComponentGroupingDecorator extends ASolverDecorator {
         log.debug("Solving instance of {}...", aInstance.getInfo());
 
         // Split into groups
-        final Set<Set<Station>> stationComponents = fComponentGrouper.group(aInstance, fConstraintManager);
+        final Set<Set<Station>> stationComponents = fSharedResults == null ? fComponentGrouper.group(aInstance, fConstraintManager) :
+                fSharedResults.getOrCompute(SharedPreprocessingResults.Stage.CONNECTED_COMPONENTS, aInstance.getDomains(), aTerminationCriterion, () -> fComponentGrouper.group(aInstance, fConstraintManager));
+        if (stationComponents == null) {
+            return SolverResult.createTimeoutResult(watch.getElapsedTime());
+        }
         SATFCMetrics.postEvent(new SATFCMetrics.TimingEvent(aInstance.getName(), SATFCMetrics.TimingEvent.CONNECTED_COMPONENTS, watch.getElapsedTime()));
         log.debug("Problem separated in {} groups.", stationComponents.size());
 
@@ -101,6 +182,59 @@ public class ConnectedComponentGroupingDecorator extends ASolverDecorator {
 
         SATFCMetrics.postEvent(new SATFCMetrics.SplitIntoConnectedComponentsEvent(aInstance.getName(), componentInstances));
 
+        final List<SolverResult> solverResults = new ArrayList<>();
+        final List<StationPackingInstance> componentsToSolve = new ArrayList<>(componentInstances);
+        if (fCacheProxy != null) {
+            final Map<StationPackingInstance, SolverResult> cachedResults = queryCache(componentInstances, aTerminationCriterion);
+            solverResults.addAll(cachedResults.values());
+            componentsToSolve.removeAll(cachedResults.keySet());
+            log.debug("The cache answered {} of the {} components.", cachedResults.size(), componentInstances.size());
+        }
+        if (solverResults.stream().allMatch(result -> result.getResult().equals(SATResult.SAT)) || fSolveEverything) {
+            solverResults.addAll(fExecutorService == null ? solveComponents(componentsToSolve, aTerminationCriterion, aSeed) : solveComponentsInParallel(componentsToSolve, aTerminationCriterion, aSeed));
+        }
+        final SolverResult mergedResult = SolverHelper.mergeComponentResults(solverResults);
+        final SolverResult result = SolverResult.relabelTimeAndSolvedBy(mergedResult, watch.getElapsedTime(), SolverResult.SolvedBy.CONNECTED_COMPONENTS);
+
+        if (result.getResult().equals(SATResult.SAT)) {
+            Preconditions.checkState(solverResults.size() == stationComponents.size(), "Determined result was SAT without looking at every component!");
+        }
+        log.debug("Result:" + System.lineSeparator() + result.toParsableString());
+        return result;
+    }
+
+    /**
+     * Look for a SAT superset and an UNSAT subset of every component, all in one request to the cache server
+     * @return the results of the components the cache answered
+     */
+    private Map<StationPackingInstance, SolverResult> queryCache(List<StationPackingInstance> componentInstances, ITerminationCriterion aTerminationCriterion) {
+        final Watch watch = Watch.constructAutoStartWatch();
+        final List<ContainmentCacheQuery> queries = new ArrayList<>(2 * componentInstances.size());
+        for (StationPackingInstance componentInstance : componentInstances) {
+            queries.add(new ContainmentCacheQuery(componentInstance, fCacheProxy.getCoordinate(), SATResult.SAT));
+            queries.add(new ContainmentCacheQuery(componentInstance, fCacheProxy.getCoordinate(), SATResult.UNSAT));
+        }
+        final List<ContainmentCacheQueryResult> queryResults = fCacheProxy.query(queries, aTerminationCriterion);
+        final Map<StationPackingInstance, SolverResult> cachedResults = new HashMap<>();
+        for (int i = 0; i < componentInstances.size(); i++) {
+            final StationPackingInstance componentInstance = componentInstances.get(i);
+            final ContainmentCacheSATResult satResult = queryResults.get(2 * i).getSatResult();
+            final ContainmentCacheUNSATResult unsatResult = queryResults.get(2 * i + 1).getUnsatResult();
+            final SolverResult componentResult;
+            if (satResult.isValid()) {
+                componentResult = SupersetCacheSATDecorator.toSolverResult(componentInstance, satResult, watch.getElapsedTime());
+            } else if (unsatResult.isValid()) {
+                componentResult = SubsetCacheUNSATDecorator.toSolverResult(componentInstance, unsatResult, watch.getElapsedTime());
+            } else {
+                continue;
+            }
+            SATFCMetrics.postEvent(new SATFCMetrics.InstanceSolvedEvent(componentInstance.getName(), componentResult));
+            cachedResults.put(componentInstance, componentResult);
+        }
+        return cachedResults;
+    }
+
+    private List<SolverResult> solveComponents(List<StationPackingInstance> componentInstances, ITerminationCriterion aTerminationCriterion, long aSeed) {
         final List<SolverResult> solverResults = new ArrayList<>();
         for (int i = 0; i < componentInstances.size(); i++) {
             final StationPackingInstance stationComponent = componentInstances.get(i);
@@ -114,14 +248,93 @@ public class ConnectedComponentGroupingDecorator extends ASolverDecorator {
                 break;
             }
         }
-        final SolverResult mergedResult = SolverHelper.mergeComponentResults(solverResults);
-        final SolverResult result = SolverResult.relabelTimeAndSolvedBy(mergedResult, watch.getElapsedTime(), SolverResult.SolvedBy.CONNECTED_COMPONENTS);
+        return solverResults;
+    }
 
-        if (result.getResult().equals(SATResult.SAT)) {
-            Preconditions.checkState(solverResults.size() == stationComponents.size(), "Determined result was SAT without looking at every component!");
+    /**
+     * Dispatch the components, smallest first, to the thread pool. The first component that is not SAT interrupts the
+     * others (unless everything must be solved), which then come back as timeouts or are skipped if they had not started.
+     */
+    private List<SolverResult> solveComponentsInParallel(List<StationPackingInstance> componentInstances, ITerminationCriterion aTerminationCriterion, long aSeed) {
+        final ITerminationCriterion.IInterruptibleTerminationCriterion interruptibleCriterion = new InterruptibleTerminationCriterion(aTerminationCriterion);
+        final List<Future<SolverResult>> futures = new ArrayList<>(componentInstances.size());
+        for (int i = 0; i < componentInstances.size(); i++) {
+            final int componentIndex = i;
+            final StationPackingInstance stationComponent = componentInstances.get(i);
+            futures.add(fExecutorService.submit(() -> {
+                if (interruptibleCriterion.hasToStop()) {
+                    log.debug("Skipping component {}.", componentIndex);
+                    return SolverResult.createTimeoutResult(0.0);
+                }
+                final ISolver solver = fComponentSolvers.poll();
+                if (solver == null) {
+                    throw new IllegalStateException("Couldn't take a component solver from the queue!");
+                }
+                log.debug("Solving component {} with {} stations...", componentIndex, stationComponent.getStations().size());
+                fSolversSolvingComponents.add(solver);
+                final SolverResult componentResult;
+                try {
+                    componentResult = solver.solve(stationComponent, interruptibleCriterion, aSeed);
+                } finally {
+                    fSolversSolvingComponents.remove(solver);
+                    if (!fComponentSolvers.offer(solver)) {
+                        throw new IllegalStateException("Wasn't able to return component solver to the queue!");
+                    }
+                }
+                SATFCMetrics.postEvent(new SATFCMetrics.InstanceSolvedEvent(stationComponent.getName(), componentResult));
+                // If any component is not SAT, the whole instance cannot be SAT, might as well stop the others then
+                if (!componentResult.getResult().equals(SATResult.SAT) && !fSolveEverything && interruptibleCriterion.interrupt()) {
+                    log.debug("Component {} is {}, interrupting the other components.", componentIndex, componentResult.getResult());
+                    interruptComponentSolvers();
+                }
+                return componentResult;
+            }));
+        }
+
+        final List<SolverResult> solverResults = new ArrayList<>(futures.size());
+        try {
+            for (Future<SolverResult> future : futures) {
+                solverResults.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while solving components in parallel", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error occurred while solving a component", e.getCause());
+        } finally {
+            if (interruptibleCriterion.interrupt()) {
+                interruptComponentSolvers();
+            }
+        }
+        return solverResults;
+    }
+
+    private void interruptComponentSolvers() {
+        synchronized (fSolversSolvingComponents) {
+            fSolversSolvingComponents.forEach(ISolver::interrupt);
+        }
+    }
+
+    @Override
+    public void interrupt() {
+        if (fCacheProxy != null) {
+            fCacheProxy.interrupt();
+        }
+        if (fExecutorService == null) {
+            super.interrupt();
+        } else {
+            interruptComponentSolvers();
+        }
+    }
+
+    @Override
+    public void notifyShutdown() {
+        if (fExecutorService == null) {
+            super.notifyShutdown();
+        } else {
+            fAllComponentSolvers.forEach(ISolver::notifyShutdown);
+            fExecutorService.shutdown();
         }
-        log.debug("Result:" + System.lineSeparator() + result.toParsableString());
-        return result;
     }
 
 }
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.solvers.decorators;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import ca.ubc.cs.beta.stationpacking.solvers.termination.ITerminationCriterion;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Results of the deterministic preprocessing stages (arc consistency, connected components, underconstrained stations)
+ * shared by all the solvers of a bundle. When several branches of a parallel portfolio preprocess the same instance, the
+ * first one to get to a stage computes it and publishes the result, and the others wait for it instead of redoing the
+ * work. Each stage's result is published as soon as it is computed, so a branch can use the components or reduced
+ * domains of an instance while the branch that produced them is still further down its own decorator chain.
+ * <p>
+ * Published results must be treated as read-only.
+ */
+@Slf4j
+public class SharedPreprocessingResults {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 256;
+
+    // How often a waiting branch checks its termination criterion.
+    private static final long WAIT_POLL_MILLIS = 50;
+
+    public enum Stage {
+        ARC_CONSISTENCY, CONNECTED_COMPONENTS, UNDERCONSTRAINED
+    }
+
+    private final Cache<StageKey, CompletableFuture<Object>> fResults;
+
+    public SharedPreprocessingResults() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * @param aMaximumSize - maximum number of stage results kept.
+     */
+    public SharedPreprocessingResults(int aMaximumSize) {
+        fResults = CacheBuilder.newBuilder().maximumSize(aMaximumSize).build();
+    }
+
+    /**
+     * Get the result of a preprocessing stage, computing it if no other solver has done or is doing so.
+     *
+     * @param aStage - the preprocessing stage.
+     * @param aInput - everything the stage's result depends on (e.g. the instance's domains), used as the key.
+     * @param aTerminationCriterion - termination criterion of the calling solver.
+     * @param aComputation - computes the stage's result, should respect the termination criterion. Never returns null.
+     * @return the result of the stage, or null if the termination criterion was met while waiting on another solver.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getOrCompute(Stage aStage, Object aInput, ITerminationCriterion aTerminationCriterion, Supplier<T> aComputation) {
+        final StageKey aKey = new StageKey(aStage, aInput);
+        while (true) {
+            final CompletableFuture<Object> aFuture = new CompletableFuture<>();
+            final CompletableFuture<Object> aPublished = fResults.asMap().putIfAbsent(aKey, aFuture);
+            if (aPublished != null) {
+                log.debug("Waiting on the shared {} result.", aStage);
+                final Object aResult = await(aPublished, aTerminationCriterion);
+                if (aResult != null || aTerminationCriterion.hasToStop()) {
+                    return (T) aResult;
+                }
+                // The solver computing the stage stopped early, compute it again with this solver's own time.
+                continue;
+            }
+
+            final T aResult;
+            try {
+                aResult = aComputation.get();
+            } catch (RuntimeException e) {
+                fResults.asMap().remove(aKey, aFuture);
+                aFuture.completeExceptionally(e);
+                throw e;
+            }
+            if (aTerminationCriterion.hasToStop()) {
+                // The stage may have stopped early: its (sound) partial result is neither kept nor given to waiters,
+                // which may have more time left to compute the full result.
+                fResults.asMap().remove(aKey, aFuture);
+                aFuture.complete(null);
+            } else {
+                aFuture.complete(aResult);
+            }
+            return aResult;
+        }
+    }
+
+    private static Object await(CompletableFuture<Object> aFuture, ITerminationCriterion aTerminationCriterion) {
+        while (true) {
+            try {
+                return aFuture.get(WAIT_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (aTerminationCriterion.hasToStop()) {
+                    return null;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Shared preprocessing stage failed in another solver.", e.getCause());
+            }
+        }
+    }
+
+    @Value
+    private static class StageKey {
+        Stage stage;
+        Object input;
+    }
+
+}
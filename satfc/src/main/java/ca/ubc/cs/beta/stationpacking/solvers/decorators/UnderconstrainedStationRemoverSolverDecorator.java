@@ -21,6 +21,7 @@
  */
 package ca.ubc.cs.beta.stationpacking.solvers.decorators;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -64,12 +65,22 @@ public class UnderconstrainedStationRemoverSolverDecorator extends ASolverDecora
     private final IUnderconstrainedStationFinder underconstrainedStationFinder;
     private final IConstraintManager constraintManager;
     private final boolean recurse;
+    private final SharedPreprocessingResults sharedResults;
 
     public UnderconstrainedStationRemoverSolverDecorator(ISolver aSolver, IConstraintManager constraintManager, IUnderconstrainedStationFinder underconstrainedStationFinder, boolean recurse) {
+        this(aSolver, constraintManager, underconstrainedStationFinder, recurse, null);
+    }
+
+    /**
+     * @param sharedResults - preprocessing results shared with other solvers, or null to always look for underconstrained stations locally.
+     *                      Sharing relies on the station finder's equality to tell apart finders that may give different answers.
+     */
+    public UnderconstrainedStationRemoverSolverDecorator(ISolver aSolver, IConstraintManager constraintManager, IUnderconstrainedStationFinder underconstrainedStationFinder, boolean recurse, SharedPreprocessingResults sharedResults) {
         super(aSolver);
         this.underconstrainedStationFinder = underconstrainedStationFinder;
         this.constraintManager = constraintManager;
         this.recurse = recurse;
+        this.sharedResults = sharedResults;
     }
 
     @Override
@@ -84,7 +95,12 @@ public class UnderconstrainedStationRemoverSolverDecorator extends ASolverDecora
             log.debug("All time spent.");
             return SolverResult.createTimeoutResult(watch.getElapsedTime());
         }
-        final Set<Station> underconstrainedStations = underconstrainedStationFinder.getUnderconstrainedStations(domains, aTerminationCriterion, stationsToCheck);
+        final Set<Station> underconstrainedStations = sharedResults == null ? underconstrainedStationFinder.getUnderconstrainedStations(domains, aTerminationCriterion, stationsToCheck) :
+                sharedResults.getOrCompute(SharedPreprocessingResults.Stage.UNDERCONSTRAINED, Arrays.asList(domains, stationsToCheck, underconstrainedStationFinder), aTerminationCriterion,
+                        () -> underconstrainedStationFinder.getUnderconstrainedStations(domains, aTerminationCriterion, stationsToCheck));
+        if (underconstrainedStations == null) {
+            return SolverResult.createTimeoutResult(watch.getElapsedTime());
+        }
         SATFCMetrics.postEvent(new SATFCMetrics.UnderconstrainedStationsRemovedEvent(aInstance.getName(), underconstrainedStations));
         if (aTerminationCriterion.hasToStop()) {
             log.debug("All time spent.");
@@ -144,16 +160,12 @@ public class UnderconstrainedStationRemoverSolverDecorator extends ASolverDecora
                 log.trace("Trying to add back underconstrained station {} on its domain {} ...", station, domain);
 
                 final Set<Station> assignedStationsInNeighbourhood = Sets.intersection(neighborIndex.neighborsOf(station), assignedStations);
-                final Map<Integer, Set<Station>> neighbourHoodAssignment = new HashMap<>();
-                for (Station s : assignedStationsInNeighbourhood) {
-                    int chan = stationToChannel.get(s);
-                    neighbourHoodAssignment.computeIfAbsent(chan, k -> new HashSet<>()).add(s);
-                }
 
                 for (Integer channel : domain) {
                     log.trace("Checking domain channel {} ...", channel);
-                    neighbourHoodAssignment.computeIfAbsent(channel, k -> new HashSet<>()).add(station);
-                    final boolean addedSAT = constraintManager.isSatisfyingAssignment(neighbourHoodAssignment);
+                    // The rest of the assignment is already satisfying, so only the pairs involving the added station need to be checked.
+                    final boolean addedSAT = assignedStationsInNeighbourhood.stream()
+                            .allMatch(neighbour -> constraintManager.isSatisfyingAssignment(station, channel, neighbour, stationToChannel.get(neighbour)));
 
                     if (addedSAT) {
                         log.trace("Added on channel {}.", channel);
@@ -161,11 +173,6 @@ public class UnderconstrainedStationRemoverSolverDecorator extends ASolverDecora
                         stationToChannel.put(station, channel);
                         stationAdded = true;
                         break;
-                    } else {
-                        neighbourHoodAssignment.get(channel).remove(station);
-                        if (neighbourHoodAssignment.get(channel).isEmpty()) {
-                            neighbourHoodAssignment.remove(channel);
-                        }
                     }
                 }
 
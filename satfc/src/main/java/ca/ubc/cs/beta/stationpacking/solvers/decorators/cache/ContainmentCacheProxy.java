@@ -26,16 +26,20 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.math.util.FastMath;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.entity.GzipDecompressingEntity;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.concurrent.FutureCallback;
@@ -47,7 +51,10 @@ import org.apache.http.util.EntityUtils;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableBiMap;
 
+import ca.ubc.cs.beta.stationpacking.base.Station;
 import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
 import ca.ubc.cs.beta.stationpacking.cache.CacheCoordinate;
 import ca.ubc.cs.beta.stationpacking.cache.ICacher;
@@ -55,12 +62,14 @@ import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheSATResult
 import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheUNSATResult;
 import ca.ubc.cs.beta.stationpacking.polling.IPollingService;
 import ca.ubc.cs.beta.stationpacking.polling.ProblemIncrementor;
+import ca.ubc.cs.beta.stationpacking.solvers.base.SATResult;
 import ca.ubc.cs.beta.stationpacking.solvers.base.SolverResult;
 import ca.ubc.cs.beta.stationpacking.solvers.decorators.ISATFCInterruptible;
 import ca.ubc.cs.beta.stationpacking.solvers.termination.ITerminationCriterion;
 import ca.ubc.cs.beta.stationpacking.utils.JSONUtils;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
@@ -75,28 +84,51 @@ public class ContainmentCacheProxy implements ICacher, ISATFCInterruptible {
 
     // if the text is smaller than this length in bytes, then compression probably isn't worth the trouble
     public static final int MIN_GZIP_LENGTH = 860;
+    // Time in ms the client is willing to wait for an answer, after which the server can give up on the request
+    public static final String TIMEOUT_HEADER = "X-SATFC-Timeout-Ms";
     public static Date lastSuccessfulCommunication;
 
+    @Getter
     private final CacheCoordinate coordinate;
     private final CloseableHttpAsyncClient httpClient;
     private final String SAT_URL;
     private final String UNSAT_URL;
     private final String CACHE_URL;
+    private final String QUERY_URL;
+    private final String BATCH_URL;
     private final AtomicReference<Future<HttpResponse>> activeFuture;
     private final int numAttempts;
     private final boolean noErrorOnServerUnavailable;
     private final ProblemIncrementor problemIncrementor;
+    // Permutation of the coordinate's stations, used to encode binary queries. Null to always send JSON.
+    private final ImmutableBiMap<Station, Integer> permutation;
+    // Queries are sent as JSON until the server says it accepts binary ones, and for good if it ever rejects them
+    private final AtomicBoolean binaryQueries;
+    private volatile boolean binaryQueriesRejected;
+    // Servers older than the combined query endpoint answer it with a 404, after which the SAT and UNSAT caches are queried separately
+    private volatile boolean combinedQueriesUnsupported;
 
     public ContainmentCacheProxy(@NonNull String baseServerURL, @NonNull CacheCoordinate coordinate, int numAttempts, boolean noErrorOnServerUnavailable, IPollingService pollingService, @NonNull CloseableHttpAsyncClient httpClient) {
+        this(baseServerURL, coordinate, null, numAttempts, noErrorOnServerUnavailable, pollingService, httpClient);
+    }
+
+    /**
+     * @param permutation permutation of the coordinate's stations, needed to send queries in the compact binary encoding of {@link ContainmentCacheQueryCodec}. Null to always send JSON.
+     */
+    public ContainmentCacheProxy(@NonNull String baseServerURL, @NonNull CacheCoordinate coordinate, ImmutableBiMap<Station, Integer> permutation, int numAttempts, boolean noErrorOnServerUnavailable, IPollingService pollingService, @NonNull CloseableHttpAsyncClient httpClient) {
         this.httpClient = httpClient;
         SAT_URL = baseServerURL + "/v1/cache/query/SAT";
         UNSAT_URL = baseServerURL + "/v1/cache/query/UNSAT";
         CACHE_URL = baseServerURL + "/v1/cache";
+        QUERY_URL = baseServerURL + "/v1/cache/query";
+        BATCH_URL = baseServerURL + "/v1/cache/query/batch";
         this.coordinate = coordinate;
         activeFuture = new AtomicReference<>();
         this.numAttempts = numAttempts;
         this.noErrorOnServerUnavailable = noErrorOnServerUnavailable;
         problemIncrementor = new ProblemIncrementor(pollingService, this);
+        this.permutation = permutation;
+        binaryQueries = new AtomicBoolean(false);
     }
 
     /**
@@ -118,6 +150,35 @@ public class ContainmentCacheProxy implements ICacher, ISATFCInterruptible {
         private SolverResult result;
     }
 
+    /**
+     * One query of a batch: look for a SAT superset or an UNSAT subset of the instance
+     */
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class ContainmentCacheQuery {
+        private StationPackingInstance instance;
+        private CacheCoordinate coordinate;
+        // SAT to look for a superset in the SAT cache, UNSAT to look for a subset in the UNSAT cache
+        private SATResult kind;
+    }
+
+    /**
+     * Answer to a {@link ContainmentCacheQuery}, only the result of the query's kind is set
+     */
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class ContainmentCacheQueryResult {
+        private ContainmentCacheSATResult satResult;
+        private ContainmentCacheUNSATResult unsatResult;
+
+        public static ContainmentCacheQueryResult failure(SATResult kind) {
+            return kind.equals(SATResult.SAT) ? new ContainmentCacheQueryResult(ContainmentCacheSATResult.failure(), null) : new ContainmentCacheQueryResult(null, ContainmentCacheUNSATResult.failure());
+        }
+    }
+
     public ContainmentCacheSATResult proveSATBySuperset(StationPackingInstance instance, ITerminationCriterion terminationCriterion) {
         try {
             problemIncrementor.scheduleTermination(terminationCriterion);
@@ -136,20 +197,80 @@ public class ContainmentCacheProxy implements ICacher, ISATFCInterruptible {
         }
     }
 
+    /**
+     * Ask for both a SAT superset and an UNSAT subset of the instance in a single round trip
+     * @return the first proof the server found, if any. Both results are set, possibly as failures.
+     */
+    public ContainmentCacheQueryResult proveSATBySupersetOrUNSATBySubset(StationPackingInstance instance, ITerminationCriterion terminationCriterion) {
+        try {
+            problemIncrementor.scheduleTermination(terminationCriterion);
+            final ContainmentCacheRequest request = new ContainmentCacheRequest(instance, coordinate);
+            if (!combinedQueriesUnsupported) {
+                try {
+                    final ContainmentCacheQueryResult result = makePost(QUERY_URL, request, ContainmentCacheQueryResult.class, new ContainmentCacheQueryResult(), terminationCriterion, numAttempts);
+                    // The server leaves out the result it did not wait for
+                    return new ContainmentCacheQueryResult(
+                            result.getSatResult() != null ? result.getSatResult() : ContainmentCacheSATResult.failure(),
+                            result.getUnsatResult() != null ? result.getUnsatResult() : ContainmentCacheUNSATResult.failure());
+                } catch (EndpointNotFoundException e) {
+                    log.info("The cache server does not answer combined queries, querying the SAT and UNSAT caches separately from now on");
+                    combinedQueriesUnsupported = true;
+                }
+            }
+            final ContainmentCacheSATResult satResult = makePost(SAT_URL, request, ContainmentCacheSATResult.class, ContainmentCacheSATResult.failure(), terminationCriterion, numAttempts);
+            if (satResult.isValid()) {
+                return new ContainmentCacheQueryResult(satResult, ContainmentCacheUNSATResult.failure());
+            }
+            final ContainmentCacheUNSATResult unsatResult = makePost(UNSAT_URL, request, ContainmentCacheUNSATResult.class, ContainmentCacheUNSATResult.failure(), terminationCriterion, numAttempts);
+            return new ContainmentCacheQueryResult(satResult, unsatResult);
+        } finally {
+            problemIncrementor.jobDone();
+        }
+    }
+
+    /**
+     * Send several queries to the server in a single round trip
+     * @return the results, in the order of the queries. Failures if the server could not answer.
+     */
+    public List<ContainmentCacheQueryResult> query(List<ContainmentCacheQuery> queries, ITerminationCriterion terminationCriterion) {
+        final List<ContainmentCacheQueryResult> failure = queries.stream().map(query -> ContainmentCacheQueryResult.failure(query.getKind())).collect(Collectors.toList());
+        if (queries.isEmpty()) {
+            return failure;
+        }
+        try {
+            problemIncrementor.scheduleTermination(terminationCriterion);
+            final ContainmentCacheQueryResult[] results = makePost(BATCH_URL, queries, queries.size() + " queries", ContainmentCacheQueryResult[].class, null, terminationCriterion, numAttempts);
+            if (results == null) {
+                return failure;
+            }
+            Preconditions.checkState(results.length == queries.size(), "Sent %s queries to the cache server but got %s results", queries.size(), results.length);
+            return Arrays.asList(results);
+        } finally {
+            problemIncrementor.jobDone();
+        }
+    }
+
     @Override
     public void cacheResult(StationPackingInstance instance, SolverResult result, ITerminationCriterion terminationCriterion) {
         makePost(CACHE_URL, new ContainmentCacheRequest(instance, coordinate, result), null, null, terminationCriterion, numAttempts);
     }
 
     private <T> T makePost(String URL, ContainmentCacheRequest request, Class<T> responseClass, T failure, ITerminationCriterion terminationCriterion, int remainingAttempts) {
+        return makePost(URL, request, "instance " + request.getInstance().getName(), responseClass, failure, terminationCriterion, remainingAttempts);
+    }
+
+    private <T> T makePost(String URL, Object request, String description, Class<T> responseClass, T failure, ITerminationCriterion terminationCriterion, int remainingAttempts) {
         try {
-            return makePost(URL, request, responseClass, failure, terminationCriterion);
+            return makePost(URL, request, description, responseClass, failure, terminationCriterion);
+        } catch (EndpointNotFoundException e) {
+            // Retrying would not help, and the caller falls back to older endpoints
+            throw e;
         } catch (Exception e) {
             log.error("Error making a web request", e);
             int newRemainingAttempts = remainingAttempts - 1;
             if (newRemainingAttempts > 0) {
                 log.error("Retrying web request. Request will be retried {} more time(s)", newRemainingAttempts);
-                return makePost(URL, request, responseClass, failure, terminationCriterion, newRemainingAttempts);
+                return makePost(URL, request, description, responseClass, failure, terminationCriterion, newRemainingAttempts);
             } else {
                 log.error("The retry quota for this web request has been exceeded");
                 if (noErrorOnServerUnavailable) {
@@ -162,30 +283,23 @@ public class ContainmentCacheProxy implements ICacher, ISATFCInterruptible {
         }
     }
 
-    private <T> T makePost(String URL, ContainmentCacheRequest request, Class<T> responseClass, T failure, ITerminationCriterion terminationCriterion) {
+    private <T> T makePost(String URL, Object request, String description, Class<T> responseClass, T failure, ITerminationCriterion terminationCriterion) {
         final UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(URL);
         final String uriString = builder.build().toUriString();
         final HttpPost httpPost = new HttpPost(uriString);
-        log.debug("Making a request to the cache server for instance " + request.getInstance().getName() + " " + uriString);
-        final String jsonRequest = JSONUtils.toString(request);
-        // possibly do gzip compression
-        if (jsonRequest.length() > MIN_GZIP_LENGTH) {
-            final ByteArrayOutputStream arr = new ByteArrayOutputStream();
-            try {
-                final OutputStream zipper = new GZIPOutputStream(arr);
-                zipper.write(jsonRequest.getBytes());
-                zipper.close();
-            } catch (IOException e) {
-                throw new RuntimeException("Error compressing json http post request to gzip", e);
-            }
-            final ByteArrayEntity postEntity = new ByteArrayEntity(arr.toByteArray());
-            postEntity.setContentEncoding("gzip");
-            postEntity.setContentType("application/json");
-            httpPost.setEntity(postEntity);
+        log.debug("Making a request to the cache server for " + description + " " + uriString);
+        final byte[] binaryRequest = encodeBinaryQuery(request);
+        if (binaryRequest != null) {
+            httpPost.setEntity(new ByteArrayEntity(binaryRequest, ContentType.create(ContainmentCacheQueryCodec.CONTENT_TYPE)));
         } else {
-            httpPost.setEntity(new StringEntity(jsonRequest, ContentType.APPLICATION_JSON));
+            setJsonEntity(httpPost, request);
         }
         httpPost.addHeader("Accept-Encoding", "gzip");
+        final double remainingTime = terminationCriterion.getRemainingTime();
+        if (!Double.isInfinite(remainingTime)) {
+            // The server turns this into a deadline on its own clock, so that the clocks of the two machines need not agree
+            httpPost.addHeader(TIMEOUT_HEADER, Long.toString((long) (1000 * FastMath.max(0, remainingTime))));
+        }
         if (terminationCriterion.hasToStop()) {
             return failure;
         }
@@ -236,8 +350,25 @@ public class ContainmentCacheProxy implements ICacher, ISATFCInterruptible {
             if (terminationCriterion.hasToStop()) {
                 return failure;
             }
+            final HttpResponse response = httpResponse.get();
+            if (response == null) {
+                log.debug("Web request was cancelled");
+                return failure;
+            }
+            if (binaryRequest != null && response.getStatusLine().getStatusCode() == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE) {
+                log.info("The cache server does not accept binary queries, sending JSON from now on");
+                binaryQueriesRejected = true;
+                binaryQueries.set(false);
+                return makePost(URL, request, description, responseClass, failure, terminationCriterion);
+            }
+            if (permutation != null && !binaryQueriesRejected && response.containsHeader(ContainmentCacheQueryCodec.BINARY_QUERY_HEADER)) {
+                binaryQueries.set(true);
+            }
             if (responseClass != null) {
-                HttpEntity responseEntity = httpResponse.get().getEntity();
+                if (URL.equals(QUERY_URL) && response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+                    throw new EndpointNotFoundException(URL);
+                }
+                HttpEntity responseEntity = response.getEntity();
                 // Check to see if the response is compressed using gzip
                 final Header ceheader = responseEntity.getContentEncoding();
                 if (ceheader != null && Arrays.stream(ceheader.getElements()).anyMatch(codec -> codec.getName().equalsIgnoreCase("gzip"))) {
@@ -247,13 +378,63 @@ public class ContainmentCacheProxy implements ICacher, ISATFCInterruptible {
                 final String response = EntityUtils.toString(responseEntity);
                 return JSONUtils.toObject(response, responseClass);
             } else {
-                return null; // Not expecting a response
+                // Not expecting a response, but the server may have refused the request
+                final int statusCode = response.getStatusLine().getStatusCode();
+                if (statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE) {
+                    log.warn("The cache server has too many pending additions, {} is not cached", description);
+                } else if (statusCode >= 300) {
+                    log.warn("The cache server refused the request for {}: {}", description, response.getStatusLine());
+                }
+                return null;
             }
         } catch (IOException e) {
             throw new RuntimeException("Error reading input stream from httpResponse", e);
         }
     }
 
+    // The server does not know an endpoint that has an older equivalent
+    private static class EndpointNotFoundException extends RuntimeException {
+        EndpointNotFoundException(String URL) {
+            super("The cache server does not know " + URL);
+        }
+    }
+
+    /**
+     * @return the request in binary, if it is a SAT or UNSAT query and the server accepts binary queries, otherwise null
+     */
+    private byte[] encodeBinaryQuery(Object request) {
+        if (!binaryQueries.get() || !(request instanceof ContainmentCacheRequest)) {
+            return null;
+        }
+        final ContainmentCacheRequest cacheRequest = (ContainmentCacheRequest) request;
+        // Requests with a result are cache additions, not queries
+        if (cacheRequest.getResult() != null) {
+            return null;
+        }
+        return ContainmentCacheQueryCodec.encode(cacheRequest.getInstance(), cacheRequest.getCoordinate(), permutation);
+    }
+
+    private static void setJsonEntity(HttpPost httpPost, Object request) {
+        final String jsonRequest = JSONUtils.toString(request);
+        // possibly do gzip compression
+        if (jsonRequest.length() > MIN_GZIP_LENGTH) {
+            final ByteArrayOutputStream arr = new ByteArrayOutputStream();
+            try {
+                final OutputStream zipper = new GZIPOutputStream(arr);
+                zipper.write(jsonRequest.getBytes());
+                zipper.close();
+            } catch (IOException e) {
+                throw new RuntimeException("Error compressing json http post request to gzip", e);
+            }
+            final ByteArrayEntity postEntity = new ByteArrayEntity(arr.toByteArray());
+            postEntity.setContentEncoding("gzip");
+            postEntity.setContentType("application/json");
+            httpPost.setEntity(postEntity);
+        } else {
+            httpPost.setEntity(new StringEntity(jsonRequest, ContentType.APPLICATION_JSON));
+        }
+    }
+
     public void interrupt() {
         final Future<HttpResponse> future = activeFuture.getAndSet(null);
         if (future != null) {
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.solvers.decorators.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.google.common.collect.ImmutableBiMap;
+import com.google.common.collect.ImmutableMap;
+
+import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
+import ca.ubc.cs.beta.stationpacking.cache.CacheCoordinate;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.ContainmentCacheProxy.ContainmentCacheRequest;
+import ca.ubc.cs.beta.stationpacking.utils.GuavaCollectors;
+
+/**
+ * Compact binary encoding of a SAT or UNSAT cache query, an alternative to sending the instance as JSON.
+ * Client and server derive the same station permutation from the cache coordinate, so a query is:
+ * <ol>
+ *     <li>a version byte</li>
+ *     <li>the coordinate's domain and interference hashes</li>
+ *     <li>the instance's name (empty if it has none), which the server uses for logging and auction filters</li>
+ *     <li>the bitset of the permutation indices of the instance's stations</li>
+ *     <li>one word per station, in permutation order: bit c is set if channel c is in the station's domain</li>
+ * </ol>
+ * The previous assignment and the rest of the metadata are not sent, as the cache does not look at them.
+ */
+public class ContainmentCacheQueryCodec {
+
+    public static final String CONTENT_TYPE = "application/x-satfc-cache-query";
+    // Set by servers on their query responses if they accept binary queries
+    public static final String BINARY_QUERY_HEADER = "X-SATFC-Binary-Query";
+
+    private static final byte VERSION = 1;
+
+    private ContainmentCacheQueryCodec() {
+    }
+
+    /**
+     * @param permutation the permutation of the coordinate's stations
+     * @return the encoded query, or null if it cannot be encoded (a station outside of the permutation or a channel that does not fit in a word), in which case JSON should be used
+     */
+    public static byte[] encode(StationPackingInstance instance, CacheCoordinate coordinate, ImmutableBiMap<Station, Integer> permutation) {
+        final BitSet bitSet = new BitSet(permutation.size());
+        for (Station station : instance.getStations()) {
+            final Integer index = permutation.get(station);
+            if (index == null) {
+                return null;
+            }
+            bitSet.set(index);
+        }
+        final ImmutableBiMap<Integer, Station> inverse = permutation.inverse();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + 8 * instance.getStations().size());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeUTF(coordinate.getDomainHash());
+            out.writeUTF(coordinate.getInterferenceHash());
+            out.writeUTF(instance.hasName() ? instance.getName() : "");
+            final byte[] stationBytes = bitSet.toByteArray();
+            out.writeInt(stationBytes.length);
+            out.write(stationBytes);
+            for (int index = bitSet.nextSetBit(0); index >= 0; index = bitSet.nextSetBit(index + 1)) {
+                long mask = 0;
+                for (Integer channel : instance.getDomains().get(inverse.get(index))) {
+                    if (channel < 0 || channel >= Long.SIZE) {
+                        return null;
+                    }
+                    mask |= 1L << channel;
+                }
+                out.writeLong(mask);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not encode a cache query", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param permutations gives the permutation of a coordinate's stations
+     * @return the query, as if it had been sent as JSON
+     */
+    public static ContainmentCacheRequest decode(byte[] query, Function<CacheCoordinate, ImmutableBiMap<Station, Integer>> permutations) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(query))) {
+            final byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unknown cache query encoding version " + version);
+            }
+            final CacheCoordinate coordinate = new CacheCoordinate(in.readUTF(), in.readUTF());
+            final String name = in.readUTF();
+            final byte[] stationBytes = new byte[in.readInt()];
+            in.readFully(stationBytes);
+            final BitSet bitSet = BitSet.valueOf(stationBytes);
+            final ImmutableBiMap<Integer, Station> inverse = permutations.apply(coordinate).inverse();
+            final Map<Station, Set<Integer>> domains = new HashMap<>();
+            for (int index = bitSet.nextSetBit(0); index >= 0; index = bitSet.nextSetBit(index + 1)) {
+                final Station station = inverse.get(index);
+                if (station == null) {
+                    throw new IllegalArgumentException("No station at index " + index + " of the permutation of coordinate " + coordinate);
+                }
+                domains.put(station, BitSet.valueOf(new long[]{in.readLong()}).stream().boxed().collect(GuavaCollectors.toImmutableSet()));
+            }
+            final Map<String, Object> metadata = name.isEmpty() ? ImmutableMap.of() : ImmutableMap.of(StationPackingInstance.NAME_KEY, name);
+            return new ContainmentCacheRequest(new StationPackingInstance(domains, ImmutableMap.of(), metadata), coordinate);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated cache query", e);
+        }
+    }
+
+}
@@ -54,8 +54,7 @@ public class SubsetCacheUNSATDecorator extends ASolverDecorator {
         SATFCMetrics.postEvent(new SATFCMetrics.TimingEvent(aInstance.getName(), SATFCMetrics.TimingEvent.FIND_SUBSET, watch.getElapsedTime()));
         if (proveUNSATBySubset.isValid()) {
             log.debug("Found a subset in the UNSAT cache - declaring problem UNSAT due to problem " + proveUNSATBySubset.getKey());
-            result = SolverResult.createNonSATResult(SATResult.UNSAT, watch.getElapsedTime(), SolverResult.SolvedBy.UNSAT_CACHE);
-            SATFCMetrics.postEvent(new SATFCMetrics.JustifiedByCacheEvent(aInstance.getName(), proveUNSATBySubset.getKey()));
+            result = toSolverResult(aInstance, proveUNSATBySubset, watch.getElapsedTime());
         } else {
             log.debug("UNSAT cache unsuccessful");
             result = SolverResult.relabelTime(fDecoratedSolver.solve(aInstance, aTerminationCriterion, aSeed), watch.getElapsedTime());
@@ -63,6 +62,14 @@ public class SubsetCacheUNSATDecorator extends ASolverDecorator {
         return result;
     }
 
+    /**
+     * @param proveUNSATBySubset a valid result, whose entry is a subset of the instance
+     */
+    public static SolverResult toSolverResult(StationPackingInstance aInstance, ContainmentCacheUNSATResult proveUNSATBySubset, double runtime) {
+        SATFCMetrics.postEvent(new SATFCMetrics.JustifiedByCacheEvent(aInstance.getName(), proveUNSATBySubset.getKey()));
+        return SolverResult.createNonSATResult(SATResult.UNSAT, runtime, SolverResult.SolvedBy.UNSAT_CACHE);
+    }
+
     @Override
     public void interrupt() {
         containmentCache.interrupt();
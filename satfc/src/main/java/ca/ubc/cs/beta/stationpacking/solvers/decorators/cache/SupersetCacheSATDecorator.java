@@ -63,19 +63,8 @@ public class SupersetCacheSATDecorator extends ASolverDecorator {
         final ContainmentCacheSATResult containmentCacheSATResult = proxy.proveSATBySuperset(aInstance, aTerminationCriterion);
         SATFCMetrics.postEvent(new SATFCMetrics.TimingEvent(aInstance.getName(), SATFCMetrics.TimingEvent.FIND_SUPERSET, watch.getElapsedTime()));
         if (containmentCacheSATResult.isValid()) {
-            final Map<Integer, Set<Station>> assignment = containmentCacheSATResult.getResult();
             log.debug("Found a superset in the SAT cache - declaring result SAT because of " + containmentCacheSATResult.getKey());
-            final Map<Integer, Set<Station>> reducedAssignment = Maps.newHashMap();
-            for (Integer channel : assignment.keySet()) {
-                assignment.get(channel).stream().filter(station -> aInstance.getStations().contains(station)).forEach(station -> {
-                    if (reducedAssignment.get(channel) == null) {
-                        reducedAssignment.put(channel, Sets.newHashSet());
-                    }
-                    reducedAssignment.get(channel).add(station);
-                });
-            }
-            result = new SolverResult(SATResult.SAT, watch.getElapsedTime(), reducedAssignment, SolverResult.SolvedBy.SAT_CACHE);
-            SATFCMetrics.postEvent(new SATFCMetrics.JustifiedByCacheEvent(aInstance.getName(), containmentCacheSATResult.getKey()));
+            result = toSolverResult(aInstance, containmentCacheSATResult, watch.getElapsedTime());
         } else {
             log.debug("Cache query unsuccessful");
             result = SolverResult.relabelTime(fDecoratedSolver.solve(aInstance, aTerminationCriterion, aSeed), watch.getElapsedTime());
@@ -83,6 +72,25 @@ public class SupersetCacheSATDecorator extends ASolverDecorator {
         return result;
     }
 
+    /**
+     * @param containmentCacheSATResult a valid result, whose assignment is for a superset of the instance
+     * @return the result restricted to the stations of the instance
+     */
+    public static SolverResult toSolverResult(StationPackingInstance aInstance, ContainmentCacheSATResult containmentCacheSATResult, double runtime) {
+        final Map<Integer, Set<Station>> assignment = containmentCacheSATResult.getResult();
+        final Map<Integer, Set<Station>> reducedAssignment = Maps.newHashMap();
+        for (Integer channel : assignment.keySet()) {
+            assignment.get(channel).stream().filter(station -> aInstance.getStations().contains(station)).forEach(station -> {
+                if (reducedAssignment.get(channel) == null) {
+                    reducedAssignment.put(channel, Sets.newHashSet());
+                }
+                reducedAssignment.get(channel).add(station);
+            });
+        }
+        SATFCMetrics.postEvent(new SATFCMetrics.JustifiedByCacheEvent(aInstance.getName(), containmentCacheSATResult.getKey()));
+        return new SolverResult(SATResult.SAT, runtime, reducedAssignment, SolverResult.SolvedBy.SAT_CACHE);
+    }
+
     @Override
     public void interrupt() {
         proxy.interrupt();
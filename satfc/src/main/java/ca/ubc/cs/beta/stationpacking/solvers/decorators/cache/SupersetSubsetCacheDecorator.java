@@ -0,0 +1,74 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.solvers.decorators.cache;
+
+import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
+import ca.ubc.cs.beta.stationpacking.metrics.SATFCMetrics;
+import ca.ubc.cs.beta.stationpacking.solvers.ISolver;
+import ca.ubc.cs.beta.stationpacking.solvers.base.SolverResult;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.ASolverDecorator;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.ContainmentCacheProxy.ContainmentCacheQueryResult;
+import ca.ubc.cs.beta.stationpacking.solvers.termination.ITerminationCriterion;
+import ca.ubc.cs.beta.stationpacking.utils.Watch;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Query the SATFCServer for both a SAT superset and an UNSAT subset of the problem in a single request.
+ * Does the work of a {@link SupersetCacheSATDecorator} and a {@link SubsetCacheUNSATDecorator} in one round trip.
+ */
+@Slf4j
+public class SupersetSubsetCacheDecorator extends ASolverDecorator {
+
+    private final ContainmentCacheProxy proxy;
+
+    public SupersetSubsetCacheDecorator(ISolver aSolver, ContainmentCacheProxy proxy) {
+        super(aSolver);
+        this.proxy = proxy;
+    }
+
+    @Override
+    public SolverResult solve(StationPackingInstance aInstance, ITerminationCriterion aTerminationCriterion, long aSeed) {
+        final Watch watch = Watch.constructAutoStartWatch();
+        final SolverResult result;
+        log.debug("Querying SAT and UNSAT caches");
+        final ContainmentCacheQueryResult queryResult = proxy.proveSATBySupersetOrUNSATBySubset(aInstance, aTerminationCriterion);
+        SATFCMetrics.postEvent(new SATFCMetrics.TimingEvent(aInstance.getName(), SATFCMetrics.TimingEvent.FIND_SUPERSET_OR_SUBSET, watch.getElapsedTime()));
+        if (queryResult.getSatResult().isValid()) {
+            log.debug("Found a superset in the SAT cache - declaring result SAT because of " + queryResult.getSatResult().getKey());
+            result = SupersetCacheSATDecorator.toSolverResult(aInstance, queryResult.getSatResult(), watch.getElapsedTime());
+        } else if (queryResult.getUnsatResult().isValid()) {
+            log.debug("Found a subset in the UNSAT cache - declaring problem UNSAT due to problem " + queryResult.getUnsatResult().getKey());
+            result = SubsetCacheUNSATDecorator.toSolverResult(aInstance, queryResult.getUnsatResult(), watch.getElapsedTime());
+        } else {
+            log.debug("Cache queries unsuccessful");
+            result = SolverResult.relabelTime(fDecoratedSolver.solve(aInstance, aTerminationCriterion, aSeed), watch.getElapsedTime());
+        }
+        return result;
+    }
+
+    @Override
+    public void interrupt() {
+        proxy.interrupt();
+        super.interrupt();
+    }
+
+}
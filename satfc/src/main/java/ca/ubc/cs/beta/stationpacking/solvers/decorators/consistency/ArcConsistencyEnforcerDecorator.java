@@ -30,6 +30,7 @@ import ca.ubc.cs.beta.stationpacking.solvers.ISolver;
 import ca.ubc.cs.beta.stationpacking.solvers.base.SATResult;
 import ca.ubc.cs.beta.stationpacking.solvers.base.SolverResult;
 import ca.ubc.cs.beta.stationpacking.solvers.decorators.ASolverDecorator;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.SharedPreprocessingResults;
 import ca.ubc.cs.beta.stationpacking.solvers.termination.ITerminationCriterion;
 import ca.ubc.cs.beta.stationpacking.utils.Watch;
 import lombok.extern.slf4j.Slf4j;
@@ -42,20 +43,35 @@ import lombok.extern.slf4j.Slf4j;
 public class ArcConsistencyEnforcerDecorator extends ASolverDecorator {
 
     private final AC3Enforcer ac3Enforcer;
+    private final SharedPreprocessingResults sharedResults;
 
     /**
      * @param aSolver           - decorated ISolver.
      * @param constraintManager
      */
     public ArcConsistencyEnforcerDecorator(ISolver aSolver, IConstraintManager constraintManager) {
+        this(aSolver, constraintManager, null);
+    }
+
+    /**
+     * @param aSolver           - decorated ISolver.
+     * @param constraintManager
+     * @param sharedResults     - preprocessing results shared with other solvers, or null to always enforce arc consistency locally.
+     */
+    public ArcConsistencyEnforcerDecorator(ISolver aSolver, IConstraintManager constraintManager, SharedPreprocessingResults sharedResults) {
         super(aSolver);
         ac3Enforcer = new AC3Enforcer(constraintManager);
+        this.sharedResults = sharedResults;
     }
 
     @Override
     public SolverResult solve(StationPackingInstance aInstance, ITerminationCriterion aTerminationCriterion, long aSeed) {
         final Watch watch = Watch.constructAutoStartWatch();
-        final AC3Output ac3Output = ac3Enforcer.AC3(aInstance, aTerminationCriterion);
+        final AC3Output ac3Output = sharedResults == null ? ac3Enforcer.AC3(aInstance, aTerminationCriterion) :
+                sharedResults.getOrCompute(SharedPreprocessingResults.Stage.ARC_CONSISTENCY, aInstance.getDomains(), aTerminationCriterion, () -> ac3Enforcer.AC3(aInstance, aTerminationCriterion));
+        if (ac3Output == null) {
+            return SolverResult.createTimeoutResult(watch.getElapsedTime());
+        }
         SATFCMetrics.postEvent(new SATFCMetrics.TimingEvent(aInstance.getName(), SATFCMetrics.TimingEvent.ARC_CONSISTENCY, watch.getElapsedTime()));
         if (ac3Output.isNoSolution()) {
             return SolverResult.createNonSATResult(SATResult.UNSAT, watch.getElapsedTime(), SolverResult.SolvedBy.ARC_CONSISTENCY);
@@ -21,20 +21,19 @@
  */
 package ca.ubc.cs.beta.stationpacking.solvers.sat;
 
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.commons.math3.util.Pair;
-
 import ca.ubc.cs.beta.stationpacking.base.Station;
 import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
 import ca.ubc.cs.beta.stationpacking.solvers.ISolver;
 import ca.ubc.cs.beta.stationpacking.solvers.base.SATResult;
 import ca.ubc.cs.beta.stationpacking.solvers.base.SolverResult;
-import ca.ubc.cs.beta.stationpacking.solvers.sat.base.CNF;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.base.Literal;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.base.PackedCNF;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.cnfencoder.ISATDecoder;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.cnfencoder.ISATEncoder;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.cnfencoder.SATEncoder;
@@ -67,7 +66,7 @@ public class GenericSATBasedSolver implements ISolver {
 
         log.debug("Encoding subproblem in CNF...");
         SATEncoder.CNFEncodedProblem aEncoding = fSATEncoder.encodeWithAssignment(aInstance);
-        CNF aCNF = aEncoding.getCnf();
+        PackedCNF aCNF = aEncoding.getPackedCnf();
         ISATDecoder aDecoder = aEncoding.getDecoder();
         log.debug("CNF has {} clauses.", aCNF.size());
         if (aTerminationCriterion.hasToStop()) {
@@ -86,29 +85,32 @@ public class GenericSATBasedSolver implements ISolver {
             Map<Integer, Set<Station>> aStationAssignment = new HashMap<Integer, Set<Station>>();
             final Set<Station> assignedStations = new HashSet<>();
             if (satSolverResult.getResult().equals(SATResult.SAT)) {
-                HashMap<Long, Boolean> aLitteralChecker = new HashMap<Long, Boolean>();
+                // Variables seen so far and their signs, indexed by variable to avoid boxing every literal.
+                final BitSet aSeenVariables = new BitSet(aCNF.getMaxVariable() + 1);
+                final BitSet aVariableSigns = new BitSet(aCNF.getMaxVariable() + 1);
                 for (Literal aLiteral : satSolverResult.getAssignment()) {
                     boolean aSign = aLiteral.getSign();
                     long aVariable = aLiteral.getVariable();
     
                     //Do some quick verifications of the assignment.
-                    if (aLitteralChecker.containsKey(aVariable)) {
+                    final int aIndex = Math.toIntExact(aVariable);
+                    if (aSeenVariables.get(aIndex)) {
                         log.warn("A variable was present twice in a SAT assignment.");
-                        if (!aLitteralChecker.get(aVariable).equals(aSign)) {
+                        if (aVariableSigns.get(aIndex) != aSign) {
                             throw new IllegalStateException("SAT assignment from TAE wrapper assigns a variable to true AND false.");
                         }
                     } else {
-                        aLitteralChecker.put(aVariable, aSign);
+                        aSeenVariables.set(aIndex);
+                        aVariableSigns.set(aIndex, aSign);
                     }
     
                     //If the litteral is positive, then we keep it as it is an assigned station to a channel.
-                    if (aSign) {
-                        Pair<Station, Integer> aStationChannelPair = aDecoder.decode(aVariable);
-                        Station aStation = aStationChannelPair.getKey();
+                    if (aSign && aDecoder.isStationChannelVariable(aVariable)) {
+                        Station aStation = aDecoder.decodeStation(aVariable);
                         if (assignedStations.contains(aStation)) {
                             continue;
                         }
-                        Integer aChannel = aStationChannelPair.getValue();
+                        int aChannel = aDecoder.decodeChannel(aVariable);
     
                         if (!aInstance.getStations().contains(aStation) || !aInstance.getDomains().get(aStation).contains(aChannel)) {
                             throw new IllegalStateException("A decoded station and channel from a component SAT assignment is not in that component's problem instance. (" + aStation + ", channel:" + aChannel + ")");
@@ -0,0 +1,227 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.solvers.sat.base;
+
+import java.util.Arrays;
+
+/**
+ * A SAT formula in Conjunctive Normal Form packed in two int arrays, as an allocation free alternative to {@link CNF}.
+ * Literals are stored DIMACS style (the variable for a positive literal, minus the variable for a negative one),
+ * all clauses one after the other, and a second array holds the offset at which each clause starts. This is the form
+ * handed as is to the native SAT solvers, without going through a DIMACS string.
+ */
+public class PackedCNF {
+
+    private int[] fLiterals;
+    private int fNumLiterals;
+    // Clause c spans literals [fClauseStarts[c], fClauseStarts[c+1]), the last entry is the start of the open clause.
+    private int[] fClauseStarts;
+    private int fNumClauses;
+    private int fMaxVariable;
+
+    public PackedCNF()
+    {
+        this(16, 64);
+    }
+
+    /**
+     * @param aClauseCapacity - expected number of clauses.
+     * @param aLiteralCapacity - expected total number of literals.
+     */
+    public PackedCNF(int aClauseCapacity, int aLiteralCapacity)
+    {
+        fLiterals = new int[Math.max(aLiteralCapacity, 1)];
+        fClauseStarts = new int[Math.max(aClauseCapacity, 1) + 1];
+    }
+
+    /**
+     * Adds a literal to the clause currently being built, see {@link #endClause()}.
+     * @param aLiteral - a DIMACS literal, non-zero.
+     */
+    public void addLiteral(int aLiteral)
+    {
+        if(aLiteral == 0)
+        {
+            throw new IllegalArgumentException("Cannot add a literal with variable value 0 to a CNF.");
+        }
+        if(fNumLiterals == fLiterals.length)
+        {
+            fLiterals = Arrays.copyOf(fLiterals, 2 * fLiterals.length);
+        }
+        fLiterals[fNumLiterals++] = aLiteral;
+        final int aVariable = Math.abs(aLiteral);
+        if(aVariable > fMaxVariable)
+        {
+            fMaxVariable = aVariable;
+        }
+    }
+
+    /**
+     * Closes the clause currently being built, made of all the literals added since the last closed clause.
+     */
+    public void endClause()
+    {
+        if(fNumClauses + 2 > fClauseStarts.length)
+        {
+            fClauseStarts = Arrays.copyOf(fClauseStarts, 2 * fClauseStarts.length);
+        }
+        fClauseStarts[++fNumClauses] = fNumLiterals;
+    }
+
+    /**
+     * Adds a binary clause.
+     * @param aLiteral1 - first DIMACS literal.
+     * @param aLiteral2 - second DIMACS literal.
+     */
+    public void addClause(int aLiteral1, int aLiteral2)
+    {
+        addLiteral(aLiteral1);
+        addLiteral(aLiteral2);
+        endClause();
+    }
+
+    /**
+     * Adds all the clauses of another packed CNF.
+     * @param aCNF - packed CNF to add the clauses of.
+     */
+    public void addAll(PackedCNF aCNF)
+    {
+        for(int c=0;c<aCNF.fNumClauses;c++)
+        {
+            for(int i=aCNF.fClauseStarts[c];i<aCNF.fClauseStarts[c+1];i++)
+            {
+                addLiteral(aCNF.fLiterals[i]);
+            }
+            endClause();
+        }
+    }
+
+    /**
+     * @return the number of (closed) clauses.
+     */
+    public int size()
+    {
+        return fNumClauses;
+    }
+
+    /**
+     * @return the total number of literals in the (closed) clauses.
+     */
+    public int getNumLiterals()
+    {
+        return fClauseStarts[fNumClauses];
+    }
+
+    /**
+     * @return the largest variable appearing in the CNF.
+     */
+    public int getMaxVariable()
+    {
+        return fMaxVariable;
+    }
+
+    /**
+     * @return the backing literal array, only its first {@link #getNumLiterals()} entries are meaningful. Do not modify.
+     */
+    public int[] getLiteralArray()
+    {
+        return fLiterals;
+    }
+
+    /**
+     * @return the backing clause start array, only its first {@link #size()}+1 entries are meaningful, the last one being
+     * {@link #getNumLiterals()}. Do not modify.
+     */
+    public int[] getClauseStartArray()
+    {
+        return fClauseStarts;
+    }
+
+    /**
+     * @param aCNF - a CNF whose variables all fit in an int.
+     * @return the packed form of the CNF.
+     */
+    public static PackedCNF fromCNF(CNF aCNF)
+    {
+        final PackedCNF aPackedCNF = new PackedCNF(aCNF.size(), 2 * aCNF.size());
+        for(Clause aClause : aCNF)
+        {
+            for(Literal aLiteral : aClause)
+            {
+                if(aLiteral.getVariable() <= 0)
+                {
+                    throw new IllegalArgumentException("Cannot pack a CNF that has a litteral with variable value <= 0 (clause: "+aClause.toString()+").");
+                }
+                final int aVariable = Math.toIntExact(aLiteral.getVariable());
+                aPackedCNF.addLiteral(aLiteral.getSign() ? aVariable : -aVariable);
+            }
+            aPackedCNF.endClause();
+        }
+        return aPackedCNF;
+    }
+
+    /**
+     * @return the CNF as {@link Clause} and {@link Literal} objects.
+     */
+    public CNF toCNF()
+    {
+        final CNF aCNF = new CNF();
+        for(int c=0;c<fNumClauses;c++)
+        {
+            final Clause aClause = new Clause();
+            for(int i=fClauseStarts[c];i<fClauseStarts[c+1];i++)
+            {
+                aClause.add(new Literal(Math.abs(fLiterals[i]), fLiterals[i] > 0));
+            }
+            aCNF.add(aClause);
+        }
+        return aCNF;
+    }
+
+    /**
+     * Builds and returns the DIMACS string representation of the CNF, see {@link CNF#toDIMACS(String[])}.
+     * @param aComments - the comments to add at the beginning of the CNF, if any.
+     * @return the DIMACS string representation of the CNF.
+     */
+    public String toDIMACS(String[] aComments)
+    {
+        final StringBuilder aStringBuilder = new StringBuilder(8 * getNumLiterals() + 32);
+        if (aComments != null)
+        {
+            for(String aComment : aComments)
+            {
+                aStringBuilder.append("c ").append(aComment.trim()).append('\n');
+            }
+        }
+        aStringBuilder.append("p cnf ").append(fMaxVariable).append(' ').append(fNumClauses).append('\n');
+        for(int c=0;c<fNumClauses;c++)
+        {
+            for(int i=fClauseStarts[c];i<fClauseStarts[c+1];i++)
+            {
+                aStringBuilder.append(fLiterals[i]).append(' ');
+            }
+            aStringBuilder.append("0\n");
+        }
+        return aStringBuilder.toString();
+    }
+
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.solvers.sat.cnfencoder;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
+import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.IConstraintManager;
+import ca.ubc.cs.beta.stationpacking.facade.datamanager.solver.bundles.yaml.EncodingType;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Thread-safe, size-bounded cache of encoded problems, shared by the SAT solvers of a bundle so that portfolio members
+ * working on the same (sub)instance encode it once. Encodings are keyed by instance, previous assignment, encoding type
+ * and constraint hash. Concurrent requests for the same key wait for a single encoding.
+ * <p>
+ * Cached problems are shared between threads and must be treated as read-only.
+ */
+@Slf4j
+public class CNFEncodingCache {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 64;
+
+    private final Cache<EncodingKey, SATEncoder.CNFEncodedProblem> fCache;
+
+    public CNFEncodingCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * @param aMaximumSize - maximum number of encoded problems kept.
+     */
+    public CNFEncodingCache(int aMaximumSize) {
+        fCache = CacheBuilder.newBuilder().maximumSize(aMaximumSize).build();
+    }
+
+    /**
+     * @param aInstance - instance to encode.
+     * @param aEncodingType - encoding type used by the encoder.
+     * @param aConstraintManager - constraint manager used by the encoder.
+     * @param aEncoder - encoder to use if the instance has not been encoded yet.
+     * @return the encoded problem, computed by this call or shared with a previous or concurrent call.
+     */
+    public SATEncoder.CNFEncodedProblem encodeWithAssignment(StationPackingInstance aInstance, EncodingType aEncodingType, IConstraintManager aConstraintManager, ISATEncoder aEncoder) {
+        final EncodingKey aKey = new EncodingKey(aInstance.getHashString(), aInstance.getPreviousAssignment(), aEncodingType, aConstraintManager.getConstraintHash());
+        try {
+            return fCache.get(aKey, () -> {
+                log.debug("Encoding instance {} for the shared encoding cache.", aKey.getInstanceHash());
+                final SATEncoder.CNFEncodedProblem aProblem = aEncoder.encodeWithAssignment(aInstance);
+                return new SATEncoder.CNFEncodedProblem(aProblem.getPackedCnf(), aProblem.getDecoder(), Collections.unmodifiableMap(aProblem.getInitialAssignment()));
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new IllegalStateException("Could not encode instance " + aInstance.getInfo(), e.getCause());
+        }
+    }
+
+    /**
+     * @return the number of encoded problems currently cached.
+     */
+    public long size() {
+        return fCache.size();
+    }
+
+    @Value
+    private static class EncodingKey {
+        String instanceHash;
+        ImmutableMap<Station, Integer> previousAssignment;
+        EncodingType encodingType;
+        String constraintHash;
+    }
+
+}
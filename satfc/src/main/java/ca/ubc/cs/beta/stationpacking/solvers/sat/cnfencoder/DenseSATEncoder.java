@@ -0,0 +1,83 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.solvers.sat.cnfencoder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.math3.util.Pair;
+
+import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
+import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.IConstraintManager;
+import ca.ubc.cs.beta.stationpacking.facade.datamanager.solver.bundles.yaml.EncodingType;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.base.CNF;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.base.PackedCNF;
+
+/**
+ * Encodes a problem instance as a propositional satisfiability problem, with the same clauses as {@link SATEncoder}
+ * but with variables numbered densely from 1 to n through a {@link StationChannelNumbering} of the instance.
+ * No pairing function or bijection lookup is involved, and the numbering doubles as the decoder.
+ */
+public class DenseSATEncoder implements ISATEncoder {
+
+    private final IConstraintManager fConstraintManager;
+    private final EncodingType fEncodingType;
+
+    public DenseSATEncoder(IConstraintManager aConstraintManager, EncodingType aEncodingType) {
+        fConstraintManager = aConstraintManager;
+        fEncodingType = aEncodingType;
+    }
+
+    @Override
+    public Pair<CNF, ISATDecoder> encode(StationPackingInstance aInstance) {
+        final Pair<PackedCNF, StationChannelNumbering> encoding = encodePacked(aInstance);
+        return new Pair<>(encoding.getFirst().toCNF(), encoding.getSecond());
+    }
+
+    @Override
+    public SATEncoder.CNFEncodedProblem encodeWithAssignment(StationPackingInstance aInstance) {
+        final Pair<PackedCNF, StationChannelNumbering> encoding = encodePacked(aInstance);
+        final StationChannelNumbering aNumbering = encoding.getSecond();
+
+        // Stations with a previous assignment start on that channel and off every other channel of their domain.
+        final Map<Long, Boolean> initialAssignment = new LinkedHashMap<>();
+        aInstance.getPreviousAssignment().forEach((station, previousChannel) -> {
+            for (Integer channel : aInstance.getDomains().get(station)) {
+                initialAssignment.put((long) aNumbering.variable(station, channel), previousChannel.equals(channel));
+            }
+        });
+        return new SATEncoder.CNFEncodedProblem(encoding.getFirst(), aNumbering, initialAssignment);
+    }
+
+    /**
+     * @param aInstance - an instance to encode as a SAT problem.
+     * @return a packed SAT CNF representation of the problem instance, and the numbering that decodes its variables.
+     */
+    public Pair<PackedCNF, StationChannelNumbering> encodePacked(StationPackingInstance aInstance) {
+        final StationChannelNumbering aNumbering = new StationChannelNumbering(aInstance);
+        final PackedCNF aCNF = new PackedCNF(aInstance.getStations().size(), 2 * aNumbering.getNumVariables());
+        SATEncoder.encodeBaseClauses(aInstance, aCNF, fEncodingType, aNumbering::variable);
+        SATEncoder.encodeInterferenceConstraints(aInstance, aCNF, fConstraintManager, aNumbering::variable);
+        return new Pair<>(aCNF, aNumbering);
+    }
+
+}
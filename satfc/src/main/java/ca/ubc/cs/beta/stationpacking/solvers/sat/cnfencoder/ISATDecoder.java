@@ -37,5 +37,29 @@ public interface ISATDecoder {
 	 * @return - the station and channel encoded by the given SAT variable.
 	 */
 	public Pair<Station,Integer> decode(long aVariable);
+
+	/**
+	 * @param aVariable - a SAT variable.
+	 * @return - the station encoded by the given SAT variable.
+	 */
+	default Station decodeStation(long aVariable) {
+		return decode(aVariable).getKey();
+	}
+
+	/**
+	 * @param aVariable - a SAT variable.
+	 * @return - true if the variable encodes a station and channel, false if it is an auxiliary variable of the encoding.
+	 */
+	default boolean isStationChannelVariable(long aVariable) {
+		return true;
+	}
+
+	/**
+	 * @param aVariable - a SAT variable.
+	 * @return - the channel encoded by the given SAT variable.
+	 */
+	default int decodeChannel(long aVariable) {
+		return decode(aVariable).getValue();
+	}
 	
 }
@@ -27,11 +27,10 @@ import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
 import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.IConstraintManager;
 import ca.ubc.cs.beta.stationpacking.facade.datamanager.solver.bundles.yaml.EncodingType;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.base.CNF;
-import ca.ubc.cs.beta.stationpacking.solvers.sat.cnfencoder.base.CompressionBijection;
 
 /**
  * Encodes a problem instance as a propositional satisfiability problem.
- * Insures that the SAT variables are contiguous from 1 to n.
+ * Insures that the SAT variables are contiguous from 1 to n, by numbering them densely (see {@link DenseSATEncoder}).
  * A variable of the SAT encoding is a station channel pair, each constraint is trivially
  * encoded as a clause (this station cannot be on this channel when this other station is on this other channel is a two clause with the previous
  * SAT variables), and base clauses are added (each station much be on exactly one channel).
@@ -42,22 +41,32 @@ public class SATCompressor implements ISATEncoder {
 
     private final IConstraintManager fConstraintManager;
     private EncodingType encodingType;
+    private final CNFEncodingCache fEncodingCache;
 
     public SATCompressor(IConstraintManager aConstraintManager, EncodingType encodingType) {
+        this(aConstraintManager, encodingType, null);
+    }
+
+    /**
+     * @param aEncodingCache - cache of encoded problems shared with other solvers, or null to encode every instance anew.
+     */
+    public SATCompressor(IConstraintManager aConstraintManager, EncodingType encodingType, CNFEncodingCache aEncodingCache) {
         fConstraintManager = aConstraintManager;
         this.encodingType = encodingType;
+        fEncodingCache = aEncodingCache;
     }
 
     @Override
     public Pair<CNF, ISATDecoder> encode(StationPackingInstance aInstance) {
-        SATEncoder aSATEncoder = new SATEncoder(fConstraintManager, new CompressionBijection<>(), encodingType);
-        return aSATEncoder.encode(aInstance);
+        return new DenseSATEncoder(fConstraintManager, encodingType).encode(aInstance);
     }
 
     @Override
     public SATEncoder.CNFEncodedProblem encodeWithAssignment(StationPackingInstance aInstance) {
-        SATEncoder aSATEncoder = new SATEncoder(fConstraintManager, new CompressionBijection<>(), encodingType);
+        final DenseSATEncoder aSATEncoder = new DenseSATEncoder(fConstraintManager, encodingType);
+        if (fEncodingCache != null) {
+            return fEncodingCache.encodeWithAssignment(aInstance, encodingType, fConstraintManager, aSATEncoder);
+        }
         return aSATEncoder.encodeWithAssignment(aInstance);
-
     }
 }
@@ -21,7 +21,6 @@
  */
 package ca.ubc.cs.beta.stationpacking.solvers.sat.cnfencoder;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -34,10 +33,11 @@ import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
 import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.IConstraintManager;
 import ca.ubc.cs.beta.stationpacking.facade.datamanager.solver.bundles.yaml.EncodingType;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.base.CNF;
-import ca.ubc.cs.beta.stationpacking.solvers.sat.base.Clause;
-import ca.ubc.cs.beta.stationpacking.solvers.sat.base.Literal;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.base.PackedCNF;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.cnfencoder.base.IBijection;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -63,7 +63,7 @@ public class SATEncoder implements ISATEncoder {
 
     @Override
     public CNFEncodedProblem encodeWithAssignment(StationPackingInstance aInstance) {
-        Pair<CNF, ISATDecoder> enconding = encode(aInstance);
+        Pair<PackedCNF, ISATDecoder> enconding = encodePacked(aInstance);
         /**
          * Generate the starting values of the variables based on the prevoius assignment information: if a station was
          * assigned to a channel, then the corresponding variable is set to true. Otherwise, false. This might not result
@@ -88,21 +88,46 @@ public class SATEncoder implements ISATEncoder {
 
     @Data
     public static class CNFEncodedProblem {
-        private final CNF cnf;
+        private final PackedCNF packedCnf;
         private final ISATDecoder decoder;
         private final Map<Long, Boolean> initialAssignment;
+        // Unpacked on first use
+        @Setter(AccessLevel.NONE)
+        private transient CNF cnf;
+
+        /**
+         * @return the encoded CNF as clause objects, unpacked on the first call and shared by the later ones. Must not be modified.
+         */
+        public synchronized CNF getCnf() {
+            if (cnf == null) {
+                cnf = packedCnf.toCNF();
+            }
+            return cnf;
+        }
     }
 
     @Override
     public Pair<CNF, ISATDecoder> encode(StationPackingInstance aInstance) {
+        final Pair<PackedCNF, ISATDecoder> encoding = encodePacked(aInstance);
+        return new Pair<>(encoding.getFirst().toCNF(), encoding.getSecond());
+    }
 
-        CNF aCNF = new CNF();
+    /**
+     * Encodes a station packing problem instance directly in packed form, without creating any clause or literal object.
+     * The bijection must map station channel pairs to variables that fit in an int, as a compressing bijection does.
+     *
+     * @param aInstance - an instance to encode as a SAT problem.
+     * @return a packed SAT CNF representation of the problem instance, and its decoder.
+     */
+    public Pair<PackedCNF, ISATDecoder> encodePacked(StationPackingInstance aInstance) {
+
+        final PackedCNF aCNF = new PackedCNF(aInstance.getStations().size(), 2 * aInstance.getStations().size());
 
         //Encode base clauses,
-        aCNF.addAll(encodeBaseClauses(aInstance));
+        final int aMaxStationChannelVariable = encodeBaseClauses(aInstance, aCNF);
 
         //Encode co-channel and adj-channel constraints
-        aCNF.addAll(encodeInterferenceConstraints(aInstance));
+        encodeInterferenceConstraints(aInstance, aCNF);
 
         //Save station map.
         final Map<Integer, Station> stationMap = new HashMap<>();
@@ -127,9 +152,14 @@ public class SATEncoder implements ISATEncoder {
 
                 return new Pair<>(aStation, aChannel);
             }
+
+            @Override
+            public boolean isStationChannelVariable(long aVariable) {
+                return aVariable <= aMaxStationChannelVariable;
+            }
         };
 
-        return new Pair<CNF, ISATDecoder>(aCNF, aDecoder);
+        return new Pair<PackedCNF, ISATDecoder>(aCNF, aDecoder);
     }
 
     /**
@@ -143,56 +173,105 @@ public class SATEncoder implements ISATEncoder {
      * @return A CNF of base clauses.
      */
     public CNF encodeBaseClauses(StationPackingInstance aInstance) {
-        CNF aCNF = new CNF();
+        final PackedCNF aCNF = new PackedCNF();
+        encodeBaseClauses(aInstance, aCNF);
+        return aCNF.toCNF();
+    }
+
+    private int encodeBaseClauses(StationPackingInstance aInstance, PackedCNF aCNF) {
+        return encodeBaseClauses(aInstance, aCNF, encodingType, (aStation, aChannel) -> variable(aStation.getID(), aChannel));
+    }
+
+    private void encodeInterferenceConstraints(StationPackingInstance aInstance, PackedCNF aCNF) {
+        encodeInterferenceConstraints(aInstance, aCNF, constraintManager, (aStation, aChannel) -> variable(aStation.getID(), aChannel));
+    }
+
+    /**
+     * Numbers station channel pairs as SAT variables during encoding.
+     */
+    @FunctionalInterface
+    interface VariableNumbering {
+        int variable(Station aStation, int aChannel);
+    }
 
+    /**
+     * Encodes the base clauses of an instance. Station channel variables come from the given numbering and the auxiliary
+     * variables of the {@link EncodingType#LADDER} encoding, if any, are numbered right after the largest of them.
+     *
+     * @return the largest station channel variable.
+     */
+    static int encodeBaseClauses(StationPackingInstance aInstance, PackedCNF aCNF, EncodingType encodingType, VariableNumbering aNumbering) {
         Set<Station> aInstanceStations = aInstance.getStations();
         Map<Station, Set<Integer>> aInstanceDomains = aInstance.getDomains();
 
-        //Each station has its own base clauses.
+        final int[][] aStationsVariables = new int[aInstanceStations.size()][];
+        int aMaxVariable = 0;
+        int s = 0;
         for (Station aStation : aInstanceStations) {
-            ArrayList<Integer> aStationInstanceDomain = new ArrayList<Integer>(aInstanceDomains.get(aStation));
+            aStationsVariables[s] = aInstanceDomains.get(aStation).stream().mapToInt(aChannel -> aNumbering.variable(aStation, aChannel)).toArray();
+            for (int aVariable : aStationsVariables[s]) {
+                aMaxVariable = Math.max(aMaxVariable, aVariable);
+            }
+            s++;
+        }
 
-            //A station must be on at least one channel,
-            Clause aStationValidAssignmentBaseClause = new Clause();
-            for (Integer aChannel : aStationInstanceDomain) {
+        //Each station has its own base clauses.
+        int aNextAuxiliaryVariable = aMaxVariable + 1;
+        for (int[] aStationVariables : aStationsVariables) {
 
-                aStationValidAssignmentBaseClause.add(new Literal(bijection.map(SATEncoderUtils.SzudzikElegantPairing(aStation.getID(), aChannel)), true));
+            //A station must be on at least one channel,
+            for (int aVariable : aStationVariables) {
+                aCNF.addLiteral(aVariable);
             }
-            aCNF.add(aStationValidAssignmentBaseClause);
+            aCNF.endClause();
 
             if (encodingType.equals(EncodingType.DIRECT)) {
                 //A station can be on at most one channel,
-                for (int i = 0; i < aStationInstanceDomain.size(); i++) {
-                    for (int j = i + 1; j < aStationInstanceDomain.size(); j++) {
-                        Clause aStationSingleAssignmentBaseClause = new Clause();
-
-                        Integer aDomainChannel1 = aStationInstanceDomain.get(i);
-                        aStationSingleAssignmentBaseClause.add(new Literal(bijection.map(SATEncoderUtils.SzudzikElegantPairing(aStation.getID(), aDomainChannel1)), false));
-
-                        Integer aDomainChannel2 = aStationInstanceDomain.get(j);
-                        aStationSingleAssignmentBaseClause.add(new Literal(bijection.map(SATEncoderUtils.SzudzikElegantPairing(aStation.getID(), aDomainChannel2)), false));
-
-                        aCNF.add(aStationSingleAssignmentBaseClause);
+                for (int i = 0; i < aStationVariables.length; i++) {
+                    for (int j = i + 1; j < aStationVariables.length; j++) {
+                        aCNF.addClause(-aStationVariables[i], -aStationVariables[j]);
                     }
                 }
+            } else if (encodingType.equals(EncodingType.LADDER)) {
+                aNextAuxiliaryVariable = encodeLadderAtMostOne(aStationVariables, aCNF, aNextAuxiliaryVariable);
             }
 
         }
-
-        return aCNF;
+        return aMaxVariable;
     }
 
-    private CNF encodeInterferenceConstraints(StationPackingInstance aInstance) {
-        final CNF cnf = new CNF();
+    /**
+     * Encodes that at most one of the given variables is true with a ladder (sequential counter) of auxiliary variables,
+     * where auxiliary variable i is implied by any of the first i variables. This takes 3d-4 clauses and d-1 auxiliary
+     * variables for d variables, instead of d(d-1)/2 pairwise clauses.
+     *
+     * @return the next free auxiliary variable.
+     */
+    private static int encodeLadderAtMostOne(int[] aVariables, PackedCNF aCNF, int aFirstAuxiliaryVariable) {
+        final int d = aVariables.length;
+        if (d < 2) {
+            return aFirstAuxiliaryVariable;
+        }
+        // Auxiliary variable for rung i (0 <= i < d-1) is aFirstAuxiliaryVariable + i.
+        aCNF.addClause(-aVariables[0], aFirstAuxiliaryVariable);
+        for (int i = 1; i < d - 1; i++) {
+            final int aRung = aFirstAuxiliaryVariable + i;
+            aCNF.addClause(-aVariables[i], aRung);
+            aCNF.addClause(-(aRung - 1), aRung);
+            aCNF.addClause(-aVariables[i], -(aRung - 1));
+        }
+        aCNF.addClause(-aVariables[d - 1], -(aFirstAuxiliaryVariable + d - 2));
+        return aFirstAuxiliaryVariable + d - 1;
+    }
 
+    static void encodeInterferenceConstraints(StationPackingInstance aInstance, PackedCNF aCNF, IConstraintManager constraintManager, VariableNumbering aNumbering) {
         constraintManager.getAllRelevantConstraints(aInstance.getDomains()).forEach(constraint -> {
-            final Clause clause = new Clause();
-            clause.add(new Literal(bijection.map(SATEncoderUtils.SzudzikElegantPairing(constraint.getSource().getID(), constraint.getSourceChannel())), false));
-            clause.add(new Literal(bijection.map(SATEncoderUtils.SzudzikElegantPairing(constraint.getTarget().getID(), constraint.getTargetChannel())), false));
-            cnf.add(clause);
+            aCNF.addClause(-aNumbering.variable(constraint.getSource(), constraint.getSourceChannel()), -aNumbering.variable(constraint.getTarget(), constraint.getTargetChannel()));
         });
+    }
 
-        return cnf;
+    private int variable(int aStationID, int aChannel) {
+        return Math.toIntExact(bijection.map(SATEncoderUtils.SzudzikElegantPairing(aStationID, aChannel)));
     }
 
 }
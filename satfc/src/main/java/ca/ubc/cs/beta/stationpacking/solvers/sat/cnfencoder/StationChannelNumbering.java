@@ -0,0 +1,132 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.solvers.sat.cnfencoder;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.math3.util.Pair;
+
+import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
+
+/**
+ * Dense numbering of the station channel pairs of a problem instance as SAT variables.
+ * Stations are taken in sorted order and each is given a contiguous block of variables, one per channel of its
+ * (sorted) domain, so that variables run from 1 to the total domain size. Encoding a pair is a station lookup plus a
+ * binary search in that station's domain, and decoding a variable is a pair of array reads.
+ */
+public class StationChannelNumbering implements ISATDecoder {
+
+    private final Map<Station, Integer> fStationIndices;
+    private final int[] fOffsets;
+    private final int[][] fChannels;
+
+    /*
+     * Indexed by variable, entry 0 is unused.
+     */
+    private final Station[] fVariableStations;
+    private final int[] fVariableChannels;
+
+    /**
+     * @param aInstance - the instance whose station channel pairs should be numbered.
+     */
+    public StationChannelNumbering(StationPackingInstance aInstance) {
+        final Map<Station, Set<Integer>> aDomains = aInstance.getDomains();
+        final Station[] aStations = aDomains.keySet().stream().sorted().toArray(Station[]::new);
+
+        fStationIndices = new HashMap<>(2 * aStations.length);
+        fOffsets = new int[aStations.length];
+        fChannels = new int[aStations.length][];
+
+        int aNumVariables = 0;
+        for (int i = 0; i < aStations.length; i++) {
+            fStationIndices.put(aStations[i], i);
+            fOffsets[i] = aNumVariables;
+            fChannels[i] = aDomains.get(aStations[i]).stream().mapToInt(Integer::intValue).sorted().toArray();
+            aNumVariables += fChannels[i].length;
+        }
+
+        fVariableStations = new Station[aNumVariables + 1];
+        fVariableChannels = new int[aNumVariables + 1];
+        for (int i = 0; i < aStations.length; i++) {
+            for (int c = 0; c < fChannels[i].length; c++) {
+                fVariableStations[fOffsets[i] + c + 1] = aStations[i];
+                fVariableChannels[fOffsets[i] + c + 1] = fChannels[i][c];
+            }
+        }
+    }
+
+    /**
+     * @return the number of station channel variables, which is also the largest of them.
+     */
+    public int getNumVariables() {
+        return fVariableStations.length - 1;
+    }
+
+    /**
+     * @param aStation - a station of the instance.
+     * @param aChannel - a channel of the station's domain.
+     * @return the SAT variable of the given station channel pair.
+     */
+    public int variable(Station aStation, int aChannel) {
+        final Integer aIndex = fStationIndices.get(aStation);
+        if (aIndex == null) {
+            throw new IllegalArgumentException("Station " + aStation + " is not part of the numbered instance.");
+        }
+        final int aChannelIndex = Arrays.binarySearch(fChannels[aIndex], aChannel);
+        if (aChannelIndex < 0) {
+            throw new IllegalArgumentException("Channel " + aChannel + " is not in the domain of station " + aStation + ".");
+        }
+        return fOffsets[aIndex] + aChannelIndex + 1;
+    }
+
+    @Override
+    public Pair<Station, Integer> decode(long aVariable) {
+        return new Pair<>(decodeStation(aVariable), decodeChannel(aVariable));
+    }
+
+    @Override
+    public boolean isStationChannelVariable(long aVariable) {
+        return aVariable >= 1 && aVariable <= getNumVariables();
+    }
+
+    @Override
+    public Station decodeStation(long aVariable) {
+        return fVariableStations[checkVariable(aVariable)];
+    }
+
+    @Override
+    public int decodeChannel(long aVariable) {
+        return fVariableChannels[checkVariable(aVariable)];
+    }
+
+    private int checkVariable(long aVariable) {
+        if (aVariable < 1 || aVariable >= fVariableStations.length) {
+            throw new IllegalArgumentException("Variable " + aVariable + " is not in the numbered range [1," + getNumVariables() + "].");
+        }
+        return (int) aVariable;
+    }
+
+}
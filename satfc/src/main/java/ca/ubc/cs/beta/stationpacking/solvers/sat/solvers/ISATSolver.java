@@ -25,6 +25,7 @@ import java.util.Map;
 
 import ca.ubc.cs.beta.stationpacking.solvers.decorators.ISATFCInterruptible;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.base.CNF;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.base.PackedCNF;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.solvers.base.SATSolverResult;
 import ca.ubc.cs.beta.stationpacking.solvers.termination.ITerminationCriterion;
 
@@ -45,6 +46,17 @@ public interface ISATSolver extends ISATFCInterruptible {
 		return solve(aCNF, aTerminationCriterion, aSeed);
 	}
 
+	/**
+	 * Solvers that can take a packed CNF as is (typically native ones) should override this, by default it is unpacked.
+	 * @param aCNF - a packed CNF to solve.
+	 * @param aPreviousAssignment - a (partial) starting assignment of the variables, may be ignored.
+	 * @param aTerminationCriterion - the criterion dictating when to stop execution of solver.
+	 * @param aSeed - the seed for the execution.
+	 */
+	default SATSolverResult solve(PackedCNF aCNF, Map<Long, Boolean> aPreviousAssignment, ITerminationCriterion aTerminationCriterion, long aSeed) {
+		return solve(aCNF.toCNF(), aPreviousAssignment, aTerminationCriterion, aSeed);
+	}
+
 	void notifyShutdown();
 	
 	default void interrupt() {};
@@ -45,6 +45,16 @@ public interface Clasp3Library extends Library {
      */
     void initProblem(Pointer jnaProblemPointer, final String problemString);
 
+    /**
+     * Pass a problem to the solver as packed clauses, skipping DIMACS parsing. Does not start solving the problem
+     * @param jnaProblemPointer A pointer from having previously called {@link #initConfig(String)} method
+     * @param numVariables Largest variable of the problem
+     * @param numClauses Number of clauses of the problem
+     * @param literals DIMACS literals of all clauses, one clause after the other
+     * @param clauseStarts Offset in literals at which each clause starts, followed by the total number of literals
+     */
+    void initProblemFromClauses(Pointer jnaProblemPointer, int numVariables, int numClauses, final int[] literals, final int[] clauseStarts);
+
     /**
      * Actually solve the problem. Must have previously called {@link #initProblem(com.sun.jna.Pointer, String)} or this has undefined behavior
      * @param jnaProblemPointer A pointer from having previously called {@link #initConfig(String)} method
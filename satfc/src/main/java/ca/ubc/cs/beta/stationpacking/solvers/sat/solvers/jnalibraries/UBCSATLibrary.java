@@ -58,6 +58,17 @@ public interface UBCSATLibrary extends Library {
      */
     boolean initProblem(Pointer jnaProblemPointer, final String problemString);
 
+    /**
+     Pass a problem to the solver as packed clauses, skipping DIMACS parsing. Does not start solving the problem.
+     * @param jnaProblemPointer A pointer from having previously called {@link #initConfig(String)} method
+     * @param numVariables Largest variable of the problem
+     * @param numClauses Number of clauses of the problem
+     * @param literals DIMACS literals of all clauses, one clause after the other
+     * @param clauseStarts Offset in literals at which each clause starts, followed by the total number of literals
+     * @return True if returned error free
+     */
+    boolean initProblemFromClauses(Pointer jnaProblemPointer, int numVariables, int numClauses, final int[] literals, final int[] clauseStarts);
+
     /**
      * Set the values of the variables for a given problem.
      * Must be called after {@link #initProblem(Pointer, String)}
@@ -22,6 +22,7 @@
 package ca.ubc.cs.beta.stationpacking.solvers.sat.solvers.nonincremental;
 
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
@@ -38,6 +39,7 @@ import ca.ubc.cs.beta.stationpacking.solvers.base.SATResult;
 import ca.ubc.cs.beta.stationpacking.solvers.base.SolverResult.SolvedBy;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.base.CNF;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.base.Literal;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.base.PackedCNF;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.solvers.AbstractCompressedSATSolver;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.solvers.base.SATSolverResult;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.solvers.jnalibraries.Clasp3Library;
@@ -98,6 +100,16 @@ public class Clasp3SATSolver extends AbstractCompressedSATSolver {
      */
     @Override
     public SATSolverResult solve(CNF aCNF, ITerminationCriterion aTerminationCriterion, long aSeed) {
+        return solve(PackedCNF.fromCNF(aCNF), null, aTerminationCriterion, aSeed);
+    }
+
+    /*
+     * (non-Javadoc)
+     * NOT THREAD SAFE! Clasp does not use the previous assignment.
+     * @see ca.ubc.cs.beta.stationpacking.solvers.sat.solvers.ISATSolver#solve(ca.ubc.cs.beta.stationpacking.solvers.sat.base.PackedCNF, java.util.Map, ITerminationCriterion, long)
+     */
+    @Override
+    public SATSolverResult solve(PackedCNF aCNF, Map<Long, Boolean> aPreviousAssignment, ITerminationCriterion aTerminationCriterion, long aSeed) {
         final Watch watch = Watch.constructAutoStartWatch();
         final int seed = Math.abs(new Random(aSeed + fSeedOffset).nextInt());
         final String params = fParameters + " --seed=" + seed;
@@ -110,7 +122,7 @@ public class Clasp3SATSolver extends AbstractCompressedSATSolver {
 
             problemIncrementor.scheduleTermination(aTerminationCriterion);
             currentProblemPointer = fClaspLibrary.initConfig(params);
-            fClaspLibrary.initProblem(currentProblemPointer, aCNF.toDIMACS(null));
+            fClaspLibrary.initProblemFromClauses(currentProblemPointer, aCNF.getMaxVariable(), aCNF.size(), aCNF.getLiteralArray(), aCNF.getClauseStartArray());
 
             if (aTerminationCriterion.hasToStop()) {
                 return SATSolverResult.timeout(watch.getElapsedTime());
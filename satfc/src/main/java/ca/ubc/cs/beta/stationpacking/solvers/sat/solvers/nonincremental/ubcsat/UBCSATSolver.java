@@ -39,6 +39,7 @@ import ca.ubc.cs.beta.stationpacking.solvers.base.SATResult;
 import ca.ubc.cs.beta.stationpacking.solvers.base.SolverResult.SolvedBy;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.base.CNF;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.base.Literal;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.base.PackedCNF;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.solvers.AbstractCompressedSATSolver;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.solvers.base.SATSolverResult;
 import ca.ubc.cs.beta.stationpacking.solvers.sat.solvers.jnalibraries.UBCSATLibrary;
@@ -114,6 +115,11 @@ public class UBCSATSolver extends AbstractCompressedSATSolver {
 
     @Override
     public SATSolverResult solve(CNF aCNF, Map<Long, Boolean> aPreviousAssignment, ITerminationCriterion aTerminationCriterion, long aSeed) {
+        return solve(PackedCNF.fromCNF(aCNF), aPreviousAssignment, aTerminationCriterion, aSeed);
+    }
+
+    @Override
+    public SATSolverResult solve(PackedCNF aCNF, Map<Long, Boolean> aPreviousAssignment, ITerminationCriterion aTerminationCriterion, long aSeed) {
         final Watch watch = Watch.constructAutoStartWatch();
         final int seed = Math.abs(new Random(aSeed + seedOffset).nextInt());
         final String seededParameters = fParameters + " -seed " + seed;
@@ -134,7 +140,7 @@ public class UBCSATSolver extends AbstractCompressedSATSolver {
                 return SATSolverResult.timeout(watch.getElapsedTime());
             }
 
-            status = fLibrary.initProblem(fState, aCNF.toDIMACS(null));
+            status = fLibrary.initProblemFromClauses(fState, aCNF.getMaxVariable(), aCNF.size(), aCNF.getLiteralArray(), aCNF.getClauseStartArray());
 
 
             // We lock this variable so that the interrupt code will only execute if there is a valid problem to interrupt
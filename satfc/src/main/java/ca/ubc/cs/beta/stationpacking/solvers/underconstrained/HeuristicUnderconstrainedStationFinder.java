@@ -35,6 +35,7 @@ import ca.ubc.cs.beta.stationpacking.base.Station;
 import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.IConstraintManager;
 import ca.ubc.cs.beta.stationpacking.solvers.componentgrouper.ConstraintGrouper;
 import ca.ubc.cs.beta.stationpacking.solvers.termination.ITerminationCriterion;
+import lombok.EqualsAndHashCode;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -66,6 +67,7 @@ import lombok.extern.slf4j.Slf4j;
  * 2) The sum of the sizes of the largest set in every group
  */
 @Slf4j
+@EqualsAndHashCode
 public class HeuristicUnderconstrainedStationFinder implements IUnderconstrainedStationFinder {
 
     private final IConstraintManager constraintManager;
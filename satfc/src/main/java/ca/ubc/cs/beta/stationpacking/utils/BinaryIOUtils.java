@@ -0,0 +1,82 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.utils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Length prefixed primitive array and string (de)serialization, written through a {@link DataOutputStream}
+ * and read back from a (typically memory mapped) {@link ByteBuffer}. Both use big-endian byte order.
+ */
+public class BinaryIOUtils {
+
+    public static void writeIntArray(DataOutputStream out, int[] array) throws IOException {
+        out.writeInt(array.length);
+        for (int value : array) {
+            out.writeInt(value);
+        }
+    }
+
+    public static int[] readIntArray(ByteBuffer in) {
+        final int[] array = new int[in.getInt()];
+        in.asIntBuffer().get(array);
+        in.position(in.position() + array.length * Integer.BYTES);
+        return array;
+    }
+
+    public static void writeLongArray(DataOutputStream out, long[] array) throws IOException {
+        out.writeInt(array.length);
+        for (long value : array) {
+            out.writeLong(value);
+        }
+    }
+
+    public static long[] readLongArray(ByteBuffer in) {
+        final long[] array = new long[in.getInt()];
+        in.asLongBuffer().get(array);
+        in.position(in.position() + array.length * Long.BYTES);
+        return array;
+    }
+
+    public static void writeByteArray(DataOutputStream out, byte[] array) throws IOException {
+        out.writeInt(array.length);
+        out.write(array);
+    }
+
+    public static byte[] readByteArray(ByteBuffer in) {
+        final byte[] array = new byte[in.getInt()];
+        in.get(array);
+        return array;
+    }
+
+    public static void writeString(DataOutputStream out, String string) throws IOException {
+        writeByteArray(out, string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String readString(ByteBuffer in) {
+        return new String(readByteArray(in), StandardCharsets.UTF_8);
+    }
+
+}
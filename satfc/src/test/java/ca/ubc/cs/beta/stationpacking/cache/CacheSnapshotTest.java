@@ -0,0 +1,218 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableBiMap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+
+import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheSATEntry;
+import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheUNSATEntry;
+import ca.ubc.cs.beta.stationpacking.solvers.base.SATResult;
+
+public class CacheSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final CacheCoordinate coordinate = new CacheCoordinate("domains", "interference");
+    private final ImmutableBiMap<Station, Integer> permutation = ImmutableBiMap.of(new Station(1), 0, new Station(2), 1, new Station(3), 2);
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.newFolder();
+    }
+
+    private ContainmentCacheSATEntry SATEntry(long num, int channel) {
+        final Map<Integer, Set<Station>> assignment = new HashMap<>();
+        assignment.put(channel, Sets.newHashSet(new Station(1), new Station(3)));
+        final ContainmentCacheSATEntry entry = new ContainmentCacheSATEntry(assignment, permutation);
+        entry.setKey(coordinate.toKey(SATResult.SAT, num));
+        entry.setAuction("auction" + num);
+        return entry;
+    }
+
+    private ContainmentCacheUNSATEntry UNSATEntry(long num) {
+        final Map<Station, Set<Integer>> domains = new HashMap<>();
+        domains.put(new Station(2), new HashSet<>(Arrays.asList(14, 15)));
+        final ContainmentCacheUNSATEntry entry = new ContainmentCacheUNSATEntry(domains, permutation);
+        entry.setKey(coordinate.toKey(SATResult.UNSAT, num));
+        return entry;
+    }
+
+    private CacheSnapshot.Contents read(CacheSnapshot snapshot) throws Exception {
+        return snapshot.read(c -> c.equals(coordinate) ? permutation : null);
+    }
+
+    @Test
+    public void testNoSnapshot() throws Exception {
+        Assert.assertNull(read(new CacheSnapshot(directory)));
+    }
+
+    @Test
+    public void testSnapshotAndLogRoundTrip() throws Exception {
+        final CacheSnapshot snapshot = new CacheSnapshot(directory);
+        final ContainmentCacheSATEntry sat = SATEntry(1, 20);
+        final ContainmentCacheUNSATEntry unsat = UNSATEntry(2);
+        final ContainmentCacheSATEntry deleted = SATEntry(3, 21);
+        final String evictedKey = coordinate.toKey(SATResult.SAT, 4);
+        snapshot.writeSnapshot(() -> ImmutableList.of(sat, unsat, deleted), () -> ImmutableList.of(evictedKey));
+        final ContainmentCacheSATEntry added = SATEntry(5, 22);
+        snapshot.logAddition(added);
+        snapshot.logDeletions(Collections.singletonList(deleted));
+
+        final CacheSnapshot.Contents contents = read(new CacheSnapshot(directory));
+        Assert.assertEquals(ImmutableList.of(sat.getKey(), unsat.getKey(), added.getKey()), ImmutableList.copyOf(contents.getEntries().keySet()));
+        Assert.assertEquals(Collections.singleton(evictedKey), contents.getEvictedKeys());
+        Assert.assertEquals(5, contents.getMaxKeyNum());
+
+        final ContainmentCacheSATEntry readSAT = (ContainmentCacheSATEntry) contents.getEntries().get(sat.getKey());
+        Assert.assertEquals(sat.getBitSet(), readSAT.getBitSet());
+        Assert.assertArrayEquals(sat.getChannels(), readSAT.getChannels());
+        Assert.assertEquals("auction1", readSAT.getAuction());
+        final ContainmentCacheUNSATEntry readUNSAT = (ContainmentCacheUNSATEntry) contents.getEntries().get(unsat.getKey());
+        Assert.assertEquals(unsat.getBitSet(), readUNSAT.getBitSet());
+        Assert.assertEquals(unsat.getDomainsBitSet(), readUNSAT.getDomainsBitSet());
+        Assert.assertNull(readUNSAT.getAuction());
+    }
+
+    @Test
+    public void testSnapshotEmptiesLog() throws Exception {
+        final CacheSnapshot snapshot = new CacheSnapshot(directory);
+        snapshot.writeSnapshot(Collections::emptyList, Collections::emptyList);
+        final ContainmentCacheSATEntry added = SATEntry(1, 20);
+        snapshot.logAddition(added);
+        // The new snapshot does not contain the entry, e.g. because it was removed in the meantime
+        snapshot.writeSnapshot(Collections::emptyList, Collections::emptyList);
+
+        final CacheSnapshot.Contents contents = read(snapshot);
+        Assert.assertTrue(contents.getEntries().isEmpty());
+        Assert.assertEquals(0, new File(directory, CacheSnapshot.LOG_FILE_NAME).length());
+    }
+
+    @Test
+    public void testLogIsReopenedAfterClose() throws Exception {
+        final CacheSnapshot snapshot = new CacheSnapshot(directory);
+        snapshot.writeSnapshot(Collections::emptyList, Collections::emptyList);
+        final ContainmentCacheSATEntry first = SATEntry(1, 20);
+        snapshot.logAddition(first);
+        snapshot.syncLog();
+        snapshot.close();
+        final ContainmentCacheSATEntry second = SATEntry(2, 21);
+        snapshot.logAddition(second);
+        snapshot.close();
+
+        final CacheSnapshot.Contents contents = read(new CacheSnapshot(directory));
+        Assert.assertEquals(ImmutableList.of(first.getKey(), second.getKey()), ImmutableList.copyOf(contents.getEntries().keySet()));
+    }
+
+    @Test
+    public void testTornLogRecordIsIgnored() throws Exception {
+        final CacheSnapshot snapshot = new CacheSnapshot(directory);
+        snapshot.writeSnapshot(Collections::emptyList, Collections::emptyList);
+        final ContainmentCacheSATEntry added = SATEntry(1, 20);
+        snapshot.logAddition(added);
+        // A record whose length says there is more than what was written
+        try (FileOutputStream out = new FileOutputStream(new File(directory, CacheSnapshot.LOG_FILE_NAME), true)) {
+            out.write(new byte[]{0, 0, 0, 100, 1, 2, 3, 4, 5});
+        }
+
+        final CacheSnapshot restarted = new CacheSnapshot(directory);
+        Assert.assertEquals(Collections.singleton(added.getKey()), read(restarted).getEntries().keySet());
+
+        // The torn record was cut off, so what is logged after the restart can be read back
+        final ContainmentCacheSATEntry addedAfterRestart = SATEntry(2, 21);
+        restarted.logAddition(addedAfterRestart);
+        Assert.assertEquals(Sets.newHashSet(added.getKey(), addedAfterRestart.getKey()), read(new CacheSnapshot(directory)).getEntries().keySet());
+    }
+
+    @Test
+    public void testSnapshotIsReadInChunks() throws Exception {
+        final List<ISATFCCacheEntry> entries = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            entries.add(SATEntry(i, 20 + i % 5));
+        }
+        new CacheSnapshot(directory).writeSnapshot(() -> entries, Collections::emptyList);
+
+        // Chunks only hold a few records each, so some records are cut by the end of a chunk
+        final CacheSnapshot.Contents contents = read(new CacheSnapshot(directory, 200));
+        Assert.assertEquals(entries.stream().map(ISATFCCacheEntry::getKey).collect(Collectors.toList()), ImmutableList.copyOf(contents.getEntries().keySet()));
+        // Records that do not fit in a chunk cannot be read
+        Assert.assertNull(read(new CacheSnapshot(directory, 16)));
+    }
+
+    @Test
+    public void testLogOfInterruptedSnapshotIsReplayed() throws Exception {
+        final CacheSnapshot snapshot = new CacheSnapshot(directory);
+        final ContainmentCacheSATEntry sat = SATEntry(1, 20);
+        snapshot.writeSnapshot(() -> ImmutableList.of(sat), Collections::emptyList);
+        final ContainmentCacheSATEntry before = SATEntry(2, 21);
+        snapshot.logAddition(before);
+        // As if the server crashed while writing the next snapshot, after setting the log aside
+        Assert.assertTrue(new File(directory, CacheSnapshot.LOG_FILE_NAME).renameTo(new File(directory, CacheSnapshot.PREVIOUS_LOG_FILE_NAME)));
+        final CacheSnapshot restarted = new CacheSnapshot(directory);
+        final ContainmentCacheSATEntry after = SATEntry(3, 22);
+        restarted.logAddition(after);
+        restarted.logDeletions(Collections.singletonList(sat));
+
+        Assert.assertEquals(ImmutableList.of(before.getKey(), after.getKey()), ImmutableList.copyOf(read(new CacheSnapshot(directory)).getEntries().keySet()));
+
+        // The next snapshot includes both logs, which are then deleted
+        restarted.writeSnapshot(() -> ImmutableList.of(before, after), Collections::emptyList);
+        Assert.assertFalse(new File(directory, CacheSnapshot.PREVIOUS_LOG_FILE_NAME).exists());
+        Assert.assertEquals(ImmutableList.of(before.getKey(), after.getKey()), ImmutableList.copyOf(read(restarted).getEntries().keySet()));
+    }
+
+    @Test
+    public void testUnknownCoordinatesAreSkipped() throws Exception {
+        final CacheSnapshot snapshot = new CacheSnapshot(directory);
+        final ContainmentCacheSATEntry known = SATEntry(1, 20);
+        final ContainmentCacheSATEntry unknown = new ContainmentCacheSATEntry(known.getBitSet(), known.getChannels(), new CacheCoordinate("other", "interference").toKey(SATResult.SAT, 2), permutation, null);
+        snapshot.writeSnapshot(() -> ImmutableList.of(known, unknown), Collections::emptyList);
+
+        final CacheSnapshot.Contents contents = read(snapshot);
+        Assert.assertEquals(Collections.singleton(known.getKey()), contents.getEntries().keySet());
+        Assert.assertEquals(2, contents.getMaxKeyNum());
+    }
+
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.cache;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.codahale.metrics.Meter;
+
+import ca.ubc.cs.beta.stationpacking.cache.containment.SearchDeadline;
+
+public class QueryCoalescerTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Meter coalesced = new Meter();
+    private final Meter memoHits = new Meter();
+    private final AtomicInteger searches = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    // Starts a search that only completes once released, and waits until it is in flight
+    private Future<String> blockedSearch(QueryCoalescer<String, String> coalescer, String result, boolean conclusive, CountDownLatch release) throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final Future<String> future = executor.submit(() -> coalescer.query("key", SearchDeadline.none(), () -> {
+            started.countDown();
+            searches.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return result;
+        }, unused -> conclusive, unused -> true));
+        started.await();
+        return future;
+    }
+
+    private Future<String> search(QueryCoalescer<String, String> coalescer, String result) {
+        return search(coalescer, result, SearchDeadline.none());
+    }
+
+    private Future<String> search(QueryCoalescer<String, String> coalescer, String result, SearchDeadline deadline) {
+        return executor.submit(() -> coalescer.query("key", deadline, () -> {
+            searches.incrementAndGet();
+            return result;
+        }, unused -> true, unused -> true));
+    }
+
+    // Waits until the followers are waiting for the leader
+    private void awaitFollowers(QueryCoalescer<String, String> coalescer, Future<?>... followers) throws Exception {
+        while (coalescer.getNumFollowers("key") < followers.length) {
+            Thread.yield();
+        }
+        for (Future<?> follower : followers) {
+            Assert.assertFalse(follower.isDone());
+        }
+    }
+
+    @Test
+    public void testIdenticalQueriesShareASearch() throws Exception {
+        final QueryCoalescer<String, String> coalescer = new QueryCoalescer<>(0, TimeUnit.MILLISECONDS, 100, coalesced, memoHits);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Future<String> leader = blockedSearch(coalescer, "leader", true, release);
+        final Future<String> follower1 = search(coalescer, "follower");
+        final Future<String> follower2 = search(coalescer, "follower");
+        awaitFollowers(coalescer, follower1, follower2);
+        release.countDown();
+
+        Assert.assertEquals("leader", leader.get());
+        Assert.assertEquals("leader", follower1.get());
+        Assert.assertEquals("leader", follower2.get());
+        Assert.assertEquals(1, searches.get());
+        Assert.assertEquals(2, coalesced.getCount());
+
+        // Nothing memoized, the next query searches again
+        Assert.assertEquals("again", search(coalescer, "again").get());
+        Assert.assertEquals(2, searches.get());
+        Assert.assertEquals(0, memoHits.getCount());
+    }
+
+    @Test
+    public void testInconclusiveResultsAreNotShared() throws Exception {
+        final QueryCoalescer<String, String> coalescer = new QueryCoalescer<>(1, TimeUnit.HOURS, 100, coalesced, memoHits);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Future<String> leader = blockedSearch(coalescer, "gave up", false, release);
+        final Future<String> follower = search(coalescer, "follower");
+        awaitFollowers(coalescer, follower);
+        release.countDown();
+
+        Assert.assertEquals("gave up", leader.get());
+        Assert.assertEquals("follower", follower.get());
+        Assert.assertEquals(2, searches.get());
+        Assert.assertEquals(0, coalesced.getCount());
+    }
+
+    @Test
+    public void testMemoAnswersRepeats() throws Exception {
+        final QueryCoalescer<String, String> coalescer = new QueryCoalescer<>(1, TimeUnit.HOURS, 100, coalesced, memoHits);
+        Assert.assertEquals("first", search(coalescer, "first").get());
+        Assert.assertEquals("first", search(coalescer, "second").get());
+        Assert.assertEquals(1, searches.get());
+        Assert.assertEquals(1, memoHits.getCount());
+
+        // Other queries are not affected
+        Assert.assertEquals("other", coalescer.query("other key", SearchDeadline.none(), () -> "other", unused -> true, unused -> true));
+    }
+
+    @Test
+    public void testOnlyMemoizableResultsAreMemoized() throws Exception {
+        final QueryCoalescer<String, String> coalescer = new QueryCoalescer<>(1, TimeUnit.HOURS, 100, coalesced, memoHits);
+        Assert.assertEquals("miss", coalescer.query("key", SearchDeadline.none(), () -> "miss", unused -> true, result -> !result.equals("miss")));
+        Assert.assertEquals("hit", coalescer.query("key", SearchDeadline.none(), () -> "hit", unused -> true, result -> !result.equals("miss")));
+        Assert.assertEquals("hit", coalescer.query("key", SearchDeadline.none(), () -> "again", unused -> true, result -> !result.equals("miss")));
+        Assert.assertEquals(1, memoHits.getCount());
+    }
+
+    @Test
+    public void testFollowerGivesUpAtItsDeadline() throws Exception {
+        final QueryCoalescer<String, String> coalescer = new QueryCoalescer<>(0, TimeUnit.MILLISECONDS, 100, coalesced, memoHits);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Future<String> leader = blockedSearch(coalescer, "leader", true, release);
+        final SearchDeadline deadline = SearchDeadline.none();
+        final Future<String> follower = search(coalescer, "follower", deadline);
+        awaitFollowers(coalescer, follower);
+        deadline.abandon();
+
+        // The follower searches on its own, while the leader is still searching
+        Assert.assertEquals("follower", follower.get());
+        Assert.assertTrue(deadline.isCutShort());
+        Assert.assertFalse(leader.isDone());
+        release.countDown();
+        Assert.assertEquals("leader", leader.get());
+        Assert.assertEquals(2, searches.get());
+        Assert.assertEquals(0, coalesced.getCount());
+    }
+
+    @Test
+    public void testFailedSearchReleasesFollowers() throws Exception {
+        final QueryCoalescer<String, String> coalescer = new QueryCoalescer<>(1, TimeUnit.HOURS, 100, coalesced, memoHits);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Future<String> leader = executor.submit(() -> coalescer.query("key", SearchDeadline.none(), () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            throw new IllegalStateException("Search failed");
+        }, unused -> true, unused -> true));
+        started.await();
+        final Future<String> follower = search(coalescer, "follower");
+        awaitFollowers(coalescer, follower);
+        release.countDown();
+
+        try {
+            leader.get();
+            Assert.fail("The leader's search failed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals("follower", follower.get());
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.cache;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimaps;
+
+import ca.ubc.cs.beta.stationpacking.solvers.base.SATResult;
+import redis.clients.jedis.BinaryJedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+public class RedisCacheLoaderTest {
+
+    private final List<BinaryJedis> connections = Collections.synchronizedList(new ArrayList<>());
+
+    private BinaryJedis newConnection() {
+        final Response<Map<byte[], byte[]>> response = mock(Response.class);
+        when(response.get()).thenReturn(Collections.emptyMap());
+        final Pipeline pipeline = mock(Pipeline.class);
+        when(pipeline.hgetAll(any(byte[].class))).thenReturn(response);
+        final BinaryJedis connection = mock(BinaryJedis.class);
+        when(connection.pipelined()).thenReturn(pipeline);
+        connections.add(connection);
+        return connection;
+    }
+
+    @Test
+    public void testLoadsEveryKeyOverSeveralConnections() {
+        final CacheCoordinate first = new CacheCoordinate("a", "b");
+        final CacheCoordinate second = new CacheCoordinate("c", "d");
+        final List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            keys.add((i % 2 == 0 ? first : second).toKey(SATResult.SAT, i));
+        }
+        final String invalidKey = keys.get(42);
+        final Set<String> decodingThreads = ConcurrentHashMap.newKeySet();
+
+        final ListMultimap<CacheCoordinate, ISATFCCacheEntry> loaded = Multimaps.synchronizedListMultimap(ArrayListMultimap.create());
+        final RedisCacheLoader loader = new RedisCacheLoader(this::newConnection, 3, 2);
+        final int numLoaded = loader.load(keys, 7, (key, answer) -> {
+            decodingThreads.add(Thread.currentThread().getName());
+            if (key.equals(invalidKey)) {
+                throw new IllegalStateException("Invalid entry");
+            }
+            final ISATFCCacheEntry entry = mock(ISATFCCacheEntry.class);
+            when(entry.getKey()).thenReturn(key);
+            return entry;
+        }, loaded::putAll);
+
+        Assert.assertEquals(99, numLoaded);
+        Assert.assertEquals(49, loaded.get(first).size());
+        Assert.assertEquals(50, loaded.get(second).size());
+        loaded.entries().forEach(entry -> Assert.assertEquals(entry.getKey(), CacheCoordinate.fromKey(entry.getValue().getKey())));
+        // Decoding happens off the fetching threads
+        Assert.assertFalse(decodingThreads.stream().anyMatch(name -> name.contains("Fetcher")));
+        Assert.assertEquals(3, connections.size());
+        connections.forEach(connection -> verify(connection, times(1)).close());
+    }
+
+    @Test
+    public void testSharedConnectionIsLeftOpen() {
+        final BinaryJedis connection = newConnection();
+        final RedisCacheLoader loader = new RedisCacheLoader(connection, 1);
+        final int numLoaded = loader.load(Collections.singletonList(new CacheCoordinate("a", "b").toKey(SATResult.UNSAT, 1)), 10, (key, answer) -> mock(ISATFCCacheEntry.class), (coordinate, entries) -> {});
+        Assert.assertEquals(1, numLoaded);
+        verify(connection, times(0)).close();
+    }
+
+}
@@ -33,6 +33,7 @@ import org.junit.Test;
 import com.google.common.collect.ImmutableBiMap;
 
 import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
 
 /**
  * Created by emily404 on 5/12/15.
@@ -128,4 +129,37 @@ public class ContainmentCacheSATEntryTest {
         Assert.assertFalse(e2.hasMoreSolvingPower(e1));
     }
 
+    @Test
+    public void isSolutionToTest() {
+        Map<Integer, Set<Station>> asgmnt = new HashMap<>();
+        asgmnt.put(c1, new HashSet<>(Arrays.asList(s1)));
+        asgmnt.put(c3, new HashSet<>(Arrays.asList(s2)));
+        ContainmentCacheSATEntry entry = new ContainmentCacheSATEntry(asgmnt, permutation);
+
+        Map<Station, Set<Integer>> domains = new HashMap<>();
+        domains.put(s2, new HashSet<>(Arrays.asList(c2, c3)));
+        Assert.assertTrue(entry.isSolutionTo(new StationPackingInstance(domains)));
+
+        domains.put(s1, new HashSet<>(Arrays.asList(c2)));
+        Assert.assertFalse(entry.isSolutionTo(new StationPackingInstance(domains)));
+
+        domains.put(s1, new HashSet<>(Arrays.asList(c1, 200)));
+        Assert.assertTrue(entry.isSolutionTo(new StationDomainMasks(new StationPackingInstance(domains), permutation)));
+    }
+
+    /**
+     * A query with a station the entry does not assign is not solved, even if the entry was not checked to be a superset
+     */
+    @Test
+    public void isNotSolutionToMissingStationTest() {
+        Map<Integer, Set<Station>> asgmnt = new HashMap<>();
+        asgmnt.put(c1, new HashSet<>(Arrays.asList(s1)));
+        ContainmentCacheSATEntry entry = new ContainmentCacheSATEntry(asgmnt, permutation);
+
+        Map<Station, Set<Integer>> domains = new HashMap<>();
+        domains.put(s1, new HashSet<>(Arrays.asList(c1)));
+        domains.put(s2, new HashSet<>(Arrays.asList(c1, c2, c3)));
+        Assert.assertFalse(entry.isSolutionTo(new StationPackingInstance(domains)));
+    }
+
 }
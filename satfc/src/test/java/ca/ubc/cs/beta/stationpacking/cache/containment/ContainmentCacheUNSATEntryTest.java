@@ -33,6 +33,7 @@ import org.junit.Test;
 import com.google.common.collect.ImmutableBiMap;
 
 import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
 
 /**
  * Created by emily404 on 5/12/15.
@@ -120,4 +121,30 @@ public class ContainmentCacheUNSATEntryTest {
 
         Assert.assertFalse(firstEntry.isLessRestrictive(secondEntry));
     }
+
+    /**
+     * An entry proves a query UNSAT when its stations are in the query, each with a domain at least as large
+     */
+    @Test
+    public void isLessRestrictiveThanQueryTest(){
+        Map<Station, Set<Integer>> entryDomains = new HashMap<>();
+        entryDomains.put(new Station(1), new HashSet<>(Arrays.asList(14, 19, 51)));
+        ContainmentCacheUNSATEntry entry = new ContainmentCacheUNSATEntry(entryDomains, permutation);
+
+        Map<Station, Set<Integer>> queryDomains = new HashMap<>();
+        queryDomains.put(new Station(1), new HashSet<>(Arrays.asList(14, 51)));
+        queryDomains.put(new Station(2), new HashSet<>(Arrays.asList(20)));
+        Assert.assertTrue(entry.isLessRestrictiveThan(new StationDomainMasks(new StationPackingInstance(queryDomains), permutation)));
+
+        // Same masks when the entry is read back from its bitsets
+        ContainmentCacheUNSATEntry redisEntry = new ContainmentCacheUNSATEntry(entry.getBitSet(), entry.getDomainsBitSet(), "key", permutation, null);
+        Assert.assertArrayEquals(entry.getDomainMasks(), redisEntry.getDomainMasks());
+        Assert.assertTrue(redisEntry.isLessRestrictiveThan(new StationDomainMasks(new StationPackingInstance(queryDomains), permutation)));
+
+        queryDomains.put(new Station(1), new HashSet<>(Arrays.asList(14, 20)));
+        Assert.assertFalse(entry.isLessRestrictiveThan(new StationDomainMasks(new StationPackingInstance(queryDomains), permutation)));
+
+        queryDomains.remove(new Station(1));
+        Assert.assertFalse(entry.isLessRestrictiveThan(new StationDomainMasks(new StationPackingInstance(queryDomains), permutation)));
+    }
 }
@@ -24,13 +24,22 @@ package ca.ubc.cs.beta.stationpacking.cache.containment;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
 import com.google.common.collect.ImmutableBiMap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
@@ -127,4 +136,260 @@ public class SatisfiabilityCacheTest {
         assertEquals(containmentCacheSATEntries.size(), 0);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testParallelSearch() throws Exception {
+        // Many candidates spread over several batches, only one of which solves the query
+        final SatisfiabilityCacheFactory factory = new SatisfiabilityCacheFactory(1, 0, 4, 2);
+        final Set<Station> universe = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            universe.add(new Station(i));
+        }
+        final ImmutableBiMap<Station, Integer> permutation = PermutationUtils.makePermutation(universe);
+        final ISatisfiabilityCache satisfiabilityCache = factory.create(permutation);
+        for (int i = 2; i < 1000; i++) {
+            final ContainmentCacheSATEntry entry = new ContainmentCacheSATEntry(ImmutableMap.of(1, Sets.newHashSet(s1, new Station(i)), 2, Sets.newHashSet(s2)), permutation);
+            entry.setKey("k" + i);
+            satisfiabilityCache.add(entry);
+            satisfiabilityCache.add(new ContainmentCacheUNSATEntry(ImmutableMap.of(s1, Sets.newHashSet(1), new Station(i), Sets.newHashSet(1)), permutation));
+        }
+        final ContainmentCacheSATEntry solution = new ContainmentCacheSATEntry(ImmutableMap.of(1, Sets.newHashSet(s1), 3, Sets.newHashSet(s2)), permutation);
+        solution.setKey("solution");
+        satisfiabilityCache.add(solution);
+
+        final StationPackingInstance instance = new StationPackingInstance(ImmutableMap.of(s1, Sets.newHashSet(1), s2, Sets.newHashSet(3)));
+        final ContainmentCacheSATResult satResult = satisfiabilityCache.proveSATBySuperset(instance);
+        assertTrue(satResult.isValid());
+        assertEquals("solution", satResult.getKey());
+        assertFalse(satisfiabilityCache.proveSATBySuperset(instance, entry -> entry != solution).isValid());
+
+        final StationPackingInstance unsatInstance = new StationPackingInstance(ImmutableMap.of(s1, Sets.newHashSet(1), new Station(500), Sets.newHashSet(1), s3, Sets.newHashSet(1)));
+        assertTrue(satisfiabilityCache.proveUNSATBySubset(unsatInstance).isValid());
+        assertFalse(satisfiabilityCache.proveUNSATBySubset(instance).isValid());
+    }
+
+    @Test
+    public void testParallelSearchError() throws Exception {
+        final SatisfiabilityCacheFactory factory = new SatisfiabilityCacheFactory(1, 0, 4, 4);
+        final Set<Station> universe = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            universe.add(new Station(i));
+        }
+        final ImmutableBiMap<Station, Integer> permutation = PermutationUtils.makePermutation(universe);
+        final ISatisfiabilityCache satisfiabilityCache = factory.create(permutation);
+        for (int i = 2; i < 1000; i++) {
+            final ContainmentCacheSATEntry entry = new ContainmentCacheSATEntry(ImmutableMap.of(1, Sets.newHashSet(s1, new Station(i))), permutation);
+            entry.setKey("k" + i);
+            satisfiabilityCache.add(entry);
+        }
+        // Every entry solves the query, the filter rejects them all and fails on one of them
+        final StationPackingInstance instance = new StationPackingInstance(ImmutableMap.of(s1, Sets.newHashSet(1)));
+        final AtomicInteger testing = new AtomicInteger();
+        final AtomicInteger tested = new AtomicInteger();
+        try {
+            satisfiabilityCache.proveSATBySuperset(instance, entry -> {
+                testing.incrementAndGet();
+                try {
+                    tested.incrementAndGet();
+                    if (entry.getKey().equals("k500")) {
+                        throw new IllegalStateException("Bad entry");
+                    }
+                    return false;
+                } finally {
+                    testing.decrementAndGet();
+                }
+            });
+            fail("The filter failed on an entry");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        // No worker is still testing entries once the search returns
+        assertEquals(0, testing.get());
+        final int numTested = tested.get();
+        Thread.sleep(50);
+        assertEquals(numTested, tested.get());
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        final SatisfiabilityCacheFactory factory = new SatisfiabilityCacheFactory(1, 0);
+        final ImmutableBiMap<Station, Integer> permutation = PermutationUtils.makePermutation(UNIVERSE);
+        final ISatisfiabilityCache satisfiabilityCache = factory.create(permutation);
+        satisfiabilityCache.add(new ContainmentCacheSATEntry(ImmutableMap.of(1, UNIVERSE), permutation));
+        satisfiabilityCache.add(new ContainmentCacheUNSATEntry(ImmutableMap.of(s1, Sets.newHashSet(15), s2, Sets.newHashSet(15)), permutation));
+        final StationPackingInstance satInstance = new StationPackingInstance(ImmutableMap.of(s1, Sets.newHashSet(1), s2, Sets.newHashSet(1)));
+        final StationPackingInstance unsatInstance = new StationPackingInstance(ImmutableMap.of(s1, Sets.newHashSet(15), s2, Sets.newHashSet(15), s3, Sets.newHashSet(15)));
+
+        // Plenty of time left
+        final SearchDeadline future = SearchDeadline.in(1, TimeUnit.HOURS);
+        assertTrue(satisfiabilityCache.proveSATBySuperset(satInstance, entry -> true, future).isValid());
+        assertTrue(satisfiabilityCache.proveUNSATBySubset(unsatInstance, future).isValid());
+        assertFalse(future.isCutShort());
+
+        // Nobody is waiting for the answers anymore
+        final SearchDeadline past = SearchDeadline.in(0, TimeUnit.MILLISECONDS);
+        assertFalse(satisfiabilityCache.proveSATBySuperset(satInstance, entry -> true, past).isValid());
+        assertTrue(past.isCutShort());
+        final SearchDeadline abandoned = SearchDeadline.none();
+        abandoned.abandon();
+        assertFalse(satisfiabilityCache.proveUNSATBySubset(unsatInstance, abandoned).isValid());
+        assertTrue(abandoned.isCutShort());
+    }
+
+    @Test
+    public void testDeadlineDuringSearch() throws Exception {
+        testDeadlineDuringSearch(new SatisfiabilityCacheFactory(1, 0));
+        testDeadlineDuringSearch(new SatisfiabilityCacheFactory(1, 0, 4, 2));
+    }
+
+    private void testDeadlineDuringSearch(SatisfiabilityCacheFactory factory) {
+        final Set<Station> universe = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            universe.add(new Station(i));
+        }
+        final ImmutableBiMap<Station, Integer> permutation = PermutationUtils.makePermutation(universe);
+        final ISatisfiabilityCache satisfiabilityCache = factory.create(permutation);
+        for (int i = 2; i < 1000; i++) {
+            satisfiabilityCache.add(new ContainmentCacheSATEntry(ImmutableMap.of(1, Sets.newHashSet(s1, new Station(i))), permutation));
+        }
+        // Every entry solves the query and the filter rejects them all, giving up on the search partway through
+        final StationPackingInstance instance = new StationPackingInstance(ImmutableMap.of(s1, Sets.newHashSet(1)));
+        final SearchDeadline deadline = SearchDeadline.in(1, TimeUnit.HOURS);
+        final AtomicInteger tested = new AtomicInteger();
+        final ContainmentCacheSATResult result = satisfiabilityCache.proveSATBySuperset(instance, entry -> {
+            if (tested.incrementAndGet() == 100) {
+                deadline.abandon();
+            }
+            return false;
+        }, deadline);
+        assertFalse(result.isValid());
+        assertTrue(deadline.isCutShort());
+        // The search stopped at one of its checks of the deadline rather than testing every candidate
+        assertTrue(tested.get() < 998);
+    }
+
+    @Test
+    public void testFindMaxIntersections() throws Exception {
+        final SatisfiabilityCacheFactory factory = new SatisfiabilityCacheFactory(1, 0);
+        final ImmutableBiMap<Station, Integer> permutation = PermutationUtils.makePermutation(UNIVERSE);
+        final ISatisfiabilityCache satisfiabilityCache = factory.create(permutation);
+        // Compatible with 3, 2 and 1 station(s) of the query below
+        final ContainmentCacheSATEntry c3 = new ContainmentCacheSATEntry(ImmutableMap.of(1, Sets.newHashSet(s1, s2), 2, Sets.newHashSet(s3)), permutation);
+        final ContainmentCacheSATEntry c2 = new ContainmentCacheSATEntry(ImmutableMap.of(1, Sets.newHashSet(s1, s2)), permutation);
+        final ContainmentCacheSATEntry c1 = new ContainmentCacheSATEntry(ImmutableMap.of(1, Sets.newHashSet(s1), 3, Sets.newHashSet(s2, s3)), permutation);
+        satisfiabilityCache.add(c1);
+        satisfiabilityCache.add(c3);
+        satisfiabilityCache.add(c2);
+
+        final StationPackingInstance instance = new StationPackingInstance(ImmutableMap.of(s1, Sets.newHashSet(1), s2, Sets.newHashSet(1, 2), s3, Sets.newHashSet(2)));
+        assertEquals(ImmutableList.of(c3, c2), satisfiabilityCache.findMaxIntersections(instance, 2));
+        assertEquals(ImmutableList.of(c3, c2, c1), satisfiabilityCache.findMaxIntersections(instance, 5));
+        assertTrue(satisfiabilityCache.findMaxIntersections(instance, 0).isEmpty());
+    }
+
+    @Test
+    public void testAddAndPrune() throws Exception {
+        final SatisfiabilityCacheFactory factory = new SatisfiabilityCacheFactory(1, 0);
+        final ImmutableBiMap<Station, Integer> permutation = PermutationUtils.makePermutation(UNIVERSE);
+        final ISatisfiabilityCache satisfiabilityCache = factory.create(permutation);
+
+        final ContainmentCacheSATEntry small = new ContainmentCacheSATEntry(ImmutableMap.of(1, Sets.newHashSet(s1)), permutation);
+        final ContainmentCacheSATEntry otherChannel = new ContainmentCacheSATEntry(ImmutableMap.of(2, Sets.newHashSet(s2)), permutation);
+        assertTrue(satisfiabilityCache.addAndPrune(small).isEmpty());
+        assertTrue(satisfiabilityCache.addAndPrune(otherChannel).isEmpty());
+        // Has more solving power than small, but puts s2 on another channel than otherChannel
+        final ContainmentCacheSATEntry big = new ContainmentCacheSATEntry(ImmutableMap.of(1, Sets.newHashSet(s1, s2)), permutation);
+        assertEquals(ImmutableList.of(small), satisfiabilityCache.addAndPrune(big));
+        final StationPackingInstance instance = new StationPackingInstance(ImmutableMap.of(s1, Sets.newHashSet(1)));
+        assertFalse(satisfiabilityCache.proveSATBySuperset(instance, entry -> entry != big).isValid());
+
+        final ContainmentCacheUNSATEntry moreRestrictive = new ContainmentCacheUNSATEntry(ImmutableMap.of(s1, Sets.newHashSet(15), s2, Sets.newHashSet(15)), permutation);
+        assertTrue(satisfiabilityCache.addAndPrune(moreRestrictive).isEmpty());
+        final ContainmentCacheUNSATEntry lessRestrictive = new ContainmentCacheUNSATEntry(ImmutableMap.of(s1, Sets.newHashSet(15, 16)), permutation);
+        assertEquals(ImmutableList.of(moreRestrictive), satisfiabilityCache.addAndPrune(lessRestrictive));
+        assertTrue(satisfiabilityCache.filterUNSAT().isEmpty());
+    }
+
+    @Test
+    public void testConcurrentAddAndPrune() throws Exception {
+        final SatisfiabilityCacheFactory factory = new SatisfiabilityCacheFactory(1, 0);
+        final Set<Station> universe = new HashSet<>();
+        for (int i = 0; i < 300; i++) {
+            universe.add(new Station(i));
+        }
+        final ImmutableBiMap<Station, Integer> permutation = PermutationUtils.makePermutation(universe);
+        final ISatisfiabilityCache satisfiabilityCache = factory.create(permutation);
+        final Set<Station> smallStations = new HashSet<>();
+        for (int i = 1; i <= 100; i++) {
+            smallStations.add(new Station(i));
+            satisfiabilityCache.add(new ContainmentCacheSATEntry(ImmutableMap.of(1, Sets.newHashSet(new Station(0), new Station(i))), permutation));
+        }
+        // Each big entry dominates every small entry, but none of the other big entries
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<List<ContainmentCacheSATEntry>>> futures = new ArrayList<>();
+            for (int k = 0; k < 8; k++) {
+                final Set<Station> bigStations = new HashSet<>(smallStations);
+                bigStations.add(new Station(0));
+                bigStations.add(new Station(200 + k));
+                final ContainmentCacheSATEntry big = new ContainmentCacheSATEntry(ImmutableMap.of(1, bigStations), permutation);
+                futures.add(executor.submit(() -> satisfiabilityCache.addAndPrune(big)));
+            }
+            // Every small entry is pruned by exactly one of the additions
+            final Set<ContainmentCacheSATEntry> pruned = Sets.newIdentityHashSet();
+            int numPruned = 0;
+            for (Future<List<ContainmentCacheSATEntry>> future : futures) {
+                numPruned += future.get().size();
+                pruned.addAll(future.get());
+            }
+            assertEquals(100, numPruned);
+            assertEquals(100, pruned.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMemoryBudgetEvictsDominatedEntriesFirst() throws Exception {
+        final ImmutableBiMap<Station, Integer> permutation = PermutationUtils.makePermutation(UNIVERSE);
+        final ContainmentCacheSATEntry small = new ContainmentCacheSATEntry(ImmutableMap.of(1, Sets.newHashSet(s1)), permutation);
+        final ContainmentCacheSATEntry big = new ContainmentCacheSATEntry(ImmutableMap.of(1, Sets.newHashSet(s1, s2)), permutation);
+        final ContainmentCacheSATEntry other = new ContainmentCacheSATEntry(ImmutableMap.of(2, Sets.newHashSet(s3)), permutation);
+        small.setKey("small");
+        big.setKey("big");
+        other.setKey("other");
+        final CacheMemoryBudget sizes = new CacheMemoryBudget(1, 1);
+        final long budget = sizes.estimateSize(small, false) + sizes.estimateSize(big, false) + sizes.estimateSize(other, false) - 1;
+        final ISatisfiabilityCache satisfiabilityCache = new SatisfiabilityCacheFactory(1, 0, 1, 1, false, budget).create(permutation);
+
+        // small and other are more useful than big, but big dominates small
+        final StationPackingInstance instance = new StationPackingInstance(ImmutableMap.of(s1, Sets.newHashSet(1)));
+        final StationPackingInstance otherInstance = new StationPackingInstance(ImmutableMap.of(s3, Sets.newHashSet(2)));
+        satisfiabilityCache.add(small);
+        satisfiabilityCache.add(other);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(satisfiabilityCache.proveSATBySuperset(instance).isValid());
+            assertTrue(satisfiabilityCache.proveSATBySuperset(otherInstance).isValid());
+        }
+        satisfiabilityCache.add(big);
+
+        // Going over budget evicts big's dominated entry before big, which is then enough
+        final ContainmentCacheSATResult result = satisfiabilityCache.proveSATBySuperset(instance);
+        assertEquals("big", result.getKey());
+        assertFalse(satisfiabilityCache.proveSATBySuperset(instance, entry -> entry != big).isValid());
+        assertTrue(satisfiabilityCache.proveSATBySuperset(otherInstance).isValid());
+
+        // Evicted entries can be read back, but small is not added back as big still dominates it
+        final List<String> reloadedKeys = new ArrayList<>();
+        final int numReloaded = satisfiabilityCache.reloadEvicted(key -> {
+            reloadedKeys.add(key);
+            final ContainmentCacheSATEntry entry = new ContainmentCacheSATEntry(ImmutableMap.of(1, Sets.newHashSet(s1)), permutation);
+            entry.setKey(key);
+            return entry;
+        });
+        assertEquals(ImmutableList.of("small"), reloadedKeys);
+        assertEquals(0, numReloaded);
+        assertTrue(satisfiabilityCache.getEvictedKeys().isEmpty());
+        assertEquals("big", satisfiabilityCache.proveSATBySuperset(instance).getKey());
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.cache.containment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableBiMap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+
+import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
+import ca.ubc.cs.beta.stationpacking.cache.SatisfiabilityCacheFactory;
+import ca.ubc.cs.beta.stationpacking.cache.containment.containmentcache.ISatisfiabilityCache;
+import containmentcache.util.PermutationUtils;
+
+public class StationChannelIndexTest {
+
+    final Station s1 = new Station(1);
+    final Station s2 = new Station(2);
+    final Station s3 = new Station(3);
+    final ImmutableBiMap<Station, Integer> permutation = PermutationUtils.makePermutation(Sets.newHashSet(s1, s2, s3));
+
+    ContainmentCacheSATEntry e1;
+    ContainmentCacheSATEntry e2;
+    ContainmentCacheSATEntry e3;
+    StationChannelIndex index;
+
+    @Before
+    public void setUp() {
+        e1 = new ContainmentCacheSATEntry(ImmutableMap.of(14, Sets.newHashSet(s1, s2)), permutation);
+        e2 = new ContainmentCacheSATEntry(ImmutableMap.of(14, Sets.newHashSet(s1), 15, Sets.newHashSet(s2, s3)), permutation);
+        e3 = new ContainmentCacheSATEntry(ImmutableMap.of(16, Sets.newHashSet(s1, s3)), permutation);
+        index = new StationChannelIndex(permutation);
+        index.add(e1);
+        index.add(e2);
+        index.add(e3);
+    }
+
+    @Test
+    public void testCandidatesMatchChannels() {
+        assertEquals(Sets.newHashSet(e1, e2), asSet(index.getCandidates(new StationPackingInstance(ImmutableMap.of(s1, Sets.newHashSet(14, 15))))));
+        assertEquals(Sets.newHashSet(e2), asSet(index.getCandidates(new StationPackingInstance(ImmutableMap.of(s1, Sets.newHashSet(14), s2, Sets.newHashSet(15))))));
+        assertEquals(Sets.newHashSet(e2, e3), asSet(index.getCandidates(new StationPackingInstance(ImmutableMap.of(s3, Sets.newHashSet(15, 16))))));
+        assertTrue(index.getCandidates(new StationPackingInstance(ImmutableMap.of(s1, Sets.newHashSet(20)))).isEmpty());
+    }
+
+    @Test
+    public void testRemove() {
+        index.remove(e2);
+        assertEquals(2, index.size());
+        assertEquals(Sets.newHashSet(e1), asSet(index.getCandidates(new StationPackingInstance(ImmutableMap.of(s1, Sets.newHashSet(14, 15))))));
+        // Adding the same entry twice does not index it twice
+        index.add(e1);
+        assertEquals(1, index.getCandidates(new StationPackingInstance(ImmutableMap.of(s2, Sets.newHashSet(14)))).size());
+    }
+
+    @Test
+    public void testReuseIds() {
+        index.remove(e1);
+        // Takes e1's id, which comes before e3's in the posting list of s3 on channel 16
+        final ContainmentCacheSATEntry e4 = new ContainmentCacheSATEntry(ImmutableMap.of(14, Sets.newHashSet(s2), 16, Sets.newHashSet(s3)), permutation);
+        index.add(e4);
+        assertEquals(3, index.size());
+        assertEquals(Sets.newHashSet(e3, e4), asSet(index.getCandidates(new StationPackingInstance(ImmutableMap.of(s3, Sets.newHashSet(16))))));
+        assertEquals(Sets.newHashSet(e4), asSet(index.getCandidates(new StationPackingInstance(ImmutableMap.of(s2, Sets.newHashSet(14))))));
+        assertEquals(Sets.newHashSet(e2), asSet(index.getCandidates(new StationPackingInstance(ImmutableMap.of(s1, Sets.newHashSet(14))))));
+    }
+
+    @Test
+    public void testChurn() {
+        final List<ContainmentCacheSATEntry> kept = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final ContainmentCacheSATEntry entry = new ContainmentCacheSATEntry(ImmutableMap.of(17, Sets.newHashSet(s1), 18 + i % 2, Sets.newHashSet(s2)), permutation);
+            index.add(entry);
+            if (i % 3 == 0) {
+                kept.add(entry);
+            } else {
+                index.remove(entry);
+            }
+        }
+        assertEquals(3 + kept.size(), index.size());
+        assertEquals(new HashSet<>(kept), asSet(index.getCandidates(new StationPackingInstance(ImmutableMap.of(s1, Sets.newHashSet(17))))));
+        kept.forEach(index::remove);
+        assertTrue(index.getCandidates(new StationPackingInstance(ImmutableMap.of(s2, Sets.newHashSet(18, 19)))).isEmpty());
+        assertEquals(Sets.newHashSet(e1, e2), asSet(index.getCandidates(new StationPackingInstance(ImmutableMap.of(s1, Sets.newHashSet(14))))));
+    }
+
+    @Test
+    public void testProveSATWithIndex() {
+        final ISatisfiabilityCache cache = new SatisfiabilityCacheFactory(1, 0, 1, 1, true).create(permutation);
+        e2.setKey("e2");
+        cache.add(e1);
+        cache.add(e2);
+        final ContainmentCacheSATResult result = cache.proveSATBySuperset(new StationPackingInstance(ImmutableMap.of(s2, Sets.newHashSet(15), s3, Sets.newHashSet(15, 16))));
+        assertTrue(result.isValid());
+        assertEquals("e2", result.getKey());
+    }
+
+    private static Set<ContainmentCacheSATEntry> asSet(List<ContainmentCacheSATEntry> entries) {
+        return new HashSet<>(entries);
+    }
+
+}
@@ -27,7 +27,10 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.Test;
@@ -90,6 +93,56 @@ public abstract class ConstraintManagerTest {
 
     }
 
+    public static class ArrayBasedChannelSpecificConstraintManagerTest extends ConstraintManagerTest {
+
+        @Override
+        protected IConstraintManager getConstraintManager() throws Exception {
+            final String interferencePath = Resources.getResource("data/testInterference").getPath();
+            return new ArrayBasedConstraintManager(getDomainManager(), new ChannelSpecificConstraintManager(getDomainManager(), interferencePath + File.separator + "channelspecific" + File.separator + DataManager.INTERFERENCES_FILE));
+        }
+
+    }
+
+    public static class ArrayBasedUnabridgedConstraintManagerTest extends ConstraintManagerTest {
+
+        @Override
+        protected IConstraintManager getConstraintManager() throws Exception {
+            final String interferencePath = Resources.getResource("data/testInterference").getPath();
+            return new ArrayBasedConstraintManager(getDomainManager(), new UnabridgedFormatConstraintManager(getDomainManager(), interferencePath + File.separator + "unabridged" + File.separator + DataManager.INTERFERENCES_FILE));
+        }
+
+        @Test
+        public void testSameConstraintsAsMapBased() throws Exception {
+            final String interferencePath = Resources.getResource("data/testInterference/unabridged").getPath() + "/Interference_Paired_ADJm1_ADJm2.csv";
+            final IStationManager dm = getDomainManager();
+            final UnabridgedFormatConstraintManager mapBased = new UnabridgedFormatConstraintManager(dm, interferencePath);
+            final ArrayBasedConstraintManager arrayBased = new ArrayBasedConstraintManager(dm, mapBased);
+            assertEquals(mapBased.getConstraintHash(), arrayBased.getConstraintHash());
+            assertFalse(arrayBased.isCompactFormat());
+            for (Station station : dm.getStations()) {
+                for (int channel = 0; channel <= 110; channel++) {
+                    assertEquals(mapBased.getCOInterferingStations(station, channel), arrayBased.getCOInterferingStations(station, channel));
+                    assertEquals(mapBased.getADJplusOneInterferingStations(station, channel), arrayBased.getADJplusOneInterferingStations(station, channel));
+                    assertEquals(mapBased.getADJplusTwoInterferingStations(station, channel), arrayBased.getADJplusTwoInterferingStations(station, channel));
+                }
+            }
+            for (Station s1 : dm.getStations()) {
+                for (Station s2 : dm.getStations()) {
+                    for (int c1 = 0; c1 <= 110; c1++) {
+                        for (int c2 = c1 - 3; c2 <= c1 + 3; c2++) {
+                            assertEquals(mapBased.isSatisfyingAssignment(s1, c1, s2, c2), arrayBased.isSatisfyingAssignment(s1, c1, s2, c2));
+                        }
+                    }
+                }
+            }
+            final Map<Station, Set<Integer>> domains = new HashMap<>();
+            dm.getStations().forEach(station -> domains.put(station, dm.getDomain(station)));
+            assertEquals(Sets.newHashSet(mapBased.getAllRelevantConstraints(domains)), Sets.newHashSet(arrayBased.getAllRelevantConstraints(domains)));
+            assertEquals(Collections.emptySet(), arrayBased.getCOInterferingStations(new Station(12345), 1));
+        }
+
+    }
+
     @Test
     public void testConstraints() throws Exception {
         IConstraintManager cm = getConstraintManager();
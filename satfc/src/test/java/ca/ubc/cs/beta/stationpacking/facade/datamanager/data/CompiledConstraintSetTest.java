@@ -0,0 +1,113 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.facade.datamanager.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Sets;
+import com.google.common.io.Resources;
+
+import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.ArrayBasedConstraintManager;
+import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.IConstraintManager;
+import ca.ubc.cs.beta.stationpacking.datamanagers.stations.IStationManager;
+
+public class CompiledConstraintSetTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String makeStationConfigurationFolder() throws Exception {
+        final File configurationFolder = folder.newFolder("channelspecific");
+        Files.copy(new File(Resources.getResource("data/testInterference/" + DataManager.DOMAIN_FILE).getPath()).toPath(), new File(configurationFolder, DataManager.DOMAIN_FILE).toPath());
+        Files.copy(new File(Resources.getResource("data/testInterference/channelspecific/" + DataManager.INTERFERENCES_FILE).getPath()).toPath(), new File(configurationFolder, DataManager.INTERFERENCES_FILE).toPath());
+        return configurationFolder.getAbsolutePath();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final String path = makeStationConfigurationFolder();
+        assertFalse(CompiledConstraintSet.isUpToDate(path));
+        final ManagerBundle parsed = DataManager.readManagerBundle(path);
+        CompiledConstraintSet.write(parsed);
+        assertTrue(CompiledConstraintSet.isUpToDate(path));
+
+        final ManagerBundle compiled = CompiledConstraintSet.read(path);
+        assertEquals(parsed.getCacheCoordinate(), compiled.getCacheCoordinate());
+        assertEquals(parsed.getPermutation(), compiled.getPermutation());
+        assertTrue(compiled.isCompactInterference());
+
+        final IStationManager parsedStations = parsed.getStationManager();
+        final IStationManager compiledStations = compiled.getStationManager();
+        assertEquals(parsedStations.getStations(), compiledStations.getStations());
+        final IConstraintManager parsedConstraints = parsed.getConstraintManager();
+        final IConstraintManager compiledConstraints = compiled.getConstraintManager();
+        for (Station station : parsedStations.getStations()) {
+            assertEquals(parsedStations.getDomain(station), compiledStations.getDomain(station));
+            for (int channel = 0; channel <= 110; channel++) {
+                assertEquals(parsedConstraints.getCOInterferingStations(station, channel), compiledConstraints.getCOInterferingStations(station, channel));
+                assertEquals(parsedConstraints.getADJplusOneInterferingStations(station, channel), compiledConstraints.getADJplusOneInterferingStations(station, channel));
+                assertEquals(parsedConstraints.getADJplusTwoInterferingStations(station, channel), compiledConstraints.getADJplusTwoInterferingStations(station, channel));
+            }
+        }
+        assertFalse(compiledConstraints.isSatisfyingAssignment(new Station(1), 7, new Station(2), 8));
+        assertEquals(Sets.newHashSet(new Station(2), new Station(3)), compiledConstraints.getCOInterferingStations(new Station(1), 1));
+    }
+
+    @Test
+    public void testDataManagerReadsCompiledFile() throws Exception {
+        final String path = makeStationConfigurationFolder();
+        CompiledConstraintSet.write(DataManager.readManagerBundle(path));
+        // Compiled files remain usable without the CSV files.
+        new File(path, DataManager.INTERFERENCES_FILE).delete();
+        new File(path, DataManager.DOMAIN_FILE).delete();
+        final ManagerBundle bundle = new DataManager().getData(path);
+        assertTrue(bundle.getConstraintManager() instanceof ArrayBasedConstraintManager);
+        assertEquals(7, bundle.getStationManager().getStations().size());
+    }
+
+    @Test
+    public void testLazyLoadingRegistersCoordinateFromHeader() throws Exception {
+        final String path = makeStationConfigurationFolder();
+        final ManagerBundle parsed = DataManager.readManagerBundle(path);
+        CompiledConstraintSet.write(parsed);
+        assertEquals(parsed.getCacheCoordinate(), CompiledConstraintSet.readCacheCoordinate(path));
+
+        final DataManager dataManager = new DataManager();
+        dataManager.loadMultipleConstraintSets(folder.getRoot().getAbsolutePath(), 2, true);
+        assertEquals(Sets.newHashSet(parsed.getCacheCoordinate()), dataManager.getCoordinates());
+        final ManagerBundle bundle = dataManager.getData(parsed.getCacheCoordinate());
+        assertTrue(dataManager.isLoaded(parsed.getCacheCoordinate()));
+        assertEquals(parsed.getPermutation(), bundle.getPermutation());
+        assertTrue(bundle == dataManager.getData(path));
+    }
+
+}
@@ -22,28 +22,42 @@
 package ca.ubc.cs.beta.stationpacking.solvers.decorators;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atMost;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.stubbing.Answer;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import ca.ubc.cs.beta.stationpacking.base.Station;
 import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
+import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheUNSATResult;
 import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.IConstraintManager;
 import ca.ubc.cs.beta.stationpacking.solvers.ISolver;
 import ca.ubc.cs.beta.stationpacking.solvers.base.SATResult;
 import ca.ubc.cs.beta.stationpacking.solvers.base.SolverResult;
 import ca.ubc.cs.beta.stationpacking.solvers.base.SolverResult.SolvedBy;
 import ca.ubc.cs.beta.stationpacking.solvers.componentgrouper.IComponentGrouper;
+import ca.ubc.cs.beta.stationpacking.solvers.composites.ISolverFactory;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.ContainmentCacheProxy;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.ContainmentCacheProxy.ContainmentCacheQuery;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.ContainmentCacheProxy.ContainmentCacheQueryResult;
 import ca.ubc.cs.beta.stationpacking.solvers.termination.ITerminationCriterion;
 
 public class ConnectedComponentGroupingDecoratorTest {
@@ -97,5 +111,97 @@ public class ConnectedComponentGroupingDecoratorTest {
         verify(solver, times(1)).solve(any(StationPackingInstance.class), eq(terminationCriterion), eq(seed));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testParallelComponentsSAT() {
+        // every component should be solved, split between the decorated solver and the copy made by the factory
+        final long seed = 0;
+        final ISolver solver = mock(ISolver.class);
+        final ISolver solverCopy = mock(ISolver.class);
+        final AtomicInteger copiesMade = new AtomicInteger();
+        final ISolverFactory factory = aSolver -> {
+            copiesMade.incrementAndGet();
+            return solverCopy;
+        };
+        final IComponentGrouper grouper = mock(IComponentGrouper.class);
+        final IConstraintManager constraintManager = mock(IConstraintManager.class);
+        final ITerminationCriterion terminationCriterion = mock(ITerminationCriterion.class);
+        final ConnectedComponentGroupingDecorator connectedComponentGroupingDecorator = new ConnectedComponentGroupingDecorator(solver, grouper, constraintManager, false, null, factory, 2);
+
+        final StationPackingInstance instance = new StationPackingInstance(Maps.newHashMap());
+        final Set<Set<Station>> components = Sets.newHashSet(mock(Set.class), mock(Set.class), mock(Set.class));
+
+        when(grouper.group(instance, constraintManager)).thenReturn(components);
+        final AtomicInteger componentsSolved = new AtomicInteger();
+        final Answer<SolverResult> sat = invocation -> {
+            componentsSolved.incrementAndGet();
+            return new SolverResult(SATResult.SAT, 0, new HashMap<>(), SolvedBy.UNKNOWN);
+        };
+        when(solver.solve(any(StationPackingInstance.class), any(ITerminationCriterion.class), eq(seed))).thenAnswer(sat);
+        when(solverCopy.solve(any(StationPackingInstance.class), any(ITerminationCriterion.class), eq(seed))).thenAnswer(sat);
+        final SolverResult result = connectedComponentGroupingDecorator.solve(instance, terminationCriterion, seed);
+        connectedComponentGroupingDecorator.notifyShutdown();
+
+        Assert.assertEquals(SATResult.SAT, result.getResult());
+        Assert.assertEquals(1, copiesMade.get());
+        Assert.assertEquals(components.size(), componentsSolved.get());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testParallelEarlyStopping() {
+        // an UNSAT component makes the whole problem UNSAT; the remaining components are skipped or interrupted
+        final long seed = 0;
+        final ISolver solver = mock(ISolver.class);
+        final ISolver solverCopy = mock(ISolver.class);
+        final IComponentGrouper grouper = mock(IComponentGrouper.class);
+        final IConstraintManager constraintManager = mock(IConstraintManager.class);
+        final ITerminationCriterion terminationCriterion = mock(ITerminationCriterion.class);
+        final ConnectedComponentGroupingDecorator connectedComponentGroupingDecorator = new ConnectedComponentGroupingDecorator(solver, grouper, constraintManager, false, null, aSolver -> solverCopy, 2);
+
+        final StationPackingInstance instance = new StationPackingInstance(Maps.newHashMap());
+        final Set<Set<Station>> components = Sets.newHashSet(mock(Set.class), mock(Set.class), mock(Set.class), mock(Set.class));
+
+        when(grouper.group(instance, constraintManager)).thenReturn(components);
+        final SolverResult unsat = SolverResult.createNonSATResult(SATResult.UNSAT, 0, SolvedBy.UNKNOWN);
+        when(solver.solve(any(StationPackingInstance.class), any(ITerminationCriterion.class), eq(seed))).thenReturn(unsat);
+        when(solverCopy.solve(any(StationPackingInstance.class), any(ITerminationCriterion.class), eq(seed))).thenReturn(unsat);
+        final SolverResult result = connectedComponentGroupingDecorator.solve(instance, terminationCriterion, seed);
+        connectedComponentGroupingDecorator.notifyShutdown();
+
+        Assert.assertEquals(SATResult.UNSAT, result.getResult());
+        // at most one component per thread can have started before the first UNSAT result stopped the others
+        verify(solver, atMost(2)).solve(any(StationPackingInstance.class), any(ITerminationCriterion.class), eq(seed));
+        verify(solverCopy, atMost(2)).solve(any(StationPackingInstance.class), any(ITerminationCriterion.class), eq(seed));
+    }
+
+    @Test
+    public void testCacheAnswersComponents() {
+        // a component the cache proves UNSAT makes the whole problem UNSAT without solving anything
+        final long seed = 0;
+        final ISolver solver = mock(ISolver.class);
+        final IComponentGrouper grouper = mock(IComponentGrouper.class);
+        final IConstraintManager constraintManager = mock(IConstraintManager.class);
+        final ITerminationCriterion terminationCriterion = mock(ITerminationCriterion.class);
+        final ContainmentCacheProxy cacheProxy = mock(ContainmentCacheProxy.class);
+        final ConnectedComponentGroupingDecorator connectedComponentGroupingDecorator = new ConnectedComponentGroupingDecorator(solver, grouper, constraintManager, false, null, null, 1, cacheProxy);
+
+        final Station stationA = new Station(1);
+        final Station stationB = new Station(2);
+        final StationPackingInstance instance = new StationPackingInstance(ImmutableMap.of(stationA, ImmutableSet.of(14), stationB, ImmutableSet.of(14, 15)));
+        when(grouper.group(instance, constraintManager)).thenReturn(Sets.newHashSet(ImmutableSet.of(stationA), ImmutableSet.of(stationB)));
+        // components are queried smallest first, a SAT then an UNSAT query each
+        when(cacheProxy.query(anyListOf(ContainmentCacheQuery.class), eq(terminationCriterion))).thenReturn(Arrays.asList(
+                ContainmentCacheQueryResult.failure(SATResult.SAT),
+                new ContainmentCacheQueryResult(null, new ContainmentCacheUNSATResult("SATFC:UNSAT:key")),
+                ContainmentCacheQueryResult.failure(SATResult.SAT),
+                ContainmentCacheQueryResult.failure(SATResult.UNSAT)
+        ));
+        final SolverResult result = connectedComponentGroupingDecorator.solve(instance, terminationCriterion, seed);
+
+        Assert.assertEquals(SATResult.UNSAT, result.getResult());
+        verify(cacheProxy, times(1)).query(anyListOf(ContainmentCacheQuery.class), eq(terminationCriterion));
+        verify(solver, never()).solve(any(StationPackingInstance.class), any(ITerminationCriterion.class), eq(seed));
+    }
 
 }
@@ -0,0 +1,138 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.solvers.decorators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import ca.ubc.cs.beta.stationpacking.solvers.termination.ITerminationCriterion;
+import ca.ubc.cs.beta.stationpacking.solvers.termination.infinite.NeverEndingTerminationCriterion;
+import ca.ubc.cs.beta.stationpacking.solvers.termination.interrupt.InterruptibleTerminationCriterion;
+
+public class SharedPreprocessingResultsTest {
+
+    @Test
+    public void testComputedOnceAcrossBranches() throws Exception {
+        final SharedPreprocessingResults results = new SharedPreprocessingResults();
+        final AtomicInteger computations = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> results.getOrCompute(SharedPreprocessingResults.Stage.ARC_CONSISTENCY, "instance", new NeverEndingTerminationCriterion(), () -> {
+                    computations.incrementAndGet();
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return 42;
+                })));
+            }
+            for (Future<Integer> future : futures) {
+                assertEquals(42, (int) future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, computations.get());
+        // A different stage of the same input is computed separately.
+        assertEquals(7, (int) results.getOrCompute(SharedPreprocessingResults.Stage.CONNECTED_COMPONENTS, "instance", new NeverEndingTerminationCriterion(), () -> 7));
+    }
+
+    @Test(timeout = 5000)
+    public void testWaitingBranchStopsWithItsCriterion() throws Exception {
+        final SharedPreprocessingResults results = new SharedPreprocessingResults();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread owner = new Thread(() -> results.getOrCompute(SharedPreprocessingResults.Stage.UNDERCONSTRAINED, "instance", new NeverEndingTerminationCriterion(), () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 1;
+        }));
+        owner.start();
+        started.await();
+
+        final ITerminationCriterion.IInterruptibleTerminationCriterion criterion = new InterruptibleTerminationCriterion(new NeverEndingTerminationCriterion());
+        criterion.interrupt();
+        assertNull(results.getOrCompute(SharedPreprocessingResults.Stage.UNDERCONSTRAINED, "instance", criterion, () -> 2));
+
+        release.countDown();
+        owner.join();
+    }
+
+    @Test(timeout = 5000)
+    public void testWaitingBranchOutlivesItsOwner() throws Exception {
+        final SharedPreprocessingResults results = new SharedPreprocessingResults();
+        final ITerminationCriterion.IInterruptibleTerminationCriterion ownerCriterion = new InterruptibleTerminationCriterion(new NeverEndingTerminationCriterion());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread owner = new Thread(() -> results.getOrCompute(SharedPreprocessingResults.Stage.ARC_CONSISTENCY, "instance", ownerCriterion, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 1;
+        }));
+        owner.start();
+        started.await();
+
+        final AtomicInteger waiterResult = new AtomicInteger();
+        final Thread waiter = new Thread(() -> waiterResult.set(results.getOrCompute(SharedPreprocessingResults.Stage.ARC_CONSISTENCY, "instance", new NeverEndingTerminationCriterion(), () -> 2)));
+        waiter.start();
+        while (waiter.getState() != Thread.State.TIMED_WAITING) {
+            Thread.yield();
+        }
+        // The owner runs out of time, its partial result is not given to the waiter, which computes the stage itself.
+        ownerCriterion.interrupt();
+        release.countDown();
+        owner.join();
+        waiter.join();
+        assertEquals(2, waiterResult.get());
+    }
+
+    @Test
+    public void testStoppedComputationIsNotKept() {
+        final SharedPreprocessingResults results = new SharedPreprocessingResults();
+        final ITerminationCriterion.IInterruptibleTerminationCriterion criterion = new InterruptibleTerminationCriterion(new NeverEndingTerminationCriterion());
+        criterion.interrupt();
+        assertEquals(1, (int) results.getOrCompute(SharedPreprocessingResults.Stage.ARC_CONSISTENCY, "instance", criterion, () -> 1));
+        assertEquals(2, (int) results.getOrCompute(SharedPreprocessingResults.Stage.ARC_CONSISTENCY, "instance", new NeverEndingTerminationCriterion(), () -> 2));
+    }
+
+}
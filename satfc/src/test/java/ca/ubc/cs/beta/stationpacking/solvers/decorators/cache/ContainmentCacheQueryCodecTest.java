@@ -0,0 +1,85 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.solvers.decorators.cache;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableBiMap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
+import ca.ubc.cs.beta.stationpacking.cache.CacheCoordinate;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.ContainmentCacheProxy.ContainmentCacheRequest;
+
+public class ContainmentCacheQueryCodecTest {
+
+    private final CacheCoordinate coordinate = new CacheCoordinate("domains", "interference");
+    private final ImmutableBiMap<Station, Integer> permutation = ImmutableBiMap.of(new Station(5), 0, new Station(3), 1, new Station(9), 2, new Station(100), 3);
+
+    @Test
+    public void testRoundTrip() {
+        final StationPackingInstance instance = new StationPackingInstance(
+                ImmutableMap.of(new Station(3), ImmutableSet.of(14, 15, 51), new Station(100), ImmutableSet.of(20)),
+                ImmutableMap.of(new Station(3), 14),
+                ImmutableMap.of(StationPackingInstance.NAME_KEY, "instance"));
+        final byte[] query = ContainmentCacheQueryCodec.encode(instance, coordinate, permutation);
+        Assert.assertNotNull(query);
+
+        final ContainmentCacheRequest request = ContainmentCacheQueryCodec.decode(query, c -> permutation);
+        Assert.assertEquals(coordinate, request.getCoordinate());
+        Assert.assertEquals(instance, request.getInstance());
+        Assert.assertEquals("instance", request.getInstance().getName());
+    }
+
+    @Test
+    public void testUnnamedInstance() {
+        final StationPackingInstance instance = new StationPackingInstance(ImmutableMap.of(new Station(5), ImmutableSet.of(30)));
+        final ContainmentCacheRequest request = ContainmentCacheQueryCodec.decode(ContainmentCacheQueryCodec.encode(instance, coordinate, permutation), c -> permutation);
+        Assert.assertEquals(instance, request.getInstance());
+        Assert.assertFalse(request.getInstance().hasName());
+    }
+
+    @Test
+    public void testStationOutsideOfPermutation() {
+        final StationPackingInstance instance = new StationPackingInstance(ImmutableMap.of(new Station(7), ImmutableSet.of(14)));
+        Assert.assertNull(ContainmentCacheQueryCodec.encode(instance, coordinate, permutation));
+    }
+
+    @Test
+    public void testChannelTooLarge() {
+        final StationPackingInstance instance = new StationPackingInstance(ImmutableMap.of(new Station(5), ImmutableSet.of(14, 64)));
+        Assert.assertNull(ContainmentCacheQueryCodec.encode(instance, coordinate, permutation));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncatedQuery() {
+        final StationPackingInstance instance = new StationPackingInstance(ImmutableMap.of(new Station(5), ImmutableSet.of(14)));
+        final byte[] query = ContainmentCacheQueryCodec.encode(instance, coordinate, permutation);
+        ContainmentCacheQueryCodec.decode(Arrays.copyOf(query, query.length - 1), c -> permutation);
+    }
+
+}
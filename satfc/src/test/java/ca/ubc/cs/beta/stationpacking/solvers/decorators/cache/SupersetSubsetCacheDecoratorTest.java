@@ -0,0 +1,78 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.solvers.decorators.cache;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
+import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheSATResult;
+import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheUNSATResult;
+import ca.ubc.cs.beta.stationpacking.solvers.ISolver;
+import ca.ubc.cs.beta.stationpacking.solvers.base.SATResult;
+import ca.ubc.cs.beta.stationpacking.solvers.base.SolverResult;
+import ca.ubc.cs.beta.stationpacking.solvers.base.SolverResult.SolvedBy;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.ContainmentCacheProxy.ContainmentCacheQueryResult;
+import ca.ubc.cs.beta.stationpacking.solvers.termination.ITerminationCriterion;
+
+public class SupersetSubsetCacheDecoratorTest {
+
+    private final long seed = 0;
+    private final StationPackingInstance instance = new StationPackingInstance(ImmutableMap.of(new Station(1), ImmutableSet.of(14, 15)));
+    private final ISolver solver = mock(ISolver.class);
+    private final ContainmentCacheProxy proxy = mock(ContainmentCacheProxy.class);
+    private final ITerminationCriterion terminationCriterion = mock(ITerminationCriterion.class);
+
+    @Test
+    public void testUNSATProof() {
+        when(proxy.proveSATBySupersetOrUNSATBySubset(instance, terminationCriterion)).thenReturn(new ContainmentCacheQueryResult(ContainmentCacheSATResult.failure(), new ContainmentCacheUNSATResult("SATFC:UNSAT:key")));
+        final SolverResult result = new SupersetSubsetCacheDecorator(solver, proxy).solve(instance, terminationCriterion, seed);
+
+        Assert.assertEquals(SATResult.UNSAT, result.getResult());
+        Assert.assertEquals(SolvedBy.UNSAT_CACHE, result.getSolvedBy());
+        verify(solver, never()).solve(any(StationPackingInstance.class), any(ITerminationCriterion.class), eq(seed));
+    }
+
+    @Test
+    public void testMiss() {
+        when(proxy.proveSATBySupersetOrUNSATBySubset(instance, terminationCriterion)).thenReturn(new ContainmentCacheQueryResult(ContainmentCacheSATResult.failure(), ContainmentCacheUNSATResult.failure()));
+        when(solver.solve(instance, terminationCriterion, seed)).thenReturn(new SolverResult(SATResult.SAT, 0, new HashMap<>(), SolvedBy.UNKNOWN));
+        final SolverResult result = new SupersetSubsetCacheDecorator(solver, proxy).solve(instance, terminationCriterion, seed);
+
+        Assert.assertEquals(SATResult.SAT, result.getResult());
+        verify(solver).solve(instance, terminationCriterion, seed);
+    }
+
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.solvers.sat.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class PackedCNFTest {
+
+    private PackedCNF makeCNF() {
+        // (1 v 2 v 3) ^ (-1 v -2) ^ (-3 v -4) ^ (4)
+        final PackedCNF cnf = new PackedCNF(1, 1);
+        cnf.addLiteral(1);
+        cnf.addLiteral(2);
+        cnf.addLiteral(3);
+        cnf.endClause();
+        cnf.addClause(-1, -2);
+        cnf.addClause(-3, -4);
+        cnf.addLiteral(4);
+        cnf.endClause();
+        return cnf;
+    }
+
+    @Test
+    public void testPacking() {
+        final PackedCNF cnf = makeCNF();
+        assertEquals(4, cnf.size());
+        assertEquals(8, cnf.getNumLiterals());
+        assertEquals(4, cnf.getMaxVariable());
+        assertEquals(0, cnf.getClauseStartArray()[0]);
+        assertEquals(3, cnf.getClauseStartArray()[1]);
+        assertEquals(8, cnf.getClauseStartArray()[4]);
+        assertEquals("p cnf 4 4\n1 2 3 0\n-1 -2 0\n-3 -4 0\n4 0\n", cnf.toDIMACS(null));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        final CNF cnf = makeCNF().toCNF();
+        assertEquals(4, cnf.size());
+        assertTrue(cnf.contains(makeClause(new Literal(1, false), new Literal(2, false))));
+        assertEquals(Sets.newHashSet(1L, 2L, 3L, 4L), cnf.getVariables());
+
+        final PackedCNF packed = PackedCNF.fromCNF(cnf);
+        assertEquals(cnf.size(), packed.size());
+        assertEquals(8, packed.getNumLiterals());
+        assertEquals(Sets.newHashSet(cnf), Sets.newHashSet(packed.toCNF()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroLiteral() {
+        new PackedCNF().addLiteral(0);
+    }
+
+    private static Clause makeClause(Literal... literals) {
+        final Clause clause = new Clause();
+        for (Literal literal : literals) {
+            clause.add(literal);
+        }
+        return clause;
+    }
+
+}
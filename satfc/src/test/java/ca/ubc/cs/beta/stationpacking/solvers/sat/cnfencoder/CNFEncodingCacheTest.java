@@ -0,0 +1,128 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.solvers.sat.cnfencoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.math3.util.Pair;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
+import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.IConstraintManager;
+import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.TestConstraintManager;
+import ca.ubc.cs.beta.stationpacking.facade.datamanager.solver.bundles.yaml.EncodingType;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.base.CNF;
+
+public class CNFEncodingCacheTest {
+
+    final Station s1 = new Station(1);
+    final Station s2 = new Station(2);
+
+    final StationPackingInstance instance = new StationPackingInstance(ImmutableMap.of(s1, ImmutableSet.of(14, 15), s2, ImmutableSet.of(15, 16)));
+
+    /**
+     * Counts the encodings it is asked to do.
+     */
+    private static class CountingEncoder implements ISATEncoder {
+
+        final AtomicInteger count = new AtomicInteger();
+        final ISATEncoder encoder;
+
+        CountingEncoder(IConstraintManager constraintManager, EncodingType encodingType) {
+            encoder = new DenseSATEncoder(constraintManager, encodingType);
+        }
+
+        @Override
+        public Pair<CNF, ISATDecoder> encode(StationPackingInstance aInstance) {
+            return encoder.encode(aInstance);
+        }
+
+        @Override
+        public SATEncoder.CNFEncodedProblem encodeWithAssignment(StationPackingInstance aInstance) {
+            count.incrementAndGet();
+            return encoder.encodeWithAssignment(aInstance);
+        }
+    }
+
+    @Test
+    public void testSharedAcrossThreads() throws Exception {
+        final IConstraintManager constraintManager = new TestConstraintManager(new ArrayList<>());
+        final CNFEncodingCache cache = new CNFEncodingCache();
+        final CountingEncoder encoder = new CountingEncoder(constraintManager, EncodingType.DIRECT);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<SATEncoder.CNFEncodedProblem>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> cache.encodeWithAssignment(instance, EncodingType.DIRECT, constraintManager, encoder)));
+            }
+            final SATEncoder.CNFEncodedProblem first = futures.get(0).get();
+            for (Future<SATEncoder.CNFEncodedProblem> future : futures) {
+                assertSame(first, future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, encoder.count.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testKeyedByEncodingTypeAndPreviousAssignment() throws Exception {
+        final IConstraintManager constraintManager = new TestConstraintManager(new ArrayList<>());
+        final CNFEncodingCache cache = new CNFEncodingCache();
+        final SATEncoder.CNFEncodedProblem direct = cache.encodeWithAssignment(instance, EncodingType.DIRECT, constraintManager, new DenseSATEncoder(constraintManager, EncodingType.DIRECT));
+        final SATEncoder.CNFEncodedProblem ladder = cache.encodeWithAssignment(instance, EncodingType.LADDER, constraintManager, new DenseSATEncoder(constraintManager, EncodingType.LADDER));
+        assertNotSame(direct, ladder);
+
+        final StationPackingInstance withPrevious = new StationPackingInstance(instance.getDomains(), ImmutableMap.of(s1, 15));
+        final SATEncoder.CNFEncodedProblem previous = cache.encodeWithAssignment(withPrevious, EncodingType.DIRECT, constraintManager, new DenseSATEncoder(constraintManager, EncodingType.DIRECT));
+        assertNotSame(direct, previous);
+        assertEquals(2, previous.getInitialAssignment().size());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        final IConstraintManager constraintManager = new TestConstraintManager(new ArrayList<>());
+        final CNFEncodingCache cache = new CNFEncodingCache(2);
+        for (int channel = 14; channel < 20; channel++) {
+            final StationPackingInstance single = new StationPackingInstance(ImmutableMap.of(s1, ImmutableSet.of(channel)));
+            cache.encodeWithAssignment(single, EncodingType.DIRECT, constraintManager, new DenseSATEncoder(constraintManager, EncodingType.DIRECT));
+        }
+        assertEquals(2, cache.size());
+    }
+
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.solvers.sat.cnfencoder;
+
+import static ca.ubc.cs.beta.stationpacking.datamanagers.constraints.ConstraintKey.ADJp1;
+import static ca.ubc.cs.beta.stationpacking.datamanagers.constraints.ConstraintKey.CO;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.commons.math3.util.Pair;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
+import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.IConstraintManager;
+import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.TestConstraint;
+import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.TestConstraintManager;
+import ca.ubc.cs.beta.stationpacking.facade.datamanager.solver.bundles.yaml.EncodingType;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.base.CNF;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.base.Literal;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.base.PackedCNF;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.cnfencoder.base.CompressionBijection;
+
+public class DenseSATEncoderTest {
+
+    final Station s1 = new Station(1);
+    final Station s2 = new Station(20);
+    final Station s3 = new Station(300);
+
+    final StationPackingInstance instance = new StationPackingInstance(
+            ImmutableMap.of(
+                    s3, ImmutableSet.of(14, 15, 16),
+                    s1, ImmutableSet.of(15),
+                    s2, ImmutableSet.of(16, 14, 15)
+            ),
+            ImmutableMap.of(s2, 15)
+    );
+
+    private IConstraintManager makeConstraintManager() throws Exception {
+        final List<TestConstraint> constraints = new ArrayList<>();
+        constraints.add(new TestConstraint(CO, 15, s1, ImmutableSet.of(s2, s3)));
+        constraints.add(new TestConstraint(ADJp1, 14, s2, ImmutableSet.of(s3)));
+        return new TestConstraintManager(constraints);
+    }
+
+    @Test
+    public void testNumbering() {
+        final StationChannelNumbering numbering = new StationChannelNumbering(instance);
+        assertEquals(7, numbering.getNumVariables());
+        assertEquals(1, numbering.variable(s1, 15));
+        assertEquals(2, numbering.variable(s2, 14));
+        assertEquals(4, numbering.variable(s2, 16));
+        assertEquals(7, numbering.variable(s3, 16));
+        for (int variable = 1; variable <= numbering.getNumVariables(); variable++) {
+            assertEquals(variable, numbering.variable(numbering.decodeStation(variable), numbering.decodeChannel(variable)));
+            assertEquals(new Pair<>(numbering.decodeStation(variable), numbering.decodeChannel(variable)), numbering.decode(variable));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testChannelOutsideDomain() {
+        new StationChannelNumbering(instance).variable(s1, 14);
+    }
+
+    @Test
+    public void testSameClausesAsSATEncoder() throws Exception {
+        final IConstraintManager constraintManager = makeConstraintManager();
+        for (EncodingType encodingType : new EncodingType[]{EncodingType.DIRECT, EncodingType.MULTIVALUED, EncodingType.LADDER}) {
+            final Pair<CNF, ISATDecoder> dense = new DenseSATEncoder(constraintManager, encodingType).encode(instance);
+            final Pair<CNF, ISATDecoder> compressed = new SATEncoder(constraintManager, new CompressionBijection<>(), encodingType).encode(instance);
+            assertEquals(compressed.getFirst().size(), dense.getFirst().size());
+            assertEquals(decode(compressed), decode(dense));
+        }
+    }
+
+    @Test
+    public void testLadderClauseCount() throws Exception {
+        final IConstraintManager constraintManager = makeConstraintManager();
+        final PackedCNF direct = new DenseSATEncoder(constraintManager, EncodingType.DIRECT).encodePacked(instance).getFirst();
+        final PackedCNF ladder = new DenseSATEncoder(constraintManager, EncodingType.LADDER).encodePacked(instance).getFirst();
+        // Two stations with three channels each: 3 pairwise clauses and 2 auxiliary variables with 5 ladder clauses.
+        assertEquals(direct.size() + 2 * (5 - 3), ladder.size());
+        assertEquals(7 + 2 * 2, ladder.getMaxVariable());
+    }
+
+    @Test
+    public void testLadderIsExactlyOne() throws Exception {
+        final Station station = new Station(1);
+        final StationPackingInstance single = new StationPackingInstance(ImmutableMap.of(station, ImmutableSet.of(1, 2, 3, 4, 5)));
+        final Pair<PackedCNF, StationChannelNumbering> encoding = new DenseSATEncoder(new TestConstraintManager(new ArrayList<>()), EncodingType.LADDER).encodePacked(single);
+        final PackedCNF cnf = encoding.getFirst();
+        final int numChannelVariables = encoding.getSecond().getNumVariables();
+        assertEquals(5, numChannelVariables);
+        assertEquals(5 + 4, cnf.getMaxVariable());
+        for (int channels = 0; channels < 1 << numChannelVariables; channels++) {
+            boolean satisfiable = false;
+            for (int auxiliary = 0; auxiliary < 1 << (cnf.getMaxVariable() - numChannelVariables); auxiliary++) {
+                satisfiable |= isSatisfied(cnf, channels | auxiliary << numChannelVariables);
+            }
+            assertEquals(Integer.bitCount(channels) == 1, satisfiable);
+        }
+        assertFalse(encoding.getSecond().isStationChannelVariable(6));
+    }
+
+    /**
+     * @return whether the CNF is satisfied when variable v is set to bit v-1 of the given assignment.
+     */
+    private static boolean isSatisfied(PackedCNF cnf, int assignment) {
+        final int[] literals = cnf.getLiteralArray();
+        final int[] starts = cnf.getClauseStartArray();
+        for (int c = 0; c < cnf.size(); c++) {
+            boolean clauseSatisfied = false;
+            for (int l = starts[c]; l < starts[c + 1]; l++) {
+                final boolean value = (assignment >> (Math.abs(literals[l]) - 1) & 1) == 1;
+                clauseSatisfied |= literals[l] > 0 == value;
+            }
+            if (!clauseSatisfied) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void testInitialAssignment() throws Exception {
+        final SATEncoder.CNFEncodedProblem problem = new DenseSATEncoder(makeConstraintManager(), EncodingType.DIRECT).encodeWithAssignment(instance);
+        assertEquals(ImmutableMap.of(2L, false, 3L, true, 4L, false), problem.getInitialAssignment());
+        assertEquals(7, problem.getPackedCnf().getMaxVariable());
+    }
+
+    /**
+     * @return the clauses of the encoding as sets of signed station channel pairs (or auxiliary variables), independent of
+     * station channel variable numbering.
+     */
+    private static Set<Set<Pair<Boolean, Object>>> decode(Pair<CNF, ISATDecoder> encoding) {
+        final ISATDecoder decoder = encoding.getSecond();
+        final Set<Set<Pair<Boolean, Object>>> clauses = new HashSet<>();
+        encoding.getFirst().forEach(clause -> clauses.add(clause.stream()
+                .map((Literal literal) -> new Pair<Boolean, Object>(literal.getSign(), decoder.isStationChannelVariable(literal.getVariable()) ? decoder.decode(literal.getVariable()) : literal.getVariable()))
+                .collect(Collectors.toSet())));
+        return clauses;
+    }
+
+}
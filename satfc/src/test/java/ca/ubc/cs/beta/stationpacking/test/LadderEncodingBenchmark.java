@@ -0,0 +1,107 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import com.google.common.base.Splitter;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+
+import ca.ubc.cs.beta.stationpacking.StationPackingTestUtils;
+import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
+import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.ChannelSpecificConstraintManager;
+import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.IConstraintManager;
+import ca.ubc.cs.beta.stationpacking.datamanagers.stations.DomainStationManager;
+import ca.ubc.cs.beta.stationpacking.datamanagers.stations.IStationManager;
+import ca.ubc.cs.beta.stationpacking.execution.Converter;
+import ca.ubc.cs.beta.stationpacking.execution.parameters.solver.sat.ClaspLibSATSolverParameters;
+import ca.ubc.cs.beta.stationpacking.execution.parameters.solver.sat.UBCSATLibSATSolverParameters;
+import ca.ubc.cs.beta.stationpacking.facade.SATFCFacadeBuilder;
+import ca.ubc.cs.beta.stationpacking.facade.SATFCFacadeBuilder.SATFCLibLocation;
+import ca.ubc.cs.beta.stationpacking.facade.datamanager.solver.bundles.yaml.EncodingType;
+import ca.ubc.cs.beta.stationpacking.polling.PollingService;
+import ca.ubc.cs.beta.stationpacking.solvers.base.SATResult;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.cnfencoder.DenseSATEncoder;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.cnfencoder.SATEncoder;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.solvers.ISATSolver;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.solvers.base.SATSolverResult;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.solvers.nonincremental.Clasp3SATSolver;
+import ca.ubc.cs.beta.stationpacking.solvers.sat.solvers.nonincremental.UBCSATSolver;
+import ca.ubc.cs.beta.stationpacking.solvers.termination.walltime.WalltimeTerminationCriterion;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Compares the size of the direct and ladder encodings of the bundled test instances, and how long clasp and SATenstein
+ * take to solve each of them. Needs the native solver libraries, and the interference constraints of the FCC's
+ * 021814SC3M station configuration (February 18th, 2014), which the test instances were generated with. Only its
+ * Domain.csv is in the repository: copy the Interference_Paired.csv of that constraint set, as distributed by the FCC with
+ * the incentive auction's constraint data, to src/test/resources/data/021814SC3M/. The benchmark is skipped without it.
+ */
+@Slf4j
+public class LadderEncodingBenchmark {
+
+    final String INSTANCE_FILE = "data/ASolverBundleTestInstances.csv";
+    final String INTERFERENCE_FILE = "data/021814SC3M/Interference_Paired.csv";
+    final double cutoff = 60.0;
+
+    @Test
+    @Ignore
+    public void benchmark() throws Exception {
+        Assume.assumeTrue("Skipping the ladder encoding benchmark, " + INTERFERENCE_FILE + " is not on the test classpath (see the class documentation)",
+                getClass().getClassLoader().getResource(INTERFERENCE_FILE) != null);
+        final IStationManager stationManager = new DomainStationManager(Resources.getResource("data/021814SC3M/Domain.csv").getFile());
+        final IConstraintManager constraintManager = new ChannelSpecificConstraintManager(stationManager, Resources.getResource(INTERFERENCE_FILE).getFile());
+        final PollingService pollingService = new PollingService();
+        final ISATSolver clasp = new Clasp3SATSolver(SATFCFacadeBuilder.findSATFCLibrary(SATFCLibLocation.CLASP), ClaspLibSATSolverParameters.UHF_CONFIG_04_15_h1, pollingService);
+        final ISATSolver satenstein = new UBCSATSolver(SATFCFacadeBuilder.findSATFCLibrary(SATFCLibLocation.SATENSTEIN), UBCSATLibSATSolverParameters.DEFAULT_SATENSTEIN, pollingService);
+
+        final List<String> lines = Files.readLines(new File(Resources.getResource(INSTANCE_FILE).getFile()), Charset.defaultCharset());
+        for (String line : lines) {
+            final List<String> csvParts = Splitter.on(',').splitToList(line);
+            final SATResult expected = SATResult.valueOf(csvParts.get(1));
+            final Converter.StationPackingProblemSpecs specs = Converter.StationPackingProblemSpecs.fromStationRepackingInstance(Resources.getResource("data/srpks/" + csvParts.get(0)).getPath());
+            final StationPackingInstance instance = StationPackingTestUtils.instanceFromSpecs(specs, stationManager);
+
+            for (EncodingType encodingType : new EncodingType[]{EncodingType.DIRECT, EncodingType.LADDER}) {
+                final SATEncoder.CNFEncodedProblem problem = new DenseSATEncoder(constraintManager, encodingType).encodeWithAssignment(instance);
+                final SATSolverResult claspResult = clasp.solve(problem.getPackedCnf(), problem.getInitialAssignment(), new WalltimeTerminationCriterion(cutoff), 1);
+                final SATSolverResult satensteinResult = satenstein.solve(problem.getPackedCnf(), problem.getInitialAssignment(), new WalltimeTerminationCriterion(cutoff), 1);
+                assertEquals(expected, claspResult.getResult());
+                log.info("{} {}: {} variables, {} clauses, {} literals; clasp {} in {} s, SATenstein {} in {} s.",
+                        csvParts.get(0), encodingType, problem.getPackedCnf().getMaxVariable(), problem.getPackedCnf().size(), problem.getPackedCnf().getNumLiterals(),
+                        claspResult.getResult(), claspResult.getRuntime(), satensteinResult.getResult(), satensteinResult.getRuntime());
+            }
+        }
+        clasp.notifyShutdown();
+        satenstein.notifyShutdown();
+    }
+
+}
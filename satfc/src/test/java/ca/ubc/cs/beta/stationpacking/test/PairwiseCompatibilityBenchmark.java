@@ -0,0 +1,111 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.AMapBasedConstraintManager;
+import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.ArrayBasedConstraintManager;
+import ca.ubc.cs.beta.stationpacking.datamanagers.constraints.ChannelSpecificConstraintManager;
+import ca.ubc.cs.beta.stationpacking.datamanagers.stations.DomainStationManager;
+import ca.ubc.cs.beta.stationpacking.datamanagers.stations.IStationManager;
+import ca.ubc.cs.beta.stationpacking.facade.datamanager.data.DataManager;
+import ca.ubc.cs.beta.stationpacking.utils.Watch;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Compares the cost of pairwise {@code isSatisfyingAssignment(s1, c1, s2, c2)} checks on the map based constraint manager
+ * (default implementation building an assignment map) and on the array based constraint manager (compatibility table).
+ * Needs a full constraint set, set the {@code interference} system property to point to another station configuration folder.
+ */
+@Slf4j
+public class PairwiseCompatibilityBenchmark {
+
+    final String interference = System.getProperty("interference", "/ubc/cs/research/arrow/satfc/public/interference/021814SC3M");
+    final int numQueries = 1000000;
+    final int numRounds = 5;
+
+    @Test
+    @Ignore
+    public void benchmark() throws Exception {
+        final IStationManager stationManager = new DomainStationManager(interference + File.separator + DataManager.DOMAIN_FILE);
+        final AMapBasedConstraintManager mapBased = new ChannelSpecificConstraintManager(stationManager, interference + File.separator + DataManager.INTERFERENCES_FILE);
+        final ArrayBasedConstraintManager arrayBased = new ArrayBasedConstraintManager(stationManager, mapBased);
+
+        // Queries are drawn between neighbouring stations on nearby channels, which is what arc consistency and the underconstrained checks ask.
+        final Random random = new Random(1);
+        final List<Station> stations = new ArrayList<>(stationManager.getStations());
+        final Station[] s1 = new Station[numQueries];
+        final Station[] s2 = new Station[numQueries];
+        final int[] c1 = new int[numQueries];
+        final int[] c2 = new int[numQueries];
+        int q = 0;
+        while (q < numQueries) {
+            final Station station = stations.get(random.nextInt(stations.size()));
+            final List<Integer> domain = new ArrayList<>(stationManager.getDomain(station));
+            final int channel = domain.get(random.nextInt(domain.size()));
+            final List<Station> neighbours = new ArrayList<>(mapBased.getCOInterferingStations(station, channel));
+            if (neighbours.isEmpty()) {
+                continue;
+            }
+            s1[q] = station;
+            c1[q] = channel;
+            s2[q] = neighbours.get(random.nextInt(neighbours.size()));
+            c2[q] = channel + random.nextInt(5) - 2;
+            q++;
+        }
+
+        for (int round = 0; round < numRounds; round++) {
+            final Watch mapWatch = Watch.constructAutoStartWatch();
+            int mapSatisfied = 0;
+            for (int i = 0; i < numQueries; i++) {
+                if (mapBased.isSatisfyingAssignment(s1[i], c1[i], s2[i], c2[i])) {
+                    mapSatisfied++;
+                }
+            }
+            final double mapTime = mapWatch.getElapsedTime();
+
+            final Watch arrayWatch = Watch.constructAutoStartWatch();
+            int arraySatisfied = 0;
+            for (int i = 0; i < numQueries; i++) {
+                if (arrayBased.isSatisfyingAssignment(s1[i], c1[i], s2[i], c2[i])) {
+                    arraySatisfied++;
+                }
+            }
+            final double arrayTime = arrayWatch.getElapsedTime();
+
+            assertEquals(mapSatisfied, arraySatisfied);
+            log.info("Round {}: {} pairwise checks ({} satisfied) took {} s with the map based manager and {} s with the compatibility table ({} ns vs {} ns per check).",
+                    round, numQueries, mapSatisfied, mapTime, arrayTime, mapTime * 1e9 / numQueries, arrayTime * 1e9 / numQueries);
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import com.google.common.collect.HashBiMap;
+import com.google.common.collect.ImmutableBiMap;
+import com.google.common.collect.ImmutableMap;
+
+import ca.ubc.cs.beta.stationpacking.base.Station;
+import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
+import ca.ubc.cs.beta.stationpacking.cache.SatisfiabilityCacheFactory;
+import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheSATEntry;
+import ca.ubc.cs.beta.stationpacking.cache.containment.StationDomainMasks;
+import ca.ubc.cs.beta.stationpacking.cache.containment.containmentcache.ISatisfiabilityCache;
+import ca.ubc.cs.beta.stationpacking.utils.Watch;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Measures SAT cache query throughput on a synthetic cache of random assignments, and compares the packed hit test of
+ * {@link ContainmentCacheSATEntry#isSolutionTo(StationDomainMasks)} with testing against a station to channel map.
+ * Needs a large heap (around 4g for the default sizes).
+ */
+@Slf4j
+public class SatisfiabilityCacheBenchmark {
+
+    final int NUM_STATIONS = 2000;
+    final int NUM_ENTRIES = 1000000;
+    final int STATIONS_PER_ENTRY = 100;
+    final int NUM_QUERIES = 1000;
+    final int STATIONS_PER_QUERY = 20;
+    final int MIN_CHANNEL = 14;
+    final int MAX_CHANNEL = 51;
+
+    @Test
+    @Ignore
+    public void benchmark() {
+        final Random random = new Random(0);
+        final Map<Station, Integer> permutationMap = new HashMap<>();
+        for (int i = 0; i < NUM_STATIONS; i++) {
+            permutationMap.put(new Station(i), i);
+        }
+        final ImmutableBiMap<Station, Integer> permutation = ImmutableBiMap.copyOf(HashBiMap.create(permutationMap));
+        final ISatisfiabilityCache cache = new SatisfiabilityCacheFactory(1, 0).create(permutation);
+
+        final Watch watch = Watch.constructAutoStartWatch();
+        final List<ContainmentCacheSATEntry> entries = new ArrayList<>(NUM_ENTRIES);
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            final Map<Integer, Set<Station>> assignment = new HashMap<>();
+            final Set<Integer> stationIDs = new HashSet<>();
+            while (stationIDs.size() < STATIONS_PER_ENTRY) {
+                stationIDs.add(random.nextInt(NUM_STATIONS));
+            }
+            for (Integer stationID : stationIDs) {
+                assignment.computeIfAbsent(randomChannel(random), c -> new HashSet<>()).add(new Station(stationID));
+            }
+            final ContainmentCacheSATEntry entry = new ContainmentCacheSATEntry(assignment, permutation);
+            entries.add(entry);
+            cache.add(entry);
+        }
+        log.info("Built a cache of {} entries in {} s", NUM_ENTRIES, watch.getElapsedTime());
+
+        // Queries are projections of random entries onto a few of their stations, with some noise in the domains so that most candidates fail
+        final List<StationPackingInstance> queries = new ArrayList<>(NUM_QUERIES);
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            final ContainmentCacheSATEntry entry = entries.get(random.nextInt(entries.size()));
+            final Map<Integer, Integer> stationToChannel = entry.getAssignmentStationToChannel();
+            final List<Integer> stationIDs = new ArrayList<>(stationToChannel.keySet());
+            final Map<Station, Set<Integer>> domains = new HashMap<>();
+            for (int j = 0; j < STATIONS_PER_QUERY; j++) {
+                final Integer stationID = stationIDs.get(random.nextInt(stationIDs.size()));
+                final Set<Integer> domain = new HashSet<>();
+                domain.add(stationToChannel.get(stationID));
+                domain.add(randomChannel(random));
+                domains.put(new Station(stationID), domain);
+            }
+            queries.add(new StationPackingInstance(domains));
+        }
+
+        watch.reset();
+        watch.start();
+        int hits = 0;
+        for (StationPackingInstance query : queries) {
+            if (cache.proveSATBySuperset(query).isValid()) {
+                hits++;
+            }
+        }
+        final double queryTime = watch.getElapsedTime();
+        log.info("{} queries ({} hits) in {} s: {} queries/s", NUM_QUERIES, hits, queryTime, NUM_QUERIES / queryTime);
+
+        // Raw hit test throughput over every entry, for a subset of the queries
+        final List<StationPackingInstance> hitTestQueries = queries.subList(0, 10);
+        watch.reset();
+        watch.start();
+        long packedHits = 0;
+        for (StationPackingInstance query : hitTestQueries) {
+            final StationDomainMasks masks = new StationDomainMasks(query, permutation);
+            for (ContainmentCacheSATEntry entry : entries) {
+                if (entry.isSolutionTo(masks)) {
+                    packedHits++;
+                }
+            }
+        }
+        final double packedTime = watch.getElapsedTime();
+
+        watch.reset();
+        watch.start();
+        long mapHits = 0;
+        for (StationPackingInstance query : hitTestQueries) {
+            final ImmutableMap<Station, Set<Integer>> domains = query.getDomains();
+            for (ContainmentCacheSATEntry entry : entries) {
+                final Map<Integer, Integer> stationToChannel = entry.getAssignmentStationToChannel();
+                if (domains.entrySet().stream().allMatch(e -> e.getValue().contains(stationToChannel.get(e.getKey().getID())))) {
+                    mapHits++;
+                }
+            }
+        }
+        final double mapTime = watch.getElapsedTime();
+        final long tests = (long) hitTestQueries.size() * entries.size();
+        log.info("Packed hit test: {} hits, {} tests/s", packedHits, tests / packedTime);
+        log.info("Map hit test: {} hits, {} tests/s", mapHits, tests / mapTime);
+    }
+
+    private int randomChannel(Random random) {
+        return MIN_CHANNEL + random.nextInt(MAX_CHANNEL - MIN_CHANNEL + 1);
+    }
+
+}
@@ -21,9 +21,10 @@
  */
 package ca.ubc.cs.beta.stationpacking.webapp;
 
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationListener;
@@ -35,7 +36,9 @@ import ca.ubc.cs.beta.stationpacking.cache.CacheCoordinate;
 import ca.ubc.cs.beta.stationpacking.cache.ICacheLocator;
 import ca.ubc.cs.beta.stationpacking.cache.ISatisfiabilityCacheFactory;
 import ca.ubc.cs.beta.stationpacking.cache.RedisCacher;
-import ca.ubc.cs.beta.stationpacking.cache.RedisCacher.ContainmentCacheInitData;
+import ca.ubc.cs.beta.stationpacking.cache.RedisCacher.ICacheEntrySink;
+import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheSATEntry;
+import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheUNSATEntry;
 import ca.ubc.cs.beta.stationpacking.cache.containment.containmentcache.ISatisfiabilityCache;
 import ca.ubc.cs.beta.stationpacking.facade.datamanager.data.DataManager;
 import ca.ubc.cs.beta.stationpacking.webapp.parameters.SATFCServerParameters;
@@ -52,45 +55,66 @@ public class CacheLocator implements ICacheLocator, ApplicationListener<ContextR
     private final Map<CacheCoordinate, ISatisfiabilityCache> caches;
     private final ISatisfiabilityCacheFactory cacheFactory;
     private final SATFCServerParameters parameters;
+    private volatile DataManager dataManager;
 
     public CacheLocator(ISatisfiabilityCacheFactory cacheFactory, SATFCServerParameters parameters) {
         this.cacheFactory = cacheFactory;
         this.parameters = parameters;
-        caches = new HashMap<>();
+        caches = new ConcurrentHashMap<>();
     }
 
     @Override
     public ISatisfiabilityCache locate(CacheCoordinate coordinate) {
         ISatisfiabilityCache cache = caches.get(coordinate);
         if (cache == null) {
-            throw new IllegalStateException("No cache was made for coordinate " + coordinate + ". Was the corresponding station configuration folder present at server start up?");
+            if (dataManager == null || !dataManager.getCoordinates().contains(coordinate)) {
+                throw new IllegalStateException("No cache was made for coordinate " + coordinate + ". Was the corresponding station configuration folder present at server start up?");
+            }
+            // Coordinate without any stored entries, only make its (empty) cache once someone asks for it.
+            // Its folder is read first so that the map is not locked while reading.
+            dataManager.getData(coordinate);
+            cache = caches.computeIfAbsent(coordinate, this::createCache);
         }
         return cache;
     }
 
+    private ISatisfiabilityCache createCache(CacheCoordinate coordinate) {
+        final ISatisfiabilityCache cache = cacheFactory.create(dataManager.getData(coordinate).getPermutation());
+        log.info("Cache created for coordinate " + coordinate);
+        return cache;
+    }
+
     // We want this to happen after the context has been brought up (so the error messages aren't horrific)
     // Uses the context to pull out beans / command line arguments
     @Override
     public void onApplicationEvent(ContextRefreshedEvent event) {
         final ApplicationContext context = event.getApplicationContext();
         final RedisCacher cacher = context.getBean(RedisCacher.class);
+        final CacheSnapshotService snapshotService = context.getBean(CacheSnapshotService.class);
         final DataManager dataManager = context.getBean(DataManager.class);
 
         // Set up the data manager
         final String constraintFolder = parameters.getConstraintFolder();
-        dataManager.loadMultipleConstraintSets(constraintFolder);
+        dataManager.loadMultipleConstraintSets(constraintFolder, parameters.getConstraintLoadingThreads(), parameters.isLazyConstraintLoading());
+        this.dataManager = dataManager;
 
         log.info("Beginning to init caches");
-        final ContainmentCacheInitData containmentCacheInitData = cacher.getContainmentCacheInitData(parameters.getCacheSizeLimit(), parameters.isSkipSAT(), parameters.isSkipUNSAT(), parameters.isValidateSAT());
-        dataManager.getCoordinateToBundle().keySet().forEach(cacheCoordinate -> {
-            final ISatisfiabilityCache cache = cacheFactory.create(dataManager.getData(cacheCoordinate).getPermutation());
-            log.info("Cache created for coordinate " + cacheCoordinate);
-            caches.put(cacheCoordinate, cache);
-            if (containmentCacheInitData.getCaches().contains(cacheCoordinate)) {
-                cache.addAllSAT(containmentCacheInitData.getSATResults().get(cacheCoordinate));
-                cache.addAllUNSAT(containmentCacheInitData.getUNSATResults().get(cacheCoordinate));
+        // Entries go into their cache as soon as they are loaded
+        snapshotService.loadContainmentCaches(cacher, parameters.getCacheSizeLimit(), parameters.isSkipSAT(), parameters.isSkipUNSAT(), parameters.isValidateSAT(), new ICacheEntrySink() {
+            @Override
+            public void addSAT(CacheCoordinate coordinate, List<ContainmentCacheSATEntry> entries) {
+                caches.computeIfAbsent(coordinate, CacheLocator.this::createCache).addAllSAT(entries);
+            }
+
+            @Override
+            public void addUNSAT(CacheCoordinate coordinate, List<ContainmentCacheUNSATEntry> entries) {
+                caches.computeIfAbsent(coordinate, CacheLocator.this::createCache).addAllUNSAT(entries);
             }
         });
+        if (!parameters.isLazyConstraintLoading()) {
+            dataManager.getCoordinates().forEach(cacheCoordinate -> caches.computeIfAbsent(cacheCoordinate, this::createCache));
+        }
+        snapshotService.start();
     }
 
 	@Override
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2016, Auctionomics, Alexandre Fréchette, Neil Newman, Kevin Leyton-Brown.
+ *
+ * This file is part of SATFC.
+ *
+ * SATFC is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SATFC is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SATFC.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For questions, contact us at:
+ * afrechet@cs.ubc.ca
+ */
+package ca.ubc.cs.beta.stationpacking.webapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import ca.ubc.cs.beta.aeatk.concurrent.threadfactory.SequentiallyNamedThreadFactory;
+import ca.ubc.cs.beta.stationpacking.cache.CacheSnapshot;
+import ca.ubc.cs.beta.stationpacking.cache.ICacheLocator;
+import ca.ubc.cs.beta.stationpacking.cache.ISATFCCacheEntry;
+import ca.ubc.cs.beta.stationpacking.cache.RedisCacher;
+import ca.ubc.cs.beta.stationpacking.cache.RedisCacher.ICacheEntrySink;
+import ca.ubc.cs.beta.stationpacking.webapp.parameters.SATFCServerParameters;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Periodically snapshots the entries of every cache to disk, and logs the entries added and removed in between, so that
+ * the server can restart from disk rather than from redis. Does nothing if no snapshot directory was given.
+ */
+@Slf4j
+public class CacheSnapshotService {
+
+    private final CacheSnapshot snapshot;
+    private final ICacheLocator cacheLocator;
+    private final long intervalInMinutes;
+    private final ScheduledExecutorService scheduler;
+
+    public CacheSnapshotService(SATFCServerParameters parameters, ICacheLocator cacheLocator) {
+        this.cacheLocator = cacheLocator;
+        intervalInMinutes = parameters.getCacheSnapshotInterval();
+        if (parameters.getCacheSnapshotDirectory() != null) {
+            snapshot = new CacheSnapshot(new File(parameters.getCacheSnapshotDirectory()));
+            scheduler = Executors.newSingleThreadScheduledExecutor(new SequentiallyNamedThreadFactory("SATFC Cache Snapshot"));
+        } else {
+            snapshot = null;
+            scheduler = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return snapshot != null;
+    }
+
+    /**
+     * Load the initial entries of the caches into the sink, from the snapshot if it is up to date and otherwise from redis
+     */
+    public void loadContainmentCaches(RedisCacher cacher, long limit, boolean skipSAT, boolean skipUNSAT, boolean validateSAT, ICacheEntrySink sink) {
+        if (isEnabled()) {
+            cacher.loadContainmentCaches(snapshot, limit, skipSAT, skipUNSAT, validateSAT, sink);
+        } else {
+            cacher.loadContainmentCaches(limit, skipSAT, skipUNSAT, validateSAT, sink);
+        }
+    }
+
+    /**
+     * Snapshot the caches right away, and then every interval. Call once the caches are loaded.
+     */
+    public void start() {
+        if (isEnabled()) {
+            log.info("Snapshotting the cache every {} minutes", intervalInMinutes);
+            scheduler.scheduleWithFixedDelay(this::takeSnapshot, 0, intervalInMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Take a last snapshot once the scheduled one, if any, is done, and close the log
+     */
+    @PreDestroy
+    public void stop() {
+        if (!isEnabled()) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Timed out waiting for the cache snapshot in progress");
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting for the cache snapshot in progress");
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        takeSnapshot();
+        try {
+            snapshot.close();
+        } catch (IOException e) {
+            log.error("Could not close the cache log", e);
+        }
+    }
+
+    public void takeSnapshot() {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            snapshot.writeSnapshot(
+                    () -> cacheLocator.getCoordinates().stream()
+                            .flatMap(coordinate -> cacheLocator.locate(coordinate).getEntries().stream())
+                            .filter(entry -> entry.getKey() != null)
+                            .collect(Collectors.toList()),
+                    () -> cacheLocator.getCoordinates().stream()
+                            .flatMap(coordinate -> cacheLocator.locate(coordinate).getEvictedKeys().stream())
+                            .collect(Collectors.toList()));
+        } catch (IOException | RuntimeException e) {
+            // The log keeps growing until a snapshot succeeds, so nothing is lost
+            log.error("Could not write the cache snapshot", e);
+        }
+    }
+
+    public void logAddition(ISATFCCacheEntry entry) {
+        if (isEnabled()) {
+            try {
+                snapshot.logAddition(entry);
+            } catch (IOException e) {
+                log.error("Could not log the addition of entry {} to the cache", entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * Make the changes logged so far survive a power loss, e.g. once a batch of additions is in the cache
+     */
+    public void syncLog() {
+        if (isEnabled()) {
+            try {
+                snapshot.syncLog();
+            } catch (IOException e) {
+                log.error("Could not sync the cache log", e);
+            }
+        }
+    }
+
+    public void logDeletions(Collection<? extends ISATFCCacheEntry> entries) {
+        if (isEnabled() && !entries.isEmpty()) {
+            try {
+                snapshot.logDeletions(entries);
+            } catch (IOException e) {
+                log.error("Could not log the deletion of {} entries from the cache", entries.size(), e);
+            }
+        }
+    }
+
+}
@@ -54,6 +54,7 @@ import ca.ubc.cs.beta.stationpacking.cache.ICacheEntryFilter;
 import ca.ubc.cs.beta.stationpacking.cache.ICacheLocator;
 import ca.ubc.cs.beta.stationpacking.cache.ISatisfiabilityCacheFactory;
 import ca.ubc.cs.beta.stationpacking.cache.NewInfoEntryFilter;
+import ca.ubc.cs.beta.stationpacking.cache.RedisCacheLoader;
 import ca.ubc.cs.beta.stationpacking.cache.RedisCacher;
 import ca.ubc.cs.beta.stationpacking.cache.SatisfiabilityCacheFactory;
 import ca.ubc.cs.beta.stationpacking.facade.datamanager.data.DataManager;
@@ -129,7 +130,9 @@ public class SATFCServerApplication {
 
     @Bean
     RedisCacher cacher() {
-        return new RedisCacher(dataManager(), redisTemplate(), binaryJedis());
+        final SATFCServerParameters satfcServerParameters = satfcServerParameters();
+        final RedisCacheLoader loader = new RedisCacheLoader(() -> new BinaryJedis(getShardInfo()), satfcServerParameters.getCacheLoadingConnections(), satfcServerParameters.getCacheLoadingThreads());
+        return new RedisCacher(dataManager(), redisTemplate(), binaryJedis(), loader);
     }
 
     @Bean
@@ -143,9 +146,15 @@ public class SATFCServerApplication {
     }
 
     @Bean
+    CacheSnapshotService cacheSnapshotService() {
+        return new CacheSnapshotService(satfcServerParameters(), containmentCacheLocator());
+    }
+
+    // Closed once the caches are no longer used, which stops its search threads
+    @Bean(destroyMethod = "close")
     ISatisfiabilityCacheFactory satisfiabilityCacheFactory() {
         final SATFCServerParameters satfcServerParameters = satfcServerParameters();
-        return new SatisfiabilityCacheFactory(satfcServerParameters.getNumPermutations(), satfcServerParameters.getSeed());
+        return new SatisfiabilityCacheFactory(satfcServerParameters.getNumPermutations(), satfcServerParameters.getSeed(), satfcServerParameters.getCacheSearchThreads(), satfcServerParameters.getCacheSearchParallelism(), satfcServerParameters.isChannelIndex(), satfcServerParameters.getCacheMemoryBudget() * 1024 * 1024);
     }
 
     @Bean
@@ -38,6 +38,14 @@ public class SATFCServerParameters extends AbstractOptions {
     @Getter
     private String constraintFolder;
 
+    @Parameter(names = "--constraint.loading.threads", description = "Number of station configuration folders to load at the same time")
+    @Getter
+    private int constraintLoadingThreads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = "--constraint.lazy", description = "Only read the header of compiled station configuration folders at start up, and read the rest in the background or when first queried")
+    @Getter
+    private boolean lazyConstraintLoading = false;
+
     @Parameter(names = "--seed", description = "Random seed")
     @Getter
     private long seed = 1;
@@ -46,6 +54,70 @@ public class SATFCServerParameters extends AbstractOptions {
     @Getter
     private int numPermutations = 1;
 
+    @Parameter(names = "--cache.search.threads", description = "Number of threads testing cache entries, shared by all the queries. 1 to test them on the thread serving the query")
+    @Getter
+    private int cacheSearchThreads = 1;
+
+    @Parameter(names = "--cache.search.parallelism", description = "Maximum number of cache search threads a single query can use at the same time")
+    @Getter
+    private int cacheSearchParallelism = 4;
+
+    @Parameter(names = "--cache.channel.index", description = "Index SAT entries by (station, channel) to narrow down the candidates of a query before checking them. Uses about 4 bytes per station of every SAT entry")
+    @Getter
+    private boolean channelIndex = false;
+
+    @Parameter(names = "--cache.prune.on.insert", description = "When adding an entry to the cache, remove the entries it dominates from the cache and from redis", arity = 1)
+    @Getter
+    private boolean pruneOnInsert = true;
+
+    @Parameter(names = "--cache.memory.budget", description = "Memory budget of the cache of each station configuration, in MB. The least useful entries are evicted from memory (but kept in redis) when it is exceeded. Entry sizes, including the containment tree of each permutation, are estimated, so leave some heap headroom. 0 for no bound")
+    @Getter
+    private long cacheMemoryBudget = 0;
+
+    @Parameter(names = "--cache.snapshot.dir", description = "Directory in which to periodically snapshot the cache and log the changes made since, so that a restart reads them instead of redis. No snapshots if not given")
+    @Getter
+    private String cacheSnapshotDirectory = null;
+
+    @Parameter(names = "--cache.snapshot.interval", description = "Minutes between two cache snapshots")
+    @Getter
+    private long cacheSnapshotInterval = 30;
+
+    @Parameter(names = "--cache.query.binary", description = "Accept cache queries in the compact binary encoding, and tell clients so. Clients send JSON otherwise", arity = 1)
+    @Getter
+    private boolean binaryQueries = true;
+
+    @Parameter(names = "--cache.query.threads", description = "Number of threads answering the queries of batch requests and searching the SAT and UNSAT caches of combined queries, shared by all requests")
+    @Getter
+    private int cacheQueryThreads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = "--cache.query.coalesce", description = "Let concurrent identical cache queries share a single search, and answer exact repeats of recently proven queries from memory", arity = 1)
+    @Getter
+    private boolean coalesceQueries = true;
+
+    @Parameter(names = "--cache.query.memo.ttl", description = "Milliseconds during which a cache hit answers exact repeats of its query, 0 to disable")
+    @Getter
+    private long cacheQueryMemoTTL = 5000;
+
+    @Parameter(names = "--cache.query.memo.size", description = "Maximum number of cache hits remembered to answer exact repeats")
+    @Getter
+    private long cacheQueryMemoSize = 10000;
+
+    @Parameter(names = "--cache.ingestion.queue.capacity", description = "Maximum number of cache additions waiting to be processed. Additions beyond it are rejected with a 503")
+    @Getter
+    private int cacheIngestionQueueCapacity = 10000;
+
+    @Parameter(names = "--cache.ingestion.batch.size", description = "Maximum number of cache additions checked and written to redis together")
+    @Getter
+    private int cacheIngestionBatchSize = 100;
+
+    @Parameter(names = "--cache.loading.connections", description = "Number of redis connections fetching cache entries at the same time when the server starts")
+    @Getter
+    private int cacheLoadingConnections = 4;
+
+    @Parameter(names = "--cache.loading.threads", description = "Number of threads decoding (and validating) cache entries when the server starts")
+    @Getter
+    private int cacheLoadingThreads = Runtime.getRuntime().availableProcessors();
+
     @Parameter(names = "--cache.size.limit", description = "Only use the first limit entries from the cache", hidden = true)
     @Getter
     private long cacheSizeLimit = Long.MAX_VALUE;
@@ -88,6 +160,18 @@ public class SATFCServerParameters extends AbstractOptions {
 
     public void validate() {
         Preconditions.checkArgument(new File(constraintFolder).isDirectory(), "Provided constraint folder is not a directory", constraintFolder);
+        Preconditions.checkArgument(constraintLoadingThreads > 0, "Number of constraint loading threads must be positive", constraintLoadingThreads);
+        Preconditions.checkArgument(cacheSearchThreads > 0, "Number of cache search threads must be positive", cacheSearchThreads);
+        Preconditions.checkArgument(cacheSearchParallelism > 0, "Cache search parallelism must be positive", cacheSearchParallelism);
+        Preconditions.checkArgument(cacheMemoryBudget >= 0, "Cache memory budget cannot be negative", cacheMemoryBudget);
+        Preconditions.checkArgument(cacheQueryThreads > 0, "Number of cache query threads must be positive", cacheQueryThreads);
+        Preconditions.checkArgument(cacheQueryMemoTTL >= 0, "Cache query memo TTL cannot be negative", cacheQueryMemoTTL);
+        Preconditions.checkArgument(cacheQueryMemoSize > 0, "Cache query memo size must be positive", cacheQueryMemoSize);
+        Preconditions.checkArgument(cacheIngestionQueueCapacity > 0, "Cache ingestion queue capacity must be positive", cacheIngestionQueueCapacity);
+        Preconditions.checkArgument(cacheIngestionBatchSize > 0, "Cache ingestion batch size must be positive", cacheIngestionBatchSize);
+        Preconditions.checkArgument(cacheLoadingConnections > 0, "Number of cache loading connections must be positive", cacheLoadingConnections);
+        Preconditions.checkArgument(cacheLoadingThreads > 0, "Number of cache loading threads must be positive", cacheLoadingThreads);
+        Preconditions.checkArgument(cacheSnapshotInterval > 0, "Cache snapshot interval must be positive", cacheSnapshotInterval);
         if (badSetFilePath != null) {
             final File badSetFile = new File(badSetFilePath);
             Preconditions.checkArgument(badSetFile.exists(), "Could not locate bad set file", badSetFilePath);
@@ -21,51 +21,80 @@
  */
 package ca.ubc.cs.beta.stationpacking.webapp.rest;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletResponse;
 
 import ca.ubc.cs.beta.stationpacking.cache.containment.transformer.ICacheEntryTransformer;
 import ca.ubc.cs.beta.stationpacking.cache.containment.transformer.InstanceAndResult;
 import ca.ubc.cs.beta.stationpacking.utils.StationPackingUtils;
 import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
 import org.apache.catalina.connector.ClientAbortException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.HttpMediaTypeNotSupportedException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.RatioGauge;
 import com.codahale.metrics.Timer;
-import com.google.common.collect.Queues;
 
+import ca.ubc.cs.beta.aeatk.concurrent.threadfactory.SequentiallyNamedThreadFactory;
 import ca.ubc.cs.beta.stationpacking.base.Station;
 import ca.ubc.cs.beta.stationpacking.base.StationPackingInstance;
+import ca.ubc.cs.beta.stationpacking.cache.CacheCoordinate;
 import ca.ubc.cs.beta.stationpacking.cache.ICacheEntryFilter;
 import ca.ubc.cs.beta.stationpacking.cache.ICacheLocator;
+import ca.ubc.cs.beta.stationpacking.cache.ISATFCCacheEntry;
+import ca.ubc.cs.beta.stationpacking.cache.QueryCoalescer;
 import ca.ubc.cs.beta.stationpacking.cache.RedisCacher;
+import ca.ubc.cs.beta.stationpacking.cache.StationPackingInstanceHasher;
 import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheSATEntry;
 import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheSATResult;
 import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheUNSATEntry;
 import ca.ubc.cs.beta.stationpacking.cache.containment.ContainmentCacheUNSATResult;
+import ca.ubc.cs.beta.stationpacking.cache.containment.SearchDeadline;
 import ca.ubc.cs.beta.stationpacking.cache.containment.containmentcache.ISatisfiabilityCache;
 import ca.ubc.cs.beta.stationpacking.facade.datamanager.data.DataManager;
 import ca.ubc.cs.beta.stationpacking.solvers.base.SATResult;
 import ca.ubc.cs.beta.stationpacking.solvers.base.SolverResult;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.ContainmentCacheProxy;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.ContainmentCacheProxy.ContainmentCacheQuery;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.ContainmentCacheProxy.ContainmentCacheQueryResult;
 import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.ContainmentCacheProxy.ContainmentCacheRequest;
+import ca.ubc.cs.beta.stationpacking.solvers.decorators.cache.ContainmentCacheQueryCodec;
+import ca.ubc.cs.beta.stationpacking.webapp.CacheSnapshotService;
 import ca.ubc.cs.beta.stationpacking.webapp.parameters.SATFCServerParameters;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
 @Controller
@@ -93,26 +122,70 @@ public class ContainmentCacheController {
     @Autowired
     DataManager dataManager;
 
+    @Autowired
+    CacheSnapshotService cacheSnapshotService;
+
     // Metrics
     @Autowired
     MetricRegistry registry;
     private Meter cacheAdditions;
     private Meter satCacheHits;
     private Timer satCacheTimer;
+    private Timer satCacheHitTimer;
     private Meter unsatCacheHits;
+    private Meter satCachePruned;
+    private Meter unsatCachePruned;
     private Timer unsatCacheTimer;
+    private Meter cacheAdditionsRejected;
+    private Timer cacheIngestionLatency;
+    private Meter cacheQueriesSkipped;
+    private Meter cacheQueriesAbandoned;
+    private Timer cacheQueriesAbandonedTimer;
+
+    // Identical queries in flight at the same time share a single search
+    private QueryCoalescer<QueryKey, ContainmentCacheSATResult> satQueries;
+    private QueryCoalescer<QueryKey, ContainmentCacheUNSATResult> unsatQueries;
 
     private volatile Map<Integer, Set<Station>> lastCachedAssignment = new HashMap<>();
 
-    private final Queue<ContainmentCacheRequest> pendingCacheAdditions = Queues.newArrayDeque();
+    // Requests waiting to be added to the cache. Its size is tracked separately so that it can be bounded without locking.
+    private final Queue<PendingCacheAddition> pendingCacheAdditions = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger numPendingCacheAdditions = new AtomicInteger();
+    private volatile boolean ingesting;
+    private volatile Thread ingestionThread;
+
+    // Answers the queries of batch requests concurrently, and the UNSAT halves of combined queries while their request thread searches the SAT cache
+    private ExecutorService queryExecutor;
+
+    // Deletes entries pruned from the cache from redis, off the thread adding entries
+    private final ExecutorService redisPruningExecutor = Executors.newSingleThreadExecutor(new SequentiallyNamedThreadFactory("SATFC Redis Pruning"));
 
     @PostConstruct
     void init() {
         cacheAdditions = registry.meter("cache.sat.additions");
         satCacheHits = registry.meter("cache.sat.hits");
         satCacheTimer = registry.timer("cache.sat.timer");
+        // Latency of hits only, whose percentiles are reported by the metrics servlet
+        satCacheHitTimer = registry.timer("cache.sat.hit.timer");
         unsatCacheHits = registry.meter("cache.unsat.hits");
         unsatCacheTimer = registry.timer("cache.unsat.timer");
+        satCachePruned = registry.meter("cache.sat.pruned");
+        unsatCachePruned = registry.meter("cache.unsat.pruned");
+        cacheAdditionsRejected = registry.meter("cache.ingestion.rejected");
+        // From the moment a request is received to the moment its entry is in the cache
+        cacheIngestionLatency = registry.timer("cache.ingestion.latency");
+        registry.register("cache.ingestion.queue.depth", (Gauge<Integer>) numPendingCacheAdditions::get);
+        // Queries no longer needed before their search began, each saving a whole search
+        cacheQueriesSkipped = registry.meter("cache.query.skipped");
+        // Searches given up midway because the client stopped waiting or the other half of a combined query found a proof
+        cacheQueriesAbandoned = registry.meter("cache.query.abandoned");
+        // Time spent on abandoned searches before giving up
+        cacheQueriesAbandonedTimer = registry.timer("cache.query.abandoned.timer");
+        // Queries answered by the search of an identical query, or from the memo of recent results, without searching themselves
+        final Meter cacheQueriesCoalesced = registry.meter("cache.query.coalesced");
+        final Meter cacheQueriesMemoHits = registry.meter("cache.query.memo.hits");
+        satQueries = new QueryCoalescer<>(parameters.getCacheQueryMemoTTL(), TimeUnit.MILLISECONDS, parameters.getCacheQueryMemoSize(), cacheQueriesCoalesced, cacheQueriesMemoHits);
+        unsatQueries = new QueryCoalescer<>(parameters.getCacheQueryMemoTTL(), TimeUnit.MILLISECONDS, parameters.getCacheQueryMemoSize(), cacheQueriesCoalesced, cacheQueriesMemoHits);
         registry.register("cache.sat.hitrate.fifteenminute", new RatioGauge() {
             @Override
             protected Ratio getRatio() {
@@ -137,6 +210,30 @@ public class ContainmentCacheController {
                 return Ratio.of(unsatCacheHits.getCount(), unsatCacheTimer.getCount());
             }
         });
+        queryExecutor = Executors.newFixedThreadPool(parameters.getCacheQueryThreads(), new SequentiallyNamedThreadFactory("SATFC Cache Query"));
+        ingesting = true;
+        ingestionThread = new SequentiallyNamedThreadFactory("SATFC Cache Ingestion").newThread(this::ingestCacheEntries);
+        ingestionThread.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        queryExecutor.shutdownNow();
+        ingesting = false;
+        LockSupport.unpark(ingestionThread);
+        try {
+            // The batch being ingested may still queue deletions of pruned entries
+            ingestionThread.join(TimeUnit.MINUTES.toMillis(1));
+            // Let the queued deletions finish, or redis keeps entries that are no longer in the cache
+            redisPruningExecutor.shutdown();
+            if (!redisPruningExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Gave up waiting for pruned entries to be deleted from redis");
+                redisPruningExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            redisPruningExecutor.shutdownNow();
+        }
     }
 
     @ExceptionHandler(ClientAbortException.class)
@@ -149,9 +246,41 @@ public class ContainmentCacheController {
     @RequestMapping(value = "/query/SAT", method = RequestMethod.POST, produces = JSON_CONTENT, consumes = MediaType.APPLICATION_JSON_VALUE)
     @ResponseBody
     public ContainmentCacheSATResult lookupSAT(
-            @RequestBody final ContainmentCacheRequest request
+            @RequestBody final ContainmentCacheRequest request,
+            @RequestHeader(value = ContainmentCacheProxy.TIMEOUT_HEADER, required = false) final Long timeout,
+            final HttpServletResponse response
     ) {
+        advertiseBinaryQueries(response);
+        return querySAT(request, toDeadline(timeout));
+    }
+
+    @RequestMapping(value = "/query/SAT", method = RequestMethod.POST, produces = JSON_CONTENT, consumes = ContainmentCacheQueryCodec.CONTENT_TYPE)
+    @ResponseBody
+    public ContainmentCacheSATResult lookupSATBinary(
+            @RequestBody final byte[] query,
+            @RequestHeader(value = ContainmentCacheProxy.TIMEOUT_HEADER, required = false) final Long timeout,
+            final HttpServletResponse response
+    ) throws HttpMediaTypeNotSupportedException {
+        final ContainmentCacheRequest request = decodeBinaryQuery(query);
+        advertiseBinaryQueries(response);
+        return querySAT(request, toDeadline(timeout));
+    }
+
+    private ContainmentCacheSATResult querySAT(ContainmentCacheRequest request, SearchDeadline deadline) {
+        if (isNoLongerNeeded(request, deadline)) {
+            return ContainmentCacheSATResult.failure();
+        }
+        if (!parameters.isCoalesceQueries()) {
+            return searchSAT(request, deadline);
+        }
+        // Which entries may answer the query depends on its auction when solutions from some auctions are excluded
+        final String auction = parameters.getBadsets() != null || parameters.isExcludeSameAuction() ? request.getInstance().getAuction() : null;
+        return satQueries.query(new QueryKey(request.getCoordinate(), StationPackingInstanceHasher.hash(request.getInstance()), auction), deadline, () -> searchSAT(request, deadline), result -> !deadline.isCutShort(), ContainmentCacheSATResult::isValid);
+    }
+
+    private ContainmentCacheSATResult searchSAT(ContainmentCacheRequest request, SearchDeadline deadline) {
         final Timer.Context context = satCacheTimer.time();
+        boolean hit = false;
         try {
             final StationPackingInstance instance = request.getInstance();
             final String description = instance.hasName() ? instance.getName() : instance.getInfo();
@@ -166,7 +295,7 @@ public class ContainmentCacheController {
                         return !badsets.get(auction).contains(c.getAuction());
                     }
                     return true;
-                });
+                }, deadline);
             } else if (parameters.isExcludeSameAuction()) {
                 final String auction = instance.getAuction();
                 containmentCacheSATResult = cache.proveSATBySuperset(instance, c -> {
@@ -174,19 +303,26 @@ public class ContainmentCacheController {
                         return !c.getAuction().equals(auction);
                     }
                     return true;
-                });
+                }, deadline);
             } else {
-                containmentCacheSATResult = cache.proveSATBySuperset(instance);
+                containmentCacheSATResult = cache.proveSATBySuperset(instance, unused -> true, deadline);
             }
             if (containmentCacheSATResult.isValid()) {
                 log.info("Query for SAT cache with coordinate {} for entry {} is a hit", request.getCoordinate(), description);
                 satCacheHits.mark();
+                hit = true;
+            } else if (deadline.isCutShort()) {
+                log.info("Query for SAT cache with coordinate {} for entry {} was abandoned", request.getCoordinate(), description);
             } else {
                 log.info("Query for SAT cache with coordinate {} for entry {} is a miss", request.getCoordinate(), description);
             }
             return containmentCacheSATResult;
         } finally {
-            context.stop();
+            final long elapsed = context.stop();
+            if (hit) {
+                satCacheHitTimer.update(elapsed, TimeUnit.NANOSECONDS);
+            }
+            recordAbandonment(deadline, elapsed);
         }
     }
 
@@ -195,24 +331,199 @@ public class ContainmentCacheController {
     @RequestMapping(value = "/query/UNSAT", method = RequestMethod.POST, produces = JSON_CONTENT, consumes = MediaType.APPLICATION_JSON_VALUE)
     @ResponseBody
     public ContainmentCacheUNSATResult lookupUNSAT(
-            @RequestBody final ContainmentCacheRequest request
+            @RequestBody final ContainmentCacheRequest request,
+            @RequestHeader(value = ContainmentCacheProxy.TIMEOUT_HEADER, required = false) final Long timeout,
+            final HttpServletResponse response
     ) {
+        advertiseBinaryQueries(response);
+        return queryUNSAT(request, toDeadline(timeout));
+    }
+
+    @RequestMapping(value = "/query/UNSAT", method = RequestMethod.POST, produces = JSON_CONTENT, consumes = ContainmentCacheQueryCodec.CONTENT_TYPE)
+    @ResponseBody
+    public ContainmentCacheUNSATResult lookupUNSATBinary(
+            @RequestBody final byte[] query,
+            @RequestHeader(value = ContainmentCacheProxy.TIMEOUT_HEADER, required = false) final Long timeout,
+            final HttpServletResponse response
+    ) throws HttpMediaTypeNotSupportedException {
+        final ContainmentCacheRequest request = decodeBinaryQuery(query);
+        advertiseBinaryQueries(response);
+        return queryUNSAT(request, toDeadline(timeout));
+    }
+
+    private ContainmentCacheUNSATResult queryUNSAT(ContainmentCacheRequest request, SearchDeadline deadline) {
+        if (isNoLongerNeeded(request, deadline)) {
+            return ContainmentCacheUNSATResult.failure();
+        }
+        if (!parameters.isCoalesceQueries()) {
+            return searchUNSAT(request, deadline);
+        }
+        return unsatQueries.query(new QueryKey(request.getCoordinate(), StationPackingInstanceHasher.hash(request.getInstance()), null), deadline, () -> searchUNSAT(request, deadline), result -> !deadline.isCutShort(), ContainmentCacheUNSATResult::isValid);
+    }
+
+    private ContainmentCacheUNSATResult searchUNSAT(ContainmentCacheRequest request, SearchDeadline deadline) {
         final Timer.Context context = unsatCacheTimer.time();
         try {
             final StationPackingInstance instance = request.getInstance();
             final String description = instance.hasName() ? instance.getName() : instance.getInfo();
             log.info("Querying the UNSAT cache with coordinate {} for entry {}", request.getCoordinate(), description);
             final ISatisfiabilityCache cache = containmentCacheLocator.locate(request.getCoordinate());
-            final ContainmentCacheUNSATResult result = cache.proveUNSATBySubset(instance);
+            final ContainmentCacheUNSATResult result = cache.proveUNSATBySubset(instance, deadline);
             if (result.isValid()) {
                 log.info("Query for UNSAT cache with coordinate {} for entry {} is a hit", request.getCoordinate(), description);
                 unsatCacheHits.mark();
+            } else if (deadline.isCutShort()) {
+                log.info("Query for UNSAT cache with coordinate {} for entry {} was abandoned", request.getCoordinate(), description);
             } else {
                 log.info("Query for UNSAT cache with coordinate {} for entry {} is a miss", request.getCoordinate(), description);
             }
             return result;
         } finally {
-            context.stop();
+            recordAbandonment(deadline, context.stop());
+        }
+    }
+
+    private static SearchDeadline toDeadline(Long timeout) {
+        return timeout == null ? SearchDeadline.none() : SearchDeadline.in(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    // True if the query's search would be wasted, for instance because it waited in a queue until its client gave up
+    private boolean isNoLongerNeeded(ContainmentCacheRequest request, SearchDeadline deadline) {
+        if (deadline.shouldStop()) {
+            log.info("Skipping the query with coordinate {} for entry {}, its answer is no longer needed", request.getCoordinate(), request.getInstance().getName());
+            cacheQueriesSkipped.mark();
+            return true;
+        }
+        return false;
+    }
+
+    private void recordAbandonment(SearchDeadline deadline, long elapsed) {
+        if (deadline.isCutShort()) {
+            cacheQueriesAbandoned.mark();
+            cacheQueriesAbandonedTimer.update(elapsed, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // note that while this is conceptually a GET request, the fact that we need to send json means that its simpler to achieve as a POST
+    @RequestMapping(value = "/query", method = RequestMethod.POST, produces = JSON_CONTENT, consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ContainmentCacheQueryResult lookupSATOrUNSAT(
+            @RequestBody final ContainmentCacheRequest request,
+            @RequestHeader(value = ContainmentCacheProxy.TIMEOUT_HEADER, required = false) final Long timeout,
+            final HttpServletResponse response
+    ) {
+        advertiseBinaryQueries(response);
+        return querySATOrUNSAT(request, timeout);
+    }
+
+    @RequestMapping(value = "/query", method = RequestMethod.POST, produces = JSON_CONTENT, consumes = ContainmentCacheQueryCodec.CONTENT_TYPE)
+    @ResponseBody
+    public ContainmentCacheQueryResult lookupSATOrUNSATBinary(
+            @RequestBody final byte[] query,
+            @RequestHeader(value = ContainmentCacheProxy.TIMEOUT_HEADER, required = false) final Long timeout,
+            final HttpServletResponse response
+    ) throws HttpMediaTypeNotSupportedException {
+        final ContainmentCacheRequest request = decodeBinaryQuery(query);
+        advertiseBinaryQueries(response);
+        return querySATOrUNSAT(request, timeout);
+    }
+
+    /**
+     * Search the SAT and the UNSAT cache concurrently, the SAT cache on the request thread so that the query does not
+     * wait behind batch queries for both of its halves
+     * @return the first proof found, or the failures of both searches
+     */
+    private ContainmentCacheQueryResult querySATOrUNSAT(ContainmentCacheRequest request, Long timeout) {
+        final SearchDeadline satDeadline = toDeadline(timeout);
+        final SearchDeadline unsatDeadline = toDeadline(timeout);
+        final Future<ContainmentCacheUNSATResult> unsatSearch = queryExecutor.submit(() -> {
+            final ContainmentCacheUNSATResult unsatResult = queryUNSAT(request, unsatDeadline);
+            if (unsatResult.isValid()) {
+                // The SAT search is no longer needed
+                satDeadline.abandon();
+            }
+            return unsatResult;
+        });
+        try {
+            final ContainmentCacheSATResult satResult = querySAT(request, satDeadline);
+            if (satResult.isValid()) {
+                return new ContainmentCacheQueryResult(satResult, null);
+            }
+            final ContainmentCacheUNSATResult unsatResult = unsatSearch.get();
+            if (unsatResult.isValid()) {
+                return new ContainmentCacheQueryResult(null, unsatResult);
+            }
+            return new ContainmentCacheQueryResult(satResult, unsatResult);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while searching the caches", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error searching the caches", e.getCause());
+        } finally {
+            // The UNSAT search is no longer needed once a proof is found. It stops on its own at its next check of the
+            // deadline, and is never started if it is still queued.
+            unsatDeadline.abandon();
+            unsatSearch.cancel(false);
+        }
+    }
+
+    // Tell clients that they can send their queries in binary, see ContainmentCacheQueryCodec
+    private void advertiseBinaryQueries(HttpServletResponse response) {
+        if (parameters.isBinaryQueries()) {
+            response.setHeader(ContainmentCacheQueryCodec.BINARY_QUERY_HEADER, ContainmentCacheQueryCodec.CONTENT_TYPE);
+        }
+    }
+
+    private ContainmentCacheRequest decodeBinaryQuery(byte[] query) throws HttpMediaTypeNotSupportedException {
+        if (!parameters.isBinaryQueries()) {
+            // Clients fall back to JSON
+            throw new HttpMediaTypeNotSupportedException("Binary queries are disabled");
+        }
+        return ContainmentCacheQueryCodec.decode(query, coordinate -> dataManager.getData(coordinate).getPermutation());
+    }
+
+    /**
+     * Answer several SAT and UNSAT queries at once, saving a round trip per query
+     * @return the results, in the order of the queries
+     */
+    @RequestMapping(value = "/query/batch", method = RequestMethod.POST, produces = JSON_CONTENT, consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public List<ContainmentCacheQueryResult> lookupBatch(
+            @RequestBody final List<ContainmentCacheQuery> queries,
+            @RequestHeader(value = ContainmentCacheProxy.TIMEOUT_HEADER, required = false) final Long timeout
+    ) {
+        log.info("Answering a batch of {} queries", queries.size());
+        final List<Future<ContainmentCacheQueryResult>> futures = queries.stream()
+                .map(query -> {
+                    // The client's timeout runs from now, not from when the query leaves the queue
+                    final SearchDeadline deadline = toDeadline(timeout);
+                    return queryExecutor.submit(() -> lookup(query, deadline));
+                })
+                .collect(Collectors.toList());
+        final List<ContainmentCacheQueryResult> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<ContainmentCacheQueryResult> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while answering a batch of queries", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error answering a batch of queries", e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+        return results;
+    }
+
+    private ContainmentCacheQueryResult lookup(ContainmentCacheQuery query, SearchDeadline deadline) {
+        final ContainmentCacheRequest request = new ContainmentCacheRequest(query.getInstance(), query.getCoordinate());
+        if (query.getKind().equals(SATResult.SAT)) {
+            return new ContainmentCacheQueryResult(querySAT(request, deadline), null);
+        } else if (query.getKind().equals(SATResult.UNSAT)) {
+            return new ContainmentCacheQueryResult(null, queryUNSAT(request, deadline));
+        } else {
+            throw new IllegalArgumentException("Can only query the SAT or the UNSAT cache, not " + query.getKind());
         }
     }
 
@@ -221,54 +532,199 @@ public class ContainmentCacheController {
     public void cache(
             @RequestBody final ContainmentCacheRequest request
     ) {
+        final SATResult result = request.getResult() == null ? null : request.getResult().getResult();
+        if (!SATResult.SAT.equals(result) && !SATResult.UNSAT.equals(result)) {
+            throw new InvalidCacheAdditionException();
+        }
         // Just dump the entry and return - we don't want to delay the SATFC thread
-        pendingCacheAdditions.add(request);
+        if (numPendingCacheAdditions.incrementAndGet() > parameters.getCacheIngestionQueueCapacity()) {
+            numPendingCacheAdditions.decrementAndGet();
+            cacheAdditionsRejected.mark();
+            throw new CacheAdditionsFullException();
+        }
+        pendingCacheAdditions.add(new PendingCacheAddition(request, System.nanoTime()));
+        LockSupport.unpark(ingestionThread);
+    }
+
+    /**
+     * Entries are not added when there are already too many waiting to be added, so that the pending additions fit in
+     * memory. Clients log the rejection and do not retry.
+     */
+    @ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE, reason = "Too many cache additions are pending")
+    static class CacheAdditionsFullException extends RuntimeException {
+    }
+
+    @ResponseStatus(value = HttpStatus.BAD_REQUEST, reason = "Only SAT and UNSAT results can be cached")
+    static class InvalidCacheAdditionException extends RuntimeException {
+    }
+
+    // Identifies identical queries
+    @Value
+    private static class QueryKey {
+        CacheCoordinate coordinate;
+        HashCode instanceHash;
+        // Null when the auction does not matter
+        String auction;
+    }
+
+    @Value
+    private static class PendingCacheAddition {
+        ContainmentCacheRequest request;
+        long receivedNanos;
     }
 
-    @Scheduled(fixedDelay = 5000, initialDelay = 5000)
-    public void addCacheEntries() {
-        log.debug("Waking up to check list of potential cache additions");
-        while (!pendingCacheAdditions.isEmpty()) {
-            final ContainmentCacheRequest request = pendingCacheAdditions.poll();
-            final SolverResult result = request.getResult();
-            if ((result.getResult().equals(SATResult.UNSAT) && parameters.isSkipUNSAT()) || result.getResult().equals(SATResult.SAT) && parameters.isSkipSAT()) {
+    @Value
+    private static class AdmittedCacheAddition {
+        PendingCacheAddition addition;
+        ISatisfiabilityCache cache;
+        StationPackingInstance instance;
+        SolverResult result;
+        ISATFCCacheEntry entry;
+    }
+
+    // Adds the pending requests to the cache a batch at a time, as soon as they arrive
+    private void ingestCacheEntries() {
+        final List<PendingCacheAddition> batch = new ArrayList<>();
+        while (ingesting) {
+            PendingCacheAddition addition;
+            while (batch.size() < parameters.getCacheIngestionBatchSize() && (addition = pendingCacheAdditions.poll()) != null) {
+                numPendingCacheAdditions.decrementAndGet();
+                batch.add(addition);
+            }
+            if (batch.isEmpty()) {
+                // Woken up by the next request, the timeout is only there to notice the controller stopping
+                LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
                 continue;
             }
-            final StationPackingInstance instance = request.getInstance();
-            final String description = instance.hasName() ? instance.getName() : instance.getInfo();
+            try {
+                addCacheEntries(batch);
+            } catch (Exception e) {
+                log.error("Error adding a batch of {} entries to the cache", batch.size(), e);
+            }
+            batch.clear();
+        }
+    }
 
-            final ISatisfiabilityCache cache = containmentCacheLocator.locate(request.getCoordinate());
+    private void addCacheEntries(List<PendingCacheAddition> batch) {
+        log.debug("Adding a batch of {} potential cache additions", batch.size());
+        // The admission checks are cache queries, run them for the whole batch at once
+        List<AdmittedCacheAddition> admitted = batch.parallelStream()
+                .map(addition -> {
+                    try {
+                        return admit(addition);
+                    } catch (Exception e) {
+                        // Only drop this request, not the whole batch
+                        log.error("Error checking whether to add an entry to the cache with coordinate {}", addition.getRequest().getCoordinate(), e);
+                        return null;
+                    }
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        // The checks do not see the other entries of the batch, drop the entries that an earlier one makes redundant
+        final List<AdmittedCacheAddition> nonRedundant = new ArrayList<>(admitted.size());
+        for (AdmittedCacheAddition admission : admitted) {
+            if (nonRedundant.stream().noneMatch(other -> dominates(other, admission))) {
+                nonRedundant.add(admission);
+            } else {
+                final StationPackingInstance instance = admission.getAddition().getRequest().getInstance();
+                log.info("Not adding entry {} to cache {}. An earlier entry of the batch has its info", instance.hasName() ? instance.getName() : instance.getInfo(), admission.getAddition().getRequest().getCoordinate());
+            }
+        }
+        admitted = nonRedundant;
+        if (admitted.isEmpty()) {
+            return;
+        }
 
-            final InstanceAndResult transformedInstanceAndResult = cacheEntryTransformer.transform(instance, result);
-            if (transformedInstanceAndResult != null) {
-                final StationPackingInstance transformedInstance = transformedInstanceAndResult.getInstance();
-                final SolverResult transformedResult = transformedInstanceAndResult.getResult();
-
-                if (cacheEntryFilter.shouldCache(request.getCoordinate(), transformedInstance, transformedResult)) {
-                    final String key;
-                    if (result.getResult().equals(SATResult.SAT)) {
-                        final ContainmentCacheSATEntry entry = new ContainmentCacheSATEntry(transformedResult.getAssignment(), cache.getPermutation());
-                        key = cacher.cacheResult(request.getCoordinate(), entry, transformedInstance.hasName() ? transformedInstance.getName() : null);
-                        entry.setKey(key);
-                        cache.add(entry);
-                        lastCachedAssignment = transformedResult.getAssignment();
-                    } else if (result.getResult().equals(SATResult.UNSAT)) {
-                        final ContainmentCacheUNSATEntry entry = new ContainmentCacheUNSATEntry(transformedInstance.getDomains(), cache.getPermutation());
-                        cache.add(entry);
-                        key = cacher.cacheResult(request.getCoordinate(), entry, transformedInstance.hasName() ? transformedInstance.getName() : null);
-                        entry.setKey(key);
-                    } else {
-                        throw new IllegalStateException("Tried adding a result that was neither SAT or UNSAT");
+        // add to permanent storage
+        final List<String> keys = cacher.cacheResults(
+                admitted.stream().map(admission -> admission.getAddition().getRequest().getCoordinate()).collect(Collectors.toList()),
+                admitted.stream().map(AdmittedCacheAddition::getEntry).collect(Collectors.toList()),
+                admitted.stream().map(admission -> admission.getInstance().hasName() ? admission.getInstance().getName() : null).collect(Collectors.toList()));
+
+        for (int i = 0; i < admitted.size(); i++) {
+            final AdmittedCacheAddition admission = admitted.get(i);
+            final String key = keys.get(i);
+            final ISatisfiabilityCache cache = admission.getCache();
+            final StationPackingInstance instance = admission.getAddition().getRequest().getInstance();
+            final String description = instance.hasName() ? instance.getName() : instance.getInfo();
+            if (admission.getEntry() instanceof ContainmentCacheSATEntry) {
+                final ContainmentCacheSATEntry entry = (ContainmentCacheSATEntry) admission.getEntry();
+                entry.setKey(key);
+                if (parameters.isPruneOnInsert()) {
+                    final List<ContainmentCacheSATEntry> prunedEntries = cache.addAndPrune(entry);
+                    if (!prunedEntries.isEmpty()) {
+                        log.info("Entry {} dominates {} SAT entries, pruning them", key, prunedEntries.size());
+                        satCachePruned.mark(prunedEntries.size());
+                        cacheSnapshotService.logDeletions(prunedEntries);
+                        redisPruningExecutor.submit(() -> cacher.deleteSATCollection(prunedEntries));
+                    }
+                } else {
+                    cache.add(entry);
+                }
+                lastCachedAssignment = admission.getResult().getAssignment();
+            } else {
+                final ContainmentCacheUNSATEntry entry = (ContainmentCacheUNSATEntry) admission.getEntry();
+                entry.setKey(key);
+                if (parameters.isPruneOnInsert()) {
+                    final List<ContainmentCacheUNSATEntry> prunedEntries = cache.addAndPrune(entry);
+                    if (!prunedEntries.isEmpty()) {
+                        log.info("Entry {} dominates {} UNSAT entries, pruning them", key, prunedEntries.size());
+                        unsatCachePruned.mark(prunedEntries.size());
+                        cacheSnapshotService.logDeletions(prunedEntries);
+                        redisPruningExecutor.submit(() -> cacher.deleteUNSATCollection(prunedEntries));
                     }
-                    log.info("Adding entry to the cache with coordinate {} with key {}. Entry {}", request.getCoordinate(), key, description);
-                    // add to permanent storage
-                    cacheAdditions.mark();
                 } else {
-                    log.info("Not adding entry {} to cache {}. No new info", request.getCoordinate(), description);
+                    cache.add(entry);
                 }
             }
+            cacheSnapshotService.logAddition(admission.getEntry());
+            log.info("Adding entry to the cache with coordinate {} with key {}. Entry {}", admission.getAddition().getRequest().getCoordinate(), key, description);
+            cacheAdditions.mark();
+            cacheIngestionLatency.update(System.nanoTime() - admission.getAddition().getReceivedNanos(), TimeUnit.NANOSECONDS);
+        }
+        cacheSnapshotService.syncLog();
+    }
+
+    // Whether the entry of the first addition answers every query that the entry of the second one does
+    private static boolean dominates(AdmittedCacheAddition dominating, AdmittedCacheAddition dominated) {
+        if (dominating.getCache() != dominated.getCache()) {
+            return false;
+        }
+        if (dominating.getEntry() instanceof ContainmentCacheSATEntry && dominated.getEntry() instanceof ContainmentCacheSATEntry) {
+            return ((ContainmentCacheSATEntry) dominating.getEntry()).hasMoreSolvingPower((ContainmentCacheSATEntry) dominated.getEntry());
+        }
+        if (dominating.getEntry() instanceof ContainmentCacheUNSATEntry && dominated.getEntry() instanceof ContainmentCacheUNSATEntry) {
+            return ((ContainmentCacheUNSATEntry) dominating.getEntry()).isLessRestrictive((ContainmentCacheUNSATEntry) dominated.getEntry());
         }
-        log.debug("Done checking potential cache additions");
+        return false;
+    }
+
+    // Returns null if the request should not be added to the cache
+    private AdmittedCacheAddition admit(PendingCacheAddition addition) {
+        final ContainmentCacheRequest request = addition.getRequest();
+        final SolverResult result = request.getResult();
+        if ((result.getResult().equals(SATResult.UNSAT) && parameters.isSkipUNSAT()) || result.getResult().equals(SATResult.SAT) && parameters.isSkipSAT()) {
+            return null;
+        }
+        final StationPackingInstance instance = request.getInstance();
+        final String description = instance.hasName() ? instance.getName() : instance.getInfo();
+
+        final ISatisfiabilityCache cache = containmentCacheLocator.locate(request.getCoordinate());
+
+        final InstanceAndResult transformedInstanceAndResult = cacheEntryTransformer.transform(instance, result);
+        if (transformedInstanceAndResult == null) {
+            return null;
+        }
+        final StationPackingInstance transformedInstance = transformedInstanceAndResult.getInstance();
+        final SolverResult transformedResult = transformedInstanceAndResult.getResult();
+        if (!cacheEntryFilter.shouldCache(request.getCoordinate(), transformedInstance, transformedResult)) {
+            log.info("Not adding entry {} to cache {}. No new info", request.getCoordinate(), description);
+            return null;
+        }
+        final ISATFCCacheEntry entry = result.getResult().equals(SATResult.SAT) ?
+                new ContainmentCacheSATEntry(transformedResult.getAssignment(), cache.getPermutation()) :
+                new ContainmentCacheUNSATEntry(transformedInstance.getDomains(), cache.getPermutation());
+        return new AdmittedCacheAddition(addition, cache, transformedInstance, transformedResult, entry);
     }
 
     @RequestMapping(value = "/filterSAT", method = RequestMethod.POST)
@@ -280,7 +736,9 @@ public class ContainmentCacheController {
             List<ContainmentCacheSATEntry> SATPrunables = cache.filterSAT(dataManager.getData(cacheCoordinate).getStationManager(), strong);
             log.info("Pruning {} SAT entries from Redis", SATPrunables.size());
             cacher.deleteSATCollection(SATPrunables);
+            cacheSnapshotService.logDeletions(SATPrunables);
         });
+        cacheSnapshotService.syncLog();
         log.info("Filter completed");
     }
 
@@ -293,11 +751,33 @@ public class ContainmentCacheController {
             final List<ContainmentCacheUNSATEntry> UNSATPrunables = cache.filterUNSAT();
             log.info("Pruning {} UNSAT entries from Redis", UNSATPrunables.size());
             cacher.deleteUNSATCollection(UNSATPrunables);
+            cacheSnapshotService.logDeletions(UNSATPrunables);
         });
+        cacheSnapshotService.syncLog();
         log.info("Filter completed");
     }
 
 
+    /**
+     * Add back entries that were evicted from memory to stay within the cache memory budget, while there is room
+     */
+    @RequestMapping(value = "/reloadEvicted", method = RequestMethod.POST)
+    @ResponseBody
+    public void reloadEvicted() {
+        containmentCacheLocator.getCoordinates().forEach(cacheCoordinate -> {
+            final ISatisfiabilityCache cache = containmentCacheLocator.locate(cacheCoordinate);
+            final int numReloaded = cache.reloadEvicted(key -> {
+                try {
+                    return cacher.cacheEntryFromKey(key);
+                } catch (Exception e) {
+                    log.warn("Could not reload evicted entry {} from redis", key, e);
+                    return null;
+                }
+            });
+            log.info("Reloaded {} evicted entries into the cache with coordinate {}", numReloaded, cacheCoordinate);
+        });
+    }
+
     /**
      * Return the last solved SAT problem you know about
      */
@@ -314,7 +794,7 @@ public class ContainmentCacheController {
     @RequestMapping(value = "/n_pending_additions", method = RequestMethod.GET)
     @ResponseBody
     public int getNumFiltering() {
-        return pendingCacheAdditions.size();
+        return numPendingCacheAdditions.get();
     }
 
 }
\ No newline at end of file